@@ -21,12 +21,18 @@
 package org.openmuc.j62056;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
+import org.openmuc.j62056.archive.TelegramArchive;
+import org.openmuc.j62056.capture.CaptureWriter;
 import org.openmuc.j62056.config.Mode;
+import org.openmuc.j62056.config.OverflowPolicy;
 import org.openmuc.j62056.impl.AbstractConnection;
 import org.openmuc.j62056.impl.ModeCConnection;
 import org.openmuc.j62056.impl.ModeDConnection;
+import org.openmuc.j62056.metrics.ProtocolTracer;
 
 public class Connection {
 
@@ -129,6 +135,18 @@ public class Connection {
 
     }
 
+    /**
+     * Opens the connection on the given streams instead of the serial port,
+     * e.g. to replay a capture log with a <code>ReplayInputStream</code>. The
+     * serial port settings are not applied.
+     *
+     * @param is the stream of the bytes received from the meter
+     * @param os the stream of the bytes sent to the meter
+     */
+    public void open(InputStream is, OutputStream os) {
+	connection.open(is, os);
+    }
+
     /**
      * Closes the serial port.
      */
@@ -153,6 +171,223 @@ public class Connection {
 	return connection.read();
     }
 
+    /**
+     * Requests a data message from the remote device and returns the data
+     * sets together with the lines which could not be parsed.
+     *
+     * @return the readout
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device. Note that the connection is not closed
+     * when an IOException is thrown.
+     * @throws TimeoutException if no response at all (not even a single byte)
+     * was received from the meter within the timeout span.
+     */
+    public Readout readout() throws IOException, TimeoutException {
+	return connection.readout();
+    }
+
+    /**
+     * Requests a data message from the remote device with the given device
+     * address using IEC 62056-21 Mode C. The address selects one of several
+     * meters connected to the same bus, e.g. RS-485.
+     *
+     * @param deviceAddress the device address of the meter
+     * @return A list of data sets contained in the data message response from
+     * the remote device. The first data set will contain the "identification"
+     * of the meter as the id and empty strings for value and unit.
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device. Note that the connection is not closed
+     * when an IOException is thrown.
+     * @throws TimeoutException if no response at all (not even a single byte)
+     * was received from the meter within the timeout span.
+     * @throws UnsupportedOperationException if the mode of the connection does
+     * not support addressed requests
+     */
+    public List<DataSet> read(String deviceAddress) throws IOException, TimeoutException {
+	return connection.read(deviceAddress);
+    }
+
+    /**
+     * Requests a data message from the remote device with the given device
+     * address and returns the data sets together with the lines which could
+     * not be parsed.
+     *
+     * @param deviceAddress the device address of the meter, NULL or empty to
+     * send the request without an address
+     * @return the readout
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device.
+     * @throws TimeoutException if no response at all (not even a single byte)
+     * was received from the meter within the timeout span.
+     */
+    public Readout readout(String deviceAddress) throws IOException, TimeoutException {
+	return connection.readout(deviceAddress);
+    }
+
+    /**
+     * Starts a continuous subscription of the telegrams pushed by a Mode D
+     * meter. The serial port is configured once and the telegrams are read
+     * back to back until the subscription is closed. <code>read()</code> must
+     * not be called while the subscription is active.
+     *
+     * @param listener the listener receiving the telegrams
+     * @param queueCapacity the maximum number of telegrams waiting for the
+     * listener
+     * @param overflowPolicy what to do with new telegrams if the listener is
+     * too slow
+     * @return the subscription
+     * @throws IOException if the serial port can not be configured
+     * @throws UnsupportedOperationException if the connection does not use
+     * Mode D
+     */
+    public Subscription subscribe(TelegramListener listener, int queueCapacity, OverflowPolicy overflowPolicy) throws IOException {
+	if (!(connection instanceof ModeDConnection)) {
+	    throw new UnsupportedOperationException("Continuous subscriptions are only supported in Mode D");
+	}
+	return ((ModeDConnection) connection).subscribe(listener, queueCapacity, overflowPolicy);
+    }
+
+    public boolean isRecoverMalformedLines() {
+	return connection.isRecoverMalformedLines();
+    }
+
+    /**
+     * Enables the recovery of malformed lines. A data line which can not be
+     * parsed, e.g. because of a flipped bit, is then skipped up to the next
+     * CR+LF and returned with <code>Readout.getMalformedLines()</code> instead
+     * of failing the whole readout.
+     *
+     * @param recoverMalformedLines true to skip malformed lines
+     */
+    public void setRecoverMalformedLines(boolean recoverMalformedLines) {
+	connection.setRecoverMalformedLines(recoverMalformedLines);
+    }
+
+    public boolean isReturnPartialResults() {
+	return connection.isReturnPartialResults();
+    }
+
+    /**
+     * Enables partial results. If the meter stops sending in the middle of
+     * the data message, the data lines received so far are returned with
+     * <code>readout()</code> as an incomplete readout instead of throwing a
+     * <code>MessageNotCompleteException</code>.
+     *
+     * @param returnPartialResults true to return the complete lines of an
+     * interrupted data message
+     */
+    public void setReturnPartialResults(boolean returnPartialResults) {
+	connection.setReturnPartialResults(returnPartialResults);
+    }
+
+    public int getParallelParseThreshold() {
+	return connection.getParallelParseThreshold();
+    }
+
+    /**
+     * Enables the parallel parsing of large data messages, e.g. load profiles.
+     * The data block of a message with at least the given number of bytes is
+     * split at the ends of data lines and the parts are parsed concurrently.
+     *
+     * @param parallelParseThreshold the minimum size in bytes of a data block
+     * which is parsed in parallel, 0 to always parse sequentially
+     */
+    public void setParallelParseThreshold(int parallelParseThreshold) {
+	connection.setParallelParseThreshold(parallelParseThreshold);
+    }
+
+    public boolean isDetectEcho() {
+	return connection.isDetectEcho();
+    }
+
+    /**
+     * Detects whether the optical transceiver echoes the sent bytes. The echo
+     * is removed while receiving, the detection stops expecting an echo if
+     * the meter answered several requests without one. Without this option
+     * echos are only removed if the connection was created with handleEcho.
+     *
+     * @param detectEcho true to detect and remove echos
+     */
+    public void setDetectEcho(boolean detectEcho) {
+	connection.setDetectEcho(detectEcho);
+    }
+
+    /**
+     * Checks if an echo of the sent bytes was received and removed.
+     *
+     * @return true if an echo was detected
+     */
+    public boolean isEchoDetected() {
+	return connection.isEchoDetected();
+    }
+
+    public boolean isChangesOnly() {
+	return connection.isChangesOnly();
+    }
+
+    /**
+     * Returns only the data sets which changed since the previous readout of
+     * the same meter. Each data line is compared with the line at the same
+     * position of the previous data message, only the changed lines are
+     * parsed. If nothing changed, the readout contains only the
+     * identification and <code>Readout.isUnchanged()</code> returns true.
+     * Interrupted data messages are always parsed completely.
+     *
+     * @param changesOnly true to return only the changed data sets
+     */
+    public void setChangesOnly(boolean changesOnly) {
+	connection.setChangesOnly(changesOnly);
+    }
+
+    public boolean isSoftwareParity() {
+	return connection.isSoftwareParity();
+    }
+
+    /**
+     * Handles 7 data bits with even parity in software. The serial port is
+     * then kept at 8 data bits without parity and only its baud rate is
+     * changed, which is much faster on many USB and network converters. The
+     * parity bit is added to every sent character and checked for every
+     * received character, a character with a wrong parity bit is replaced by
+     * SUB (0x1A) and counted in the metrics.
+     *
+     * @param softwareParity true to handle 7E1 in software
+     */
+    public void setSoftwareParity(boolean softwareParity) {
+	connection.setSoftwareParity(softwareParity);
+    }
+
+    public int getPipelineBufferSize() {
+	return connection.getPipelineBufferSize();
+    }
+
+    /**
+     * Enables the pipeline mode. A dedicated thread then drains the serial
+     * port into a ring buffer of the given size while the connection parses,
+     * so a slow parser does not let the receive buffer of the port overflow.
+     * Takes effect when the connection is opened.
+     *
+     * @param pipelineBufferSize the size of the ring buffer in bytes, a power
+     * of two, 0 to read the serial port directly
+     */
+    public void setPipelineBufferSize(int pipelineBufferSize) {
+	connection.setPipelineBufferSize(pipelineBufferSize);
+    }
+
+    public int getMaxMessageLength() {
+	return connection.getMaxMessageLength();
+    }
+
+    /**
+     * Sets the maximum length of a received message. The receive buffer starts
+     * small and grows up to this length.
+     *
+     * @param maxMessageLength the maximum length in bytes
+     */
+    public void setMaxMessageLength(int maxMessageLength) {
+	connection.setMaxMessageLength(maxMessageLength);
+    }
+
     public int getParity() {
 	return connection.getParity();
     }
@@ -177,6 +412,105 @@ public class Connection {
 	connection.setStopbits(stopbits);
     }
 
+    public boolean isDirectOpen() {
+	return connection.isDirectOpen();
+    }
+
+    /**
+     * Opens device paths like "/dev/ttyUSB0" directly instead of looking them
+     * up with <code>CommPortIdentifier</code>, which enumerates and probes all
+     * serial ports of the machine. Has to be set before calling
+     * <code>open()</code>.
+     *
+     * @param directOpen true to open the port directly
+     */
+    public void setDirectOpen(boolean directOpen) {
+	connection.setDirectOpen(directOpen);
+    }
+
+    /**
+     * Sets the tracer which receives an event for every completed protocol
+     * phase, e.g. to write it to a flight recording.
+     *
+     * @param tracer the tracer, NULL to disable tracing
+     */
+    public void setTracer(ProtocolTracer tracer) {
+	connection.setTracer(tracer);
+    }
+
+    /**
+     * Adds a listener which receives every readout of this connection.
+     *
+     * @param listener the listener
+     */
+    public void addReadoutListener(ReadoutListener listener) {
+	connection.addReadoutListener(listener);
+    }
+
+    public void removeReadoutListener(ReadoutListener listener) {
+	connection.removeReadoutListener(listener);
+    }
+
+    /**
+     * Returns the last exception thrown by a readout listener. A failing
+     * listener never fails a readout.
+     *
+     * @return the exception or NULL
+     */
+    public RuntimeException getListenerError() {
+	return connection.getListenerError();
+    }
+
+    public TelegramArchive getArchive() {
+	return connection.getArchive();
+    }
+
+    /**
+     * Sets an archive which receives the raw bytes of every complete data
+     * message, in mode D every telegram. The archive is not closed by the
+     * connection.
+     *
+     * @param archive the archive, NULL to stop archiving
+     */
+    public void setArchive(TelegramArchive archive) {
+	connection.setArchive(archive);
+    }
+
+    /**
+     * Returns the error which stopped the archiving. A failing archive is
+     * detached, it never fails a readout.
+     *
+     * @return the last error of an archive or NULL
+     */
+    public IOException getArchiveError() {
+	return connection.getArchiveError();
+    }
+
+    public CaptureWriter getCapture() {
+	return connection.getCapture();
+    }
+
+    /**
+     * Sets a capture writer which records every byte sent and received by
+     * this connection with its timing. The writer is not closed by the
+     * connection.
+     *
+     * @param capture the capture writer, NULL to stop capturing
+     */
+    public void setCapture(CaptureWriter capture) {
+	connection.setCapture(capture);
+    }
+
+    /**
+     * Returns the error which stopped the capture log. A failing capture
+     * writer is detached, it never fails a readout.
+     *
+     * @return the last error of a capture writer or NULL
+     */
+    public IOException getCaptureError() {
+	return connection.getCaptureError();
+    }
+
     public int getBaudRate() {
 	return connection.getBaudRate();
     }
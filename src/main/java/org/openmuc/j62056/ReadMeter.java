@@ -20,18 +20,39 @@
  */
 package org.openmuc.j62056;
 
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 import org.openmuc.j62056.config.Mode;
 import org.openmuc.j62056.config.Parity;
+import org.openmuc.j62056.profile.LinkProfileProber;
+import org.openmuc.j62056.profile.LinkProfileStore;
+import org.openmuc.j62056.sink.CsvFormatter;
+import org.openmuc.j62056.sink.InfluxLineFormatter;
+import org.openmuc.j62056.sink.JsonLinesFormatter;
+import org.openmuc.j62056.sink.ReadoutFormatter;
+import org.openmuc.j62056.sink.ReadoutSink;
 
 public class ReadMeter {
 
     private static void printUsage() {
-	System.out.println("SYNOPSIS\n\torg.openmuc.j62056.ReadMeter [-e] [-d <baud_rate_change_delay>] [-m <mode>] [-rt <read timeout>] [-br <baudrate>] [-p <parity>] [-db <databits>] [-sb <stop bits>] <serial_port>");
+	System.out.println("SYNOPSIS\n\torg.openmuc.j62056.ReadMeter [-e] [-d <baud_rate_change_delay>] [-m <mode>] [-rt <read timeout>] [-br <baudrate>] [-p <parity>] [-db <databits>] [-sb <stop bits>] [-j <max parallel reads>] [-f <config_file>] [-a <profile_file>] [-o <output_format>] [-of <output_file>] <serial_port>...");
 	System.out.println("DESCRIPTION\n\tReads the meter connected to the given serial port and prints the received data to stdout. First prints the identification string received from the meter. Then the data sets received are printed. Each data set is printed on a single line with the format: \"<id>;<value>;<unit>\". Errors are printed to stderr.");
+	System.out.println("\tIf more than one serial port is given (on the command line or in a config file) the ports are read in parallel. The result of each port is printed as soon as it is read and every line is prefixed with the port: \"<serial_port>;<id>;<value>;<unit>\".");
 	System.out.println("OPTIONS");
 	System.out.println("\t<serial_port>\n\t    The serial port used for communication. Examples are /dev/ttyS0 (Linux) or COM1 (Windows)\n");
 	System.out.println("\t-e\n\t    Enable handling of echos caused by some optical tranceivers\n");
@@ -42,161 +63,190 @@ public class ReadMeter {
 	System.out.println("\t-p <parity>\n\t    if you have to change the parity, default depends on the mode\n");
 	System.out.println("\t-db <databits>\n\t    if you have to change the databits, default depends on the mode\n");
 	System.out.println("\t-sb <stop bits>\n\t    if you have to change the stop bits, default depends on the mode\n");
+	System.out.println("\t-j <max parallel reads>\n\t    maximum number of ports read at the same time, default is the number of ports\n");
+	System.out.println("\t-f <config_file>\n\t    file with one serial port per line followed by the options for this port, e.g. \"/dev/ttyUSB0 -m d -d 250\". The options given on the command line are used as defaults. Empty lines and lines starting with '#' are ignored.\n");
+	System.out.println("\t-a <profile_file>\n\t    detect the mode, echo, baud rate change delay and serial parameters of each port automatically. The detected settings are stored in the given file and used for the next reads, the options of the port are ignored.\n");
+	System.out.println("\t-o <output_format>\n\t    write the readouts as csv (one line per data set: \"<timestamp>;<serial_port>;<device_address>;<identification>;<id>;<value>;<unit>\"), json (one JSON object per readout and line) or influx (InfluxDB line protocol). The output is written in batches by a background thread.\n");
+	System.out.println("\t-of <output_file>\n\t    append the output to the given file instead of stdout, implies -o csv if no output format is given\n");
     }
 
     public static void main(String[] args) {
-	if (args.length < 1 || args.length > 17) {
+	if (args.length < 1) {
 	    printUsage();
 	    System.exit(1);
 	}
 
-	String serialPortName = "";
-	boolean echoHandling = false;
-	int baudRateChangeDelay = 0;
-	Mode mode = Mode.C;
-	int readTimeout = -1;
-	int baudRate = -1;
-	Parity parity = null;
-	int dataBits = -1;
-	int stopBits = -1;
+	PortSettings defaults = new PortSettings();
+	List<String> serialPortNames = new ArrayList<>();
+	String configFile = null;
+	String profileFile = null;
+	String outputFormat = null;
+	String outputFile = null;
+	int maxParallelReads = -1;
 	for (int i = 0; i < args.length; i++) {
 	    switch (args[i]) {
-		case "-e":
-		    echoHandling = true;
-		    break;
-		case "-d":
+		case "-f":
 		    i++;
 		    if (i == args.length) {
 			printUsage();
 			System.exit(1);
 		    }
-		    try {
-			baudRateChangeDelay = Integer.parseInt(args[i]);
-		    } catch (NumberFormatException e) {
-			printUsage();
-			System.exit(1);
-		    }
-		    break;
-		case "-m":
-		    i++;
-		    if (i == args.length) {
-			printUsage();
-			System.exit(1);
-		    }
-		    try {
-			mode = Mode.valueOf(args[i].toUpperCase());
-		    } catch (IllegalArgumentException | NullPointerException e) {
-			printUsage();
-			System.exit(1);
-		    }
+		    configFile = args[i];
 		    break;
-		case "-rt":
+		case "-a":
 		    i++;
 		    if (i == args.length) {
 			printUsage();
 			System.exit(1);
 		    }
-		    try {
-			readTimeout = Integer.parseInt(args[i]);
-		    } catch (NumberFormatException e) {
-			printUsage();
-			System.exit(1);
-		    }
+		    profileFile = args[i];
 		    break;
-		case "-br":
+		case "-o":
 		    i++;
 		    if (i == args.length) {
 			printUsage();
 			System.exit(1);
 		    }
-		    try {
-			baudRate = Integer.parseInt(args[i]);
-		    } catch (NumberFormatException e) {
-			printUsage();
-			System.exit(1);
-		    }
+		    outputFormat = args[i];
 		    break;
-		case "-db":
+		case "-of":
 		    i++;
 		    if (i == args.length) {
 			printUsage();
 			System.exit(1);
 		    }
-		    try {
-			dataBits = Integer.parseInt(args[i]);
-		    } catch (NumberFormatException e) {
-			printUsage();
-			System.exit(1);
-		    }
+		    outputFile = args[i];
 		    break;
-		case "-sb":
+		case "-j":
 		    i++;
 		    if (i == args.length) {
 			printUsage();
 			System.exit(1);
 		    }
 		    try {
-			stopBits = Integer.parseInt(args[i]);
+			maxParallelReads = Integer.parseInt(args[i]);
 		    } catch (NumberFormatException e) {
 			printUsage();
 			System.exit(1);
 		    }
 		    break;
-		case "-p":
-		    i++;
-		    if (i == args.length) {
-			printUsage();
-			System.exit(1);
-		    }
-		    try {
-			parity = Parity.convert(args[i]);
-		    } catch (NumberFormatException e) {
+		default:
+		    int next = defaults.parseOption(args, i);
+		    if (next < 0) {
 			printUsage();
 			System.exit(1);
+		    } else if (next == i && !args[i].startsWith("-")) {
+			serialPortNames.add(args[i]);
 		    }
-		    break;
-		default:
-		    serialPortName = args[i];
+		    i = next;
 		    break;
 	    }
 	}
 
-	Connection connection = new Connection(serialPortName, echoHandling, baudRateChangeDelay, mode);
+	List<PortSettings> ports = new ArrayList<>();
+	for (String serialPortName : serialPortNames) {
+	    PortSettings settings = defaults.copy();
+	    settings.serialPortName = serialPortName;
+	    ports.add(settings);
+	}
+	if (null != configFile) {
+	    try {
+		ports.addAll(readConfigFile(configFile, defaults));
+	    } catch (IOException e) {
+		System.err.println("Failed to read config file: " + e.getMessage());
+		System.exit(1);
+	    }
+	}
 
-	if (readTimeout > -1) {
-	    connection.setTimeout(readTimeout);
+	if (ports.isEmpty()) {
+	    printUsage();
+	    System.exit(1);
 	}
-	if (baudRate > 0) {
-	    connection.setBaudRate(baudRate);
+
+	if (null != profileFile) {
+	    LinkProfileProber prober;
+	    try {
+		prober = new LinkProfileProber(new LinkProfileStore(Paths.get(profileFile)));
+	    } catch (IOException e) {
+		System.err.println("Failed to read profile file: " + e.getMessage());
+		System.exit(1);
+		return;
+	    }
+	    if (defaults.readTimeout > -1) {
+		prober.setTimeout(defaults.readTimeout);
+	    }
+	    for (PortSettings settings : ports) {
+		settings.prober = prober;
+	    }
 	}
-	if (null != parity) {
-	    connection.setParity(parity.value);
+
+	ReadoutSink sink = null;
+	if ((null != outputFormat) || (null != outputFile)) {
+	    ReadoutFormatter formatter = createFormatter((null == outputFormat) ? "csv" : outputFormat);
+	    if (null == formatter) {
+		printUsage();
+		System.exit(1);
+	    }
+	    OutputStream os = System.out;
+	    if (null != outputFile) {
+		try {
+		    os = new FileOutputStream(outputFile, true);
+		} catch (IOException e) {
+		    System.err.println("Failed to open output file: " + e.getMessage());
+		    System.exit(1);
+		}
+	    }
+	    sink = new ReadoutSink(os, formatter);
+	    for (PortSettings settings : ports) {
+		settings.sink = sink;
+	    }
 	}
-	if (dataBits > 0) {
-	    connection.setDatabits(dataBits);
+
+	int exitCode;
+	if ((ports.size() == 1) && (null == configFile)) {
+	    exitCode = readSinglePort(ports.get(0));
+	} else {
+	    exitCode = readPorts(ports, maxParallelReads > 0 ? maxParallelReads : ports.size());
 	}
-	if (stopBits > 0) {
-	    connection.setStopbits(stopBits);
+	if (null != sink) {
+	    try {
+		sink.close();
+	    } catch (IOException e) {
+		System.err.println("Failed to write output: " + e.getMessage());
+		exitCode = 1;
+	    }
 	}
+	System.exit(exitCode);
+    }
 
-	try {
-	    connection.open();
-	} catch (IOException e) {
-	    System.err.println("Failed to open serial port: " + e.getMessage());
-	    System.exit(1);
+    private static ReadoutFormatter createFormatter(String outputFormat) {
+	switch (outputFormat.toLowerCase()) {
+	    case "csv":
+		return new CsvFormatter();
+	    case "json":
+		return new JsonLinesFormatter();
+	    case "influx":
+		return new InfluxLineFormatter();
+	    default:
+		return null;
 	}
+    }
 
-	List<DataSet> dataSets = null;
+    private static int readSinglePort(PortSettings settings) {
+	List<DataSet> dataSets;
 	try {
-	    dataSets = connection.read();
+	    dataSets = settings.read();
 	} catch (IOException e) {
-	    System.err.println("IOException while trying to read: " + e.getMessage());
-	    connection.close();
-	    System.exit(1);
+	    System.err.println(e.getMessage());
+	    return 1;
 	} catch (TimeoutException e) {
 	    System.err.print("Read attempt timed out");
-	    connection.close();
-	    System.exit(1);
+	    return 1;
+	}
+
+	if (null != settings.sink) {
+	    settings.sink.write(settings.serialPortName, null, System.currentTimeMillis(), new Readout(dataSets, null));
+	    return 0;
 	}
 
 	Iterator<DataSet> dataSetIt = dataSets.iterator();
@@ -209,9 +259,245 @@ public class ReadMeter {
 	    DataSet dataSet = dataSetIt.next();
 	    System.out.println(dataSet.getId() + ";" + dataSet.getValue() + ";" + dataSet.getUnit());
 	}
+	return 0;
+    }
+
+    /**
+     * reads the given ports in parallel and prints the result of each port as
+     * soon as it is available.
+     *
+     * @param ports the ports to read
+     * @param maxParallelReads the maximum number of ports read at the same
+     * time
+     * @return the exit code, 1 if at least one port could not be read
+     */
+    private static int readPorts(List<PortSettings> ports, int maxParallelReads) {
+	ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxParallelReads, ports.size()));
+	CompletionService<PortResult> completionService = new ExecutorCompletionService<>(executor);
+	for (final PortSettings settings : ports) {
+	    completionService.submit(new Callable<PortResult>() {
+		@Override
+		public PortResult call() throws Exception {
+		    return settings.readAndFormat();
+		}
+	    });
+	}
+	executor.shutdown();
+
+	int exitCode = 0;
+	for (int i = 0; i < ports.size(); i++) {
+	    try {
+		PortResult result = completionService.take().get();
+		if (result.failed) {
+		    System.err.print(result.output);
+		    exitCode = 1;
+		} else if (!result.output.isEmpty()) {
+		    System.out.print(result.output);
+		    System.out.flush();
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return 1;
+	    } catch (ExecutionException e) {
+		System.err.println("Unexpected error while reading: " + e.getCause());
+		exitCode = 1;
+	    }
+	}
+	return exitCode;
+    }
+
+    private static List<PortSettings> readConfigFile(String configFile, PortSettings defaults) throws IOException {
+	List<PortSettings> result = new ArrayList<>();
+	try (BufferedReader reader = Files.newBufferedReader(Paths.get(configFile), Charset.defaultCharset())) {
+	    String line;
+	    int lineNumber = 0;
+	    while ((line = reader.readLine()) != null) {
+		lineNumber++;
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith("#")) {
+		    continue;
+		}
+		String[] tokens = line.split("\\s+");
+		PortSettings settings = defaults.copy();
+		settings.serialPortName = tokens[0];
+		for (int i = 1; i < tokens.length; i++) {
+		    int next = settings.parseOption(tokens, i);
+		    if ((next < 0) || (next == i && !tokens[i].startsWith("-"))) {
+			throw new IOException("Invalid option in line " + lineNumber + ": " + tokens[i]);
+		    }
+		    i = next;
+		}
+		result.add(settings);
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * The settings to read one serial port.
+     */
+    private static class PortSettings {
+
+	private String serialPortName = "";
+	private boolean echoHandling = false;
+	private int baudRateChangeDelay = 0;
+	private Mode mode = Mode.C;
+	private int readTimeout = -1;
+	private int baudRate = -1;
+	private Parity parity = null;
+	private int dataBits = -1;
+	private int stopBits = -1;
+	private LinkProfileProber prober = null;
+	private ReadoutSink sink = null;
+
+	private PortSettings copy() {
+	    PortSettings result = new PortSettings();
+	    result.serialPortName = serialPortName;
+	    result.echoHandling = echoHandling;
+	    result.baudRateChangeDelay = baudRateChangeDelay;
+	    result.mode = mode;
+	    result.readTimeout = readTimeout;
+	    result.baudRate = baudRate;
+	    result.parity = parity;
+	    result.dataBits = dataBits;
+	    result.stopBits = stopBits;
+	    result.prober = prober;
+	    result.sink = sink;
+	    return result;
+	}
+
+	/**
+	 * parses the option at the given index.
+	 *
+	 * @param args the arguments
+	 * @param i the index of the option
+	 * @return the index of the last argument used by the option, the
+	 * given index if the argument is not an option of a port or -1 if the
+	 * option is invalid
+	 */
+	private int parseOption(String[] args, int i) {
+	    String option = args[i];
+	    if ("-e".equals(option)) {
+		echoHandling = true;
+		return i;
+	    }
+	    if (!option.startsWith("-")) {
+		return i;
+	    }
+	    i++;
+	    if (i == args.length) {
+		return -1;
+	    }
+	    try {
+		switch (option) {
+		    case "-d":
+			baudRateChangeDelay = Integer.parseInt(args[i]);
+			break;
+		    case "-m":
+			mode = Mode.valueOf(args[i].toUpperCase());
+			break;
+		    case "-rt":
+			readTimeout = Integer.parseInt(args[i]);
+			break;
+		    case "-br":
+			baudRate = Integer.parseInt(args[i]);
+			break;
+		    case "-db":
+			dataBits = Integer.parseInt(args[i]);
+			break;
+		    case "-sb":
+			stopBits = Integer.parseInt(args[i]);
+			break;
+		    case "-p":
+			parity = Parity.convert(args[i]);
+			break;
+		    default:
+			return -1;
+		}
+	    } catch (IllegalArgumentException | NullPointerException e) {
+		return -1;
+	    }
+	    return i;
+	}
+
+	private Connection createConnection() {
+	    Connection connection = new Connection(serialPortName, echoHandling, baudRateChangeDelay, mode);
+
+	    if (readTimeout > -1) {
+		connection.setTimeout(readTimeout);
+	    }
+	    if (baudRate > 0) {
+		connection.setBaudRate(baudRate);
+	    }
+	    if (null != parity) {
+		connection.setParity(parity.value);
+	    }
+	    if (dataBits > 0) {
+		connection.setDatabits(dataBits);
+	    }
+	    if (stopBits > 0) {
+		connection.setStopbits(stopBits);
+	    }
+	    return connection;
+	}
 
-	connection.close();
+	private List<DataSet> read() throws IOException, TimeoutException {
+	    if (null != prober) {
+		return prober.read(serialPortName).getDataSets();
+	    }
+	    Connection connection = createConnection();
+	    try {
+		connection.open();
+	    } catch (IOException e) {
+		throw new IOException("Failed to open serial port: " + e.getMessage(), e);
+	    }
+	    try {
+		return connection.read();
+	    } catch (IOException e) {
+		throw new IOException("IOException while trying to read: " + e.getMessage(), e);
+	    } finally {
+		connection.close();
+	    }
+	}
 
+	/**
+	 * reads the port and formats the result with the port as prefix of
+	 * each line, or writes the readout to the sink if one is set.
+	 */
+	private PortResult readAndFormat() {
+	    StringBuilder sb = new StringBuilder();
+	    try {
+		if (null != sink) {
+		    sink.write(serialPortName, null, System.currentTimeMillis(), new Readout(read(), null));
+		    return new PortResult("", false);
+		}
+		Iterator<DataSet> dataSetIt = read().iterator();
+		sb.append(serialPortName).append(';').append(dataSetIt.next().getId()).append('\n');
+		while (dataSetIt.hasNext()) {
+		    DataSet dataSet = dataSetIt.next();
+		    sb.append(serialPortName).append(';').append(dataSet.getId()).append(';').append(dataSet.getValue()).append(';').append(dataSet.getUnit()).append('\n');
+		}
+	    } catch (IOException e) {
+		return new PortResult(serialPortName + ": " + e.getMessage() + "\n", true);
+	    } catch (TimeoutException e) {
+		return new PortResult(serialPortName + ": Read attempt timed out\n", true);
+	    }
+	    return new PortResult(sb.toString(), false);
+	}
+    }
+
+    /**
+     * The formatted output of one port.
+     */
+    private static class PortResult {
+
+	private final String output;
+	private final boolean failed;
+
+	private PortResult(String output, boolean failed) {
+	    this.output = output;
+	    this.failed = failed;
+	}
     }
 
 }
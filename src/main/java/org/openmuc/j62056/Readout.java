@@ -0,0 +1,155 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of reading a meter: the data sets of the data message, the lines
+ * which could not be parsed and whether the data message was received
+ * completely.
+ */
+public class Readout {
+
+    private final List<DataSet> dataSets;
+    private final List<String> malformedLines;
+    private final boolean complete;
+    private final boolean changesOnly;
+
+    /**
+     * Creates a readout of a complete data message.
+     *
+     * @param dataSets the data sets, the first data set contains the
+     * identification of the meter
+     * @param malformedLines the lines of the data message which could not be
+     * parsed
+     */
+    public Readout(List<DataSet> dataSets, List<String> malformedLines) {
+	this(dataSets, malformedLines, true);
+    }
+
+    /**
+     * Creates a readout.
+     *
+     * @param dataSets the data sets, the first data set contains the
+     * identification of the meter
+     * @param malformedLines the lines of the data message which could not be
+     * parsed
+     * @param complete false if the data message was interrupted and only the
+     * lines received so far are contained
+     */
+    public Readout(List<DataSet> dataSets, List<String> malformedLines, boolean complete) {
+	this(dataSets, malformedLines, complete, false);
+    }
+
+    /**
+     * Creates a readout.
+     *
+     * @param dataSets the data sets, the first data set contains the
+     * identification of the meter
+     * @param malformedLines the lines of the data message which could not be
+     * parsed
+     * @param complete false if the data message was interrupted and only the
+     * lines received so far are contained
+     * @param changesOnly true if only the data sets of the lines which changed
+     * since the previous readout of the meter are contained
+     */
+    public Readout(List<DataSet> dataSets, List<String> malformedLines, boolean complete, boolean changesOnly) {
+	this.dataSets = Collections.unmodifiableList(new ArrayList<>(dataSets));
+	this.malformedLines = (null == malformedLines) ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<>(malformedLines));
+	this.complete = complete;
+	this.changesOnly = changesOnly;
+    }
+
+    /**
+     * Returns the key of a meter, the serial port followed by the device
+     * address if there is one. Listeners, stores and archives use it to
+     * identify the meter of a readout.
+     *
+     * @param serialPortName the serial port of the meter
+     * @param deviceAddress the device address of the meter, NULL or empty if
+     * the meter is read without an address
+     * @return the key of the meter
+     */
+    public static String meterKey(String serialPortName, String deviceAddress) {
+	if ((null == deviceAddress) || deviceAddress.isEmpty()) {
+	    return serialPortName;
+	}
+	return serialPortName + "#" + deviceAddress;
+    }
+
+    /**
+     * Returns the identification of the meter.
+     *
+     * @return the identification, NULL if the readout contains no data sets
+     */
+    public String getIdentification() {
+	return dataSets.isEmpty() ? null : dataSets.get(0).getId();
+    }
+
+    /**
+     * Returns the data sets of the readout.
+     *
+     * @return the data sets. The first data set will contain the
+     * "identification" of the meter as the id and empty strings for value and
+     * unit.
+     */
+    public List<DataSet> getDataSets() {
+	return dataSets;
+    }
+
+    /**
+     * Returns the lines of the data message which could not be parsed. Lines
+     * are only skipped if the recovery of malformed lines is enabled,
+     * otherwise the first malformed line aborts the readout.
+     *
+     * @return the malformed lines, an empty list if all lines were parsed
+     */
+    public List<String> getMalformedLines() {
+	return malformedLines;
+    }
+
+    public boolean hasMalformedLines() {
+	return !malformedLines.isEmpty();
+    }
+
+    /**
+     * Returns whether the whole data message was received. An incomplete
+     * readout is only returned if partial results are enabled on the
+     * connection, it contains the data lines received before the meter
+     * stopped sending.
+     *
+     * @return true if the data message was received completely
+     */
+    public boolean isComplete() {
+	return complete;
+    }
+
+    /**
+     * Returns whether the readout contains only the data sets which changed
+     * since the previous readout of the meter. The data sets of the other
+     * lines are not contained, see <code>setChangesOnly</code> of the
+     * connection.
+     *
+     * @return true if only the changed data sets are contained
+     */
+    public boolean isChangesOnly() {
+	return changesOnly;
+    }
+
+    /**
+     * Returns whether nothing changed since the previous readout of the
+     * meter. The readout then contains only the identification.
+     *
+     * @return true if the readout contains only changes and there are none
+     */
+    public boolean isUnchanged() {
+	return changesOnly && (dataSets.size() <= 1) && malformedLines.isEmpty();
+    }
+
+}
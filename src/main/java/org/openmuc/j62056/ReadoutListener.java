@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056;
+
+/**
+ * Receives every readout of a connection, including the telegrams of a
+ * continuous subscription. The listener is called by the thread which parsed
+ * the readout, so it should return quickly.
+ */
+public interface ReadoutListener {
+
+    /**
+     * Called for every readout which was parsed.
+     *
+     * @param serialPortName the serial port of the connection
+     * @param deviceAddress the device address of the request, NULL if the
+     * meter was read without an address
+     * @param readout the readout
+     */
+    void readoutReceived(String serialPortName, String deviceAddress, Readout readout);
+}
@@ -0,0 +1,34 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056;
+
+/**
+ * A continuous subscription of telegrams, which is stopped with
+ * <code>close()</code>.
+ */
+public interface Subscription extends AutoCloseable {
+
+    /**
+     * Checks if the subscription still receives telegrams.
+     *
+     * @return false if the subscription was closed or reading failed
+     */
+    boolean isActive();
+
+    /**
+     * Returns the number of telegrams which were received but dropped or
+     * replaced by a newer telegram because the listener was too slow.
+     *
+     * @return the number of dropped telegrams
+     */
+    long getDroppedTelegrams();
+
+    /**
+     * Stops the subscription. Telegrams not yet delivered are discarded.
+     */
+    @Override
+    void close();
+}
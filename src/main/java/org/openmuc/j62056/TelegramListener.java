@@ -0,0 +1,34 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056;
+
+import java.util.List;
+
+/**
+ * Receives the telegrams of a continuous subscription, see
+ * <code>Connection.subscribe()</code>.
+ */
+public interface TelegramListener {
+
+    /**
+     * Called for every telegram received and parsed.
+     *
+     * @param dataSets the data sets of the telegram. The first data set
+     * contains the "identification" of the meter as the id and empty strings
+     * for value and unit.
+     */
+    void telegramReceived(List<DataSet> dataSets);
+
+    /**
+     * Called if a telegram could not be parsed, an error occurred while
+     * reading or no byte was received within the timeout. The subscription
+     * stays active after a <code>TimeoutException</code> or an invalid
+     * telegram.
+     *
+     * @param e the exception
+     */
+    void errorOccurred(Exception e);
+}
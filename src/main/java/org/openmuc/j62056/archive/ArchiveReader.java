@@ -0,0 +1,178 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.archive;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the telegrams of a telegram archive sequentially, segment by segment
+ * in the order they were written. A segment ending within a record, e.g.
+ * after a power failure, is read up to the last complete record.
+ */
+public class ArchiveReader implements Closeable {
+
+    private final File[] segments;
+    private int nextSegment = 0;
+    private DataInputStream in;
+    private final List<String> meters = new ArrayList<>();
+    private final List<byte[]> previous = new ArrayList<>();
+    private long timestamp;
+    private int truncatedSegments = 0;
+
+    /**
+     * Creates a reader of the archive in the given directory.
+     *
+     * @param directory the directory of the archive
+     */
+    public ArchiveReader(File directory) {
+	segments = TelegramArchive.segments(directory);
+    }
+
+    /**
+     * Reads the next telegram.
+     *
+     * @return the telegram or NULL at the end of the archive
+     * @throws IOException if a segment can not be read or is corrupted
+     */
+    public ArchivedTelegram read() throws IOException {
+	while (true) {
+	    if ((null == in) && !openNextSegment()) {
+		return null;
+	    }
+	    try {
+		ArchivedTelegram telegram = readRecord();
+		if (null != telegram) {
+		    return telegram;
+		}
+	    } catch (EOFException e) {
+		truncatedSegments++;
+	    }
+	    closeSegment();
+	}
+    }
+
+    /**
+     * Reads all remaining telegrams.
+     *
+     * @return the telegrams
+     * @throws IOException if a segment can not be read or is corrupted
+     */
+    public List<ArchivedTelegram> readAll() throws IOException {
+	List<ArchivedTelegram> result = new ArrayList<>();
+	ArchivedTelegram telegram;
+	while ((telegram = read()) != null) {
+	    result.add(telegram);
+	}
+	return result;
+    }
+
+    /**
+     * Returns the number of segments ending within a record.
+     *
+     * @return the number of truncated segments read so far
+     */
+    public int getTruncatedSegments() {
+	return truncatedSegments;
+    }
+
+    @Override
+    public void close() throws IOException {
+	closeSegment();
+	nextSegment = segments.length;
+    }
+
+    private boolean openNextSegment() throws IOException {
+	while (nextSegment < segments.length) {
+	    File segment = segments[nextSegment++];
+	    DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+	    try {
+		if (stream.readInt() != TelegramArchive.MAGIC) {
+		    throw new IOException("Not a telegram archive segment: " + segment);
+		}
+		int version = stream.readUnsignedByte();
+		if (version != TelegramArchive.VERSION) {
+		    throw new IOException("Unsupported telegram archive version " + version + ": " + segment);
+		}
+		timestamp = stream.readLong();
+	    } catch (EOFException e) {
+		// the segment was created but its header not written completely
+		stream.close();
+		truncatedSegments++;
+		continue;
+	    } catch (IOException e) {
+		stream.close();
+		throw e;
+	    }
+	    in = stream;
+	    meters.clear();
+	    previous.clear();
+	    return true;
+	}
+	return false;
+    }
+
+    private void closeSegment() throws IOException {
+	if (null != in) {
+	    in.close();
+	    in = null;
+	}
+    }
+
+    /**
+     * reads the next record of the current segment.
+     *
+     * @return the telegram or NULL at the end of the segment
+     */
+    private ArchivedTelegram readRecord() throws IOException {
+	while (true) {
+	    int type = in.read();
+	    if (type < 0) {
+		return null;
+	    }
+	    long index = DeltaCodec.readVarLong(in);
+	    if (type == TelegramArchive.NEW_METER) {
+		if (index != meters.size()) {
+		    throw new IOException("Invalid meter index " + index + " in archive");
+		}
+		meters.add(in.readUTF());
+		previous.add(null);
+		continue;
+	    }
+	    if (index >= meters.size()) {
+		throw new IOException("Unknown meter index " + index + " in archive");
+	    }
+	    long elapsed = DeltaCodec.readVarLong(in);
+	    long length = DeltaCodec.readVarLong(in);
+	    if (length > Integer.MAX_VALUE) {
+		throw new IOException("Invalid telegram length " + length + " in archive");
+	    }
+	    byte[] bytes;
+	    if (type == TelegramArchive.COMPLETE) {
+		bytes = new byte[(int) length];
+		in.readFully(bytes);
+	    } else if (type == TelegramArchive.DELTA) {
+		byte[] base = previous.get((int) index);
+		if (null == base) {
+		    throw new IOException("Delta without previous telegram in archive");
+		}
+		bytes = DeltaCodec.decode(base, (int) length, in);
+	    } else {
+		throw new IOException("Invalid record type " + type + " in archive");
+	    }
+	    previous.set((int) index, bytes);
+	    timestamp += (elapsed >>> 1) ^ -(elapsed & 1);
+	    return new ArchivedTelegram(meters.get((int) index), timestamp, bytes.clone());
+	}
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.archive;
+
+/**
+ * A telegram read from a telegram archive.
+ */
+public class ArchivedTelegram {
+
+    private final String meter;
+    private final long timestamp;
+    private final byte[] bytes;
+
+    /**
+     * Creates an archived telegram.
+     *
+     * @param meter the key of the meter
+     * @param timestamp the time the telegram was received in ms since the
+     * epoch
+     * @param bytes the bytes of the telegram
+     */
+    public ArchivedTelegram(String meter, long timestamp, byte[] bytes) {
+	this.meter = meter;
+	this.timestamp = timestamp;
+	this.bytes = bytes;
+    }
+
+    public String getMeter() {
+	return meter;
+    }
+
+    /**
+     * Returns the time the telegram was received.
+     *
+     * @return the time in ms since the epoch
+     */
+    public long getTimestamp() {
+	return timestamp;
+    }
+
+    public byte[] getBytes() {
+	return bytes;
+    }
+
+}
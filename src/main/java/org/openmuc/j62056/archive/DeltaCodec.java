@@ -0,0 +1,166 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Encodes a telegram as the difference to the previous telegram of the same
+ * meter. The delta is a sequence of operations, each consisting of
+ * <ul>
+ * <li>the number of bytes copied from the previous telegram,</li>
+ * <li>the number of literal bytes followed by these bytes and</li>
+ * <li>the number of bytes of the previous telegram skipped after the literal
+ * bytes, replaced by them, as signed variable length integer.</li>
+ * </ul>
+ * All numbers are variable length integers. The operations end when the
+ * length of the telegram is reached.
+ * <p>
+ * Successive telegrams differ in a few digits, so the encoder compares them
+ * byte by byte and replaces the differing bytes in place. If a line changed
+ * its length, the rest of the line is written literally and the previous
+ * telegram continues with its next line.
+ */
+final class DeltaCodec {
+
+    /**
+     * the number of equal bytes ending a literal run within a line.
+     */
+    private static final int MIN_MATCH = 4;
+
+    private DeltaCodec() {
+    }
+
+    /**
+     * Encodes a telegram.
+     *
+     * @param previous the previous telegram of the meter
+     * @param current the telegram to encode
+     * @param length the length of the telegram
+     * @param out the stream receiving the operations
+     */
+    static void encode(byte[] previous, byte[] current, int length, ByteArrayOutputStream out) {
+	int i = 0;
+	int j = 0;
+	while (i < length) {
+	    int copy = 0;
+	    while ((i + copy < length) && (j + copy < previous.length) && (current[i + copy] == previous[j + copy])) {
+		copy++;
+	    }
+	    i += copy;
+	    j += copy;
+	    writeVarLong(out, copy);
+	    if (i == length) {
+		writeVarLong(out, 0);
+		writeVarLong(out, 0);
+		return;
+	    }
+	    int lineEnd = lineEnd(current, i, length);
+	    int previousLineEnd = lineEnd(previous, j, previous.length);
+	    int literal;
+	    int skip;
+	    if (lineEnd - i == previousLineEnd - j) {
+		// same line length, replace the differing bytes in place
+		literal = 1;
+		while ((i + literal < lineEnd) && !matches(previous, j + literal, current, i + literal, lineEnd)) {
+		    literal++;
+		}
+		skip = 0;
+	    } else {
+		literal = lineEnd - i;
+		skip = (previousLineEnd - j) - literal;
+	    }
+	    writeVarLong(out, literal);
+	    out.write(current, i, literal);
+	    writeVarLong(out, ((long) skip << 1) ^ ((long) skip >> 63));
+	    i += literal;
+	    j += literal + skip;
+	}
+    }
+
+    private static boolean matches(byte[] previous, int j, byte[] current, int i, int end) {
+	int n = Math.min(MIN_MATCH, end - i);
+	if (j + n > previous.length) {
+	    return false;
+	}
+	for (int k = 0; k < n; k++) {
+	    if (current[i + k] != previous[j + k]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * returns the index after the next line feed or the end.
+     */
+    private static int lineEnd(byte[] bytes, int offset, int end) {
+	for (int i = offset; i < end; i++) {
+	    if (bytes[i] == 0x0A) {
+		return i + 1;
+	    }
+	}
+	return end;
+    }
+
+    /**
+     * Decodes a telegram.
+     *
+     * @param previous the previous telegram of the meter
+     * @param length the length of the telegram
+     * @param in the input with the operations
+     * @return the telegram
+     * @throws IOException if the operations are not valid
+     */
+    static byte[] decode(byte[] previous, int length, DataInput in) throws IOException {
+	byte[] result = new byte[length];
+	int i = 0;
+	long j = 0;
+	while (i < length) {
+	    long copy = readVarLong(in);
+	    if ((copy > length - i) || (j + copy > previous.length)) {
+		throw new IOException("Invalid delta in archive");
+	    }
+	    System.arraycopy(previous, (int) j, result, i, (int) copy);
+	    i += copy;
+	    j += copy;
+	    long literal = readVarLong(in);
+	    if (literal > length - i) {
+		throw new IOException("Invalid delta in archive");
+	    }
+	    in.readFully(result, i, (int) literal);
+	    i += literal;
+	    long skip = readVarLong(in);
+	    j += literal + ((skip >>> 1) ^ -(skip & 1));
+	    if ((j < 0) || ((i < length) && (copy == 0) && (literal == 0))) {
+		throw new IOException("Invalid delta in archive");
+	    }
+	}
+	return result;
+    }
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+	while ((value & ~0x7FL) != 0) {
+	    out.write((int) ((value & 0x7F) | 0x80));
+	    value >>>= 7;
+	}
+	out.write((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+	long result = 0;
+	for (int shift = 0; shift < 64; shift += 7) {
+	    int b = in.readUnsignedByte();
+	    result |= (long) (b & 0x7F) << shift;
+	    if ((b & 0x80) == 0) {
+		return result;
+	    }
+	}
+	throw new IOException("Invalid variable length integer in archive");
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends the received telegrams of all meters to segment files in a
+ * directory. Every telegram is delta encoded against the previous telegram of
+ * the same meter, see <code>DeltaCodec</code>, or stored as is if the delta is
+ * not shorter.
+ * <p>
+ * A segment starts with the magic number "J6AR", a version byte and the
+ * creation time in ms since the epoch. Every record starts with a type byte
+ * and the index of the meter in the segment as variable length integer:
+ * <ul>
+ * <li>0: a new meter, followed by its key as modified UTF-8</li>
+ * <li>1: a complete telegram, followed by the time since the previous
+ * telegram in ms as signed variable length integer, the length and the bytes
+ * of the telegram</li>
+ * <li>2: a delta encoded telegram, followed by the time and the length like a
+ * complete telegram and the operations of the delta</li>
+ * </ul>
+ * Each segment can be read on its own, the first telegram of every meter in a
+ * segment is complete. A new segment is started when the current one exceeds
+ * the maximum segment size and every time the archive is opened, existing
+ * segments are never modified.
+ * <p>
+ * The records are written to disk in batches: the segment is forced to disk
+ * after a number of telegrams or once the sync interval elapsed since the
+ * last sync. A daemon thread checks the interval every second,
+ * see <code>flushIfDue()</code>, so the last telegrams of a slow poll do not
+ * wait for the next one. <code>sync()</code> forces the pending telegrams to
+ * disk.
+ */
+public class TelegramArchive implements Closeable {
+
+    static final int MAGIC = 0x4A364152;
+    static final int VERSION = 1;
+    static final int NEW_METER = 0;
+    static final int COMPLETE = 1;
+    static final int DELTA = 2;
+
+    private static final String SEGMENT_PREFIX = "telegrams-";
+    private static final String SEGMENT_SUFFIX = ".j6a";
+    private static final long SYNC_CHECK_PERIOD = 1000;
+
+    private final File directory;
+    private long nextSegment;
+    private long maxSegmentSize = 16 * 1024 * 1024;
+    private int syncTelegrams = 64;
+    private long syncInterval = 10000;
+
+    private FileOutputStream file;
+    private DataOutputStream out;
+    private final Map<String, Meter> meters = new HashMap<>();
+    private long lastTimestamp;
+    private int unsyncedTelegrams;
+    private long lastSync;
+    private final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+    private long telegrams;
+    private long telegramBytes;
+    private long archivedBytes;
+
+    private final ScheduledExecutorService syncer;
+    private volatile IOException syncError;
+
+    /**
+     * Opens the archive in the given directory. The directory is created if
+     * it does not exist, the first telegram starts a new segment.
+     *
+     * @param directory the directory of the segments
+     * @throws IOException if the directory can not be created
+     */
+    public TelegramArchive(File directory) throws IOException {
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    throw new IOException("Unable to create archive directory " + directory);
+	}
+	this.directory = directory;
+	File[] segments = segments(directory);
+	nextSegment = (segments.length == 0) ? 0 : segmentNumber(segments[segments.length - 1]) + 1;
+	syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, "j62056-archive-sync");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	syncer.scheduleWithFixedDelay(new Runnable() {
+
+	    @Override
+	    public void run() {
+		try {
+		    if (flushIfDue()) {
+			syncError = null;
+		    }
+		} catch (IOException e) {
+		    // the next append or sync reports it to the owner
+		    syncError = e;
+		}
+	    }
+	}, SYNC_CHECK_PERIOD, SYNC_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends a telegram.
+     *
+     * @param meter the key of the meter
+     * @param timestamp the time the telegram was received in ms since the
+     * epoch
+     * @param telegram the buffer with the telegram
+     * @param offset the start of the telegram
+     * @param length the length of the telegram
+     * @throws IOException if the telegram can not be written
+     */
+    public synchronized void append(String meter, long timestamp, byte[] telegram, int offset, int length) throws IOException {
+	if ((null == out) || (out.size() >= maxSegmentSize)) {
+	    startSegment(timestamp);
+	}
+	int start = out.size();
+	Meter m = meters.get(meter);
+	if (null == m) {
+	    m = new Meter(meters.size());
+	    meters.put(meter, m);
+	    out.writeByte(NEW_METER);
+	    writeVarLong(m.index);
+	    out.writeUTF(meter);
+	}
+	byte[] current = Arrays.copyOfRange(telegram, offset, offset + length);
+	delta.reset();
+	if (null != m.previous) {
+	    DeltaCodec.encode(m.previous, current, length, delta);
+	}
+	long elapsed = timestamp - lastTimestamp;
+	lastTimestamp = timestamp;
+
+	header.reset();
+	DeltaCodec.writeVarLong(header, m.index);
+	DeltaCodec.writeVarLong(header, (elapsed << 1) ^ (elapsed >> 63));
+	DeltaCodec.writeVarLong(header, length);
+	if ((null != m.previous) && (delta.size() < length)) {
+	    out.writeByte(DELTA);
+	    header.writeTo(out);
+	    delta.writeTo(out);
+	} else {
+	    out.writeByte(COMPLETE);
+	    header.writeTo(out);
+	    out.write(current);
+	}
+	m.previous = current;
+
+	telegrams++;
+	telegramBytes += length;
+	archivedBytes += out.size() - start;
+	unsyncedTelegrams++;
+	if ((unsyncedTelegrams >= syncTelegrams) || (System.currentTimeMillis() - lastSync >= syncInterval)) {
+	    sync();
+	}
+    }
+
+    /**
+     * Appends a telegram.
+     *
+     * @param meter the key of the meter
+     * @param timestamp the time the telegram was received in ms since the
+     * epoch
+     * @param telegram the telegram
+     * @throws IOException if the telegram can not be written
+     */
+    public void append(String meter, long timestamp, byte[] telegram) throws IOException {
+	append(meter, timestamp, telegram, 0, telegram.length);
+    }
+
+    private void startSegment(long timestamp) throws IOException {
+	closeSegment();
+	File segment = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+	file = new FileOutputStream(segment);
+	out = new DataOutputStream(new BufferedOutputStream(file));
+	out.writeInt(MAGIC);
+	out.writeByte(VERSION);
+	out.writeLong(timestamp);
+	lastTimestamp = timestamp;
+	meters.clear();
+	lastSync = System.currentTimeMillis();
+    }
+
+    private void closeSegment() throws IOException {
+	if (null != out) {
+	    try {
+		sync();
+	    } finally {
+		out.close();
+		out = null;
+		file = null;
+	    }
+	}
+    }
+
+    /**
+     * Writes the pending telegrams and forces them to disk.
+     *
+     * @throws IOException if the telegrams can not be written
+     */
+    public synchronized void sync() throws IOException {
+	if (null == out) {
+	    return;
+	}
+	out.flush();
+	file.getChannel().force(false);
+	unsyncedTelegrams = 0;
+	lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Forces the pending telegrams to disk if the sync interval elapsed since
+     * the last sync. Called every second by the sync thread of the archive.
+     *
+     * @return true if pending telegrams were forced to disk
+     * @throws IOException if the telegrams can not be written
+     */
+    public synchronized boolean flushIfDue() throws IOException {
+	if ((unsyncedTelegrams == 0) || (System.currentTimeMillis() - lastSync < syncInterval)) {
+	    return false;
+	}
+	sync();
+	return true;
+    }
+
+    /**
+     * Returns the error of the last failed sync of the sync thread.
+     *
+     * @return the error, NULL if the last scheduled sync succeeded
+     */
+    public IOException getSyncError() {
+	return syncError;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+	syncer.shutdownNow();
+	closeSegment();
+    }
+
+    public long getMaxSegmentSize() {
+	return maxSegmentSize;
+    }
+
+    /**
+     * Sets the size in bytes after which a new segment is started.
+     *
+     * @param maxSegmentSize the maximum size of a segment
+     */
+    public synchronized void setMaxSegmentSize(long maxSegmentSize) {
+	this.maxSegmentSize = maxSegmentSize;
+    }
+
+    public int getSyncTelegrams() {
+	return syncTelegrams;
+    }
+
+    /**
+     * Sets the number of telegrams after which the segment is forced to disk.
+     *
+     * @param syncTelegrams the number of telegrams, 1 to force every telegram
+     * to disk
+     */
+    public synchronized void setSyncTelegrams(int syncTelegrams) {
+	this.syncTelegrams = syncTelegrams;
+    }
+
+    public long getSyncInterval() {
+	return syncInterval;
+    }
+
+    /**
+     * Sets the time after which pending telegrams are forced to disk, at the
+     * next telegram or by the sync thread within a second.
+     *
+     * @param syncInterval the interval in ms
+     */
+    public synchronized void setSyncInterval(long syncInterval) {
+	this.syncInterval = syncInterval;
+    }
+
+    public synchronized long getTelegrams() {
+	return telegrams;
+    }
+
+    /**
+     * Returns the length of all appended telegrams.
+     *
+     * @return the number of bytes before the compression
+     */
+    public synchronized long getTelegramBytes() {
+	return telegramBytes;
+    }
+
+    /**
+     * Returns the size of all records of the appended telegrams.
+     *
+     * @return the number of bytes written to the segments
+     */
+    public synchronized long getArchivedBytes() {
+	return archivedBytes;
+    }
+
+    /**
+     * Returns the segments of an archive in the order they were written.
+     *
+     * @param directory the directory of the archive
+     * @return the segment files
+     */
+    static File[] segments(File directory) {
+	File[] result = directory.listFiles(new FileFilter() {
+
+	    @Override
+	    public boolean accept(File file) {
+		String name = file.getName();
+		return file.isFile() && name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && (segmentNumber(file) >= 0);
+	    }
+	});
+	if (null == result) {
+	    return new File[0];
+	}
+	Arrays.sort(result);
+	return result;
+    }
+
+    private static long segmentNumber(File segment) {
+	String name = segment.getName();
+	try {
+	    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	} catch (NumberFormatException e) {
+	    return -1;
+	}
+    }
+
+    private void writeVarLong(long value) throws IOException {
+	while ((value & ~0x7FL) != 0) {
+	    out.writeByte((int) ((value & 0x7F) | 0x80));
+	    value >>>= 7;
+	}
+	out.writeByte((int) value);
+    }
+
+    /**
+     * The state of a meter in the current segment.
+     */
+    private static class Meter {
+
+	private final int index;
+	private byte[] previous;
+
+	private Meter(int index) {
+	    this.index = index;
+	}
+    }
+
+}
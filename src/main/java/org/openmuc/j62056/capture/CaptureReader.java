@@ -0,0 +1,137 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a capture log written by a <code>CaptureWriter</code>.
+ */
+public class CaptureReader implements Closeable {
+
+    private final DataInputStream in;
+    private final String serialPortName;
+    private final long startTime;
+    private long timestamp;
+
+    /**
+     * Creates a capture reader and reads the header of the capture log.
+     *
+     * @param in the stream with the capture log
+     * @throws IOException if the header is not valid
+     */
+    public CaptureReader(InputStream in) throws IOException {
+	this.in = new DataInputStream(new BufferedInputStream(in));
+	if (this.in.readInt() != CaptureWriter.MAGIC) {
+	    throw new IOException("Not a capture log");
+	}
+	int version = this.in.readUnsignedByte();
+	if (version != CaptureWriter.VERSION) {
+	    throw new IOException("Unsupported capture log version " + version);
+	}
+	serialPortName = this.in.readUTF();
+	startTime = this.in.readLong();
+    }
+
+    /**
+     * Opens the capture log in the given file.
+     *
+     * @param file the file of the capture log
+     * @return the capture reader
+     * @throws IOException if the file can not be opened or the header is not
+     * valid
+     */
+    public static CaptureReader open(File file) throws IOException {
+	FileInputStream in = new FileInputStream(file);
+	try {
+	    return new CaptureReader(in);
+	} catch (IOException e) {
+	    in.close();
+	    throw e;
+	}
+    }
+
+    public String getSerialPortName() {
+	return serialPortName;
+    }
+
+    /**
+     * Returns the start of the capture.
+     *
+     * @return the start time in ms since the epoch
+     */
+    public long getStartTime() {
+	return startTime;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the record or NULL at the end of the capture log
+     * @throws IOException if the capture log is corrupted
+     */
+    public CaptureRecord read() throws IOException {
+	int direction = in.read();
+	if (direction < 0) {
+	    return null;
+	}
+	if (direction >= Direction.values().length) {
+	    throw new IOException("Invalid direction " + direction + " in capture log");
+	}
+	timestamp += readVarLong();
+	long length = readVarLong();
+	if (length > Integer.MAX_VALUE) {
+	    throw new IOException("Invalid record length " + length + " in capture log");
+	}
+	byte[] bytes = new byte[(int) length];
+	in.readFully(bytes);
+	return new CaptureRecord(Direction.values()[direction], timestamp, bytes);
+    }
+
+    /**
+     * Reads all remaining records.
+     *
+     * @return the records
+     * @throws IOException if the capture log is corrupted
+     */
+    public List<CaptureRecord> readAll() throws IOException {
+	List<CaptureRecord> result = new ArrayList<>();
+	CaptureRecord record;
+	while ((record = read()) != null) {
+	    result.add(record);
+	}
+	return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+	in.close();
+    }
+
+    private long readVarLong() throws IOException {
+	long result = 0;
+	for (int shift = 0; shift < 64; shift += 7) {
+	    int b = in.read();
+	    if (b < 0) {
+		throw new EOFException("Capture log ends within a record");
+	    }
+	    result |= (long) (b & 0x7F) << shift;
+	    if ((b & 0x80) == 0) {
+		return result;
+	    }
+	}
+	throw new IOException("Invalid variable length integer in capture log");
+    }
+}
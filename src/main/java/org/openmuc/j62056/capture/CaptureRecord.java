@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.capture;
+
+/**
+ * The bytes of one read from or one write to a serial port.
+ */
+public class CaptureRecord {
+
+    private final Direction direction;
+    private final long timestamp;
+    private final byte[] bytes;
+
+    /**
+     * Creates a capture record.
+     *
+     * @param direction the direction of the bytes
+     * @param timestamp the time in microseconds since the start of the
+     * capture
+     * @param bytes the bytes
+     */
+    public CaptureRecord(Direction direction, long timestamp, byte[] bytes) {
+	this.direction = direction;
+	this.timestamp = timestamp;
+	this.bytes = bytes;
+    }
+
+    public Direction getDirection() {
+	return direction;
+    }
+
+    /**
+     * Returns the time the bytes were read or written.
+     *
+     * @return the time in microseconds since the start of the capture
+     */
+    public long getTimestamp() {
+	return timestamp;
+    }
+
+    public byte[] getBytes() {
+	return bytes;
+    }
+
+    public int getLength() {
+	return bytes.length;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the bytes exchanged with a serial port to a binary capture log.
+ * <p>
+ * The log starts with the magic number "J6CP", a version byte, the name of
+ * the serial port and the start time in ms since the epoch. Every record
+ * consists of the direction byte, the time in microseconds since the previous
+ * record and the number of bytes, both as unsigned variable length integers,
+ * followed by the bytes. The connection reads byte by byte after the first
+ * bytes of a message, so the records reflect the inter-byte timing of the
+ * meter.
+ * <p>
+ * The records are buffered, <code>close()</code> or <code>flush()</code> must
+ * be called to write them.
+ */
+public class CaptureWriter implements Closeable {
+
+    static final int MAGIC = 0x4A364350;
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private long lastNanos;
+
+    /**
+     * Creates a capture writer and writes the header of the capture log.
+     *
+     * @param out the stream to write the capture log to
+     * @param serialPortName the name of the captured serial port
+     * @throws IOException if the header can not be written
+     */
+    public CaptureWriter(OutputStream out, String serialPortName) throws IOException {
+	this.out = new DataOutputStream(new BufferedOutputStream(out));
+	this.out.writeInt(MAGIC);
+	this.out.writeByte(VERSION);
+	this.out.writeUTF(serialPortName);
+	this.out.writeLong(System.currentTimeMillis());
+	lastNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a capture writer writing to the given file. An existing file is
+     * overwritten.
+     *
+     * @param file the file of the capture log
+     * @param serialPortName the name of the captured serial port
+     * @return the capture writer
+     * @throws IOException if the file can not be created
+     */
+    public static CaptureWriter create(File file, String serialPortName) throws IOException {
+	FileOutputStream out = new FileOutputStream(file);
+	try {
+	    return new CaptureWriter(out, serialPortName);
+	} catch (IOException e) {
+	    out.close();
+	    throw e;
+	}
+    }
+
+    /**
+     * Appends a record to the capture log.
+     *
+     * @param direction the direction of the bytes
+     * @param bytes the buffer with the bytes
+     * @param offset the start of the bytes in the buffer
+     * @param length the number of bytes
+     * @throws IOException if the record can not be written
+     */
+    public synchronized void write(Direction direction, byte[] bytes, int offset, int length) throws IOException {
+	long now = System.nanoTime();
+	out.writeByte(direction.ordinal());
+	writeVarLong((now - lastNanos) / 1000);
+	writeVarLong(length);
+	out.write(bytes, offset, length);
+	// keep the rounding error of the delta from accumulating
+	lastNanos += ((now - lastNanos) / 1000) * 1000;
+    }
+
+    public synchronized void flush() throws IOException {
+	out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+	out.close();
+    }
+
+    private void writeVarLong(long value) throws IOException {
+	while ((value & ~0x7FL) != 0) {
+	    out.writeByte((int) ((value & 0x7F) | 0x80));
+	    value >>>= 7;
+	}
+	out.writeByte((int) value);
+    }
+}
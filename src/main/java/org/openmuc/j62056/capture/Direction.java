@@ -0,0 +1,21 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.capture;
+
+/**
+ * The direction of the bytes of a capture record.
+ */
+public enum Direction {
+
+    /**
+     * bytes received from the meter
+     */
+    RECEIVED,
+    /**
+     * bytes sent to the meter
+     */
+    SENT;
+}
@@ -0,0 +1,171 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.capture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays the received bytes of a capture log back. Together with the stream
+ * returned by <code>getOutputStream()</code> it replaces the streams of the
+ * serial port, e.g. with <code>Connection.open(InputStream,
+ * OutputStream)</code>.
+ * <p>
+ * The bytes received after a request are not available before the same
+ * number of bytes was written to the output stream, so the replay follows the
+ * message exchange of the connection. In real time mode the bytes become
+ * available with the timing of the capture, measured from the start of the
+ * replay or from the last request. Otherwise they are played at maximum
+ * speed.
+ */
+public class ReplayInputStream extends InputStream {
+
+    private final List<CaptureRecord> records;
+    private final boolean realTime;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile long lastWriteNanos;
+    private long bytesExpected;
+    private int index;
+    private int position;
+    private long anchorNanos = -1;
+    private long anchorTimestamp;
+
+    /**
+     * Creates a replay of the given records.
+     *
+     * @param records the records of a capture log
+     * @param realTime true to play the bytes with the timing of the capture,
+     * false to play them as fast as possible
+     */
+    public ReplayInputStream(List<CaptureRecord> records, boolean realTime) {
+	this.records = records;
+	this.realTime = realTime;
+    }
+
+    /**
+     * Creates a replay of the remaining records of the capture reader.
+     *
+     * @param reader the capture reader
+     * @param realTime true to play the bytes with the timing of the capture,
+     * false to play them as fast as possible
+     * @throws IOException if the capture log is corrupted
+     */
+    public ReplayInputStream(CaptureReader reader, boolean realTime) throws IOException {
+	this(reader.readAll(), realTime);
+    }
+
+    /**
+     * Returns the output stream for the requests of the connection. The bytes
+     * written are discarded, only their number is counted.
+     *
+     * @return the output stream
+     */
+    public OutputStream getOutputStream() {
+	return new OutputStream() {
+
+	    @Override
+	    public void write(int b) {
+		lastWriteNanos = System.nanoTime();
+		bytesWritten.incrementAndGet();
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) {
+		lastWriteNanos = System.nanoTime();
+		bytesWritten.addAndGet(len);
+	    }
+	};
+    }
+
+    /**
+     * Checks if all records were played.
+     *
+     * @return true if all records were played
+     */
+    public synchronized boolean isFinished() {
+	return null == current();
+    }
+
+    @Override
+    public synchronized int available() {
+	CaptureRecord record = current();
+	if ((null == record) || (record.getDirection() != Direction.RECEIVED)) {
+	    return 0;
+	}
+	if (realTime && (System.nanoTime() - anchorNanos < (record.getTimestamp() - anchorTimestamp) * 1000)) {
+	    return 0;
+	}
+	return record.getLength() - position;
+    }
+
+    @Override
+    public int read() throws IOException {
+	byte[] b = new byte[1];
+	return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+    }
+
+    /**
+     * Reads the next bytes of the capture. Blocks until the bytes are due,
+     * i.e. the preceding request was written and in real time mode the time
+     * of the capture is reached.
+     *
+     * @return the number of bytes read or -1 at the end of the capture
+     */
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+	if (len == 0) {
+	    return 0;
+	}
+	int available;
+	while ((available = available()) == 0) {
+	    if (null == current()) {
+		return -1;
+	    }
+	    try {
+		wait(1);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new IOException("Interrupted while waiting for the replay", e);
+	    }
+	}
+	int result = Math.min(available, len);
+	System.arraycopy(records.get(index).getBytes(), position, b, off, result);
+	position += result;
+	return result;
+    }
+
+    /**
+     * skips the records which are played completely or whose request was
+     * written.
+     *
+     * @return the record to play next or NULL at the end of the capture
+     */
+    private CaptureRecord current() {
+	if (anchorNanos < 0) {
+	    anchorNanos = System.nanoTime();
+	    anchorTimestamp = records.isEmpty() ? 0 : records.get(0).getTimestamp();
+	}
+	while (index < records.size()) {
+	    CaptureRecord record = records.get(index);
+	    if (record.getDirection() == Direction.SENT) {
+		if (bytesWritten.get() < bytesExpected + record.getLength()) {
+		    return record;
+		}
+		bytesExpected += record.getLength();
+		anchorNanos = lastWriteNanos;
+		anchorTimestamp = record.getTimestamp();
+	    } else if (position < record.getLength()) {
+		return record;
+	    }
+	    index++;
+	    position = 0;
+	}
+	return null;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.config;
+
+/**
+ * What to do with a new telegram if the listener of a subscription is too
+ * slow and the queue of undelivered telegrams is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * the oldest undelivered telegram is dropped.
+     */
+    DROP_OLDEST,
+    /**
+     * only the latest telegram is kept, all undelivered telegrams are
+     * replaced by it.
+     */
+    COALESCE;
+}
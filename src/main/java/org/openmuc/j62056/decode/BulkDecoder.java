@@ -0,0 +1,268 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.decode;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.impl.TelegramFramer;
+
+/**
+ * Decodes the telegrams of an archive in parallel. The archive is a stream of
+ * raw telegrams as received from the meters, bytes between the telegrams are
+ * skipped. The telegrams are split sequentially and decoded in batches by a
+ * fork/join pool. Only a limited number of batches is in progress, so
+ * archives of any size can be decoded.
+ */
+public class BulkDecoder {
+
+    private static final int READ_BUFFER_LENGTH = 65536;
+
+    private final TelegramDecoder decoder;
+    private final int parallelism;
+    private int batchSize = 256;
+    private int maxTelegramLength = 16384;
+
+    /**
+     * Creates a bulk decoder using all processors.
+     *
+     * @param decoder the decoder of the single telegrams
+     */
+    public BulkDecoder(TelegramDecoder decoder) {
+	this(decoder, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a bulk decoder.
+     *
+     * @param decoder the decoder of the single telegrams
+     * @param parallelism the number of threads decoding telegrams
+     */
+    public BulkDecoder(TelegramDecoder decoder, int parallelism) {
+	if (parallelism < 1) {
+	    throw new IllegalArgumentException("parallelism must be at least 1");
+	}
+	this.decoder = decoder;
+	this.parallelism = parallelism;
+    }
+
+    public int getBatchSize() {
+	return batchSize;
+    }
+
+    /**
+     * Sets the number of telegrams decoded by one task.
+     *
+     * @param batchSize the number of telegrams per task
+     */
+    public void setBatchSize(int batchSize) {
+	if (batchSize < 1) {
+	    throw new IllegalArgumentException("batchSize must be at least 1");
+	}
+	this.batchSize = batchSize;
+    }
+
+    public int getMaxTelegramLength() {
+	return maxTelegramLength;
+    }
+
+    /**
+     * Sets the maximum length of a telegram. Longer telegrams are skipped.
+     *
+     * @param maxTelegramLength the maximum length in bytes
+     */
+    public void setMaxTelegramLength(int maxTelegramLength) {
+	this.maxTelegramLength = maxTelegramLength;
+    }
+
+    /**
+     * Decodes the telegrams of an archive file.
+     *
+     * @param archive the archive file
+     * @param handler the handler receiving the results
+     * @param ordered true to pass the results to the handler in the order of
+     * the archive, false to pass them as soon as they are decoded
+     * @return the number of telegrams
+     * @throws IOException if the archive can not be read
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public long decode(File archive, TelegramHandler handler, boolean ordered) throws IOException, InterruptedException {
+	try (InputStream in = new FileInputStream(archive)) {
+	    return decode(in, handler, ordered);
+	}
+    }
+
+    /**
+     * Decodes the telegrams of an archive stream. The stream is not closed.
+     *
+     * @param in the archive stream
+     * @param handler the handler receiving the results
+     * @param ordered true to pass the results to the handler in the order of
+     * the archive, false to pass them as soon as they are decoded
+     * @return the number of telegrams
+     * @throws IOException if the archive can not be read
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public long decode(InputStream in, TelegramHandler handler, boolean ordered) throws IOException, InterruptedException {
+	ForkJoinPool pool = new ForkJoinPool(parallelism);
+	try {
+	    Results results = ordered ? new OrderedResults(pool) : new UnorderedResults(pool);
+	    int maxPending = parallelism * 4;
+	    TelegramFramer framer = new TelegramFramer(maxTelegramLength);
+	    InputStream input = new BufferedInputStream(in, READ_BUFFER_LENGTH);
+	    byte[] buffer = new byte[READ_BUFFER_LENGTH];
+	    long index = 0;
+	    Batch batch = new Batch(index);
+	    int numBytesRead;
+	    while ((numBytesRead = input.read(buffer)) >= 0) {
+		for (int i = 0; i < numBytesRead; i++) {
+		    byte[] telegram = framer.add(buffer[i]);
+		    if (null == telegram) {
+			continue;
+		    }
+		    batch.telegrams.add(telegram);
+		    index++;
+		    if (batch.telegrams.size() == batchSize) {
+			results.submit(batch);
+			batch = new Batch(index);
+			while (results.pending() >= maxPending) {
+			    results.next().deliver(handler);
+			}
+		    }
+		}
+	    }
+	    if (!batch.telegrams.isEmpty()) {
+		results.submit(batch);
+	    }
+	    while (results.pending() > 0) {
+		results.next().deliver(handler);
+	    }
+	    return index;
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
+    private interface Results {
+
+	void submit(Batch batch);
+
+	int pending();
+
+	Batch next() throws IOException, InterruptedException;
+    }
+
+    private static class OrderedResults implements Results {
+
+	private final ForkJoinPool pool;
+	private final Deque<Future<Batch>> futures = new ArrayDeque<>();
+
+	OrderedResults(ForkJoinPool pool) {
+	    this.pool = pool;
+	}
+
+	@Override
+	public void submit(Batch batch) {
+	    futures.add(pool.submit(batch));
+	}
+
+	@Override
+	public int pending() {
+	    return futures.size();
+	}
+
+	@Override
+	public Batch next() throws IOException, InterruptedException {
+	    return get(futures.poll());
+	}
+    }
+
+    private static class UnorderedResults implements Results {
+
+	private final CompletionService<Batch> completionService;
+	private int pending = 0;
+
+	UnorderedResults(ForkJoinPool pool) {
+	    completionService = new ExecutorCompletionService<>(pool);
+	}
+
+	@Override
+	public void submit(Batch batch) {
+	    completionService.submit(batch);
+	    pending++;
+	}
+
+	@Override
+	public int pending() {
+	    return pending;
+	}
+
+	@Override
+	public Batch next() throws IOException, InterruptedException {
+	    Future<Batch> future = completionService.take();
+	    pending--;
+	    return get(future);
+	}
+    }
+
+    private static Batch get(Future<Batch> future) throws IOException, InterruptedException {
+	try {
+	    return future.get();
+	} catch (ExecutionException e) {
+	    throw new IOException("Decoding of telegrams failed", e.getCause());
+	}
+    }
+
+    /**
+     * telegrams decoded by one task.
+     */
+    private class Batch implements Callable<Batch> {
+
+	private final long firstIndex;
+	private final List<byte[]> telegrams = new ArrayList<>(batchSize);
+	private Object[] results;
+
+	Batch(long firstIndex) {
+	    this.firstIndex = firstIndex;
+	}
+
+	@Override
+	public Batch call() {
+	    results = new Object[telegrams.size()];
+	    for (int i = 0; i < results.length; i++) {
+		try {
+		    results[i] = decoder.decode(telegrams.get(i));
+		} catch (IOException | RuntimeException e) {
+		    results[i] = e;
+		}
+	    }
+	    return this;
+	}
+
+	void deliver(TelegramHandler handler) {
+	    for (int i = 0; i < results.length; i++) {
+		if (results[i] instanceof Readout) {
+		    handler.decoded(firstIndex + i, (Readout) results[i]);
+		} else {
+		    handler.failed(firstIndex + i, telegrams.get(i), (Exception) results[i]);
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.decode;
+
+import java.io.IOException;
+import org.openmuc.j62056.Readout;
+
+/**
+ * Decodes telegrams without a connection, e.g. telegrams of an archive. A
+ * telegram starts with the identification message "/XXXZ Ident CR LF",
+ * followed by an optional empty line, an optional STX and the data lines up
+ * to "!CR LF". This covers the telegrams pushed in Mode D as well as the
+ * identification and the data message of a Mode C readout. The telegram is
+ * parsed by <code>TelegramIndex</code>, a telegram which is indexed anyway,
+ * e.g. to encode it, is decoded with <code>TelegramIndex.toReadout()</code>
+ * without parsing it again.
+ * <p>
+ * The decoder has no mutable state and can be used by several threads at the
+ * same time.
+ */
+public class TelegramDecoder {
+
+    private final boolean recoverMalformedLines;
+
+    /**
+     * Creates a decoder which rejects telegrams with malformed lines.
+     */
+    public TelegramDecoder() {
+	this(false);
+    }
+
+    /**
+     * Creates a decoder.
+     *
+     * @param recoverMalformedLines true to skip malformed lines and return
+     * them with <code>Readout.getMalformedLines()</code>, false to reject the
+     * telegram
+     */
+    public TelegramDecoder(boolean recoverMalformedLines) {
+	this.recoverMalformedLines = recoverMalformedLines;
+    }
+
+    public boolean isRecoverMalformedLines() {
+	return recoverMalformedLines;
+    }
+
+    /**
+     * Decodes a telegram. The telegram is scanned once by a
+     * <code>TelegramIndex</code>, the data sets are created from its
+     * positions.
+     *
+     * @param telegram the bytes of the telegram
+     * @return the identification followed by the data sets of the telegram
+     * @throws IOException if the telegram is not valid
+     */
+    public Readout decode(byte[] telegram) throws IOException {
+	TelegramIndex index = new TelegramIndex();
+	index.index(telegram, recoverMalformedLines);
+	return index.toReadout();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.decode;
+
+import org.openmuc.j62056.Readout;
+
+/**
+ * Receives the results of a <code>BulkDecoder</code>. The methods are called
+ * by the thread which called <code>BulkDecoder.decode</code>, one at a time.
+ */
+public interface TelegramHandler {
+
+    /**
+     * Called for a telegram which was decoded.
+     *
+     * @param index the position of the telegram in the archive, starting with
+     * 0
+     * @param readout the decoded telegram
+     */
+    void decoded(long index, Readout readout);
+
+    /**
+     * Called for a telegram which could not be decoded.
+     *
+     * @param index the position of the telegram in the archive, starting with
+     * 0
+     * @param telegram the bytes of the telegram
+     * @param e the reason
+     */
+    void failed(long index, byte[] telegram, Exception e);
+}
@@ -0,0 +1,419 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.decode;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.impl.DataSetParser;
+
+/**
+ * The positions of the identification and of the id, value and unit of every
+ * data set in the received bytes of a readout. The bytes are scanned once
+ * with the search functions of <code>DataSetParser</code>, no strings or data
+ * sets are created, so the fields can be copied or encoded directly from the
+ * received bytes. <code>toReadout()</code> creates the data sets from the
+ * positions, <code>TelegramDecoder</code> decodes telegrams this way, so
+ * decoding and encoding the same telegram does not scan it twice.
+ * <p>
+ * A Mode D telegram contains the identification message, it is indexed with
+ * <code>index(byte[])</code>. The data message of a Mode C readout does not,
+ * its identification was received in the sign-on and is passed separately to
+ * <code>index(byte[], int, int, byte[], int)</code>.
+ * <p>
+ * An index is reused for many telegrams, it only allocates memory if a
+ * telegram has more data sets than any telegram before. An index is not
+ * thread safe.
+ */
+public final class TelegramIndex {
+
+    private static final byte START_CHARACTER = 0x2F;
+    private static final byte STX = 0x02;
+    private static final int FIELDS = 6;
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private byte[] telegram = null;
+    private byte[] identification = null;
+    private int identificationStart = 0;
+    private int identificationEnd = 0;
+    private int[] positions;
+    private int count = 0;
+    private int[] malformedLines = new int[2];
+    private int malformedCount = 0;
+    private boolean recovered = false;
+
+    public TelegramIndex() {
+	this(64);
+    }
+
+    /**
+     * Creates an index.
+     *
+     * @param initialDataSets the number of data sets the index can hold
+     * before it grows
+     */
+    public TelegramIndex(int initialDataSets) {
+	positions = new int[Math.max(1, initialDataSets) * FIELDS];
+    }
+
+    /**
+     * Parses a telegram which contains the identification message
+     * "/XXXZ Ident CR LF", e.g. a Mode D telegram. Like the decoder, the
+     * first '/' is taken as the start of the identification message, so this
+     * method must not be used for a data message without one. The index
+     * refers to the given array, which must not be changed while the index
+     * is used.
+     *
+     * @param telegram the bytes of the telegram
+     * @throws IOException if the telegram is not valid
+     */
+    public void index(byte[] telegram) throws IOException {
+	index(telegram, false);
+    }
+
+    /**
+     * Parses a telegram which contains the identification message, see
+     * <code>index(byte[])</code>.
+     *
+     * @param telegram the bytes of the telegram
+     * @param recoverMalformedLines true to skip malformed lines, they are
+     * returned by <code>getMalformedLineStart</code> and
+     * <code>getMalformedLineEnd</code>, false to reject the telegram
+     * @throws IOException if the telegram is not valid
+     */
+    public void index(byte[] telegram, boolean recoverMalformedLines) throws IOException {
+	this.telegram = null;
+	count = 0;
+	malformedCount = 0;
+	int start = -1;
+	for (int i = 0; i < telegram.length; i++) {
+	    if (telegram[i] == START_CHARACTER) {
+		start = i;
+		break;
+	    }
+	}
+	int lineEnd = (start < 0) ? telegram.length : DataSetParser.findLineEnd(telegram, start);
+	if ((start < 0) || (lineEnd == telegram.length) || (lineEnd - start < 5)) {
+	    throw new IOException("Telegram does not start with an identification message.");
+	}
+	int index = lineEnd + 2;
+	if (DataSetParser.termindatedWithCrLf(telegram, index)) {
+	    index += 2;
+	}
+	// "/XXXZ" is followed by the identification
+	index(telegram, start + 5, lineEnd, telegram, index, recoverMalformedLines);
+    }
+
+    /**
+     * Parses a data message whose identification was received separately,
+     * e.g. the data message of a Mode C readout. The index refers to the
+     * given arrays, which must not be changed while the index is used.
+     *
+     * @param identification the bytes containing the identification
+     * @param identificationStart the position of the first byte of the
+     * identification
+     * @param identificationEnd the position after the last byte of the
+     * identification
+     * @param dataMessage the bytes of the data message
+     * @param dataStart the start of the data block, an optional STX is
+     * skipped
+     * @throws IOException if the data message is not valid
+     */
+    public void index(byte[] identification, int identificationStart, int identificationEnd, byte[] dataMessage, int dataStart) throws IOException {
+	index(identification, identificationStart, identificationEnd, dataMessage, dataStart, false);
+    }
+
+    /**
+     * Parses a data message whose identification was received separately,
+     * see <code>index(byte[], int, int, byte[], int)</code>.
+     *
+     * @param identification the bytes containing the identification
+     * @param identificationStart the position of the first byte of the
+     * identification
+     * @param identificationEnd the position after the last byte of the
+     * identification
+     * @param dataMessage the bytes of the data message
+     * @param dataStart the start of the data block, an optional STX is
+     * skipped
+     * @param recoverMalformedLines true to skip malformed lines, false to
+     * reject the data message
+     * @throws IOException if the data message is not valid
+     */
+    public void index(byte[] identification, int identificationStart, int identificationEnd, byte[] dataMessage, int dataStart, boolean recoverMalformedLines) throws IOException {
+	this.telegram = null;
+	count = 0;
+	malformedCount = 0;
+	if ((identificationStart < 0) || (identificationEnd < identificationStart) || (identificationEnd > identification.length)) {
+	    throw new IllegalArgumentException("invalid identification range");
+	}
+	this.identification = identification;
+	this.identificationStart = identificationStart;
+	this.identificationEnd = identificationEnd;
+	byte[] telegram = dataMessage;
+	int index = dataStart;
+	if ((index < telegram.length) && (telegram[index] == STX)) {
+	    index++;
+	}
+	if (index >= telegram.length) {
+	    throw new IOException("Telegram does not contain a data block.");
+	}
+
+	if (recoverMalformedLines) {
+	    indexLines(telegram, index);
+	} else {
+	    indexDataSets(telegram, index);
+	}
+	recovered = recoverMalformedLines;
+	this.telegram = telegram;
+    }
+
+    private void indexDataSets(byte[] telegram, int index) throws IOException {
+	while (index < telegram.length) {
+	    int valueStart = DataSetParser.findNextValueStart(telegram, index);
+	    if (valueStart < 0) {
+		throw new IOException("'(' (0x28) character is expected but not received inside data block of data message.");
+	    }
+	    int valueEnd = DataSetParser.findNextValueEnd(telegram, valueStart + 1);
+	    if (valueEnd < 0) {
+		throw new IOException("'(' (0x29) character is expected but not received inside data block of data message.");
+	    }
+	    add(telegram, index, valueStart, valueEnd);
+	    index = valueEnd + 1;
+	    if (DataSetParser.termindatedWithCrLf(telegram, index)) {
+		index += 2;
+	    }
+	    if (DataSetParser.endOfDataSets(telegram, index)) {
+		break;
+	    }
+	}
+    }
+
+    /**
+     * indexes the data lines one by one like
+     * <code>DataSetParser.parseDataSetsRecovering</code>. A malformed line is
+     * skipped up to the next CR+LF, the data sets of the well-formed lines
+     * are kept.
+     */
+    private void indexLines(byte[] telegram, int index) {
+	while ((index < telegram.length) && !DataSetParser.endOfDataSets(telegram, index)) {
+	    int lineEnd = DataSetParser.findLineEnd(telegram, index);
+	    if ((lineEnd > index) && !indexLine(telegram, index, lineEnd)) {
+		addMalformedLine(index, lineEnd);
+	    }
+	    // skip CR LF
+	    index = lineEnd + 2;
+	}
+    }
+
+    /**
+     * indexes the data sets of one data line.
+     *
+     * @return false if the line is malformed, none of its data sets is kept
+     */
+    private boolean indexLine(byte[] telegram, int lineStart, int lineEnd) {
+	int first = count;
+	int index = lineStart;
+	while (index < lineEnd) {
+	    int valueStart = DataSetParser.findNextValueStart(telegram, index);
+	    int valueEnd = ((valueStart < 0) || (valueStart >= lineEnd)) ? -1 : DataSetParser.findNextValueEnd(telegram, valueStart + 1);
+	    if ((valueEnd < 0) || (valueEnd >= lineEnd)) {
+		count = first;
+		return false;
+	    }
+	    add(telegram, index, valueStart, valueEnd);
+	    index = valueEnd + 1;
+	}
+	return true;
+    }
+
+    private void add(byte[] telegram, int idStart, int valueStart, int valueEnd) {
+	int unitStart = DataSetParser.findNextUnitStart(telegram, valueStart + 1, valueEnd);
+	if (unitStart > 0) {
+	    add(idStart, valueStart, valueStart + 1, unitStart, unitStart + 1, valueEnd);
+	} else {
+	    add(idStart, valueStart, valueStart + 1, valueEnd, valueEnd, valueEnd);
+	}
+    }
+
+    private void addMalformedLine(int start, int end) {
+	if (2 * malformedCount + 2 > malformedLines.length) {
+	    malformedLines = Arrays.copyOf(malformedLines, malformedLines.length * 2);
+	}
+	malformedLines[2 * malformedCount] = start;
+	malformedLines[2 * malformedCount + 1] = end;
+	malformedCount++;
+    }
+
+    private void add(int idStart, int idEnd, int valueStart, int valueEnd, int unitStart, int unitEnd) {
+	int position = count * FIELDS;
+	if (position + FIELDS > positions.length) {
+	    positions = Arrays.copyOf(positions, positions.length * 2);
+	}
+	positions[position] = idStart;
+	positions[position + 1] = idEnd;
+	positions[position + 2] = valueStart;
+	positions[position + 3] = valueEnd;
+	positions[position + 4] = unitStart;
+	positions[position + 5] = unitEnd;
+	count++;
+    }
+
+    /**
+     * Returns the indexed telegram or data message, the array containing
+     * the data sets.
+     *
+     * @return the telegram or NULL if no telegram was indexed successfully
+     */
+    public byte[] getTelegram() {
+	return telegram;
+    }
+
+    /**
+     * Returns the array containing the identification, the telegram itself
+     * or the separately given identification.
+     *
+     * @return the bytes of the identification
+     */
+    public byte[] getIdentification() {
+	return identification;
+    }
+
+    /**
+     * Returns the start of the identification, in a telegram the part of the
+     * identification message after the manufacturer and the baud rate
+     * character.
+     *
+     * @return the position of the first byte
+     */
+    public int getIdentificationStart() {
+	return identificationStart;
+    }
+
+    /**
+     * Returns the end of the identification.
+     *
+     * @return the position after the last byte
+     */
+    public int getIdentificationEnd() {
+	return identificationEnd;
+    }
+
+    /**
+     * Returns the number of data sets, without the identification.
+     *
+     * @return the number of data sets
+     */
+    public int getDataSetCount() {
+	return (null == telegram) ? 0 : count;
+    }
+
+    public int getIdStart(int dataSet) {
+	return position(dataSet, 0);
+    }
+
+    public int getIdEnd(int dataSet) {
+	return position(dataSet, 1);
+    }
+
+    public int getValueStart(int dataSet) {
+	return position(dataSet, 2);
+    }
+
+    public int getValueEnd(int dataSet) {
+	return position(dataSet, 3);
+    }
+
+    /**
+     * Returns the start of the unit. If the data set has no unit, start and
+     * end of the unit are equal.
+     *
+     * @param dataSet the index of the data set
+     * @return the position of the first byte of the unit
+     */
+    public int getUnitStart(int dataSet) {
+	return position(dataSet, 4);
+    }
+
+    public int getUnitEnd(int dataSet) {
+	return position(dataSet, 5);
+    }
+
+    /**
+     * Returns the number of skipped malformed lines.
+     *
+     * @return the number of lines, always 0 if the telegram was indexed
+     * without recovering malformed lines
+     */
+    public int getMalformedLineCount() {
+	return (null == telegram) ? 0 : malformedCount;
+    }
+
+    public int getMalformedLineStart(int line) {
+	return malformedLine(line, 0);
+    }
+
+    /**
+     * Returns the end of a malformed line.
+     *
+     * @param line the index of the malformed line
+     * @return the position of the CR of the line
+     */
+    public int getMalformedLineEnd(int line) {
+	return malformedLine(line, 1);
+    }
+
+    private int malformedLine(int line, int field) {
+	if ((line < 0) || (line >= getMalformedLineCount())) {
+	    throw new IndexOutOfBoundsException("no malformed line " + line);
+	}
+	return malformedLines[2 * line + field];
+    }
+
+    /**
+     * Creates the readout of the indexed telegram from the positions, the
+     * telegram is not scanned again.
+     *
+     * @return the identification followed by the data sets, with the
+     * malformed lines if they were recovered
+     * @throws IllegalStateException if no telegram was indexed successfully
+     */
+    public Readout toReadout() {
+	if (null == telegram) {
+	    throw new IllegalStateException("no telegram indexed");
+	}
+	List<DataSet> dataSets = new ArrayList<>(count + 1);
+	dataSets.add(new DataSet(string(identification, identificationStart, identificationEnd), "", ""));
+	for (int i = 0; i < count; i++) {
+	    int position = i * FIELDS;
+	    dataSets.add(new DataSet(string(telegram, positions[position], positions[position + 1]),
+		    string(telegram, positions[position + 2], positions[position + 3]),
+		    string(telegram, positions[position + 4], positions[position + 5])));
+	}
+	List<String> malformed = null;
+	if (recovered) {
+	    malformed = new ArrayList<>(malformedCount);
+	    for (int i = 0; i < malformedCount; i++) {
+		malformed.add(string(telegram, malformedLines[2 * i], malformedLines[2 * i + 1]));
+	    }
+	}
+	return new Readout(dataSets, malformed);
+    }
+
+    private static String string(byte[] bytes, int start, int end) {
+	return new String(bytes, start, end - start, CHARSET);
+    }
+
+    private int position(int dataSet, int field) {
+	if ((dataSet < 0) || (dataSet >= getDataSetCount())) {
+	    throw new IndexOutOfBoundsException("no data set " + dataSet);
+	}
+	return positions[dataSet * FIELDS + field];
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.encode;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import org.openmuc.j62056.decode.TelegramIndex;
+
+/**
+ * Encodes an indexed telegram as CBOR (RFC 7049) with the same structure as
+ * the <code>JsonReadoutEncoder</code>: a map with the text "identification"
+ * and the array "dataSets" of maps with the texts "id", "value" and "unit".
+ * All lengths are definite. The fields are copied directly from the bytes of
+ * the telegram into the target buffer, no strings are created. Bytes which
+ * are not ASCII are replaced by '?', so every text is valid UTF-8.
+ * <p>
+ * The encoder has no state and can be used by several threads at the same
+ * time.
+ */
+public class CborReadoutEncoder {
+
+    private static final int MAJOR_TYPE_TEXT = 3 << 5;
+    private static final int MAJOR_TYPE_ARRAY = 4 << 5;
+    private static final int MAJOR_TYPE_MAP = 5 << 5;
+
+    private static final byte[] IDENTIFICATION = text("identification");
+    private static final byte[] DATA_SETS = text("dataSets");
+    private static final byte[] ID = text("id");
+    private static final byte[] VALUE = text("value");
+    private static final byte[] UNIT = text("unit");
+
+    /**
+     * Encodes a telegram at the position of the target buffer.
+     *
+     * @param index the index of the telegram
+     * @param target the buffer receiving the CBOR data item
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the data item does not fit into the
+     * buffer, the position of the buffer is not changed
+     */
+    public int encode(TelegramIndex index, ByteBuffer target) {
+	byte[] telegram = index.getTelegram();
+	if (null == telegram) {
+	    throw new IllegalArgumentException("no telegram indexed");
+	}
+	int start = target.position();
+	try {
+	    putHeader(MAJOR_TYPE_MAP, 2, target);
+	    target.put(IDENTIFICATION);
+	    putText(index.getIdentification(), index.getIdentificationStart(), index.getIdentificationEnd(), target);
+	    target.put(DATA_SETS);
+	    int count = index.getDataSetCount();
+	    putHeader(MAJOR_TYPE_ARRAY, count, target);
+	    for (int i = 0; i < count; i++) {
+		putHeader(MAJOR_TYPE_MAP, 3, target);
+		target.put(ID);
+		putText(telegram, index.getIdStart(i), index.getIdEnd(i), target);
+		target.put(VALUE);
+		putText(telegram, index.getValueStart(i), index.getValueEnd(i), target);
+		target.put(UNIT);
+		putText(telegram, index.getUnitStart(i), index.getUnitEnd(i), target);
+	    }
+	} catch (BufferOverflowException e) {
+	    target.position(start);
+	    throw e;
+	}
+	return target.position() - start;
+    }
+
+    private static void putText(byte[] telegram, int from, int to, ByteBuffer target) {
+	putHeader(MAJOR_TYPE_TEXT, to - from, target);
+	int plain = from;
+	for (int i = from; i < to; i++) {
+	    if (telegram[i] < 0) {
+		target.put(telegram, plain, i - plain);
+		target.put((byte) '?');
+		plain = i + 1;
+	    }
+	}
+	target.put(telegram, plain, to - plain);
+    }
+
+    /**
+     * writes the initial byte of a data item with its length or count.
+     */
+    static void putHeader(int majorType, long value, ByteBuffer target) {
+	if (value < 24) {
+	    target.put((byte) (majorType | value));
+	} else if (value <= 0xFF) {
+	    target.put((byte) (majorType | 24)).put((byte) value);
+	} else if (value <= 0xFFFF) {
+	    target.put((byte) (majorType | 25));
+	    putBigEndian(value, 2, target);
+	} else if (value <= 0xFFFFFFFFL) {
+	    target.put((byte) (majorType | 26));
+	    putBigEndian(value, 4, target);
+	} else {
+	    target.put((byte) (majorType | 27));
+	    putBigEndian(value, 8, target);
+	}
+    }
+
+    /**
+     * writes in network byte order independent of the order of the buffer.
+     */
+    private static void putBigEndian(long value, int length, ByteBuffer target) {
+	for (int i = length - 1; i >= 0; i--) {
+	    target.put((byte) (value >>> (8 * i)));
+	}
+    }
+
+    private static byte[] text(String s) {
+	ByteBuffer buffer = ByteBuffer.allocate(s.length() + 9);
+	putHeader(MAJOR_TYPE_TEXT, s.length(), buffer);
+	buffer.put(JsonReadoutEncoder.ascii(s));
+	byte[] result = new byte[buffer.position()];
+	buffer.flip();
+	buffer.get(result);
+	return result;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.encode;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import org.openmuc.j62056.decode.TelegramIndex;
+
+/**
+ * Encodes an indexed telegram as JSON:
+ * <pre>
+ * {"identification":"\\2M550T-1012","dataSets":[{"id":"1-0:1.8.1","value":"000123.456","unit":"kWh"}]}
+ * </pre>
+ * The fields are copied directly from the bytes of the telegram into the
+ * target buffer, no strings are created. Quotes, backslashes and bytes which
+ * are not printable ASCII are escaped.
+ * <p>
+ * The encoder has no state and can be used by several threads at the same
+ * time.
+ */
+public class JsonReadoutEncoder {
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] IDENTIFICATION = ascii("{\"identification\":\"");
+    private static final byte[] DATA_SETS = ascii("\",\"dataSets\":[");
+    private static final byte[] ID = ascii("{\"id\":\"");
+    private static final byte[] VALUE = ascii("\",\"value\":\"");
+    private static final byte[] UNIT = ascii("\",\"unit\":\"");
+    private static final byte[] DATA_SET_END = ascii("\"}");
+    private static final byte[] END = ascii("]}");
+
+    /**
+     * Encodes a telegram at the position of the target buffer.
+     *
+     * @param index the index of the telegram
+     * @param target the buffer receiving the JSON
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the JSON does not fit into the
+     * buffer, the position of the buffer is not changed
+     */
+    public int encode(TelegramIndex index, ByteBuffer target) {
+	byte[] telegram = index.getTelegram();
+	if (null == telegram) {
+	    throw new IllegalArgumentException("no telegram indexed");
+	}
+	int start = target.position();
+	try {
+	    target.put(IDENTIFICATION);
+	    putString(index.getIdentification(), index.getIdentificationStart(), index.getIdentificationEnd(), target);
+	    target.put(DATA_SETS);
+	    int count = index.getDataSetCount();
+	    for (int i = 0; i < count; i++) {
+		if (i > 0) {
+		    target.put((byte) ',');
+		}
+		target.put(ID);
+		putString(telegram, index.getIdStart(i), index.getIdEnd(i), target);
+		target.put(VALUE);
+		putString(telegram, index.getValueStart(i), index.getValueEnd(i), target);
+		target.put(UNIT);
+		putString(telegram, index.getUnitStart(i), index.getUnitEnd(i), target);
+		target.put(DATA_SET_END);
+	    }
+	    target.put(END);
+	} catch (BufferOverflowException e) {
+	    target.position(start);
+	    throw e;
+	}
+	return target.position() - start;
+    }
+
+    private static void putString(byte[] telegram, int from, int to, ByteBuffer target) {
+	int plain = from;
+	for (int i = from; i < to; i++) {
+	    int b = telegram[i] & 0xFF;
+	    if ((b >= 0x20) && (b < 0x7F) && (b != '"') && (b != '\\')) {
+		continue;
+	    }
+	    target.put(telegram, plain, i - plain);
+	    plain = i + 1;
+	    if ((b == '"') || (b == '\\')) {
+		target.put((byte) '\\').put((byte) b);
+	    } else {
+		target.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0').put(HEX[b >> 4]).put(HEX[b & 0xF]);
+	    }
+	}
+	target.put(telegram, plain, to - plain);
+    }
+
+    static byte[] ascii(String s) {
+	byte[] result = new byte[s.length()];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = (byte) s.charAt(i);
+	}
+	return result;
+    }
+}
@@ -20,10 +20,6 @@
  */
 package org.openmuc.j62056.impl;
 
-import gnu.io.CommPort;
-import gnu.io.CommPortIdentifier;
-import gnu.io.NoSuchPortException;
-import gnu.io.PortInUseException;
 import gnu.io.SerialPort;
 import gnu.io.UnsupportedCommOperationException;
 import java.io.IOException;
@@ -33,11 +29,24 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import org.openmuc.j62056.DataSet;
 import org.openmuc.j62056.MessageNotCompleteException;
-import org.openmuc.j62056.model.BaudRate;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.ReadoutListener;
+import org.openmuc.j62056.archive.TelegramArchive;
+import org.openmuc.j62056.capture.CaptureWriter;
+import org.openmuc.j62056.capture.Direction;
+import org.openmuc.j62056.config.Mode;
+import org.openmuc.j62056.metrics.MetricsRegistry;
+import org.openmuc.j62056.metrics.Phase;
+import org.openmuc.j62056.metrics.PhaseEvent;
+import org.openmuc.j62056.metrics.PortMetrics;
+import org.openmuc.j62056.metrics.ProtocolTracer;
 import org.openmuc.j62056.model.Header;
+import org.openmuc.j62056.port.PortRegistry;
 
 public abstract class AbstractConnection implements AutoCloseable {
 
@@ -51,24 +60,71 @@ public abstract class AbstractConnection implements AutoCloseable {
     private int parity;
     private int databits;
     private int stopbits;
+    private boolean directOpen = false;
+    private boolean recoverMalformedLines = false;
+    private boolean returnPartialResults = false;
+    private int parallelParseThreshold = 0;
+    private int maxMessageLength = MAX_MESSAGE_LENGTH;
+    private int pipelineBufferSize = 0;
+    private SerialReceiver receiver;
+    private final PortMetrics metrics;
+    private volatile ProtocolTracer tracer;
+    private volatile CaptureWriter capture;
+    private volatile IOException captureError;
+    private volatile TelegramArchive archive;
+    private volatile IOException archiveError;
+    private volatile RuntimeException listenerError;
+    private boolean changesOnly = false;
+    private final ChangeTracker changeTracker = new ChangeTracker();
+    private final List<ReadoutListener> readoutListeners = new CopyOnWriteArrayList<>();
+    private int currentBaudRate;
+    private int currentDatabits = -1;
+    private int currentStopbits = -1;
+    private int currentParity = -1;
+    private boolean softwareParity = false;
+    private EchoCanceller echoCanceller;
+    private volatile boolean parityInSoftware = false;
 
     private OutputStream os;
     private InputStream is;
 
     protected static final byte[] REQUEST_MESSAGE = new byte[]{(byte) 0x2F, (byte) 0x3F, (byte) 0x21, (byte) 0x0D, (byte) 0x0A};
 
+    /**
+     * the maximum length of a device address.
+     */
+    protected static final int MAX_DEVICE_ADDRESS_LENGTH = 32;
+
     protected static final byte[] ACKNOWLEDGE = new byte[]{(byte) 0x06, (byte) 0x30, (byte) 0x30, (byte) 0x30, (byte) 0x0D, (byte) 0x0A};
 
     protected static final byte[] COMPLETION_CHARACTERS = new byte[]{(byte) 0x0D, (byte) 0x0A};
 
     protected static final byte[] MESSAGE_COMPLETION_CHARACTERS = new byte[]{(byte) 0x21, (byte) 0x0D, (byte) 0x0A};
 
-    private static final int INPUT_BUFFER_LENGTH = 1024;
+    protected static final int INPUT_BUFFER_LENGTH = 1024;
+
+    /**
+     * the default maximum length of a received message.
+     */
+    protected static final int MAX_MESSAGE_LENGTH = 1048576;
     //private final byte[] buffer = new byte[INPUT_BUFFER_LENGTH];
 
     private static final Charset charset = Charset.forName("US-ASCII");
 
-    private static final int SLEEP_INTERVAL = 100;
+    protected static final int SLEEP_INTERVAL = 100;
+
+    /**
+     * the time in ms an echo may arrive later than the sent bytes take on the
+     * line, e.g. because of the latency of an USB serial adapter.
+     */
+    protected static final int ECHO_MARGIN = 200;
+
+    private static final int ECHO_POLL_INTERVAL = 10;
+
+    /**
+     * replaces a received character with a parity error.
+     */
+    protected static final byte SUBSTITUTE_CHARACTER = 0x1A;
 
     /**
      * Creates a Connection object. You must call <code>open()</code> before
@@ -93,7 +149,11 @@ public abstract class AbstractConnection implements AutoCloseable {
 
 	serialPortName = serialPort;
 	this.handleEcho = handleEcho;
+	if (handleEcho) {
+	    echoCanceller = new EchoCanceller(false);
+	}
 	this.baudRateChangeDelay = baudRateChangeDelay;
+	metrics = MetricsRegistry.getDefault().forPort(serialPort);
     }
 
     /**
@@ -133,52 +193,107 @@ public abstract class AbstractConnection implements AutoCloseable {
      */
     public void open() throws IOException {
 
-	CommPortIdentifier portIdentifier;
-	try {
-	    portIdentifier = CommPortIdentifier.getPortIdentifier(serialPortName);
-	} catch (NoSuchPortException e) {
-	    throw new IOException("Serial port with given name does not exist", e);
-	}
-
-	if (portIdentifier.isCurrentlyOwned()) {
-	    throw new IOException("Serial port is currently in use.");
+	resetPortSettings();
+	if (directOpen) {
+	    serialPort = PortRegistry.getDefault().open(serialPortName, this.getClass().getName(), 2000);
+	} else {
+	    serialPort = PortRegistry.openByIdentifier(serialPortName, this.getClass().getName(), 2000);
 	}
 
-	CommPort commPort;
-	try {
-	    commPort = portIdentifier.open(this.getClass().getName(), 2000);
-	} catch (PortInUseException e) {
-	    throw new IOException("Serial port is currently in use.", e);
-	}
-
-	if (!(commPort instanceof SerialPort)) {
-	    commPort.close();
-	    throw new IOException("The specified CommPort is not a serial port");
-	}
-
-	serialPort = (SerialPort) commPort;
-
 	try {
 	    os = serialPort.getOutputStream();
 	    is = serialPort.getInputStream();
 	} catch (IOException e) {
-	    serialPort.close();
-	    serialPort = null;
+	    close();
 	    throw new IOException("Error getting input or output or input stream from serial port", e);
 	}
+	startPipeline();
 
     }
 
+    /**
+     * Opens the connection on the given streams instead of the serial port,
+     * e.g. to replay a capture log with a <code>ReplayInputStream</code>. The
+     * serial port settings are not applied.
+     *
+     * @param is the stream of the bytes received from the meter
+     * @param os the stream of the bytes sent to the meter
+     */
+    public void open(InputStream is, OutputStream os) {
+	if (isOpen()) {
+	    throw new IllegalStateException("Connection is already open.");
+	}
+	resetPortSettings();
+	this.is = is;
+	this.os = os;
+	startPipeline();
+    }
+
+    /**
+     * starts the receiver thread if the pipeline mode is enabled.
+     */
+    private void startPipeline() {
+	if (pipelineBufferSize > 0) {
+	    receiver = new SerialReceiver(serialPortName, is, pipelineBufferSize);
+	    is = receiver.getInputStream();
+	    receiver.start();
+	}
+    }
+
     /**
      * Closes the serial port.
      */
     @Override
     public void close() {
+	if (null != receiver) {
+	    receiver.stop();
+	    receiver = null;
+	}
+	is = null;
+	os = null;
 	if (serialPort == null) {
 	    return;
 	}
 	serialPort.close();
 	serialPort = null;
+	if (directOpen) {
+	    PortRegistry.getDefault().release(serialPortName);
+	}
+    }
+
+    /**
+     * Checks if the serial port or the streams of this connection are open.
+     *
+     * @return true if the connection is open
+     */
+    public boolean isOpen() {
+	return (null != getSerialPort()) || (null != is);
+    }
+
+    /**
+     * Discards the bytes which are available on the input stream, e.g. the
+     * rest of a message which was not read completely.
+     *
+     * @param maxBytes the maximum number of bytes to discard, if the remote
+     * device sends continuously more bytes are available afterwards
+     * @return the number of discarded bytes
+     * @throws IOException if the input stream can not be read
+     */
+    public int drainInput(int maxBytes) throws IOException {
+	if (null == is) {
+	    return 0;
+	}
+	byte[] buffer = new byte[INPUT_BUFFER_LENGTH];
+	int result = 0;
+	int available;
+	while ((result < maxBytes) && ((available = is.available()) > 0)) {
+	    int numBytesRead = is.read(buffer, 0, Math.min(Math.min(available, buffer.length), maxBytes - result));
+	    if (numBytesRead <= 0) {
+		break;
+	    }
+	    result += numBytesRead;
+	}
+	return result;
     }
 
     /**
@@ -196,6 +311,96 @@ public abstract class AbstractConnection implements AutoCloseable {
      */
     public abstract List<DataSet> read() throws IOException, TimeoutException;
 
+    /**
+     * Requests a data message from the remote device and returns the data
+     * sets together with the lines which could not be parsed.
+     *
+     * @return the readout
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device.
+     * @throws TimeoutException if no response at all was received from the
+     * meter within the timeout span.
+     */
+    public Readout readout() throws IOException, TimeoutException {
+	return new Readout(read(), null);
+    }
+
+    /**
+     * Requests a data message from the remote device with the given device
+     * address and returns the data sets together with the lines which could
+     * not be parsed.
+     *
+     * @param deviceAddress the device address of the meter, NULL or empty to
+     * send the request without an address
+     * @return the readout
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device.
+     * @throws TimeoutException if no response at all was received from the
+     * meter within the timeout span.
+     * @throws UnsupportedOperationException if the mode of the connection does
+     * not support addressed requests
+     */
+    public Readout readout(String deviceAddress) throws IOException, TimeoutException {
+	if ((null == deviceAddress) || deviceAddress.isEmpty()) {
+	    return readout();
+	}
+	throw new UnsupportedOperationException("Addressed requests are not supported by this connection");
+    }
+
+    /**
+     * Requests a data message from the remote device with the given device
+     * address. The address selects one of several meters connected to the
+     * same bus, e.g. RS-485.
+     *
+     * @param deviceAddress the device address of the meter, NULL or empty to
+     * send the request without an address
+     * @return A list of data sets contained in the data message response from
+     * the remote device. The first data set will contain the "identification"
+     * of the meter as the id and empty strings for value and unit.
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device.
+     * @throws TimeoutException if no response at all was received from the
+     * meter within the timeout span.
+     * @throws UnsupportedOperationException if the mode of the connection does
+     * not support addressed requests
+     */
+    public List<DataSet> read(String deviceAddress) throws IOException, TimeoutException {
+	if ((null == deviceAddress) || deviceAddress.isEmpty()) {
+	    return read();
+	}
+	throw new UnsupportedOperationException("Addressed requests are not supported by this connection");
+    }
+
+    /**
+     * creates the request message "/?&lt;device address&gt;!\r\n".
+     *
+     * @param deviceAddress the device address, NULL or empty for the request
+     * message without address
+     * @return the request message
+     * @throws IllegalArgumentException if the address is too long or contains
+     * other characters than digits, letters and spaces
+     */
+    protected static byte[] createRequestMessage(String deviceAddress) {
+	if ((null == deviceAddress) || deviceAddress.isEmpty()) {
+	    return REQUEST_MESSAGE;
+	}
+	if (deviceAddress.length() > MAX_DEVICE_ADDRESS_LENGTH) {
+	    throw new IllegalArgumentException("Device address may not be longer than " + MAX_DEVICE_ADDRESS_LENGTH + " characters");
+	}
+	byte[] result = new byte[REQUEST_MESSAGE.length + deviceAddress.length()];
+	result[0] = REQUEST_MESSAGE[0];
+	result[1] = REQUEST_MESSAGE[1];
+	for (int i = 0; i < deviceAddress.length(); i++) {
+	    char c = deviceAddress.charAt(i);
+	    if (!(((c >= '0') && (c <= '9')) || ((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z')) || (c == ' '))) {
+		throw new IllegalArgumentException("Invalid character in device address: " + c);
+	    }
+	    result[2 + i] = (byte) c;
+	}
+	System.arraycopy(REQUEST_MESSAGE, 2, result, 2 + deviceAddress.length(), REQUEST_MESSAGE.length - 2);
+	return result;
+    }
+
     /**
      * read the datasets.
      *
@@ -205,44 +410,112 @@ public abstract class AbstractConnection implements AutoCloseable {
      * @throws IOException
      */
     protected List<DataSet> readDataSets(final byte[] datasets, final int offset) throws IOException {
-	List<DataSet> result = new ArrayList<>();
-	if (null != datasets) {
-	    int index = offset;
-	    while (index < datasets.length) {
-		int nextValueStart = findNextValueStart(datasets, index);
-		if (nextValueStart < 0) {
-		    throw new IOException("'(' (0x28) character is expected but not received inside data block of data message.");
-		}
-		String id = new String(datasets, index, nextValueStart - index, charset);
-		index = nextValueStart + 1;
+	return readDataSets(datasets, offset, null);
+    }
 
-		int nextValueEnd = findNextValueEnd(datasets, index);
-		if (nextValueEnd < 0) {
-		    throw new IOException("'(' (0x29) character is expected but not received inside data block of data message.");
-		}
-		String value;
-		String unit = "";
-		int nextUnitStart = findNextUnitStart(datasets, index, nextValueEnd);
-		if (nextUnitStart > 0) {
-		    value = new String(datasets, index, nextUnitStart - index, charset);
-		    index = nextUnitStart + 1;
-		    unit = new String(datasets, index, nextValueEnd - index, charset);
-		    index = nextValueEnd + 1;
-		} else {
-		    value = new String(datasets, index, nextValueEnd - index, charset);
-		    index = nextValueEnd + 1;
-		}
-		result.add(new DataSet(id, value, unit));
+    /**
+     * read the datasets. If a list for malformed lines is given, a line
+     * which can not be parsed does not abort the parsing. The line is added
+     * to the list instead and the parsing continues with the next line.
+     *
+     * @param datasets the byte array with the data message
+     * @param offset the start of the first data line
+     * @param malformedLines the list receiving the malformed lines, NULL to
+     * throw an IOException at the first malformed line
+     * @return the readed data lines
+     * @throws IOException
+     */
+    protected List<DataSet> readDataSets(final byte[] datasets, final int offset, final List<String> malformedLines) throws IOException {
+	long start = System.nanoTime();
+	boolean successful = false;
+	try {
+	    List<DataSet> result;
+	    if ((parallelParseThreshold > 0) && (null != datasets) && (datasets.length - offset >= parallelParseThreshold)) {
+		result = DataSetParser.parseDataSetsParallel(datasets, offset, malformedLines, DataSetParser.PARALLEL_CHUNK_SIZE);
+	    } else if (null == malformedLines) {
+		result = DataSetParser.parseDataSets(datasets, offset);
+	    } else {
+		result = DataSetParser.parseDataSetsRecovering(datasets, offset, malformedLines);
+	    }
+	    successful = true;
+	    return result;
+	} finally {
+	    recordPhase(Phase.PARSE, start, null == datasets ? 0 : Math.max(0, datasets.length - offset), successful);
+	}
+    }
 
-		if (termindatedWithCrLf(datasets, index)) {
-		    index += 2;
-		}
-		if (endOfDataSets(datasets, index)) {
-		    break;
-		}
+    /**
+     * parses a complete data message into a readout. If only changes are
+     * requested, the readout contains only the data sets of the lines which
+     * differ from the previous data message of the meter.
+     *
+     * @param deviceAddress the device address of the meter, NULL or empty if
+     * the meter was read without an address
+     * @param identification the identification of the meter
+     * @param datasets the byte array with the data message
+     * @param offset the start of the first data line
+     * @return the readout
+     * @throws IOException if a data line is malformed and the recovery of
+     * malformed lines is disabled
+     */
+    protected Readout parseReadout(String deviceAddress, String identification, byte[] datasets, int offset) throws IOException {
+	List<String> malformedLines = recoverMalformedLines ? new ArrayList<String>() : null;
+	List<DataSet> result = new ArrayList<>();
+	result.add(new DataSet(identification, "", ""));
+	if (!changesOnly) {
+	    result.addAll(readDataSets(datasets, offset, malformedLines));
+	    return new Readout(result, malformedLines);
+	}
+	long start = System.nanoTime();
+	boolean successful = false;
+	try {
+	    // the identification tells a replaced meter at the same address apart
+	    String meter = ((null == deviceAddress) ? "" : deviceAddress) + "#" + identification;
+	    List<DataSet> changed = changeTracker.parseChanged(meter, datasets, offset, malformedLines);
+	    if (null != changed) {
+		result.addAll(changed);
 	    }
+	    successful = true;
+	    return new Readout(result, malformedLines, true, true);
+	} finally {
+	    recordPhase(Phase.PARSE, start, null == datasets ? 0 : Math.max(0, datasets.length - offset), successful);
 	}
-	return result;
+    }
+
+    /**
+     * returns the data lines of an interrupted data message which were
+     * received completely.
+     *
+     * @param bytes the received bytes, e.g. of a
+     * <code>MessageNotCompleteException</code>
+     * @param bytesRead the number of valid bytes
+     * @param offset the start of the first data line
+     * @return the received bytes up to and including the last CR+LF or NULL
+     * if no data line was received completely
+     */
+    protected byte[] completeLines(final byte[] bytes, final int bytesRead, final int offset) {
+	if (null == bytes) {
+	    return null;
+	}
+	int length = Math.min(bytesRead, bytes.length);
+	for (int i = length - 2; i >= offset; i--) {
+	    if ((bytes[i] == COMPLETION_CHARACTERS[0]) && (bytes[i + 1] == COMPLETION_CHARACTERS[1])) {
+		return Arrays.copyOf(bytes, i + 2);
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * finds the end of the data line starting at the given position.
+     *
+     * @param datasets the byte array with the data lines
+     * @param offset the start of the line
+     * @return the position of the CR+LF terminating the line or the length of
+     * the byte array if the line is not terminated
+     */
+    protected int findLineEnd(final byte[] datasets, final int offset) {
+	return DataSetParser.findLineEnd(datasets, offset);
     }
 
     /**
@@ -253,14 +526,7 @@ public abstract class AbstractConnection implements AutoCloseable {
      * @return the next start of a value or -1
      */
     protected int findNextValueStart(final byte[] datasets, final int offset) {
-	int result = -1;
-	for (int i = offset; i < datasets.length - 1; i++) {
-	    if (datasets[i] == (byte) 0x28) {
-		result = i;
-		break;
-	    }
-	}
-	return result;
+	return DataSetParser.findNextValueStart(datasets, offset);
     }
 
     /**
@@ -271,14 +537,7 @@ public abstract class AbstractConnection implements AutoCloseable {
      * @return the next end of the value or -1
      */
     protected int findNextValueEnd(final byte[] datasets, final int offset) {
-	int result = -1;
-	for (int i = offset; i < datasets.length - 1; i++) {
-	    if (datasets[i] == 0x29) {
-		result = i;
-		break;
-	    }
-	}
-	return result;
+	return DataSetParser.findNextValueEnd(datasets, offset);
     }
 
     /**
@@ -290,15 +549,7 @@ public abstract class AbstractConnection implements AutoCloseable {
      * @return the next start of a unit or -1
      */
     protected int findNextUnitStart(final byte[] datasets, final int offset, final int upto) {
-	int result = -1;
-	for (int i = offset; (i < upto) && (i < datasets.length); i++) {
-	    if (datasets[i] == 0x2A) {
-		// found '*'; start of unit
-		result = i;
-		break;
-	    }
-	}
-	return result;
+	return DataSetParser.findNextUnitStart(datasets, offset, upto);
     }
 
     /**
@@ -309,7 +560,7 @@ public abstract class AbstractConnection implements AutoCloseable {
      * @return true if the next bytes indicate the end of a data block
      */
     protected boolean endOfDataSets(final byte[] datasets, final int offset) {
-	return endsWith(datasets, offset + 3, MESSAGE_COMPLETION_CHARACTERS);
+	return DataSetParser.endOfDataSets(datasets, offset);
     }
 
     /**
@@ -321,12 +572,25 @@ public abstract class AbstractConnection implements AutoCloseable {
      * data line
      */
     protected boolean termindatedWithCrLf(final byte[] datasets, final int offset) {
-	return endsWith(datasets, offset + 2, COMPLETION_CHARACTERS);
+	return DataSetParser.termindatedWithCrLf(datasets, offset);
     }
 
     protected void sendData(OutputStream os, byte[] bytes) throws IOException {
-	os.write(bytes);
-	os.flush();
+	long start = System.nanoTime();
+	boolean successful = false;
+	try {
+	    byte[] encoded = parityInSoftware ? encodeEvenParity(bytes) : bytes;
+	    os.write(encoded);
+	    os.flush();
+	    metrics.addBytesSent(bytes.length);
+	    capture(Direction.SENT, encoded, 0, encoded.length);
+	    if (null != echoCanceller) {
+		echoCanceller.expect(bytes, 0, bytes.length);
+	    }
+	    successful = true;
+	} finally {
+	    recordPhase(Phase.SEND, start, bytes.length, successful);
+	}
     }
 
     /**
@@ -342,8 +606,9 @@ public abstract class AbstractConnection implements AutoCloseable {
      * expected bytes
      */
     protected byte[] readData(InputStream is, int readAtLeastBytes, byte[] readEnd, int timeout) throws IOException, MessageNotCompleteException {
+	long start = System.nanoTime();
 	boolean readSuccessful = false;
-	byte[] readBuffer = new byte[INPUT_BUFFER_LENGTH];
+	byte[] readBuffer = new byte[Math.min(INPUT_BUFFER_LENGTH, maxMessageLength)];
 	int timeval = 0;
 	int numBytesReadTotal = 0;
 
@@ -354,12 +619,23 @@ public abstract class AbstractConnection implements AutoCloseable {
 		    bytesToRead = readAtLeastBytes;
 		}
 
-		if (numBytesReadTotal + bytesToRead >= INPUT_BUFFER_LENGTH) {
-		    throw new MessageNotCompleteException(numBytesReadTotal, readBuffer, "Buffer to small for message");
+		// space for bytes held back by the echo canceller
+		int reserve = (null == echoCanceller) ? 0 : EchoCanceller.MAX_RELEASED_BYTES;
+		if (numBytesReadTotal + bytesToRead + reserve >= readBuffer.length) {
+		    if (numBytesReadTotal + bytesToRead >= maxMessageLength) {
+			throw new MessageNotCompleteException(numBytesReadTotal, readBuffer, "Buffer to small for message");
+		    }
+		    readBuffer = Arrays.copyOf(readBuffer, Math.min(Math.max(readBuffer.length * 2, numBytesReadTotal + bytesToRead + reserve + 1), maxMessageLength + reserve));
 		}
 		int numBytesRead = is.read(readBuffer, numBytesReadTotal, bytesToRead);
 
 		if (numBytesRead > 0) {
+		    capture(Direction.RECEIVED, readBuffer, numBytesReadTotal, numBytesRead);
+		    decodeReceived(readBuffer, numBytesReadTotal, numBytesRead);
+		    metrics.addBytesReceived(numBytesRead);
+		    if (null != echoCanceller) {
+			numBytesRead = echoCanceller.filter(readBuffer, numBytesReadTotal, numBytesRead);
+		    }
 		    numBytesReadTotal += numBytesRead;
 		    timeval = 0;
 		}
@@ -378,28 +654,70 @@ public abstract class AbstractConnection implements AutoCloseable {
 	    timeval += SLEEP_INTERVAL;
 	}
 
+	recordPhase(Phase.RECEIVE, start, numBytesReadTotal, readSuccessful);
 	if (!readSuccessful) {
+	    if (numBytesReadTotal == 0) {
+		metrics.timeout();
+	    } else {
+		metrics.incompleteMessage();
+	    }
 	    throw new MessageNotCompleteException(numBytesReadTotal, readBuffer, "Error while reading message");
 	}
 	return Arrays.copyOf(readBuffer, numBytesReadTotal);
     }
 
-    protected boolean endsWith(final byte[] input, final int readedBytes, final byte[] endBytes) {
-	boolean result = true;
-	if (null != endBytes) {
-	    if ((null != input) && (input.length >= readedBytes) && (endBytes.length <= readedBytes)) {
-		for (int i = 1; i <= endBytes.length; i++) {
-		    if (endBytes[endBytes.length - i] != input[readedBytes - i]) {
-			result = false;
-			break;
-		    }
+    /**
+     * waits until the echo of the sent bytes was received, e.g. before the
+     * baud rate is changed. A received echo shows that the sent bytes left
+     * the UART, changing the baud rate earlier may garble them. Nothing is
+     * awaited if no echo is expected: if the echo is neither handled nor
+     * detected. Received bytes which are not part of the echo are dropped.
+     * <p>
+     * The echo is awaited at most as long as the sent bytes take at the
+     * current baud rate plus a margin. If the rest of a partial echo does not
+     * arrive in this time, it is lost: the pending echo is dropped, so the
+     * following bytes are not mistaken for it.
+     *
+     * @param is the inputstream to read from
+     * @param length the number of sent bytes
+     * @return true if the echo was received, false if it was dropped
+     * @throws IOException if reading fails
+     */
+    protected boolean awaitEcho(InputStream is, int length) throws IOException {
+	if ((null == echoCanceller) || !(handleEcho || echoCanceller.isEchoDetected())) {
+	    return true;
+	}
+	int baudRate = (currentBaudRate > 0) ? currentBaudRate : 300;
+	// 10 bits per character: start bit, 7 data bits, parity and stop bit
+	long transmitTime = (length * 10L * 1000 + baudRate - 1) / baudRate;
+	long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(transmitTime + ECHO_MARGIN);
+	byte[] buffer = new byte[1 + EchoCanceller.MAX_RELEASED_BYTES];
+	while (echoCanceller.isEchoPending()) {
+	    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+	    if (remaining <= 0) {
+		echoCanceller.dropPendingEcho();
+		return false;
+	    }
+	    if (is.available() > 0) {
+		int numBytesRead = is.read(buffer, 0, 1);
+		if (numBytesRead > 0) {
+		    capture(Direction.RECEIVED, buffer, 0, numBytesRead);
+		    decodeReceived(buffer, 0, numBytesRead);
+		    metrics.addBytesReceived(numBytesRead);
+		    echoCanceller.filter(buffer, 0, numBytesRead);
 		}
 	    } else {
-		//less bytes read than expected
-		result = false;
+		try {
+		    Thread.sleep(Math.min(ECHO_POLL_INTERVAL, remaining));
+		} catch (InterruptedException e) {
+		}
 	    }
 	}
-	return result;
+	return true;
+    }
+
+    protected boolean endsWith(final byte[] input, final int readedBytes, final byte[] endBytes) {
+	return DataSetParser.endsWith(input, readedBytes, endBytes);
     }
 
     /**
@@ -414,56 +732,332 @@ public abstract class AbstractConnection implements AutoCloseable {
      * @throws IOException if the serialport does not support the settings
      */
     protected void setSerialPortParams(SerialPort serialPort, int changeDelay, int baudrate, int databits, int stopbits, int parity) throws IOException {
+	boolean software = softwareParity && (databits == SerialPort.DATABITS_7) && (parity == SerialPort.PARITY_EVEN);
+	if (software) {
+	    databits = SerialPort.DATABITS_8;
+	    parity = SerialPort.PARITY_NONE;
+	}
+	if ((baudrate == currentBaudRate) && (databits == currentDatabits) && (stopbits == currentStopbits) && (parity == currentParity)) {
+	    // the port is already configured, skip the reconfiguration and its delay
+	    return;
+	}
 	if (changeDelay > 0) {
+	    long start = System.nanoTime();
 	    try {
 		Thread.sleep(changeDelay);
 	    } catch (InterruptedException e1) {
 	    }
+	    recordPhase(Phase.CHANGE_DELAY, start, 0, true);
 	}
+	long start = System.nanoTime();
+	boolean successful = false;
 	try {
-	    serialPort.setSerialPortParams(baudrate, databits, stopbits, parity);
+	    if (null != serialPort) {
+		serialPort.setSerialPortParams(baudrate, databits, stopbits, parity);
+	    }
+	    currentBaudRate = baudrate;
+	    currentDatabits = databits;
+	    currentStopbits = stopbits;
+	    currentParity = parity;
+	    parityInSoftware = software;
+	    successful = true;
 	} catch (UnsupportedCommOperationException e) {
 	    throw new IOException("Unable to set the given serial comm parameters", e);
+	} finally {
+	    if (!successful) {
+		resetPortSettings();
+	    }
+	    recordPhase(Phase.CONFIGURE, start, 0, successful);
+	}
+    }
+
+    /**
+     * forgets the settings of the serial port, so the next call of
+     * <code>setSerialPortParams</code> configures the port.
+     */
+    private void resetPortSettings() {
+	currentBaudRate = 0;
+	currentDatabits = -1;
+	currentStopbits = -1;
+	currentParity = -1;
+	parityInSoftware = false;
+    }
+
+    /**
+     * adds the even parity bit to 7 bit characters.
+     *
+     * @param bytes the characters
+     * @return the characters with the parity bit as most significant bit
+     */
+    protected static byte[] encodeEvenParity(byte[] bytes) {
+	byte[] result = new byte[bytes.length];
+	for (int i = 0; i < bytes.length; i++) {
+	    int c = bytes[i] & 0x7F;
+	    result[i] = (byte) (((Integer.bitCount(c) & 1) == 0) ? c : (c | 0x80));
+	}
+	return result;
+    }
+
+    /**
+     * checks and removes the even parity bit of received characters if the
+     * parity is handled in software. A character with a wrong parity bit is
+     * replaced by SUB (0x1A) and counted in the metrics.
+     *
+     * @param bytes the buffer with the received bytes
+     * @param offset the start of the received bytes
+     * @param length the number of received bytes
+     */
+    protected void decodeReceived(byte[] bytes, int offset, int length) {
+	if (!parityInSoftware) {
+	    return;
+	}
+	int errors = 0;
+	for (int i = offset; i < offset + length; i++) {
+	    int c = bytes[i] & 0xFF;
+	    if ((Integer.bitCount(c) & 1) != 0) {
+		bytes[i] = SUBSTITUTE_CHARACTER;
+		errors++;
+	    } else {
+		bytes[i] = (byte) (c & 0x7F);
+	    }
+	}
+	if (errors > 0) {
+	    metrics.addParityErrors(errors);
 	}
     }
 
     protected Header convert(byte[] data) {
-	Header header = null;
-	if ((null != data) && (data.length > 0)) {
-	    int start = -1;
-	    int end = -1;
-	    for (int i = 0; i < (data.length - 1); i++) {
-		byte b = data[i];
-		switch (data[i]) {
-		    case 0x2F:
-			if ((i + 1) < data.length) {
-			    start = i + 1;
-			}
-			break;
-		    case 0x0D:
-			if (0x0A == data[i + 1]) {
-			    end = i;
-			    break;
-			}
-		    default:
-			break;
+	return DataSetParser.convert(data);
+    }
+
+    public String getSerialPortName() {
+	return serialPortName;
+    }
+
+    protected SerialPort getSerialPort() {
+	return serialPort;
+    }
+
+    /**
+     * Returns the capture writer recording the bytes exchanged by this
+     * connection.
+     *
+     * @return the capture writer or NULL if the connection is not captured
+     */
+    public CaptureWriter getCapture() {
+	return capture;
+    }
+
+    /**
+     * Sets a capture writer which records every byte sent and received by
+     * this connection with its timing. The writer is not closed by the
+     * connection. If the writer fails it is detached, see
+     * <code>getCaptureError()</code>.
+     *
+     * @param capture the capture writer, NULL to stop capturing
+     */
+    public synchronized void setCapture(CaptureWriter capture) {
+	this.capture = capture;
+	captureError = null;
+    }
+
+    public TelegramArchive getArchive() {
+	return archive;
+    }
+
+    /**
+     * Sets an archive which receives the raw bytes of every complete data
+     * message, in mode D every telegram. The archive is not closed by the
+     * connection. If the archive fails it is detached, see
+     * <code>getArchiveError()</code>.
+     *
+     * @param archive the archive, NULL to stop archiving
+     */
+    public synchronized void setArchive(TelegramArchive archive) {
+	this.archive = archive;
+	archiveError = null;
+    }
+
+    /**
+     * Returns the error which stopped the archiving.
+     *
+     * @return the last error of an archive or NULL
+     */
+    public IOException getArchiveError() {
+	return archiveError;
+    }
+
+    /**
+     * appends a received data message to the archive if the connection is
+     * archived. The archive never fails the readout: if the archive fails, it
+     * is detached from the connection, the error is counted in the metrics
+     * and kept for <code>getArchiveError()</code>.
+     *
+     * @param deviceAddress the device address of the meter, NULL or empty if
+     * the meter was read without an address
+     * @param telegram the received data message
+     */
+    protected void archive(String deviceAddress, byte[] telegram) {
+	TelegramArchive target = archive;
+	if (null != target) {
+	    try {
+		target.append(Readout.meterKey(serialPortName, deviceAddress), System.currentTimeMillis(), telegram);
+	    } catch (IOException e) {
+		synchronized (this) {
+		    if (archive == target) {
+			archive = null;
+		    }
 		}
-		if ((start != -1) && (end != -1)) {
-		    break;
+		archiveError = e;
+		metrics.archiveFailed();
+	    }
+	}
+    }
+
+    /**
+     * Returns the error which stopped the capture log.
+     *
+     * @return the last error of a capture writer or NULL
+     */
+    public IOException getCaptureError() {
+	return captureError;
+    }
+
+    /**
+     * writes the bytes to the capture log if the connection is captured. The
+     * capture log never fails the exchange with the meter: if the writer
+     * fails, it is detached from the connection, the error is counted in the
+     * metrics and kept for <code>getCaptureError()</code>.
+     *
+     * @param direction the direction of the bytes
+     * @param bytes the buffer with the bytes
+     * @param offset the start of the bytes in the buffer
+     * @param length the number of bytes
+     */
+    protected void capture(Direction direction, byte[] bytes, int offset, int length) {
+	CaptureWriter writer = capture;
+	if (null != writer) {
+	    try {
+		writer.write(direction, bytes, offset, length);
+	    } catch (IOException e) {
+		synchronized (this) {
+		    if (capture == writer) {
+			capture = null;
+		    }
 		}
+		captureError = e;
+		metrics.captureFailed();
 	    }
-	    if ((start != -1) && (end != -1)) {
-		String mId = new String(data, start, 3, getCharset());
-		byte baudRateByte = data[start + 3];
-		String id = new String(data, start + 4, end - start - 4, getCharset());
-		header = new Header(id, mId, baudRateByte, BaudRate.convert(baudRateByte));
+	}
+    }
+
+    /**
+     * Adds a listener which receives every readout of this connection.
+     *
+     * @param listener the listener
+     */
+    public void addReadoutListener(ReadoutListener listener) {
+	readoutListeners.add(listener);
+    }
+
+    public void removeReadoutListener(ReadoutListener listener) {
+	readoutListeners.remove(listener);
+    }
+
+    /**
+     * Returns the last exception thrown by a readout listener.
+     *
+     * @return the exception or NULL
+     */
+    public RuntimeException getListenerError() {
+	return listenerError;
+    }
+
+    /**
+     * passes a parsed readout to the readout listeners. An exception of a
+     * listener does not fail the readout and does not keep the readout from
+     * the other listeners, it is counted in the metrics and kept for
+     * <code>getListenerError()</code>.
+     *
+     * @param deviceAddress the device address of the request, NULL if the
+     * meter was read without an address
+     * @param readout the readout
+     */
+    protected void notifyReadout(String deviceAddress, Readout readout) {
+	for (ReadoutListener listener : readoutListeners) {
+	    try {
+		listener.readoutReceived(serialPortName, deviceAddress, readout);
+	    } catch (RuntimeException e) {
+		listenerError = e;
+		metrics.listenerFailed();
 	    }
 	}
-	return header;
     }
 
-    protected SerialPort getSerialPort() {
-	return serialPort;
+    /**
+     * Returns the metrics of the serial port of this connection.
+     *
+     * @return the metrics
+     */
+    public PortMetrics getMetrics() {
+	return metrics;
+    }
+
+    /**
+     * Records the duration and the result of a readout in the metrics.
+     *
+     * @param start the start of the readout from <code>System.nanoTime()</code>
+     * @param successful true if the readout was successful
+     */
+    protected void recordReadout(long start, boolean successful) {
+	recordPhase(Phase.READOUT, start, 0, successful);
+	if (successful) {
+	    metrics.readoutCompleted();
+	} else {
+	    metrics.readoutFailed();
+	}
+    }
+
+    /**
+     * Records the duration of a completed protocol phase in the metrics and
+     * passes it to the tracer, if one is set.
+     *
+     * @param phase the phase
+     * @param start the start of the phase from <code>System.nanoTime()</code>
+     * @param bytes the number of bytes sent, received or parsed
+     * @param successful true if the phase was completed successfully
+     */
+    protected void recordPhase(Phase phase, long start, int bytes, boolean successful) {
+	long duration = System.nanoTime() - start;
+	metrics.recordDuration(phase, duration);
+	ProtocolTracer currentTracer = tracer;
+	if (null != currentTracer) {
+	    currentTracer.phaseCompleted(new PhaseEvent(serialPortName, getMode(), phase, currentBaudRate, bytes, start, duration, successful));
+	}
+    }
+
+    public ProtocolTracer getTracer() {
+	return tracer;
+    }
+
+    /**
+     * Sets the tracer which receives an event for every completed protocol
+     * phase.
+     *
+     * @param tracer the tracer, NULL to disable tracing
+     */
+    public void setTracer(ProtocolTracer tracer) {
+	this.tracer = tracer;
+    }
+
+    /**
+     * Returns the mode of IEC 62056-21 implemented by this connection.
+     *
+     * @return the mode or NULL if the connection does not implement one of the
+     * modes
+     */
+    public Mode getMode() {
+	return null;
     }
 
     protected boolean isHandleEcho() {
@@ -510,6 +1104,170 @@ public abstract class AbstractConnection implements AutoCloseable {
 	this.databits = databits;
     }
 
+    public boolean isDirectOpen() {
+	return directOpen;
+    }
+
+    /**
+     * Opens device paths like "/dev/ttyUSB0" directly instead of looking them
+     * up with <code>CommPortIdentifier</code>, which enumerates and probes all
+     * serial ports of the machine. Has to be set before calling
+     * <code>open()</code>.
+     *
+     * @param directOpen true to open the port directly
+     */
+    public void setDirectOpen(boolean directOpen) {
+	this.directOpen = directOpen;
+    }
+
+    public boolean isRecoverMalformedLines() {
+	return recoverMalformedLines;
+    }
+
+    /**
+     * Enables the recovery of malformed lines. A data line which can not be
+     * parsed, e.g. because of a flipped bit, is then skipped up to the next
+     * CR+LF and returned with <code>Readout.getMalformedLines()</code> instead
+     * of failing the whole readout.
+     *
+     * @param recoverMalformedLines true to skip malformed lines
+     */
+    public void setRecoverMalformedLines(boolean recoverMalformedLines) {
+	this.recoverMalformedLines = recoverMalformedLines;
+    }
+
+    public boolean isReturnPartialResults() {
+	return returnPartialResults;
+    }
+
+    /**
+     * Enables partial results. If the meter stops sending in the middle of
+     * the data message, the data lines received so far are returned with
+     * <code>readout()</code> as an incomplete readout instead of throwing a
+     * <code>MessageNotCompleteException</code>.
+     *
+     * @param returnPartialResults true to return the complete lines of an
+     * interrupted data message
+     */
+    public void setReturnPartialResults(boolean returnPartialResults) {
+	this.returnPartialResults = returnPartialResults;
+    }
+
+    public int getParallelParseThreshold() {
+	return parallelParseThreshold;
+    }
+
+    /**
+     * Enables the parallel parsing of large data messages, e.g. load profiles.
+     * The data block of a message with at least the given number of bytes is
+     * split at the ends of data lines and the parts are parsed concurrently.
+     *
+     * @param parallelParseThreshold the minimum size in bytes of a data block
+     * which is parsed in parallel, 0 to always parse sequentially
+     */
+    public void setParallelParseThreshold(int parallelParseThreshold) {
+	this.parallelParseThreshold = parallelParseThreshold;
+    }
+
+    public boolean isDetectEcho() {
+	return (null != echoCanceller) && !handleEcho;
+    }
+
+    /**
+     * Detects whether the optical transceiver echoes the sent bytes. The echo
+     * is removed while receiving, the detection stops expecting an echo if
+     * the meter answered several requests without one. Without this option
+     * echos are only removed if the connection was created with handleEcho.
+     *
+     * @param detectEcho true to detect and remove echos
+     */
+    public void setDetectEcho(boolean detectEcho) {
+	if (handleEcho) {
+	    return;
+	}
+	echoCanceller = detectEcho ? new EchoCanceller(true) : null;
+    }
+
+    /**
+     * Checks if an echo of the sent bytes was received and removed.
+     *
+     * @return true if an echo was detected
+     */
+    public boolean isEchoDetected() {
+	return (null != echoCanceller) && echoCanceller.isEchoDetected();
+    }
+
+    public boolean isChangesOnly() {
+	return changesOnly;
+    }
+
+    /**
+     * Returns only the data sets which changed since the previous readout of
+     * the same meter. Each data line is compared with the line at the same
+     * position of the previous data message, only the changed lines are
+     * parsed. If nothing changed, the readout contains only the
+     * identification and <code>Readout.isUnchanged()</code> returns true.
+     * Interrupted data messages are always parsed completely.
+     *
+     * @param changesOnly true to return only the changed data sets
+     */
+    public void setChangesOnly(boolean changesOnly) {
+	this.changesOnly = changesOnly;
+	changeTracker.clear();
+    }
+
+    public boolean isSoftwareParity() {
+	return softwareParity;
+    }
+
+    /**
+     * Handles 7 data bits with even parity in software. The serial port is
+     * then kept at 8 data bits without parity and only its baud rate is
+     * changed, which is much faster on many USB and network converters. The
+     * parity bit is added to every sent character and checked for every
+     * received character, a character with a wrong parity bit is replaced by
+     * SUB (0x1A) and counted in the metrics.
+     *
+     * @param softwareParity true to handle 7E1 in software
+     */
+    public void setSoftwareParity(boolean softwareParity) {
+	this.softwareParity = softwareParity;
+    }
+
+    public int getPipelineBufferSize() {
+	return pipelineBufferSize;
+    }
+
+    /**
+     * Enables the pipeline mode. A dedicated thread then drains the serial
+     * port into a ring buffer of the given size while the connection parses,
+     * so a slow parser does not let the receive buffer of the port overflow.
+     * Takes effect when the connection is opened.
+     *
+     * @param pipelineBufferSize the size of the ring buffer in bytes, a power
+     * of two, 0 to read the serial port directly
+     */
+    public void setPipelineBufferSize(int pipelineBufferSize) {
+	if ((pipelineBufferSize < 0) || ((pipelineBufferSize > 0) && (Integer.bitCount(pipelineBufferSize) != 1))) {
+	    throw new IllegalArgumentException("pipelineBufferSize must be 0 or a power of two");
+	}
+	this.pipelineBufferSize = pipelineBufferSize;
+    }
+
+    public int getMaxMessageLength() {
+	return maxMessageLength;
+    }
+
+    /**
+     * Sets the maximum length of a received message. The receive buffer starts
+     * small and grows up to this length.
+     *
+     * @param maxMessageLength the maximum length in bytes
+     */
+    public void setMaxMessageLength(int maxMessageLength) {
+	this.maxMessageLength = maxMessageLength;
+    }
+
     public int getStopbits() {
 	return stopbits;
     }
@@ -0,0 +1,171 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded ring buffer of bytes for exactly one producer thread and one
+ * consumer thread. The buffer is allocated once. Neither side takes a lock
+ * or allocates memory, the positions are published with ordered writes of
+ * atomic counters.
+ */
+public class ByteRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+    /**
+     * the position of the next byte to read, only written by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * the position of the next byte to write, only written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * the last head seen by the producer.
+     */
+    private long cachedHead = 0;
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity the capacity in bytes, a power of two
+     */
+    public ByteRingBuffer(int capacity) {
+	if ((capacity < 2) || (Integer.bitCount(capacity) != 1)) {
+	    throw new IllegalArgumentException("capacity must be a power of two");
+	}
+	buffer = new byte[capacity];
+	mask = capacity - 1;
+    }
+
+    public int getCapacity() {
+	return buffer.length;
+    }
+
+    /**
+     * Returns the number of bytes in the buffer. The value may be outdated
+     * when it is returned.
+     *
+     * @return the number of bytes
+     */
+    public int size() {
+	return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Writes bytes into the buffer. Must only be called by the producer.
+     *
+     * @param src the bytes
+     * @param offset the start of the bytes
+     * @param length the number of bytes
+     * @return the number of bytes written, less than length if the buffer is
+     * full
+     */
+    public int write(byte[] src, int offset, int length) {
+	long t = tail.get();
+	int n = Math.min(length, free(t, length));
+	if (n <= 0) {
+	    return 0;
+	}
+	int position = (int) (t & mask);
+	int first = Math.min(n, buffer.length - position);
+	System.arraycopy(src, offset, buffer, position, first);
+	System.arraycopy(src, offset + first, buffer, 0, n - first);
+	tail.lazySet(t + n);
+	return n;
+    }
+
+    /**
+     * Reads the available bytes of the stream directly into the buffer. Must
+     * only be called by the producer.
+     *
+     * @param in the stream
+     * @return the number of bytes read, 0 if no bytes are available or the
+     * buffer is full, -1 at the end of the stream
+     * @throws IOException if the stream can not be read
+     */
+    public int readFrom(InputStream in) throws IOException {
+	int available = in.available();
+	if (available <= 0) {
+	    return 0;
+	}
+	long t = tail.get();
+	int position = (int) (t & mask);
+	int n = Math.min(Math.min(available, free(t, available)), buffer.length - position);
+	if (n <= 0) {
+	    return 0;
+	}
+	int numBytesRead = in.read(buffer, position, n);
+	if (numBytesRead > 0) {
+	    tail.lazySet(t + numBytesRead);
+	}
+	return numBytesRead;
+    }
+
+    /**
+     * Returns the number of bytes which can be read. Must only be called by
+     * the consumer.
+     *
+     * @return the number of bytes
+     */
+    public int available() {
+	return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Reads bytes from the buffer. Must only be called by the consumer.
+     *
+     * @param dst the destination
+     * @param offset the start in the destination
+     * @param length the maximum number of bytes
+     * @return the number of bytes read, 0 if the buffer is empty
+     */
+    public int read(byte[] dst, int offset, int length) {
+	long h = head.get();
+	int n = Math.min(length, available());
+	if (n <= 0) {
+	    return 0;
+	}
+	int position = (int) (h & mask);
+	int first = Math.min(n, buffer.length - position);
+	System.arraycopy(buffer, position, dst, offset, first);
+	System.arraycopy(buffer, 0, dst, offset + first, n - first);
+	head.lazySet(h + n);
+	return n;
+    }
+
+    /**
+     * Reads one byte from the buffer. Must only be called by the consumer.
+     *
+     * @return the byte or -1 if the buffer is empty
+     */
+    public int read() {
+	long h = head.get();
+	if (available() <= 0) {
+	    return -1;
+	}
+	int result = buffer[(int) (h & mask)] & 0xFF;
+	head.lazySet(h + 1);
+	return result;
+    }
+
+    /**
+     * the free space seen by the producer. The head of the consumer is only
+     * read again if the space known so far is not enough.
+     */
+    private int free(long t, int wanted) {
+	int free = buffer.length - (int) (t - cachedHead);
+	if (free < wanted) {
+	    cachedHead = head.get();
+	    free = buffer.length - (int) (t - cachedHead);
+	}
+	return free;
+    }
+}
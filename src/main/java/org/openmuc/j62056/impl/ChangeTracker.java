@@ -0,0 +1,130 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.openmuc.j62056.DataSet;
+
+/**
+ * Keeps the data lines of the previous data message of every meter and
+ * parses only the lines which changed. A line is compared with the line at
+ * the same position of the previous message, an identical message is not
+ * parsed at all.
+ */
+class ChangeTracker {
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private final Map<String, Lines> previous = new HashMap<>();
+
+    /**
+     * parses the data lines which differ from the previous data message of
+     * the meter.
+     *
+     * @param meter the key of the meter
+     * @param datasets the byte array with the data message
+     * @param offset the start of the first data line
+     * @param malformedLines the list receiving the malformed lines, NULL to
+     * throw an IOException at the first malformed line
+     * @return the data sets of the changed lines, NULL if the data message is
+     * identical to the previous one
+     * @throws IOException if a changed line is malformed
+     */
+    synchronized List<DataSet> parseChanged(String meter, byte[] datasets, int offset, List<String> malformedLines) throws IOException {
+	Lines lines = new Lines(datasets, offset);
+	Lines last = previous.get(meter);
+	if ((null != last) && last.sameMessage(lines)) {
+	    return null;
+	}
+	List<DataSet> result = new ArrayList<>();
+	for (int i = 0; i < lines.count; i++) {
+	    if ((null != last) && last.sameLine(i, lines)) {
+		continue;
+	    }
+	    int start = lines.starts[i];
+	    int end = lines.ends[i];
+	    List<DataSet> line = DataSetParser.parseLine(datasets, start, end);
+	    if (null != line) {
+		result.addAll(line);
+	    } else if (null != malformedLines) {
+		malformedLines.add(new String(datasets, start, end - start, CHARSET));
+	    } else {
+		throw new IOException("Malformed data line: " + new String(datasets, start, end - start, CHARSET));
+	    }
+	}
+	previous.put(meter, lines);
+	return result;
+    }
+
+    /**
+     * forgets the previous data messages, the next message of every meter is
+     * parsed completely.
+     */
+    synchronized void clear() {
+	previous.clear();
+    }
+
+    /**
+     * The positions of the data lines of a data message.
+     */
+    private static class Lines {
+
+	private final byte[] bytes;
+	private int count = 0;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+
+	private Lines(byte[] bytes, int offset) {
+	    this.bytes = bytes;
+	    int index = offset;
+	    while ((index < bytes.length) && !DataSetParser.endOfDataSets(bytes, index)) {
+		int lineEnd = DataSetParser.findLineEnd(bytes, index);
+		if (lineEnd > index) {
+		    if (count == starts.length) {
+			starts = Arrays.copyOf(starts, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+		    }
+		    starts[count] = index;
+		    ends[count] = lineEnd;
+		    count++;
+		}
+		index = lineEnd + AbstractConnection.COMPLETION_CHARACTERS.length;
+	    }
+	}
+
+	private boolean sameMessage(Lines other) {
+	    if (count != other.count) {
+		return false;
+	    }
+	    if (count == 0) {
+		return true;
+	    }
+	    return equalRange(bytes, starts[0], ends[count - 1], other.bytes, other.starts[0], other.ends[count - 1]);
+	}
+
+	private boolean sameLine(int i, Lines other) {
+	    return (i < count) && equalRange(bytes, starts[i], ends[i], other.bytes, other.starts[i], other.ends[i]);
+	}
+
+	private static boolean equalRange(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+	    if (aEnd - aStart != bEnd - bStart) {
+		return false;
+	    }
+	    for (int i = 0; i < aEnd - aStart; i++) {
+		if (a[aStart + i] != b[bStart + i]) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.model.BaudRate;
+import org.openmuc.j62056.model.Header;
+
+/**
+ * Parses the header and the data lines of IEC 62056-21 messages. The parser
+ * has no state and can be used by several threads at the same time.
+ */
+public final class DataSetParser {
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    /**
+     * the size in bytes up to which a part of a data block is parsed
+     * sequentially by <code>parseDataSetsParallel</code>.
+     */
+    public static final int PARALLEL_CHUNK_SIZE = 16384;
+
+    private DataSetParser() {
+    }
+
+    /**
+     * the pool for parallel parsing, created with the first large message.
+     */
+    private static class PoolHolder {
+
+	static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /**
+     * parses the data lines like <code>parseDataSets</code> or, if a list for
+     * malformed lines is given, like <code>parseDataSetsRecovering</code>. The
+     * data block is split into chunks at the ends of data lines, the chunks
+     * are parsed by a fork/join pool and their data sets are joined in the
+     * order of the data block.
+     *
+     * @param datasets the byte array with the data message
+     * @param offset the start of the first data line
+     * @param malformedLines the list receiving the malformed lines, NULL to
+     * throw an IOException at the first malformed line
+     * @param chunkSize the size in bytes up to which a part of the data block
+     * is parsed sequentially
+     * @return the data sets
+     * @throws IOException if a data line is malformed and no list for
+     * malformed lines is given
+     */
+    public static List<DataSet> parseDataSetsParallel(final byte[] datasets, final int offset, final List<String> malformedLines, final int chunkSize) throws IOException {
+	if (null == datasets) {
+	    return new ArrayList<>();
+	}
+	Chunk result;
+	try {
+	    result = PoolHolder.POOL.invoke(new ParseTask(datasets, offset, datasets.length, null != malformedLines, Math.max(chunkSize, 1)));
+	} catch (ParseException e) {
+	    throw e.getIOException();
+	}
+	if (null != malformedLines) {
+	    malformedLines.addAll(result.malformedLines);
+	}
+	return result.dataSets;
+    }
+
+    /**
+     * finds a position to split the data block between data lines. A data
+     * line ending with ')' followed by CR+LF is complete, so the parts can be
+     * parsed independently.
+     *
+     * @return the start of the next data line or -1 if there is no such
+     * position in the range
+     */
+    private static int findSplit(final byte[] datasets, final int from, final int to) {
+	for (int i = Math.max(from, 1); i < to - 2; i++) {
+	    if ((datasets[i] == AbstractConnection.COMPLETION_CHARACTERS[0]) && (datasets[i + 1] == AbstractConnection.COMPLETION_CHARACTERS[1]) && (datasets[i - 1] == 0x29)) {
+		return i + 2;
+	    }
+	}
+	return -1;
+    }
+
+    private static class Chunk {
+
+	private final List<DataSet> dataSets;
+	private final List<String> malformedLines;
+
+	Chunk(List<DataSet> dataSets, List<String> malformedLines) {
+	    this.dataSets = dataSets;
+	    this.malformedLines = malformedLines;
+	}
+    }
+
+    /**
+     * carries the IOException of a chunk out of the fork/join pool.
+     */
+    private static class ParseException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	ParseException(IOException cause) {
+	    super(cause);
+	}
+
+	IOException getIOException() {
+	    Throwable cause = getCause();
+	    // the fork/join pool may wrap the exception of another thread
+	    while (cause instanceof ParseException) {
+		cause = cause.getCause();
+	    }
+	    return (IOException) cause;
+	}
+    }
+
+    private static class ParseTask extends RecursiveTask<Chunk> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final byte[] datasets;
+	private final int from;
+	private final int to;
+	private final boolean recovering;
+	private final int chunkSize;
+
+	ParseTask(byte[] datasets, int from, int to, boolean recovering, int chunkSize) {
+	    this.datasets = datasets;
+	    this.from = from;
+	    this.to = to;
+	    this.recovering = recovering;
+	    this.chunkSize = chunkSize;
+	}
+
+	@Override
+	protected Chunk compute() {
+	    int split = (to - from > chunkSize) ? findSplit(datasets, from + (to - from) / 2, to) : -1;
+	    if (split < 0) {
+		return parse();
+	    }
+	    ParseTask left = new ParseTask(datasets, from, split, recovering, chunkSize);
+	    left.fork();
+	    Chunk right = new ParseTask(datasets, split, to, recovering, chunkSize).compute();
+	    Chunk result = left.join();
+	    result.dataSets.addAll(right.dataSets);
+	    result.malformedLines.addAll(right.malformedLines);
+	    return result;
+	}
+
+	private Chunk parse() {
+	    List<String> malformedLines = new ArrayList<>();
+	    if (recovering) {
+		return new Chunk(parseDataSetsRecovering(datasets, from, to, malformedLines), malformedLines);
+	    }
+	    try {
+		return new Chunk(parseDataSets(datasets, from, to), malformedLines);
+	    } catch (IOException e) {
+		throw new ParseException(e);
+	    }
+	}
+    }
+
+    /**
+     * parses the data lines up to the end of the data block.
+     *
+     * @param datasets the byte array with the data message
+     * @param offset the start of the first data line
+     * @return the data sets
+     * @throws IOException if a data line is malformed
+     */
+    public static List<DataSet> parseDataSets(final byte[] datasets, final int offset) throws IOException {
+	return parseDataSets(datasets, offset, (null == datasets) ? 0 : datasets.length);
+    }
+
+    /**
+     * parses the data lines in the given range up to the end of the data
+     * block.
+     */
+    private static List<DataSet> parseDataSets(final byte[] datasets, final int offset, final int end) throws IOException {
+	List<DataSet> result = new ArrayList<>();
+	if (null != datasets) {
+	    int index = offset;
+	    while (index < end) {
+		int nextValueStart = findNextValueStart(datasets, index);
+		if ((nextValueStart < 0) || (nextValueStart >= end)) {
+		    throw new IOException("'(' (0x28) character is expected but not received inside data block of data message.");
+		}
+		String id = new String(datasets, index, nextValueStart - index, CHARSET);
+		index = nextValueStart + 1;
+
+		int nextValueEnd = findNextValueEnd(datasets, index);
+		if ((nextValueEnd < 0) || (nextValueEnd >= end)) {
+		    throw new IOException("'(' (0x29) character is expected but not received inside data block of data message.");
+		}
+		String value;
+		String unit = "";
+		int nextUnitStart = findNextUnitStart(datasets, index, nextValueEnd);
+		if (nextUnitStart > 0) {
+		    value = new String(datasets, index, nextUnitStart - index, CHARSET);
+		    index = nextUnitStart + 1;
+		    unit = new String(datasets, index, nextValueEnd - index, CHARSET);
+		    index = nextValueEnd + 1;
+		} else {
+		    value = new String(datasets, index, nextValueEnd - index, CHARSET);
+		    index = nextValueEnd + 1;
+		}
+		result.add(new DataSet(id, value, unit));
+
+		if (termindatedWithCrLf(datasets, index)) {
+		    index += 2;
+		}
+		if (endOfDataSets(datasets, index)) {
+		    break;
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * parses the data lines one by one. A malformed line is skipped up to the
+     * next CR+LF, the data sets of the well-formed lines are kept.
+     *
+     * @param datasets the byte array with the data message
+     * @param offset the start of the first data line
+     * @param malformedLines the list receiving the malformed lines
+     * @return the data sets of the well-formed lines
+     */
+    public static List<DataSet> parseDataSetsRecovering(final byte[] datasets, final int offset, final List<String> malformedLines) {
+	return parseDataSetsRecovering(datasets, offset, (null == datasets) ? 0 : datasets.length, malformedLines);
+    }
+
+    /**
+     * parses the data lines in the given range one by one.
+     */
+    private static List<DataSet> parseDataSetsRecovering(final byte[] datasets, final int offset, final int end, final List<String> malformedLines) {
+	List<DataSet> result = new ArrayList<>();
+	if (null != datasets) {
+	    int index = offset;
+	    while ((index < end) && !endOfDataSets(datasets, index)) {
+		int lineEnd = findLineEnd(datasets, index);
+		if (lineEnd > index) {
+		    List<DataSet> line = parseLine(datasets, index, lineEnd);
+		    if (null == line) {
+			malformedLines.add(new String(datasets, index, lineEnd - index, CHARSET));
+		    } else {
+			result.addAll(line);
+		    }
+		}
+		index = lineEnd + AbstractConnection.COMPLETION_CHARACTERS.length;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * parses the data sets of one data line.
+     *
+     * @return the data sets or NULL if the line is malformed
+     */
+    static List<DataSet> parseLine(final byte[] datasets, final int lineStart, final int lineEnd) {
+	List<DataSet> result = new ArrayList<>();
+	int index = lineStart;
+	while (index < lineEnd) {
+	    int nextValueStart = findNextValueStart(datasets, index);
+	    if ((nextValueStart < 0) || (nextValueStart >= lineEnd)) {
+		return null;
+	    }
+	    int nextValueEnd = findNextValueEnd(datasets, nextValueStart + 1);
+	    if ((nextValueEnd < 0) || (nextValueEnd >= lineEnd)) {
+		return null;
+	    }
+	    String id = new String(datasets, index, nextValueStart - index, CHARSET);
+	    index = nextValueStart + 1;
+	    String value;
+	    String unit = "";
+	    int nextUnitStart = findNextUnitStart(datasets, index, nextValueEnd);
+	    if (nextUnitStart > 0) {
+		value = new String(datasets, index, nextUnitStart - index, CHARSET);
+		unit = new String(datasets, nextUnitStart + 1, nextValueEnd - nextUnitStart - 1, CHARSET);
+	    } else {
+		value = new String(datasets, index, nextValueEnd - index, CHARSET);
+	    }
+	    index = nextValueEnd + 1;
+	    result.add(new DataSet(id, value, unit));
+	}
+	return result;
+    }
+
+    /**
+     * finds the end of the data line starting at the given position.
+     *
+     * @param datasets the byte array with the data lines
+     * @param offset the start of the line
+     * @return the position of the CR+LF terminating the line or the length of
+     * the byte array if the line is not terminated
+     */
+    public static int findLineEnd(final byte[] datasets, final int offset) {
+	for (int i = offset; i < datasets.length - 1; i++) {
+	    if ((datasets[i] == AbstractConnection.COMPLETION_CHARACTERS[0]) && (datasets[i + 1] == AbstractConnection.COMPLETION_CHARACTERS[1])) {
+		return i;
+	    }
+	}
+	return datasets.length;
+    }
+
+    /**
+     * finds the next start of a value.
+     *
+     * @param datasets the byte array with the data lines
+     * @param offset start position
+     * @return the next start of a value or -1
+     */
+    public static int findNextValueStart(final byte[] datasets, final int offset) {
+	int result = -1;
+	for (int i = offset; i < datasets.length - 1; i++) {
+	    if (datasets[i] == (byte) 0x28) {
+		result = i;
+		break;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * finds the next end of a value.
+     *
+     * @param datasets the byte array with the data lines
+     * @param offset the start position
+     * @return the next end of the value or -1
+     */
+    public static int findNextValueEnd(final byte[] datasets, final int offset) {
+	int result = -1;
+	for (int i = offset; i < datasets.length - 1; i++) {
+	    if (datasets[i] == 0x29) {
+		result = i;
+		break;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * finds the next start of a unit.
+     *
+     * @param datasets the bytearray with the data lines
+     * @param offset the start position
+     * @param upto the end position
+     * @return the next start of a unit or -1
+     */
+    public static int findNextUnitStart(final byte[] datasets, final int offset, final int upto) {
+	int result = -1;
+	for (int i = offset; (i < upto) && (i < datasets.length); i++) {
+	    if (datasets[i] == 0x2A) {
+		// found '*'; start of unit
+		result = i;
+		break;
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * checks if the end of data block is reached.
+     *
+     * @param datasets the byte array with the data lines
+     * @param offset the current position
+     * @return true if the next bytes indicate the end of a data block
+     */
+    public static boolean endOfDataSets(final byte[] datasets, final int offset) {
+	return endsWith(datasets, offset + 3, AbstractConnection.MESSAGE_COMPLETION_CHARACTERS);
+    }
+
+    /**
+     * checks if the end of data line is terminated with CR+LF.
+     *
+     * @param datasets the byte array with the data lines
+     * @param offset the current position
+     * @return true if the next bytes indicate the termination with CR+LF of a
+     * data line
+     */
+    public static boolean termindatedWithCrLf(final byte[] datasets, final int offset) {
+	return endsWith(datasets, offset + 2, AbstractConnection.COMPLETION_CHARACTERS);
+    }
+
+    public static boolean endsWith(final byte[] input, final int readedBytes, final byte[] endBytes) {
+	boolean result = true;
+	if (null != endBytes) {
+	    if ((null != input) && (input.length >= readedBytes) && (endBytes.length <= readedBytes)) {
+		for (int i = 1; i <= endBytes.length; i++) {
+		    if (endBytes[endBytes.length - i] != input[readedBytes - i]) {
+			result = false;
+			break;
+		    }
+		}
+	    } else {
+		//less bytes read than expected
+		result = false;
+	    }
+	}
+	return result;
+    }
+
+    public static Header convert(byte[] data) {
+	Header header = null;
+	if ((null != data) && (data.length > 0)) {
+	    int start = -1;
+	    int end = -1;
+	    for (int i = 0; i < (data.length - 1); i++) {
+		byte b = data[i];
+		switch (data[i]) {
+		    case 0x2F:
+			if ((i + 1) < data.length) {
+			    start = i + 1;
+			}
+			break;
+		    case 0x0D:
+			if (0x0A == data[i + 1]) {
+			    end = i;
+			    break;
+			}
+		    default:
+			break;
+		}
+		if ((start != -1) && (end != -1)) {
+		    break;
+		}
+	    }
+	    if ((start != -1) && (end != -1)) {
+		String mId = new String(data, start, 3, CHARSET);
+		byte baudRateByte = data[start + 3];
+		String id = new String(data, start + 4, end - start - 4, CHARSET);
+		header = new Header(id, mId, baudRateByte, BaudRate.convert(baudRateByte));
+	    }
+	}
+	return header;
+    }
+}
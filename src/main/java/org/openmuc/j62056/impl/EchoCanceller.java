@@ -0,0 +1,255 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+/**
+ * Removes the echo of sent bytes from the received bytes. Some optical
+ * transceivers echo every sent byte, sometimes only partially. The received
+ * bytes are compared with the recently sent bytes while receiving. A byte
+ * matching a sent byte is held back until enough following bytes match too,
+ * then the echo is dropped. If a following byte does not match, the held bytes
+ * are released as data and the pending echo is forgotten.
+ * <p>
+ * With detection enabled the canceller stops expecting an echo if the meter
+ * answered several requests without any echo in front of the answer.
+ */
+public class EchoCanceller {
+
+    /**
+     * the number of matching bytes confirming an echo.
+     */
+    static final int CONFIRM_LENGTH = 4;
+
+    /**
+     * the maximum number of bytes <code>filter</code> may add to the given
+     * bytes, the held back bytes of a mismatching echo.
+     */
+    public static final int MAX_RELEASED_BYTES = CONFIRM_LENGTH - 1;
+
+    private static final int MAX_EXPECTED_BYTES = 256;
+    private static final int MISSING_ECHOS_LIMIT = 2;
+
+    private static final int ECHO = 0;
+    private static final int DATA = 1;
+    private static final int RELEASE = 2;
+
+    private final boolean detect;
+    private final byte[] expected = new byte[MAX_EXPECTED_BYTES];
+    private int expectedLength = 0;
+    private final byte[] held = new byte[CONFIRM_LENGTH];
+    private int heldLength = 0;
+    private int matchStart = 0;
+    private boolean confirmed = false;
+    private boolean awaitingEcho = false;
+    private boolean echoDetected = false;
+    private boolean disabled = false;
+    private int missingEchos = 0;
+    private long removedBytes = 0;
+
+    /**
+     * Creates an echo canceller.
+     *
+     * @param detect true to stop expecting an echo if the transceiver does not
+     * echo at all, false if the transceiver is known to echo
+     */
+    public EchoCanceller(boolean detect) {
+	this.detect = detect;
+    }
+
+    /**
+     * Adds sent bytes whose echo is expected.
+     *
+     * @param bytes the sent bytes
+     * @param offset the start of the sent bytes
+     * @param length the number of sent bytes
+     */
+    public void expect(byte[] bytes, int offset, int length) {
+	if (disabled || length <= 0) {
+	    return;
+	}
+	if (length > MAX_EXPECTED_BYTES) {
+	    offset += length - MAX_EXPECTED_BYTES;
+	    length = MAX_EXPECTED_BYTES;
+	}
+	if (expectedLength + length > MAX_EXPECTED_BYTES) {
+	    // the old echo is stale
+	    expectedLength = 0;
+	    heldLength = 0;
+	    confirmed = false;
+	}
+	System.arraycopy(bytes, offset, expected, expectedLength, length);
+	expectedLength += length;
+	awaitingEcho = true;
+    }
+
+    /**
+     * Removes the echo from received bytes. The remaining bytes are moved to
+     * the start of the given range. The range may grow by up to
+     * <code>MAX_RELEASED_BYTES</code> if held back bytes turn out to be data,
+     * so the array needs this many bytes of space behind the range.
+     *
+     * @param bytes the buffer with the received bytes
+     * @param offset the start of the received bytes
+     * @param length the number of received bytes
+     * @return the number of received bytes without the echo
+     */
+    public int filter(byte[] bytes, int offset, int length) {
+	if ((expectedLength == 0) && (heldLength == 0)) {
+	    return length;
+	}
+	int end = offset + length;
+	int write = offset;
+	for (int read = offset; read < end; read++) {
+	    byte b = bytes[read];
+	    switch (process(b)) {
+		case ECHO:
+		    removedBytes++;
+		    break;
+		case RELEASE:
+		    int missing = heldLength - (read - write);
+		    if (missing > 0) {
+			System.arraycopy(bytes, read + 1, bytes, read + 1 + missing, end - read - 1);
+			end += missing;
+			read += missing;
+		    }
+		    System.arraycopy(held, 0, bytes, write, heldLength);
+		    write += heldLength;
+		    removedBytes -= heldLength;
+		    heldLength = 0;
+		    bytes[write++] = b;
+		    break;
+		default:
+		    bytes[write++] = b;
+	    }
+	}
+	return write - offset;
+    }
+
+    private int process(byte b) {
+	if (heldLength > 0) {
+	    if (expected[matchStart + heldLength] != b) {
+		mismatch();
+		return RELEASE;
+	    }
+	    held[heldLength++] = b;
+	    if ((heldLength == CONFIRM_LENGTH) || (matchStart + heldLength == expectedLength)) {
+		confirm(matchStart + heldLength);
+	    }
+	    return ECHO;
+	}
+	if (confirmed) {
+	    if (expected[0] == b) {
+		remove(1);
+		confirmed = expectedLength > 0;
+		return ECHO;
+	    }
+	    // the rest of the echo is lost
+	    mismatch();
+	    return DATA;
+	}
+	if (expectedLength == 0) {
+	    return DATA;
+	}
+	// leading bytes of the echo may be lost
+	int start = indexOf(b);
+	if (start < 0) {
+	    mismatch();
+	    return DATA;
+	}
+	matchStart = start;
+	held[0] = b;
+	heldLength = 1;
+	if (matchStart + 1 == expectedLength) {
+	    confirm(expectedLength);
+	}
+	return ECHO;
+    }
+
+    private int indexOf(byte b) {
+	for (int i = 0; i < expectedLength; i++) {
+	    if (expected[i] == b) {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    private void confirm(int length) {
+	remove(length);
+	heldLength = 0;
+	confirmed = expectedLength > 0;
+	awaitingEcho = false;
+	echoDetected = true;
+    }
+
+    private void mismatch() {
+	expectedLength = 0;
+	confirmed = false;
+	if (awaitingEcho) {
+	    awaitingEcho = false;
+	    missingEchos++;
+	    if (detect && !echoDetected && (missingEchos >= MISSING_ECHOS_LIMIT)) {
+		disabled = true;
+	    }
+	}
+    }
+
+    private void remove(int length) {
+	expectedLength -= length;
+	System.arraycopy(expected, length, expected, 0, expectedLength);
+    }
+
+    /**
+     * Checks if an echo was received.
+     *
+     * @return true if at least one echo was removed
+     */
+    public boolean isEchoDetected() {
+	return echoDetected;
+    }
+
+    /**
+     * Checks if the echo of sent bytes was not completely received yet.
+     *
+     * @return true if an echo is still expected
+     */
+    public boolean isEchoPending() {
+	return !disabled && ((expectedLength > 0) || (heldLength > 0));
+    }
+
+    /**
+     * Forgets the pending echo, e.g. if the rest of a partial echo did not
+     * arrive in time. The echo no longer counts as detected, so it is only
+     * awaited again if it is handled explicitly or received again.
+     */
+    public void dropPendingEcho() {
+	expectedLength = 0;
+	heldLength = 0;
+	confirmed = false;
+	awaitingEcho = false;
+	echoDetected = false;
+    }
+
+    /**
+     * Checks if the canceller stopped expecting an echo because the
+     * transceiver does not echo.
+     *
+     * @return true if no echo is expected anymore
+     */
+    public boolean isDisabled() {
+	return disabled;
+    }
+
+    /**
+     * Returns the number of removed echo bytes.
+     *
+     * @return the number of removed bytes
+     */
+    public long getRemovedBytes() {
+	return removedBytes;
+    }
+
+}
@@ -15,6 +15,9 @@ import java.util.List;
 import java.util.concurrent.TimeoutException;
 import org.openmuc.j62056.DataSet;
 import org.openmuc.j62056.MessageNotCompleteException;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.config.Mode;
+import org.openmuc.j62056.metrics.Phase;
 import static org.openmuc.j62056.impl.AbstractConnection.MESSAGE_COMPLETION_CHARACTERS;
 import org.openmuc.j62056.model.Header;
 
@@ -36,6 +39,11 @@ public class ModeCConnection extends AbstractConnection {
 	setParity(SerialPort.PARITY_EVEN);
     }
 
+    @Override
+    public Mode getMode() {
+	return Mode.C;
+    }
+
     /**
      * Requests a data message from the remote device using IEC 62056-21 Mode C.
      * The data message received is parsed and a list of data sets is returned.
@@ -51,15 +59,87 @@ public class ModeCConnection extends AbstractConnection {
      */
     @Override
     public List<DataSet> read() throws IOException, TimeoutException {
+	return new ArrayList<>(readout(null).getDataSets());
+    }
+
+    @Override
+    public Readout readout() throws IOException, TimeoutException {
+	return readout(null);
+    }
+
+    /**
+     * Requests a data message from the remote device with the given device
+     * address using IEC 62056-21 Mode C. The address selects one of several
+     * meters connected to the same bus, e.g. RS-485.
+     *
+     * @param deviceAddress the device address of the meter, NULL or empty to
+     * send the request without an address
+     * @return A list of data sets contained in the data message response from
+     * the remote device. The first data set will contain the "identification"
+     * of the meter as the id and empty strings for value and unit.
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device. Note that the connection is not closed
+     * when an IOException is thrown.
+     * @throws TimeoutException if no response at all (not even a single byte)
+     * was received from the meter within the timeout span.
+     */
+    @Override
+    public List<DataSet> read(String deviceAddress) throws IOException, TimeoutException {
+	return new ArrayList<>(readout(deviceAddress).getDataSets());
+    }
+
+    /**
+     * Requests a data message from the remote device with the given device
+     * address using IEC 62056-21 Mode C and returns the data sets together
+     * with the lines which could not be parsed.
+     *
+     * @param deviceAddress the device address of the meter, NULL or empty to
+     * send the request without an address
+     * @return the readout
+     * @throws IOException if any kind of error other than timeout occurs while
+     * trying to read the remote device.
+     * @throws TimeoutException if no response at all (not even a single byte)
+     * was received from the meter within the timeout span.
+     */
+    @Override
+    public Readout readout(String deviceAddress) throws IOException, TimeoutException {
 
-	if (getSerialPort() == null) {
+	if (!isOpen()) {
 	    throw new IllegalStateException("Connection is not open.");
 	}
 
-	String identification = signOn(getSerialPort(), getOs(), getIs(), getTimeout(), isHandleEcho(), getBaudRateChangeDelay());
+	long start = System.nanoTime();
+	boolean successful = false;
+	try {
+	    Readout result = readDataMessage(deviceAddress);
+	    successful = result.isComplete();
+	    notifyReadout(((null == deviceAddress) || deviceAddress.isEmpty()) ? null : deviceAddress, result);
+	    return result;
+	} finally {
+	    recordReadout(start, successful);
+	}
+    }
+
+    private Readout readDataMessage(String deviceAddress) throws IOException, TimeoutException {
+	String identification = signOn(getSerialPort(), getOs(), getIs(), getTimeout(), isHandleEcho(), getBaudRateChangeDelay(), deviceAddress);
 
 	//ignoring ETX and BCC
-	byte[] dataSets = readData(getIs(), 4, MESSAGE_COMPLETION_CHARACTERS, getTimeout());
+	byte[] dataSets;
+	try {
+	    dataSets = readData(getIs(), 4, MESSAGE_COMPLETION_CHARACTERS, getTimeout());
+	} catch (MessageNotCompleteException e) {
+	    dataSets = isReturnPartialResults() ? completeLines(e.getBytes(), e.getBytesRead(), 0) : null;
+	    if (null == dataSets) {
+		throw e;
+	    }
+	    int offset = (dataSets[0] == 0x02) ? 1 : 0;
+	    List<String> malformedLines = isRecoverMalformedLines() ? new ArrayList<String>() : null;
+	    List<DataSet> result = new ArrayList<>();
+	    result.add(new DataSet(identification, "", ""));
+	    result.addAll(readDataSets(dataSets, offset, malformedLines));
+	    return new Readout(result, malformedLines, false);
+	}
+	archive(deviceAddress, dataSets);
 	boolean withCheckCharacter = false;
 	int offset = 0;
 	if (dataSets[0] == 0x02) {
@@ -80,10 +160,7 @@ public class ModeCConnection extends AbstractConnection {
 	    throw new IOException("Data message does not have minimum length of 5.");
 	}
 
-	List<DataSet> result = new ArrayList<>();
-	result.add(new DataSet(identification, "", ""));
-	result.addAll(readDataSets(dataSets, offset));
-	return result;
+	return parseReadout(deviceAddress, identification, dataSets, offset);
     }
 
     /**
@@ -93,31 +170,57 @@ public class ModeCConnection extends AbstractConnection {
      * @param os the outputstram
      * @param is the inputstream of the serialport
      * @param timeout the timeout to read data
-     * @param handleEcho handle the echo
+     * @param handleEcho not used, the echo is removed by the echo canceller of
+     * the connection while receiving and awaited before the baud rate change
      * @param baudRateChangeDelay the delay to change the baud rate
      * @return the readed id of the tariff device
      * @throws IOException
      * @throws TimeoutException
      */
     protected String signOn(SerialPort serialPort, OutputStream os, InputStream is, int timeout, boolean handleEcho, int baudRateChangeDelay) throws IOException, TimeoutException {
+	return signOn(serialPort, os, is, timeout, handleEcho, baudRateChangeDelay, null);
+    }
+
+    /**
+     * handle the sign on with an addressed request message.
+     *
+     * @param serialPort the serialport
+     * @param os the outputstram
+     * @param is the inputstream of the serialport
+     * @param timeout the timeout to read data
+     * @param handleEcho not used, the echo is removed by the echo canceller of
+     * the connection while receiving and awaited before the baud rate change
+     * @param baudRateChangeDelay the delay to change the baud rate
+     * @param deviceAddress the device address of the meter, NULL or empty to
+     * send the request without an address
+     * @return the readed id of the tariff device
+     * @throws IOException
+     * @throws TimeoutException
+     */
+    protected String signOn(SerialPort serialPort, OutputStream os, InputStream is, int timeout, boolean handleEcho, int baudRateChangeDelay, String deviceAddress) throws IOException, TimeoutException {
+	long start = System.nanoTime();
+	boolean successful = false;
+	try {
+	    String result = signOnWithoutMetrics(serialPort, os, is, timeout, handleEcho, baudRateChangeDelay, createRequestMessage(deviceAddress));
+	    successful = true;
+	    return result;
+	} finally {
+	    recordPhase(Phase.SIGN_ON, start, 0, successful);
+	}
+    }
+
+    private String signOnWithoutMetrics(SerialPort serialPort, OutputStream os, InputStream is, int timeout, boolean handleEcho, int baudRateChangeDelay, byte[] requestMessage) throws IOException, TimeoutException {
 
 	setSerialPortParams(serialPort, baudRateChangeDelay, getBaudRate(), getDatabits(), getStopbits(), getParity());
 
-	sendData(os, REQUEST_MESSAGE);
+	sendData(os, requestMessage);
 
-	int offset = 0;
-	if (handleEcho) {
-	    offset = 5;
-	}
+	// the echo is removed while receiving
 	byte[] signOnResponse;
-	int bytesToReadAtLeast = 6;
-	if (handleEcho) {
-	    bytesToReadAtLeast = 11;
-	}
 	try {
-	    signOnResponse = readData(is, bytesToReadAtLeast, COMPLETION_CHARACTERS, timeout);
+	    signOnResponse = readData(is, 6, COMPLETION_CHARACTERS, timeout);
 	} catch (MessageNotCompleteException ex) {
-	    if (ex.getBytesRead() == offset) {
+	    if (ex.getBytesRead() == 0) {
 		TimeoutException e = new TimeoutException("Timout while reading signon response");
 		e.initCause(ex);
 		throw e;
@@ -134,9 +237,9 @@ public class ModeCConnection extends AbstractConnection {
 	ack[2] = header.getBaudRateByte();
 	sendData(os, ack);
 
-	if (handleEcho) {
-	    readData(is, ack.length, COMPLETION_CHARACTERS, timeout);
-	}
+	// the echo shows that the acknowledgement was sent at the old baud rate,
+	// a partial echo is given up before the meter answers at the new one
+	awaitEcho(is, ack.length);
 
 	setSerialPortParams(serialPort, baudRateChangeDelay, header.getBaudRateByte(), SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
 
@@ -11,6 +11,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.MessageNotCompleteException;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.Subscription;
+import org.openmuc.j62056.TelegramListener;
+import org.openmuc.j62056.config.OverflowPolicy;
+import org.openmuc.j62056.config.Mode;
 import static org.openmuc.j62056.impl.AbstractConnection.MESSAGE_COMPLETION_CHARACTERS;
 import org.openmuc.j62056.model.Header;
 
@@ -32,17 +38,95 @@ public class ModeDConnection extends AbstractConnection {
 	this(serialPort, false, 0);
     }
 
+    @Override
+    public Mode getMode() {
+	return Mode.D;
+    }
+
     @Override
     public List<DataSet> read() throws IOException, TimeoutException {
-	if (getSerialPort() == null) {
+	return new ArrayList<>(readout().getDataSets());
+    }
+
+    @Override
+    public Readout readout() throws IOException, TimeoutException {
+	if (!isOpen()) {
 	    throw new IllegalStateException("Connection is not open.");
 	}
 
+	long start = System.nanoTime();
+	boolean successful = false;
+	try {
+	    Readout result = readDataMessage();
+	    successful = result.isComplete();
+	    notifyReadout(null, result);
+	    return result;
+	} finally {
+	    recordReadout(start, successful);
+	}
+    }
+
+    private Readout readDataMessage() throws IOException, TimeoutException {
 	setSerialPortParams(getSerialPort(), getBaudRateChangeDelay(), getBaudRate(), getDatabits(), getStopbits(), getParity());
 
 	//ignoring ETX and BCC
-	byte[] dataSets = readData(getIs(), 12, MESSAGE_COMPLETION_CHARACTERS, getTimeout());
+	byte[] dataSets;
+	try {
+	    dataSets = readData(getIs(), 12, MESSAGE_COMPLETION_CHARACTERS, getTimeout());
+	} catch (MessageNotCompleteException e) {
+	    Readout partial = isReturnPartialResults() ? parsePartialTelegram(e) : null;
+	    if (null == partial) {
+		throw e;
+	    }
+	    return partial;
+	}
+	archive(null, dataSets);
 
+	return parseTelegram(dataSets, true);
+    }
+
+    /**
+     * parses the data lines of an interrupted telegram which were received
+     * completely.
+     *
+     * @return the incomplete readout or NULL if the header or no data line
+     * was received
+     */
+    private Readout parsePartialTelegram(MessageNotCompleteException e) throws IOException {
+	byte[] received = completeLines(e.getBytes(), e.getBytesRead(), 0);
+	if (null == received) {
+	    return null;
+	}
+	int offset = findDataStart(received);
+	if ((offset < 0) || (offset >= received.length)) {
+	    return null;
+	}
+	if (received[offset] == 0x02) {
+	    offset += 1;
+	}
+	byte[] dataSets = completeLines(received, received.length, offset);
+	Header header = convert(received);
+	if ((null == dataSets) || (null == header)) {
+	    return null;
+	}
+	List<String> malformedLines = isRecoverMalformedLines() ? new ArrayList<String>() : null;
+	List<DataSet> result = new ArrayList<>();
+	result.add(new DataSet(header.getIdentifier(), "", ""));
+	result.addAll(readDataSets(dataSets, offset, malformedLines));
+	return new Readout(result, malformedLines, false);
+    }
+
+    /**
+     * parses a complete telegram from the header up to the end of the data
+     * block.
+     *
+     * @param dataSets the received telegram
+     * @param readCheckCharacter read the check character following a data
+     * block starting with STX from the input stream
+     * @return the identification followed by the data sets of the telegram
+     * @throws IOException if the telegram is not valid
+     */
+    protected Readout parseTelegram(byte[] dataSets, boolean readCheckCharacter) throws IOException {
 	Header header = convert(dataSets);
 
 	String identification = null;
@@ -66,19 +150,42 @@ public class ModeDConnection extends AbstractConnection {
 	    if (dataSets.length < 8) {
 		throw new IOException("Data message does not have minimum length of 8.");
 	    }
-	    try {
-		readData(getIs(), 1, null, 1000);
-	    } catch (RuntimeException ex) {
-		//ignore exception
+	    if (readCheckCharacter) {
+		try {
+		    readData(getIs(), 1, null, 1000);
+		} catch (RuntimeException ex) {
+		    //ignore exception
+		}
 	    }
 	} else if (dataSets.length < 5) {
 	    throw new IOException("Data message does not have minimum length of 5.");
 	}
 
-	List<DataSet> result = new ArrayList<>();
-	result.add(new DataSet(identification, "", ""));
-	result.addAll(readDataSets(dataSets, offset));
-	return result;
+	return parseReadout(null, identification, dataSets, offset);
+    }
+
+    /**
+     * Starts a continuous subscription of the telegrams pushed by the meter.
+     * The serial port is configured once and the telegrams are read back to
+     * back until the subscription is closed. <code>read()</code> must not be
+     * called while the subscription is active.
+     *
+     * @param listener the listener receiving the telegrams
+     * @param queueCapacity the maximum number of telegrams waiting for the
+     * listener
+     * @param overflowPolicy what to do with new telegrams if the listener is
+     * too slow
+     * @return the subscription
+     * @throws IOException if the serial port can not be configured
+     */
+    public Subscription subscribe(TelegramListener listener, int queueCapacity, OverflowPolicy overflowPolicy) throws IOException {
+	if (!isOpen()) {
+	    throw new IllegalStateException("Connection is not open.");
+	}
+	ModeDSubscription subscription = new ModeDSubscription(this, getIs(), listener, queueCapacity, overflowPolicy);
+	setSerialPortParams(getSerialPort(), getBaudRateChangeDelay(), getBaudRate(), getDatabits(), getStopbits(), getParity());
+	subscription.start();
+	return subscription;
     }
 
     private int findDataStart(byte[] data) {
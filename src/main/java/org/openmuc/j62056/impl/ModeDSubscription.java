@@ -0,0 +1,226 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.Subscription;
+import org.openmuc.j62056.TelegramListener;
+import org.openmuc.j62056.capture.Direction;
+import org.openmuc.j62056.config.OverflowPolicy;
+
+/**
+ * Continuous reception of the telegrams pushed by a Mode D meter.
+ *
+ * The serial port is configured once. A receiver thread reads the input
+ * without gaps and frames the telegrams back to back, a second thread
+ * delivers the parsed telegrams to the listener. If the listener is slower
+ * than the meter, the undelivered telegrams are dropped according to the
+ * overflow policy, the receiver is never blocked by the listener.
+ */
+public class ModeDSubscription implements Subscription {
+
+    private static final int MAX_TELEGRAM_LENGTH = 8192;
+
+    private final ModeDConnection connection;
+    private final InputStream is;
+    private final TelegramListener listener;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Deque<Delivery> queue = new ArrayDeque<>();
+    private final TelegramFramer framer = new TelegramFramer(MAX_TELEGRAM_LENGTH);
+    private final Thread receiver;
+    private final Thread dispatcher;
+    private volatile boolean active = true;
+    private long droppedTelegrams = 0;
+
+    protected ModeDSubscription(ModeDConnection connection, InputStream is, TelegramListener listener, int queueCapacity, OverflowPolicy overflowPolicy) {
+	if (null == listener) {
+	    throw new IllegalArgumentException("listener may not be NULL");
+	}
+	if (null == overflowPolicy) {
+	    throw new IllegalArgumentException("overflowPolicy may not be NULL");
+	}
+	if (queueCapacity < 1) {
+	    throw new IllegalArgumentException("queueCapacity must be at least 1");
+	}
+	this.connection = connection;
+	this.is = is;
+	this.listener = listener;
+	this.queueCapacity = queueCapacity;
+	this.overflowPolicy = overflowPolicy;
+	String name = connection.getSerialPortName();
+	receiver = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		receive();
+	    }
+	}, "j62056-receiver-" + name);
+	receiver.setDaemon(true);
+	dispatcher = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		dispatch();
+	    }
+	}, "j62056-dispatcher-" + name);
+	dispatcher.setDaemon(true);
+    }
+
+    protected void start() {
+	receiver.start();
+	dispatcher.start();
+    }
+
+    private void receive() {
+	byte[] chunk = new byte[AbstractConnection.INPUT_BUFFER_LENGTH];
+	// a gap in the middle of a telegram is no timeout, only a silent line
+	long lastReceived = System.currentTimeMillis();
+	try {
+	    while (active) {
+		int available = is.available();
+		if (available <= 0) {
+		    int timeout = connection.getTimeout();
+		    if ((timeout > 0) && (System.currentTimeMillis() - lastReceived >= timeout)) {
+			framer.reset();
+			lastReceived = System.currentTimeMillis();
+			enqueue(new Delivery(null, new TimeoutException("No data received within " + timeout + "ms")));
+		    }
+		    Thread.sleep(AbstractConnection.SLEEP_INTERVAL);
+		    continue;
+		}
+		int numBytesRead = is.read(chunk, 0, Math.min(available, chunk.length));
+		if (numBytesRead > 0) {
+		    lastReceived = System.currentTimeMillis();
+		    connection.getMetrics().addBytesReceived(numBytesRead);
+		    connection.capture(Direction.RECEIVED, chunk, 0, numBytesRead);
+		    connection.decodeReceived(chunk, 0, numBytesRead);
+		}
+		for (int i = 0; i < numBytesRead; i++) {
+		    byte[] telegram = framer.add(chunk[i]);
+		    if (null != telegram) {
+			enqueue(parse(telegram));
+		    }
+		}
+	    }
+	} catch (InterruptedException e) {
+	    //closed
+	} catch (IOException e) {
+	    if (active) {
+		enqueue(new Delivery(null, e));
+	    }
+	} finally {
+	    synchronized (queue) {
+		active = false;
+		queue.notifyAll();
+	    }
+	}
+    }
+
+    private Delivery parse(byte[] telegram) {
+	long start = System.nanoTime();
+	Readout readout;
+	try {
+	    connection.archive(null, telegram);
+	    readout = connection.parseTelegram(telegram, false);
+	} catch (IOException | RuntimeException e) {
+	    connection.recordReadout(start, false);
+	    return new Delivery(null, e);
+	}
+	connection.recordReadout(start, true);
+	connection.notifyReadout(null, readout);
+	return new Delivery(readout.getDataSets(), null);
+    }
+
+    private void enqueue(Delivery delivery) {
+	synchronized (queue) {
+	    if (overflowPolicy == OverflowPolicy.COALESCE) {
+		droppedTelegrams += queue.size();
+		queue.clear();
+	    } else if (queue.size() >= queueCapacity) {
+		queue.removeFirst();
+		droppedTelegrams++;
+	    }
+	    queue.addLast(delivery);
+	    queue.notifyAll();
+	}
+    }
+
+    private void dispatch() {
+	while (true) {
+	    Delivery delivery;
+	    synchronized (queue) {
+		while (queue.isEmpty() && active) {
+		    try {
+			queue.wait();
+		    } catch (InterruptedException e) {
+			return;
+		    }
+		}
+		if (queue.isEmpty()) {
+		    return;
+		}
+		delivery = queue.removeFirst();
+	    }
+	    try {
+		if (null != delivery.error) {
+		    listener.errorOccurred(delivery.error);
+		} else {
+		    listener.telegramReceived(delivery.dataSets);
+		}
+	    } catch (RuntimeException e) {
+		//a failing listener does not stop the subscription
+	    }
+	}
+    }
+
+    @Override
+    public boolean isActive() {
+	return active;
+    }
+
+    @Override
+    public long getDroppedTelegrams() {
+	synchronized (queue) {
+	    return droppedTelegrams;
+	}
+    }
+
+    @Override
+    public void close() {
+	synchronized (queue) {
+	    active = false;
+	    queue.clear();
+	    queue.notifyAll();
+	}
+	receiver.interrupt();
+	if (Thread.currentThread() != receiver) {
+	    try {
+		receiver.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    private static class Delivery {
+
+	private final List<DataSet> dataSets;
+	private final Exception error;
+
+	private Delivery(List<DataSet> dataSets, Exception error) {
+	    this.dataSets = dataSets;
+	    this.error = error;
+	}
+    }
+}
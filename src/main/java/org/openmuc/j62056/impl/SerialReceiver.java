@@ -0,0 +1,122 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains the input stream of a serial port on a dedicated thread into a ring
+ * buffer, so the port is emptied while the connection parses a message. The
+ * connection reads the received bytes from <code>getInputStream()</code>.
+ */
+class SerialReceiver implements Runnable {
+
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final InputStream in;
+    private final ByteRingBuffer ring;
+    private final Thread thread;
+    private final InputStream ringInputStream = new RingInputStream();
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    SerialReceiver(String serialPortName, InputStream in, int capacity) {
+	this.in = in;
+	this.ring = new ByteRingBuffer(capacity);
+	thread = new Thread(this, "j62056 receiver " + serialPortName);
+	thread.setDaemon(true);
+    }
+
+    void start() {
+	thread.start();
+    }
+
+    /**
+     * Stops the receiver and waits for the thread to end.
+     */
+    void stop() {
+	running = false;
+	LockSupport.unpark(thread);
+	if (Thread.currentThread() != thread) {
+	    try {
+		thread.join(1000);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    InputStream getInputStream() {
+	return ringInputStream;
+    }
+
+    ByteRingBuffer getRing() {
+	return ring;
+    }
+
+    @Override
+    public void run() {
+	try {
+	    while (running) {
+		int numBytesRead = ring.readFrom(in);
+		if (numBytesRead < 0) {
+		    throw new IOException("End of stream of the serial port");
+		}
+		if (numBytesRead == 0) {
+		    LockSupport.parkNanos(POLL_INTERVAL);
+		}
+	    }
+	} catch (IOException e) {
+	    if (running) {
+		failure = e;
+	    }
+	}
+    }
+
+    /**
+     * the consumer side of the ring buffer. Reports the failure of the
+     * receiver once the received bytes are consumed.
+     */
+    private class RingInputStream extends InputStream {
+
+	@Override
+	public int available() throws IOException {
+	    int available = ring.available();
+	    if ((available == 0) && (null != failure)) {
+		throw new IOException("Receiving from the serial port failed", failure);
+	    }
+	    return available;
+	}
+
+	@Override
+	public int read() throws IOException {
+	    while (available() == 0) {
+		if (!running) {
+		    return -1;
+		}
+		LockSupport.parkNanos(POLL_INTERVAL);
+	    }
+	    return ring.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if (len == 0) {
+		return 0;
+	    }
+	    while (available() == 0) {
+		if (!running) {
+		    return -1;
+		}
+		LockSupport.parkNanos(POLL_INTERVAL);
+	    }
+	    return ring.read(b, off, len);
+	}
+    }
+}
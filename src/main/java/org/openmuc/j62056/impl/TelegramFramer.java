@@ -0,0 +1,103 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.util.Arrays;
+
+/**
+ * Splits a continuous stream of bytes into telegrams. A telegram starts with
+ * '/' and ends with "!\r\n". Bytes between two telegrams, like ETX and the
+ * block check character, are skipped.
+ */
+public class TelegramFramer {
+
+    private static final byte START_CHARACTER = 0x2F;
+
+    private final byte[] buffer;
+    private int length = 0;
+    private boolean inTelegram = false;
+    private long discardedBytes = 0;
+
+    /**
+     * Creates a framer.
+     *
+     * @param maxTelegramLength the maximum length of a telegram, longer
+     * telegrams are discarded
+     */
+    public TelegramFramer(int maxTelegramLength) {
+	buffer = new byte[maxTelegramLength];
+    }
+
+    /**
+     * Adds one received byte.
+     *
+     * @param b the byte
+     * @return the complete telegram if the byte completes one, NULL otherwise
+     */
+    public byte[] add(byte b) {
+	if (!inTelegram) {
+	    if (b != START_CHARACTER) {
+		discardedBytes++;
+		return null;
+	    }
+	    inTelegram = true;
+	    length = 0;
+	}
+	if (length == buffer.length) {
+	    // too long, wait for the start of the next telegram
+	    discardedBytes += length;
+	    inTelegram = false;
+	    length = 0;
+	    return add(b);
+	}
+	buffer[length++] = b;
+	if (isComplete()) {
+	    inTelegram = false;
+	    return Arrays.copyOf(buffer, length);
+	}
+	return null;
+    }
+
+    private boolean isComplete() {
+	int end = AbstractConnection.MESSAGE_COMPLETION_CHARACTERS.length;
+	if (length < end + 1) {
+	    return false;
+	}
+	for (int i = 1; i <= end; i++) {
+	    if (buffer[length - i] != AbstractConnection.MESSAGE_COMPLETION_CHARACTERS[end - i]) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Checks if the start of a telegram was received but not yet its end.
+     *
+     * @return true if a telegram is incomplete
+     */
+    public boolean isInTelegram() {
+	return inTelegram;
+    }
+
+    /**
+     * Returns the number of bytes which did not belong to a telegram.
+     *
+     * @return the number of discarded bytes
+     */
+    public long getDiscardedBytes() {
+	return discardedBytes;
+    }
+
+    /**
+     * Discards an incomplete telegram.
+     */
+    public void reset() {
+	discardedBytes += length;
+	inTelegram = false;
+	length = 0;
+    }
+}
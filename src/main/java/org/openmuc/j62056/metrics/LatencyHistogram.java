@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations. The durations are counted in buckets
+ * whose upper bounds are powers of two microseconds, so recording a value
+ * costs only a few atomic increments.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in ns
+     */
+    public void record(long nanos) {
+	long micros = Math.max(0, nanos / 1000);
+	int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	buckets.incrementAndGet(bucket);
+	count.incrementAndGet();
+	sum.addAndGet(micros);
+	long currentMax = max.get();
+	while ((micros > currentMax) && !max.compareAndSet(currentMax, micros)) {
+	    currentMax = max.get();
+	}
+    }
+
+    public long getCount() {
+	return count.get();
+    }
+
+    /**
+     * Returns the sum of all recorded durations.
+     *
+     * @return the sum in µs
+     */
+    public long getTotalMicros() {
+	return sum.get();
+    }
+
+    /**
+     * Returns the mean of all recorded durations.
+     *
+     * @return the mean in µs, 0 if nothing is recorded
+     */
+    public long getMeanMicros() {
+	long c = count.get();
+	return c == 0 ? 0 : sum.get() / c;
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     *
+     * @return the maximum in µs
+     */
+    public long getMaxMicros() {
+	return max.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile. The result is the upper
+     * bound of the bucket containing the percentile, i.e. it is at most twice
+     * the exact value.
+     *
+     * @param percentile the percentile, e.g. 0.99
+     * @return the percentile in µs, 0 if nothing is recorded
+     */
+    public long getPercentileMicros(double percentile) {
+	long total = count.get();
+	if (total == 0) {
+	    return 0;
+	}
+	long rank = (long) Math.ceil(total * percentile);
+	long cumulated = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    cumulated += buckets.get(i);
+	    if (cumulated >= rank) {
+		return Math.min(1L << i, max.get());
+	    }
+	}
+	return max.get();
+    }
+
+    /**
+     * Discards all recorded durations.
+     */
+    public void reset() {
+	for (int i = 0; i < BUCKETS; i++) {
+	    buckets.set(i, 0);
+	}
+	count.set(0);
+	sum.set(0);
+	max.set(0);
+    }
+}
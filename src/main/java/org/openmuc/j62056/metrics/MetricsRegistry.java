@@ -0,0 +1,88 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Holds the metrics of all serial ports. The metrics of every port are
+ * registered as MXBean at the platform MBean server with the name
+ * "org.openmuc.j62056:type=PortMetrics,port=&lt;serial port&gt;".
+ */
+public class MetricsRegistry {
+
+    public static final String DOMAIN = "org.openmuc.j62056";
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+
+    private final ConcurrentMap<String, PortMetrics> metrics = new ConcurrentHashMap<>();
+    private final MBeanServer mBeanServer;
+
+    /**
+     * Creates a registry.
+     *
+     * @param mBeanServer the server the metrics are registered at, NULL to
+     * not publish the metrics
+     */
+    public MetricsRegistry(MBeanServer mBeanServer) {
+	this.mBeanServer = mBeanServer;
+    }
+
+    /**
+     * Returns the registry used by all connections.
+     *
+     * @return the default registry
+     */
+    public static MetricsRegistry getDefault() {
+	return DEFAULT;
+    }
+
+    /**
+     * Returns the metrics of the given port. The metrics are created and
+     * registered at the MBean server with the first call.
+     *
+     * @param serialPortName the name of the serial port
+     * @return the metrics of the port
+     */
+    public PortMetrics forPort(String serialPortName) {
+	PortMetrics result = metrics.get(serialPortName);
+	if (null == result) {
+	    PortMetrics created = new PortMetrics(serialPortName);
+	    result = metrics.putIfAbsent(serialPortName, created);
+	    if (null == result) {
+		result = created;
+		register(created);
+	    }
+	}
+	return result;
+    }
+
+    public Collection<PortMetrics> getAll() {
+	return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    public static ObjectName createObjectName(String serialPortName) throws JMException {
+	return new ObjectName(DOMAIN + ":type=PortMetrics,port=" + ObjectName.quote(serialPortName));
+    }
+
+    private void register(PortMetrics portMetrics) {
+	if (null == mBeanServer) {
+	    return;
+	}
+	try {
+	    mBeanServer.registerMBean(portMetrics, createObjectName(portMetrics.getSerialPortName()));
+	} catch (JMException e) {
+	    //the metrics are still collected, only the publication failed
+	}
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+/**
+ * The phases of a readout whose durations are measured.
+ */
+public enum Phase {
+
+    /**
+     * setting the parameters of the serial port.
+     */
+    CONFIGURE,
+    /**
+     * waiting the baud rate change delay before the serial port is
+     * configured.
+     */
+    CHANGE_DELAY,
+    /**
+     * sending a message.
+     */
+    SEND,
+    /**
+     * receiving a message.
+     */
+    RECEIVE,
+    /**
+     * the sign on of Mode C up to the acknowledgement of the baud rate.
+     */
+    SIGN_ON,
+    /**
+     * parsing the data sets of a data message.
+     */
+    PARSE,
+    /**
+     * the complete readout.
+     */
+    READOUT;
+}
@@ -0,0 +1,94 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+import org.openmuc.j62056.config.Mode;
+
+/**
+ * A completed protocol phase of one connection.
+ */
+public class PhaseEvent {
+
+    private final String serialPortName;
+    private final Mode mode;
+    private final Phase phase;
+    private final int baudRate;
+    private final int bytes;
+    private final long startNanos;
+    private final long durationNanos;
+    private final boolean successful;
+
+    public PhaseEvent(String serialPortName, Mode mode, Phase phase, int baudRate, int bytes, long startNanos, long durationNanos, boolean successful) {
+	this.serialPortName = serialPortName;
+	this.mode = mode;
+	this.phase = phase;
+	this.baudRate = baudRate;
+	this.bytes = bytes;
+	this.startNanos = startNanos;
+	this.durationNanos = durationNanos;
+	this.successful = successful;
+    }
+
+    public String getSerialPortName() {
+	return serialPortName;
+    }
+
+    /**
+     * Returns the mode of the connection.
+     *
+     * @return the mode or NULL if the connection does not implement one of the
+     * modes of IEC 62056-21
+     */
+    public Mode getMode() {
+	return mode;
+    }
+
+    public Phase getPhase() {
+	return phase;
+    }
+
+    /**
+     * Returns the baud rate the serial port was configured with during the
+     * phase. For <code>Phase.CONFIGURE</code> this is the new baud rate.
+     *
+     * @return the baud rate
+     */
+    public int getBaudRate() {
+	return baudRate;
+    }
+
+    /**
+     * Returns the number of bytes sent, received or parsed in the phase.
+     *
+     * @return the number of bytes, 0 if the phase does not transfer data
+     */
+    public int getBytes() {
+	return bytes;
+    }
+
+    /**
+     * Returns the start of the phase.
+     *
+     * @return the start from <code>System.nanoTime()</code>
+     */
+    public long getStartNanos() {
+	return startNanos;
+    }
+
+    public long getDurationNanos() {
+	return durationNanos;
+    }
+
+    public boolean isSuccessful() {
+	return successful;
+    }
+
+    @Override
+    public String toString() {
+	return "PhaseEvent{" + "serialPortName=" + serialPortName + ", mode=" + mode + ", phase=" + phase + ", baudRate=" + baudRate + ", bytes=" + bytes + ", durationNanos=" + durationNanos + ", successful=" + successful + '}';
+    }
+
+}
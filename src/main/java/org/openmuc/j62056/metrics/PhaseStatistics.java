@@ -0,0 +1,55 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the durations of one phase, as published over JMX.
+ */
+public class PhaseStatistics {
+
+    private final String phase;
+    private final long count;
+    private final long meanMicros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({"phase", "count", "meanMicros", "p99Micros", "maxMicros"})
+    public PhaseStatistics(String phase, long count, long meanMicros, long p99Micros, long maxMicros) {
+	this.phase = phase;
+	this.count = count;
+	this.meanMicros = meanMicros;
+	this.p99Micros = p99Micros;
+	this.maxMicros = maxMicros;
+    }
+
+    public String getPhase() {
+	return phase;
+    }
+
+    public long getCount() {
+	return count;
+    }
+
+    public long getMeanMicros() {
+	return meanMicros;
+    }
+
+    public long getP99Micros() {
+	return p99Micros;
+    }
+
+    public long getMaxMicros() {
+	return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+	return "PhaseStatistics{" + "phase=" + phase + ", count=" + count + ", meanMicros=" + meanMicros + ", p99Micros=" + p99Micros + ", maxMicros=" + maxMicros + '}';
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of one serial port. All methods are thread
+ * safe and do not block.
+ */
+public class PortMetrics implements PortMetricsMXBean {
+
+    private final String serialPortName;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong readouts = new AtomicLong();
+    private final AtomicLong failedReadouts = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong incompleteMessages = new AtomicLong();
+    private final AtomicLong parityErrors = new AtomicLong();
+    private final AtomicLong listenerErrors = new AtomicLong();
+    private final AtomicLong archiveErrors = new AtomicLong();
+    private final AtomicLong captureErrors = new AtomicLong();
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+
+    public PortMetrics(String serialPortName) {
+	this.serialPortName = serialPortName;
+	for (Phase phase : Phase.values()) {
+	    phases.put(phase, new LatencyHistogram());
+	}
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase the phase
+     * @param startNanos the start of the phase from <code>System.nanoTime()</code>
+     */
+    public void record(Phase phase, long startNanos) {
+	recordDuration(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase the phase
+     * @param durationNanos the duration in ns
+     */
+    public void recordDuration(Phase phase, long durationNanos) {
+	phases.get(phase).record(durationNanos);
+    }
+
+    public void addBytesReceived(int count) {
+	bytesReceived.addAndGet(count);
+    }
+
+    public void addBytesSent(int count) {
+	bytesSent.addAndGet(count);
+    }
+
+    public void readoutCompleted() {
+	readouts.incrementAndGet();
+    }
+
+    public void readoutFailed() {
+	failedReadouts.incrementAndGet();
+    }
+
+    public void timeout() {
+	timeouts.incrementAndGet();
+    }
+
+    public void incompleteMessage() {
+	incompleteMessages.incrementAndGet();
+    }
+
+    public void addParityErrors(int count) {
+	parityErrors.addAndGet(count);
+    }
+
+    public void captureFailed() {
+	captureErrors.incrementAndGet();
+    }
+
+    public void archiveFailed() {
+	archiveErrors.incrementAndGet();
+    }
+
+    public void listenerFailed() {
+	listenerErrors.incrementAndGet();
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+	return phases.get(phase);
+    }
+
+    @Override
+    public String getSerialPortName() {
+	return serialPortName;
+    }
+
+    @Override
+    public long getBytesReceived() {
+	return bytesReceived.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+	return bytesSent.get();
+    }
+
+    @Override
+    public long getReadouts() {
+	return readouts.get();
+    }
+
+    @Override
+    public long getFailedReadouts() {
+	return failedReadouts.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+	return timeouts.get();
+    }
+
+    @Override
+    public long getIncompleteMessages() {
+	return incompleteMessages.get();
+    }
+
+    @Override
+    public long getParityErrors() {
+	return parityErrors.get();
+    }
+
+    @Override
+    public long getCaptureErrors() {
+	return captureErrors.get();
+    }
+
+    @Override
+    public long getArchiveErrors() {
+	return archiveErrors.get();
+    }
+
+    @Override
+    public long getListenerErrors() {
+	return listenerErrors.get();
+    }
+
+    @Override
+    public List<PhaseStatistics> getPhases() {
+	List<PhaseStatistics> result = new ArrayList<>();
+	for (Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet()) {
+	    LatencyHistogram histogram = entry.getValue();
+	    result.add(new PhaseStatistics(entry.getKey().name(), histogram.getCount(), histogram.getMeanMicros(), histogram.getPercentileMicros(0.99), histogram.getMaxMicros()));
+	}
+	return result;
+    }
+
+    @Override
+    public void reset() {
+	bytesReceived.set(0);
+	bytesSent.set(0);
+	readouts.set(0);
+	failedReadouts.set(0);
+	timeouts.set(0);
+	incompleteMessages.set(0);
+	parityErrors.set(0);
+	listenerErrors.set(0);
+	archiveErrors.set(0);
+	captureErrors.set(0);
+	for (LatencyHistogram histogram : phases.values()) {
+	    histogram.reset();
+	}
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+import java.util.List;
+
+/**
+ * The metrics of one serial port published over JMX.
+ */
+public interface PortMetricsMXBean {
+
+    String getSerialPortName();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getReadouts();
+
+    long getFailedReadouts();
+
+    /**
+     * Returns the number of receive attempts without a single byte received.
+     *
+     * @return the number of timeouts
+     */
+    long getTimeouts();
+
+    /**
+     * Returns the number of messages which were received only partially.
+     *
+     * @return the number of incomplete messages
+     */
+    long getIncompleteMessages();
+
+    /**
+     * Returns the number of received bytes with a wrong parity bit. Only
+     * counted if the parity is checked in software.
+     *
+     * @return the number of parity errors
+     */
+    long getParityErrors();
+
+    /**
+     * Returns the number of failed writes to the capture log. The capture
+     * writer is detached from the connection after a failure.
+     *
+     * @return the number of capture errors
+     */
+    long getCaptureErrors();
+
+    /**
+     * Returns the number of failed writes to the telegram archive. The
+     * archive is detached from the connection after a failure.
+     *
+     * @return the number of archive errors
+     */
+    long getArchiveErrors();
+
+    /**
+     * Returns the number of exceptions thrown by readout listeners. A failing
+     * listener does not fail the readout.
+     *
+     * @return the number of listener errors
+     */
+    long getListenerErrors();
+
+    List<PhaseStatistics> getPhases();
+
+    void reset();
+}
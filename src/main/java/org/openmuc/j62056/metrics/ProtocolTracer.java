@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+/**
+ * Receives an event for every completed protocol phase of a connection, e.g.
+ * to write it to a flight recording.
+ *
+ * The events are delivered synchronously in the thread of the connection, so
+ * implementations have to return quickly. If no tracer is set no event is
+ * created at all.
+ */
+public interface ProtocolTracer {
+
+    /**
+     * Called after a protocol phase of a connection completed.
+     *
+     * @param event the event describing the phase
+     */
+    void phaseCompleted(PhaseEvent event);
+}
@@ -0,0 +1,22 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.pool;
+
+import org.openmuc.j62056.impl.AbstractConnection;
+
+/**
+ * Creates the connections of a <code>ConnectionPool</code>.
+ */
+public interface ConnectionFactory {
+
+    /**
+     * Creates a new, not yet opened connection for the given serial port.
+     *
+     * @param serialPortName the name of the serial port
+     * @return the connection
+     */
+    AbstractConnection create(String serialPortName);
+}
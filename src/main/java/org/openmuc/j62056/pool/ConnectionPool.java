@@ -0,0 +1,300 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.pool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.openmuc.j62056.impl.AbstractConnection;
+import org.openmuc.j62056.port.PortListener;
+import org.openmuc.j62056.port.PortRegistry;
+
+/**
+ * Pool which keeps connections open between the reads, so the serial port
+ * does not have to be opened and configured again for every read.
+ *
+ * A connection is borrowed with <code>borrow()</code> and has to be given
+ * back with <code>release()</code>, or with <code>invalidate()</code> if an
+ * error occurred. Before an idle connection is lent out again it is checked
+ * that the serial port is still present and stale bytes left in the input are
+ * discarded. Connections which were idle longer than the idle timeout are
+ * closed.
+ */
+public class ConnectionPool implements PortListener, AutoCloseable {
+
+    private static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private static final int DEFAULT_MAX_STALE_BYTES = 1024;
+
+    private final ConnectionFactory factory;
+    private final PortRegistry registry;
+    private final Map<String, IdleConnection> idle = new HashMap<>();
+    private final Map<String, AbstractConnection> borrowed = new HashMap<>();
+    private final ScheduledExecutorService evictor;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private int maxStaleBytes = DEFAULT_MAX_STALE_BYTES;
+    private boolean closed = false;
+
+    /**
+     * Creates a pool which uses the default <code>PortRegistry</code>.
+     *
+     * @param factory creates the connections
+     */
+    public ConnectionPool(ConnectionFactory factory) {
+	this(factory, PortRegistry.getDefault());
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param factory creates the connections
+     * @param registry the registry used to check if a port is still present
+     */
+    public ConnectionPool(ConnectionFactory factory, PortRegistry registry) {
+	if (null == factory) {
+	    throw new IllegalArgumentException("factory may not be NULL");
+	}
+	if (null == registry) {
+	    throw new IllegalArgumentException("registry may not be NULL");
+	}
+	this.factory = factory;
+	this.registry = registry;
+	evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, "j62056-pool-evictor");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	evictor.scheduleWithFixedDelay(new Runnable() {
+
+	    @Override
+	    public void run() {
+		evictIdle(System.currentTimeMillis());
+	    }
+	}, 1, 1, TimeUnit.SECONDS);
+	registry.addPortListener(this);
+    }
+
+    /**
+     * Lends out an open connection for the given serial port. An idle
+     * connection is reused if it is still valid, otherwise a new connection is
+     * created and opened.
+     *
+     * @param serialPortName the name of the serial port
+     * @return the open connection
+     * @throws IOException if the connection can not be opened or the
+     * connection of this port is already borrowed
+     */
+    public AbstractConnection borrow(String serialPortName) throws IOException {
+	AbstractConnection connection;
+	boolean reused;
+	synchronized (this) {
+	    if (closed) {
+		throw new IllegalStateException("Pool is closed.");
+	    }
+	    if (borrowed.containsKey(serialPortName)) {
+		throw new IOException("Connection of serial port is already borrowed.");
+	    }
+	    IdleConnection idleConnection = idle.remove(serialPortName);
+	    reused = null != idleConnection;
+	    connection = reused ? idleConnection.connection : factory.create(serialPortName);
+	    borrowed.put(serialPortName, connection);
+	}
+	// validating and opening is done without holding the lock of the pool
+	try {
+	    if (reused && !validate(connection)) {
+		connection.close();
+		connection = factory.create(serialPortName);
+		synchronized (this) {
+		    borrowed.put(serialPortName, connection);
+		}
+		reused = false;
+	    }
+	    if (!reused) {
+		connection.open();
+	    }
+	} catch (IOException | RuntimeException e) {
+	    synchronized (this) {
+		borrowed.remove(serialPortName);
+	    }
+	    connection.close();
+	    throw e;
+	}
+	return connection;
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool. The connection stays open
+     * until it is borrowed again or the idle timeout elapsed.
+     *
+     * @param connection the borrowed connection
+     */
+    public synchronized void release(AbstractConnection connection) {
+	if (borrowed.get(connection.getSerialPortName()) != connection) {
+	    throw new IllegalArgumentException("Connection is not borrowed from this pool.");
+	}
+	borrowed.remove(connection.getSerialPortName());
+	if (closed || !connection.isOpen()) {
+	    connection.close();
+	} else {
+	    idle.put(connection.getSerialPortName(), new IdleConnection(connection, System.currentTimeMillis()));
+	}
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool and closes it, e.g. after
+     * an error occurred while reading.
+     *
+     * @param connection the borrowed connection
+     */
+    public synchronized void invalidate(AbstractConnection connection) {
+	if (borrowed.get(connection.getSerialPortName()) == connection) {
+	    borrowed.remove(connection.getSerialPortName());
+	}
+	connection.close();
+    }
+
+    /**
+     * Checks if an idle connection can be lent out again. The connection has
+     * to be open, its serial port has to be present and the input must not
+     * contain more stale bytes than allowed, which are discarded.
+     *
+     * @param connection the idle connection
+     * @return true if the connection is valid
+     */
+    protected boolean validate(AbstractConnection connection) {
+	if (!connection.isOpen()) {
+	    return false;
+	}
+	String serialPortName = connection.getSerialPortName();
+	if (PortRegistry.isDevicePath(serialPortName) && !registry.isAvailable(serialPortName)) {
+	    return false;
+	}
+	try {
+	    return connection.drainInput(maxStaleBytes + 1) <= maxStaleBytes;
+	} catch (IOException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * Closes the connections which were idle longer than the idle timeout.
+     *
+     * @param now the current time in ms
+     */
+    protected void evictIdle(long now) {
+	List<AbstractConnection> expired = new ArrayList<>();
+	synchronized (this) {
+	    Iterator<IdleConnection> it = idle.values().iterator();
+	    while (it.hasNext()) {
+		IdleConnection idleConnection = it.next();
+		if (now - idleConnection.since >= idleTimeout) {
+		    it.remove();
+		    expired.add(idleConnection.connection);
+		}
+	    }
+	}
+	for (AbstractConnection connection : expired) {
+	    connection.close();
+	}
+    }
+
+    @Override
+    public void portAdded(String portName) {
+	//nothing to do, the connection is opened with the next borrow
+    }
+
+    @Override
+    public void portRemoved(String portName) {
+	IdleConnection idleConnection;
+	synchronized (this) {
+	    idleConnection = idle.remove(portName);
+	}
+	if (null != idleConnection) {
+	    idleConnection.connection.close();
+	}
+    }
+
+    /**
+     * Closes all idle connections. Borrowed connections are closed when they
+     * are given back.
+     */
+    @Override
+    public void close() {
+	List<IdleConnection> connections;
+	synchronized (this) {
+	    if (closed) {
+		return;
+	    }
+	    closed = true;
+	    connections = new ArrayList<>(idle.values());
+	    idle.clear();
+	}
+	registry.removePortListener(this);
+	evictor.shutdownNow();
+	for (IdleConnection idleConnection : connections) {
+	    idleConnection.connection.close();
+	}
+    }
+
+    public synchronized int getIdleCount() {
+	return idle.size();
+    }
+
+    public synchronized int getBorrowedCount() {
+	return borrowed.size();
+    }
+
+    public synchronized long getIdleTimeout() {
+	return idleTimeout;
+    }
+
+    /**
+     * Sets the time in ms after which an idle connection is closed.
+     *
+     * @param idleTimeout the idle timeout in ms
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+	this.idleTimeout = idleTimeout;
+    }
+
+    public synchronized int getMaxStaleBytes() {
+	return maxStaleBytes;
+    }
+
+    /**
+     * Sets the maximum number of stale bytes which are discarded from the
+     * input of an idle connection before it is lent out again. If more bytes
+     * are available the input is considered as stuck and the connection is
+     * opened again.
+     *
+     * @param maxStaleBytes the maximum number of stale bytes
+     */
+    public synchronized void setMaxStaleBytes(int maxStaleBytes) {
+	this.maxStaleBytes = maxStaleBytes;
+    }
+
+    private static class IdleConnection {
+
+	private final AbstractConnection connection;
+	private final long since;
+
+	private IdleConnection(AbstractConnection connection, long since) {
+	    this.connection = connection;
+	    this.since = since;
+	}
+    }
+}
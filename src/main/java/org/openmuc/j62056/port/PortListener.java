@@ -0,0 +1,28 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.port;
+
+/**
+ * Listener which is informed by the <code>PortRegistry</code> if a serial
+ * port appears or disappears.
+ */
+public interface PortListener {
+
+    /**
+     * Called if a serial port became available, e.g. an USB optical head was
+     * plugged in.
+     *
+     * @param portName the name of the port, e.g. "/dev/ttyUSB0"
+     */
+    void portAdded(String portName);
+
+    /**
+     * Called if a serial port is no longer available.
+     *
+     * @param portName the name of the port, e.g. "/dev/ttyUSB0"
+     */
+    void portRemoved(String portName);
+}
@@ -0,0 +1,496 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.port;
+
+import gnu.io.CommPort;
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the serial ports available on this machine.
+ *
+ * Ports given as device path (e.g. "/dev/ttyUSB0") are opened directly
+ * without the enumeration of <code>CommPortIdentifier</code>, which probes
+ * every candidate device node. The registry remembers the state of every port
+ * it has seen and only checks the requested device node again if the cached
+ * state is older than the maximum age.
+ *
+ * With <code>startWatching()</code> the registry watches /dev and
+ * /dev/serial/by-id (or the directories given to the constructor) for serial
+ * ports being plugged in or removed. The cached
+ * states of these ports are then always up to date, so no device node has to
+ * be checked anymore, and registered <code>PortListener</code>s are informed
+ * about every change.
+ */
+public class PortRegistry {
+
+    /**
+     * the device nodes in /dev which are considered as serial ports.
+     */
+    protected static final Pattern SERIAL_DEVICE_NAMES = Pattern.compile("tty(S|USB|ACM|AMA|O|mxc)\\d+|rfcomm\\d+");
+
+    protected static final Path DEVICE_DIRECTORY = Paths.get("/dev");
+
+    protected static final Path SERIAL_DIRECTORY = Paths.get("/dev/serial");
+
+    protected static final Path SERIAL_BY_ID_DIRECTORY = Paths.get("/dev/serial/by-id");
+
+    private static final long DEFAULT_MAX_AGE = 1000;
+
+    private static final PortRegistry DEFAULT = new PortRegistry();
+
+    private final ConcurrentMap<String, PortState> ports = new ConcurrentHashMap<>();
+    private final Set<String> openPorts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile long maxAge = DEFAULT_MAX_AGE;
+    private final List<PortListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private volatile WatchService watchService;
+    private final Path deviceDirectory;
+    private final Path serialDirectory;
+    private final Path serialByIdDirectory;
+
+    /**
+     * Creates a registry for the device directories /dev and
+     * /dev/serial/by-id.
+     */
+    public PortRegistry() {
+	this(DEVICE_DIRECTORY, SERIAL_BY_ID_DIRECTORY);
+    }
+
+    /**
+     * Creates a registry for the given device directories. The parent of the
+     * by-id directory is watched as well to notice when it is created.
+     *
+     * @param deviceDirectory the directory of the device nodes, e.g. /dev
+     * @param serialByIdDirectory the directory of the persistent links to the
+     * serial ports, e.g. /dev/serial/by-id
+     */
+    public PortRegistry(Path deviceDirectory, Path serialByIdDirectory) {
+	this.deviceDirectory = deviceDirectory.toAbsolutePath();
+	this.serialByIdDirectory = serialByIdDirectory.toAbsolutePath();
+	Path parent = this.serialByIdDirectory.getParent();
+	this.serialDirectory = (null == parent) ? this.serialByIdDirectory : parent;
+    }
+
+    /**
+     * Returns the registry shared by all connections.
+     *
+     * @return the default registry
+     */
+    public static PortRegistry getDefault() {
+	return DEFAULT;
+    }
+
+    /**
+     * Sets the time in ms a cached port state is used before the device node
+     * is checked again.
+     *
+     * @param maxAge the maximum age in ms, 0 checks the device node every
+     * time
+     */
+    public void setMaxAge(long maxAge) {
+	this.maxAge = maxAge;
+    }
+
+    public long getMaxAge() {
+	return maxAge;
+    }
+
+    /**
+     * Checks if the given port is available. The cached state is used if it
+     * is not older than the maximum age, otherwise only the device node of
+     * this port is checked.
+     *
+     * @param portName the name of the port, e.g. "/dev/ttyUSB0"
+     * @return true if the port exists
+     */
+    public boolean isAvailable(String portName) {
+	PortState state = ports.get(portName);
+	if (isWatched(portName)) {
+	    return (null != state) && state.available;
+	}
+	if ((null == state) || (System.currentTimeMillis() - state.checked >= maxAge)) {
+	    state = refresh(portName);
+	}
+	return state.available;
+    }
+
+    /**
+     * Checks the device node of the given port and updates the cached state.
+     *
+     * @param portName the name of the port
+     * @return the new state of the port
+     */
+    protected PortState refresh(String portName) {
+	return update(portName, isDevicePath(portName) && Files.exists(Paths.get(portName)), System.currentTimeMillis());
+    }
+
+    /**
+     * Updates the cached state of a port and informs the listeners if the
+     * availability of the port changed.
+     *
+     * @param portName the name of the port
+     * @param available true if the port exists
+     * @param checked the time of the check
+     * @return the new state of the port
+     */
+    protected PortState update(String portName, boolean available, long checked) {
+	PortState state = new PortState(available, checked);
+	PortState previous = ports.put(portName, state);
+	boolean wasAvailable = (null != previous) && previous.available;
+	if (available != wasAvailable) {
+	    for (PortListener listener : listeners) {
+		if (available) {
+		    listener.portAdded(portName);
+		} else {
+		    listener.portRemoved(portName);
+		}
+	    }
+	}
+	return state;
+    }
+
+    /**
+     * Scans the device directories for serial ports and updates the cached
+     * states. Only the directory entries are listed, the device nodes are not
+     * opened.
+     *
+     * @throws IOException if a device directory can not be listed
+     */
+    public void refreshAll() throws IOException {
+	long now = System.currentTimeMillis();
+	Set<String> found = new TreeSet<>();
+	listDevices(deviceDirectory, true, found);
+	listDevices(serialByIdDirectory, false, found);
+	for (String portName : ports.keySet()) {
+	    if (!found.contains(portName)) {
+		update(portName, false, now);
+	    }
+	}
+	for (String portName : found) {
+	    update(portName, true, now);
+	}
+    }
+
+    private void listDevices(Path directory, boolean filter, Set<String> found) throws IOException {
+	if (!Files.isDirectory(directory)) {
+	    return;
+	}
+	try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+	    for (Path path : stream) {
+		if (!filter || isSerialDevice(path.getFileName().toString())) {
+		    found.add(path.toString());
+		}
+	    }
+	}
+    }
+
+    public void addPortListener(PortListener listener) {
+	listeners.add(listener);
+    }
+
+    public void removePortListener(PortListener listener) {
+	listeners.remove(listener);
+    }
+
+    /**
+     * Starts watching the device directories for serial ports being added or
+     * removed. The watcher runs in its own daemon thread, which also calls the
+     * registered listeners.
+     *
+     * @throws IOException if the device directories can not be watched
+     */
+    public synchronized void startWatching() throws IOException {
+	if (null != watchService) {
+	    return;
+	}
+	final WatchService service = deviceDirectory.getFileSystem().newWatchService();
+	watchService = service;
+	try {
+	    watchDirectory(deviceDirectory);
+	    watchSerialDirectories();
+	    refreshAll();
+	} catch (IOException e) {
+	    stopWatching();
+	    throw e;
+	}
+	Thread watcher = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		processEvents(service);
+	    }
+	}, "j62056-port-watcher");
+	watcher.setDaemon(true);
+	watcher.start();
+    }
+
+    /**
+     * Stops watching the device directories. Afterwards the device nodes are
+     * checked again if the cached state is older than the maximum age.
+     */
+    public synchronized void stopWatching() {
+	if (null == watchService) {
+	    return;
+	}
+	try {
+	    watchService.close();
+	} catch (IOException e) {
+	    //ignore exception
+	}
+	watchService = null;
+	watchedDirectories.clear();
+    }
+
+    public boolean isWatching() {
+	return null != watchService;
+    }
+
+    private void watchDirectory(Path directory) throws IOException {
+	WatchService service = watchService;
+	if ((null == service) || watchedDirectories.containsValue(directory) || !Files.isDirectory(directory)) {
+	    return;
+	}
+	watchedDirectories.put(directory.register(service, ENTRY_CREATE, ENTRY_DELETE), directory);
+    }
+
+    private void watchSerialDirectories() throws IOException {
+	watchDirectory(serialDirectory);
+	if (Files.isDirectory(serialByIdDirectory) && !watchedDirectories.containsValue(serialByIdDirectory)) {
+	    watchDirectory(serialByIdDirectory);
+	    // links created before the directory was watched
+	    Set<String> found = new TreeSet<>();
+	    listDevices(serialByIdDirectory, false, found);
+	    for (String portName : found) {
+		update(portName, true, System.currentTimeMillis());
+	    }
+	}
+    }
+
+    private void processEvents(WatchService service) {
+	while (true) {
+	    WatchKey key;
+	    try {
+		key = service.take();
+	    } catch (InterruptedException | ClosedWatchServiceException e) {
+		return;
+	    }
+	    Path directory = watchedDirectories.get(key);
+	    if (null == directory) {
+		key.cancel();
+		continue;
+	    }
+	    try {
+		for (WatchEvent<?> event : key.pollEvents()) {
+		    if (event.kind() == OVERFLOW) {
+			refreshAll();
+			continue;
+		    }
+		    Path path = directory.resolve((Path) event.context());
+		    if (serialByIdDirectory.equals(directory)
+			    || (deviceDirectory.equals(directory) && isSerialDevice(path.getFileName().toString()))) {
+			update(path.toString(), event.kind() == ENTRY_CREATE, System.currentTimeMillis());
+		    } else if (event.kind() == ENTRY_CREATE) {
+			// /dev/serial and /dev/serial/by-id are created with the first USB serial port
+			watchSerialDirectories();
+		    }
+		}
+	    } catch (IOException | ClosedWatchServiceException e) {
+		//continue with the next events
+	    }
+	    if (!key.reset()) {
+		watchedDirectories.remove(key);
+		if (serialByIdDirectory.equals(directory)) {
+		    for (String portName : ports.keySet()) {
+			if (isInDirectory(portName, serialByIdDirectory)) {
+			    update(portName, false, System.currentTimeMillis());
+			}
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Checks if the state of the given port is kept up to date by the
+     * watcher.
+     *
+     * @param portName the name of the port
+     * @return true if the port is in a watched directory
+     */
+    protected boolean isWatched(String portName) {
+	if ((null == watchService) || !isDevicePath(portName)) {
+	    return false;
+	}
+	return (isInDirectory(portName, deviceDirectory) && isSerialDevice(Paths.get(portName).getFileName().toString()))
+		|| isInDirectory(portName, serialByIdDirectory);
+    }
+
+    private static boolean isInDirectory(String portName, Path directory) {
+	return directory.equals(Paths.get(portName).getParent());
+    }
+
+    /**
+     * Returns the ports known to be available. The result contains the ports
+     * found by the last call of <code>refreshAll()</code> and all ports
+     * checked since then.
+     *
+     * @return the names of the available ports
+     */
+    public Set<String> getAvailablePorts() {
+	Set<String> result = new TreeSet<>();
+	for (ConcurrentMap.Entry<String, PortState> entry : ports.entrySet()) {
+	    if (entry.getValue().available) {
+		result.add(entry.getKey());
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Opens the given serial port. Device paths are opened directly, other
+     * names (e.g. "COM1" on Windows) are looked up with
+     * <code>CommPortIdentifier</code>.
+     *
+     * @param portName the name of the port
+     * @param owner the name of the owner of the port
+     * @param openTimeout the time in ms to wait for the port if it is used by
+     * another application, only used for ports which are not opened directly
+     * @return the opened serial port
+     * @throws IOException if the port does not exist or is in use
+     */
+    public SerialPort open(String portName, String owner, int openTimeout) throws IOException {
+	if (!isDevicePath(portName)) {
+	    return openByIdentifier(portName, owner, openTimeout);
+	}
+	if (!isAvailable(portName) && !refresh(portName).available) {
+	    throw new IOException("Serial port with given name does not exist");
+	}
+	if (!openPorts.add(portName)) {
+	    throw new IOException("Serial port is currently in use.");
+	}
+	try {
+	    return new RXTXPort(portName);
+	} catch (PortInUseException e) {
+	    openPorts.remove(portName);
+	    throw new IOException("Serial port is currently in use.", e);
+	} catch (RuntimeException e) {
+	    openPorts.remove(portName);
+	    refresh(portName);
+	    throw new IOException("Unable to open serial port", e);
+	}
+    }
+
+    /**
+     * Marks the given port as no longer used by this application. Must be
+     * called after the serial port returned by <code>open()</code> is closed.
+     *
+     * @param portName the name of the port
+     */
+    public void release(String portName) {
+	openPorts.remove(portName);
+    }
+
+    /**
+     * Checks if the given port is opened by this application.
+     *
+     * @param portName the name of the port
+     * @return true if the port is open
+     */
+    public boolean isOpen(String portName) {
+	return openPorts.contains(portName);
+    }
+
+    /**
+     * Opens the serial port the classic way with
+     * <code>CommPortIdentifier</code>.
+     *
+     * @param portName the name of the port
+     * @param owner the name of the owner of the port
+     * @param openTimeout the time in ms to wait for the port
+     * @return the opened serial port
+     * @throws IOException if the port does not exist or is in use
+     */
+    public static SerialPort openByIdentifier(String portName, String owner, int openTimeout) throws IOException {
+	CommPortIdentifier portIdentifier;
+	try {
+	    portIdentifier = CommPortIdentifier.getPortIdentifier(portName);
+	} catch (NoSuchPortException e) {
+	    throw new IOException("Serial port with given name does not exist", e);
+	}
+
+	if (portIdentifier.isCurrentlyOwned()) {
+	    throw new IOException("Serial port is currently in use.");
+	}
+
+	CommPort commPort;
+	try {
+	    commPort = portIdentifier.open(owner, openTimeout);
+	} catch (PortInUseException e) {
+	    throw new IOException("Serial port is currently in use.", e);
+	}
+
+	if (!(commPort instanceof SerialPort)) {
+	    commPort.close();
+	    throw new IOException("The specified CommPort is not a serial port");
+	}
+	return (SerialPort) commPort;
+    }
+
+    public static boolean isDevicePath(String portName) {
+	return (null != portName) && portName.startsWith("/");
+    }
+
+    protected static boolean isSerialDevice(String fileName) {
+	return SERIAL_DEVICE_NAMES.matcher(fileName).matches();
+    }
+
+    /**
+     * The cached state of a port.
+     */
+    protected static class PortState {
+
+	private final boolean available;
+	private final long checked;
+
+	protected PortState(boolean available, long checked) {
+	    this.available = available;
+	    this.checked = checked;
+	}
+
+	public boolean isAvailable() {
+	    return available;
+	}
+
+	public long getChecked() {
+	    return checked;
+	}
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.profile;
+
+import gnu.io.SerialPort;
+import org.openmuc.j62056.Connection;
+import org.openmuc.j62056.config.Mode;
+import org.openmuc.j62056.config.Parity;
+
+/**
+ * The settings needed to read the meter at a serial port: the mode, whether
+ * the optical head echoes, the baud rate change delay and the serial
+ * parameters of the first message. A profile is written in the syntax of the
+ * options of <code>ReadMeter</code>, e.g. "-m c -e -d 250 -br 300 -db 7 -sb 1
+ * -p even".
+ */
+public class LinkProfile {
+
+    private final Mode mode;
+    private final boolean echo;
+    private final int baudRateChangeDelay;
+    private final int baudRate;
+    private final int databits;
+    private final int stopbits;
+    private final int parity;
+
+    /**
+     * Creates a profile.
+     *
+     * @param mode the mode, C or D
+     * @param echo true if the optical head echoes the sent bytes
+     * @param baudRateChangeDelay the delay of a baud rate change in ms
+     * @param baudRate the baud rate of the first message
+     * @param databits the databits @see gnu.io.SerialPort
+     * @param stopbits the stopbits @see gnu.io.SerialPort
+     * @param parity the parity @see gnu.io.SerialPort
+     */
+    public LinkProfile(Mode mode, boolean echo, int baudRateChangeDelay, int baudRate, int databits, int stopbits, int parity) {
+	if ((mode != Mode.C) && (mode != Mode.D)) {
+	    throw new IllegalArgumentException("Mode is not implemented: " + mode);
+	}
+	this.mode = mode;
+	this.echo = echo;
+	this.baudRateChangeDelay = baudRateChangeDelay;
+	this.baudRate = baudRate;
+	this.databits = databits;
+	this.stopbits = stopbits;
+	this.parity = parity;
+    }
+
+    /**
+     * Creates the default profile of a mode, 7 databits, 1 stopbit and even
+     * parity at 300 baud for mode C and 2400 baud for mode D.
+     *
+     * @param mode the mode, C or D
+     * @return the default profile
+     */
+    public static LinkProfile defaults(Mode mode) {
+	return new LinkProfile(mode, false, 0, (mode == Mode.C) ? 300 : 2400, SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
+    }
+
+    /**
+     * Parses a profile written as options of <code>ReadMeter</code>. Missing
+     * serial parameters are taken from the defaults of the mode.
+     *
+     * @param options the options, e.g. "-m d -br 9600 -db 8 -p none"
+     * @return the profile
+     * @throws IllegalArgumentException if an option is invalid
+     */
+    public static LinkProfile parse(String options) {
+	String[] tokens = options.trim().split("\\s+");
+	Mode mode = Mode.C;
+	boolean echo = false;
+	int delay = 0;
+	int baudRate = -1;
+	int databits = -1;
+	int stopbits = -1;
+	Parity parity = null;
+	for (int i = 0; i < tokens.length; i++) {
+	    String option = tokens[i];
+	    if (option.isEmpty()) {
+		continue;
+	    }
+	    if ("-e".equals(option)) {
+		echo = true;
+		continue;
+	    }
+	    if (++i == tokens.length) {
+		throw new IllegalArgumentException("Missing value of option " + option);
+	    }
+	    String value = tokens[i];
+	    switch (option) {
+		case "-m":
+		    mode = Mode.valueOf(value.toUpperCase());
+		    break;
+		case "-d":
+		    delay = Integer.parseInt(value);
+		    break;
+		case "-br":
+		    baudRate = Integer.parseInt(value);
+		    break;
+		case "-db":
+		    databits = Integer.parseInt(value);
+		    break;
+		case "-sb":
+		    stopbits = Integer.parseInt(value);
+		    break;
+		case "-p":
+		    parity = Parity.convert(value);
+		    if (null == parity) {
+			throw new IllegalArgumentException("Invalid parity: " + value);
+		    }
+		    break;
+		default:
+		    throw new IllegalArgumentException("Invalid option: " + option);
+	    }
+	}
+	LinkProfile defaults = defaults(mode);
+	return new LinkProfile(mode, echo, delay,
+		(baudRate > 0) ? baudRate : defaults.baudRate,
+		(databits > 0) ? databits : defaults.databits,
+		(stopbits > 0) ? stopbits : defaults.stopbits,
+		(null != parity) ? parity.value : defaults.parity);
+    }
+
+    /**
+     * Creates a connection with the settings of this profile.
+     *
+     * @param serialPortName the serial port
+     * @return the connection, not yet opened
+     */
+    public Connection createConnection(String serialPortName) {
+	Connection connection = new Connection(serialPortName, echo, baudRateChangeDelay, mode);
+	connection.setBaudRate(baudRate);
+	connection.setDatabits(databits);
+	connection.setStopbits(stopbits);
+	connection.setParity(parity);
+	return connection;
+    }
+
+    /**
+     * Returns a copy of this profile with other echo handling and baud rate
+     * change delay.
+     *
+     * @param echo true if the optical head echoes the sent bytes
+     * @param baudRateChangeDelay the delay of a baud rate change in ms
+     * @return the profile
+     */
+    public LinkProfile with(boolean echo, int baudRateChangeDelay) {
+	return new LinkProfile(mode, echo, baudRateChangeDelay, baudRate, databits, stopbits, parity);
+    }
+
+    public Mode getMode() {
+	return mode;
+    }
+
+    public boolean isEcho() {
+	return echo;
+    }
+
+    public int getBaudRateChangeDelay() {
+	return baudRateChangeDelay;
+    }
+
+    public int getBaudRate() {
+	return baudRate;
+    }
+
+    public int getDatabits() {
+	return databits;
+    }
+
+    public int getStopbits() {
+	return stopbits;
+    }
+
+    public int getParity() {
+	return parity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (!(obj instanceof LinkProfile)) {
+	    return false;
+	}
+	LinkProfile other = (LinkProfile) obj;
+	return (mode == other.mode) && (echo == other.echo) && (baudRateChangeDelay == other.baudRateChangeDelay) && (baudRate == other.baudRate)
+		&& (databits == other.databits) && (stopbits == other.stopbits) && (parity == other.parity);
+    }
+
+    @Override
+    public int hashCode() {
+	int result = mode.hashCode();
+	result = 31 * result + (echo ? 1 : 0);
+	result = 31 * result + baudRateChangeDelay;
+	result = 31 * result + baudRate;
+	result = 31 * result + databits;
+	result = 31 * result + stopbits;
+	result = 31 * result + parity;
+	return result;
+    }
+
+    /**
+     * Returns the profile written as options of <code>ReadMeter</code>.
+     *
+     * @return the options
+     */
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder("-m ").append(mode.name().toLowerCase());
+	if (echo) {
+	    sb.append(" -e");
+	}
+	sb.append(" -d ").append(baudRateChangeDelay);
+	sb.append(" -br ").append(baudRate);
+	sb.append(" -db ").append(databits);
+	sb.append(" -sb ").append(stopbits);
+	Parity name = Parity.convert(Integer.toString(parity));
+	sb.append(" -p ").append((null == name) ? Integer.toString(parity) : name.name().toLowerCase());
+	return sb.toString();
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.profile;
+
+import gnu.io.SerialPort;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.openmuc.j62056.Connection;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.config.Mode;
+import org.openmuc.j62056.metrics.Phase;
+import org.openmuc.j62056.metrics.PhaseEvent;
+import org.openmuc.j62056.metrics.ProtocolTracer;
+
+/**
+ * Finds the link profile of the meter at a serial port. The candidates are
+ * tried in the order of their likelihood, mode C at 300 baud first, then mode
+ * D at 2400, 9600 and 115200 baud. Each attempt is a single readout:
+ * <ul>
+ * <li>an echo of the optical head is detected and removed during the
+ * attempt, so it needs no attempt of its own</li>
+ * <li>a longer baud rate change delay is only tried if the meter answered the
+ * sign on but the data message was lost after the baud rate change</li>
+ * </ul>
+ * With a store the found profile is saved for the port and the identification
+ * of the meter, later reads of the port start with the stored profile and
+ * only probe again if it fails.
+ */
+public class LinkProfileProber {
+
+    private static final int[] BAUD_RATE_CHANGE_DELAYS = {0, 250, 500};
+    private static final int PROBE_MAX_MESSAGE_LENGTH = 65536;
+
+    private final LinkProfileStore store;
+    private final List<LinkProfile> candidates = new ArrayList<>();
+    private int timeout = 5000;
+
+    /**
+     * Creates a prober with the default candidates.
+     *
+     * @param store the store of the found profiles, may be NULL
+     */
+    public LinkProfileProber(LinkProfileStore store) {
+	this.store = store;
+	candidates.add(LinkProfile.defaults(Mode.C));
+	candidates.add(LinkProfile.defaults(Mode.D));
+	candidates.add(new LinkProfile(Mode.D, false, 0, 9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE));
+	candidates.add(new LinkProfile(Mode.D, false, 0, 115200, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE));
+    }
+
+    /**
+     * Reads the meter at the given port with its stored profile or, if there
+     * is none or it fails, with a probed profile.
+     *
+     * @param serialPortName the serial port
+     * @return the readout
+     * @throws IOException if the port can not be opened or no candidate works
+     */
+    public Readout read(String serialPortName) throws IOException {
+	LinkProfile stored = (null == store) ? null : store.get(serialPortName);
+	if (null != stored) {
+	    Attempt attempt = attempt(serialPortName, stored);
+	    if (null != attempt.readout) {
+		return attempt.readout;
+	    }
+	    // the meter or the head was replaced
+	}
+	return probe(serialPortName, stored).readout;
+    }
+
+    /**
+     * Probes the meter at the given port.
+     *
+     * @param serialPortName the serial port
+     * @return the working profile
+     * @throws IOException if the port can not be opened or no candidate works
+     */
+    public LinkProfile probe(String serialPortName) throws IOException {
+	return probe(serialPortName, null).profile;
+    }
+
+    /**
+     * Creates a connection with the stored profile of the port, the port is
+     * probed if no profile is stored.
+     *
+     * @param serialPortName the serial port
+     * @return the connection, not yet opened
+     * @throws IOException if the port can not be opened or no candidate works
+     */
+    public Connection createConnection(String serialPortName) throws IOException {
+	LinkProfile profile = (null == store) ? null : store.get(serialPortName);
+	if (null == profile) {
+	    profile = probe(serialPortName);
+	}
+	return profile.createConnection(serialPortName);
+    }
+
+    private Attempt probe(String serialPortName, LinkProfile skip) throws IOException {
+	Exception lastFailure = null;
+	for (LinkProfile candidate : candidates) {
+	    int[] delays = (candidate.getMode() == Mode.C) ? BAUD_RATE_CHANGE_DELAYS : new int[] {0};
+	    for (int delay : delays) {
+		LinkProfile profile = candidate.with(false, delay);
+		if (profile.equals(skip)) {
+		    continue;
+		}
+		Attempt attempt = attempt(serialPortName, profile);
+		if (null != attempt.readout) {
+		    return attempt;
+		}
+		lastFailure = attempt.failure;
+		if (!attempt.signedOn) {
+		    // a longer delay does not help if the meter did not answer
+		    break;
+		}
+	    }
+	}
+	throw new IOException("No working link profile found for " + serialPortName, lastFailure);
+    }
+
+    private Attempt attempt(String serialPortName, LinkProfile profile) throws IOException {
+	Connection connection = profile.createConnection(serialPortName);
+	connection.setTimeout(timeout);
+	connection.setMaxMessageLength(PROBE_MAX_MESSAGE_LENGTH);
+	connection.setDetectEcho(true);
+	final Attempt attempt = new Attempt();
+	connection.setTracer(new ProtocolTracer() {
+
+	    @Override
+	    public void phaseCompleted(PhaseEvent event) {
+		if ((event.getPhase() == Phase.SIGN_ON) && event.isSuccessful()) {
+		    attempt.signedOn = true;
+		}
+	    }
+	});
+	open(connection);
+	try {
+	    Readout readout = connection.readout();
+	    if (readout.isComplete()) {
+		attempt.profile = profile.with(profile.isEcho() || connection.isEchoDetected(), profile.getBaudRateChangeDelay());
+		attempt.readout = readout;
+		if ((null != store) && (null != readout.getIdentification())) {
+		    store.put(serialPortName, readout.getIdentification(), attempt.profile);
+		}
+	    }
+	} catch (IOException | TimeoutException | RuntimeException e) {
+	    attempt.failure = e;
+	} finally {
+	    connection.close();
+	}
+	return attempt;
+    }
+
+    /**
+     * Opens the connection of an attempt.
+     *
+     * @param connection the connection
+     * @throws IOException if the serial port can not be opened
+     */
+    protected void open(Connection connection) throws IOException {
+	connection.open();
+    }
+
+    /**
+     * Returns the candidates tried in this order by <code>probe</code>.
+     *
+     * @return the candidates
+     */
+    public List<LinkProfile> getCandidates() {
+	return Collections.unmodifiableList(candidates);
+    }
+
+    /**
+     * Adds a candidate tried after the default candidates.
+     *
+     * @param profile the candidate
+     */
+    public void addCandidate(LinkProfile profile) {
+	candidates.add(profile);
+    }
+
+    public int getTimeout() {
+	return timeout;
+    }
+
+    /**
+     * Sets the timeout of each attempt in ms. Mode D meters send a telegram
+     * every 1 to 10 seconds, so the timeout should be longer than this
+     * interval.
+     *
+     * @param timeout the timeout in ms
+     */
+    public void setTimeout(int timeout) {
+	this.timeout = timeout;
+    }
+
+    /**
+     * The result of an attempt with one profile.
+     */
+    private static class Attempt {
+
+	private LinkProfile profile;
+	private Readout readout;
+	private Exception failure;
+	private boolean signedOn;
+    }
+
+}
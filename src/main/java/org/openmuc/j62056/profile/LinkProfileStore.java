@@ -0,0 +1,118 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.profile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Persists the link profiles of the meters in a properties file. A profile is
+ * stored for a serial port and the identification of the meter read at the
+ * port, the port also remembers the identification of its last meter. So the
+ * profile of a port is known before the meter is read, and a replaced meter
+ * gets its own profile.
+ */
+public class LinkProfileStore {
+
+    private static final String IDENTIFICATION_SEPARATOR = "|";
+
+    private final Path file;
+    private final Properties properties = new Properties();
+
+    /**
+     * Creates a store and loads the profiles of the given file if it exists.
+     *
+     * @param file the properties file
+     * @throws IOException if the file can not be read
+     */
+    public LinkProfileStore(Path file) throws IOException {
+	this.file = file;
+	if (Files.exists(file)) {
+	    try (InputStream is = Files.newInputStream(file)) {
+		properties.load(is);
+	    }
+	}
+    }
+
+    /**
+     * Returns the profile of the meter last read at the given port.
+     *
+     * @param serialPortName the serial port
+     * @return the profile, NULL if no profile is stored for the port
+     */
+    public synchronized LinkProfile get(String serialPortName) {
+	String identification = getIdentification(serialPortName);
+	return (null == identification) ? null : get(serialPortName, identification);
+    }
+
+    /**
+     * Returns the profile of a meter.
+     *
+     * @param serialPortName the serial port
+     * @param identification the identification of the meter
+     * @return the profile, NULL if no profile is stored for the meter
+     */
+    public synchronized LinkProfile get(String serialPortName, String identification) {
+	String options = properties.getProperty(serialPortName + IDENTIFICATION_SEPARATOR + identification);
+	if (null == options) {
+	    return null;
+	}
+	try {
+	    return LinkProfile.parse(options);
+	} catch (IllegalArgumentException e) {
+	    // a damaged entry is probed again
+	    return null;
+	}
+    }
+
+    /**
+     * Returns the identification of the meter last read at the given port.
+     *
+     * @param serialPortName the serial port
+     * @return the identification, NULL if unknown
+     */
+    public synchronized String getIdentification(String serialPortName) {
+	return properties.getProperty(serialPortName);
+    }
+
+    /**
+     * Stores the profile of a meter and writes the file.
+     *
+     * @param serialPortName the serial port
+     * @param identification the identification of the meter
+     * @param profile the profile
+     * @throws IOException if the file can not be written
+     */
+    public synchronized void put(String serialPortName, String identification, LinkProfile profile) throws IOException {
+	String key = serialPortName + IDENTIFICATION_SEPARATOR + identification;
+	String options = profile.toString();
+	if (identification.equals(properties.getProperty(serialPortName)) && options.equals(properties.getProperty(key))) {
+	    return;
+	}
+	properties.setProperty(serialPortName, identification);
+	properties.setProperty(key, options);
+	save();
+    }
+
+    private void save() throws IOException {
+	Path parent = file.toAbsolutePath().getParent();
+	Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+	try {
+	    try (OutputStream os = Files.newOutputStream(tmp)) {
+		properties.store(os, "link profiles, <port>=<identification> and <port>|<identification>=<options>");
+	    }
+	    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	} finally {
+	    Files.deleteIfExists(tmp);
+	}
+    }
+
+}
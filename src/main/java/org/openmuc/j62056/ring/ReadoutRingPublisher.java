@@ -0,0 +1,223 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.ring;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.ReadoutListener;
+
+/**
+ * Publishes readouts to a memory mapped ring file, see
+ * <code>RingLayout</code>. Any number of local processes read the readouts
+ * with a <code>ReadoutRingReader</code> directly from the shared pages, the
+ * publisher does not know them and never waits for them. A reader which falls
+ * behind by more than the capacity loses the overwritten readouts.
+ * <p>
+ * Add the publisher to a connection with <code>addReadoutListener</code> to
+ * publish every readout. Only one publisher may write to a file at a time. An
+ * existing ring file with the same capacity is continued, so readers keep
+ * their position when the publisher is restarted.
+ */
+public class ReadoutRingPublisher implements ReadoutListener, Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final ByteBuffer payload;
+    private long writePosition;
+    private long sequence;
+    private long lock;
+    private long droppedReadouts = 0;
+
+    /**
+     * orders the writes to the mapped buffer, see <code>fence</code>.
+     */
+    private volatile long published;
+    private long observed;
+
+    /**
+     * Creates a publisher.
+     *
+     * @param ringFile the ring file, created if it does not exist
+     * @param capacity the size of the data area in bytes, a multiple of 8
+     * @throws IOException if the file can not be created or mapped
+     */
+    public ReadoutRingPublisher(File ringFile, int capacity) throws IOException {
+	if ((capacity <= 0) || (capacity % 8 != 0)) {
+	    throw new IllegalArgumentException("capacity must be a positive multiple of 8");
+	}
+	this.capacity = capacity;
+	file = new RandomAccessFile(ringFile, "rw");
+	try {
+	    FileChannel channel = file.getChannel();
+	    boolean existing = file.length() == RingLayout.HEADER_SIZE + capacity;
+	    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, RingLayout.HEADER_SIZE + capacity);
+	    if (existing && (buffer.getInt(RingLayout.MAGIC_OFFSET) == RingLayout.MAGIC) && (buffer.getInt(RingLayout.VERSION_OFFSET) == RingLayout.VERSION)
+		    && (buffer.getLong(RingLayout.CAPACITY_OFFSET) == capacity)) {
+		writePosition = buffer.getLong(RingLayout.WRITE_POSITION_OFFSET);
+		sequence = buffer.getLong(RingLayout.SEQUENCE_OFFSET);
+		lock = buffer.getLong(RingLayout.LOCK_OFFSET);
+		if (lock % 2 != 0) {
+		    // the previous publisher stopped within an update
+		    buffer.putLong(RingLayout.LOCK_OFFSET, ++lock);
+		}
+	    } else {
+		buffer.putLong(RingLayout.WRITE_POSITION_OFFSET, 0);
+		buffer.putLong(RingLayout.SEQUENCE_OFFSET, 0);
+		buffer.putLong(RingLayout.LOCK_OFFSET, 0);
+		buffer.putLong(RingLayout.CLAIM_OFFSET, 0);
+		buffer.putLong(RingLayout.CAPACITY_OFFSET, capacity);
+		buffer.putInt(RingLayout.VERSION_OFFSET, RingLayout.VERSION);
+		fence(0);
+		buffer.putInt(RingLayout.MAGIC_OFFSET, RingLayout.MAGIC);
+	    }
+	} catch (IOException | RuntimeException e) {
+	    file.close();
+	    throw e;
+	}
+	payload = ByteBuffer.allocate(Math.min(capacity, 65536));
+    }
+
+    @Override
+    public void readoutReceived(String serialPortName, String deviceAddress, Readout readout) {
+	publish(serialPortName, deviceAddress, System.currentTimeMillis(), readout);
+    }
+
+    /**
+     * Publishes a readout.
+     *
+     * @param serialPortName the serial port of the meter
+     * @param deviceAddress the device address of the meter, NULL or empty if
+     * the meter was read without an address
+     * @param timestamp the time of the readout in ms since the epoch
+     * @param readout the readout
+     * @return false if the readout is too large for the ring and was dropped
+     */
+    public synchronized boolean publish(String serialPortName, String deviceAddress, long timestamp, Readout readout) {
+	payload.clear();
+	try {
+	    payload.putLong(timestamp);
+	    putString(serialPortName);
+	    putString(deviceAddress);
+	    payload.put((byte) ((readout.isComplete() ? RingLayout.FLAG_COMPLETE : 0) | (readout.isChangesOnly() ? RingLayout.FLAG_CHANGES_ONLY : 0)));
+	    payload.putInt(readout.getDataSets().size());
+	    for (DataSet dataSet : readout.getDataSets()) {
+		putString(dataSet.getId());
+		putString(dataSet.getValue());
+		putString(dataSet.getUnit());
+	    }
+	} catch (BufferOverflowException e) {
+	    droppedReadouts++;
+	    return false;
+	}
+	int length = payload.position();
+	int recordSize = RingLayout.recordSize(length);
+	if (recordSize > capacity) {
+	    droppedReadouts++;
+	    return false;
+	}
+
+	int offset = (int) (writePosition % capacity);
+	int remaining = capacity - offset;
+	long claim = writePosition + ((remaining < recordSize) ? remaining : 0) + recordSize;
+	buffer.putLong(RingLayout.CLAIM_OFFSET, claim);
+	// the claim must be visible before the old records are overwritten
+	fence(claim);
+	if (remaining < recordSize) {
+	    if (remaining >= RingLayout.RECORD_HEADER_SIZE) {
+		int header = RingLayout.HEADER_SIZE + offset;
+		buffer.putInt(header + RingLayout.RECORD_LENGTH_OFFSET, RingLayout.PADDING);
+		fence(sequence);
+		buffer.putLong(header, sequence);
+	    }
+	    writePosition += remaining;
+	    offset = 0;
+	}
+
+	int header = RingLayout.HEADER_SIZE + offset;
+	payload.flip();
+	ByteBuffer target = buffer.duplicate();
+	target.position(header + RingLayout.RECORD_HEADER_SIZE);
+	target.put(payload);
+	buffer.putInt(header + RingLayout.RECORD_LENGTH_OFFSET, length);
+	fence(sequence);
+	buffer.putLong(header, sequence);
+
+	writePosition += recordSize;
+	sequence++;
+	buffer.putLong(RingLayout.LOCK_OFFSET, ++lock);
+	fence(sequence);
+	buffer.putLong(RingLayout.SEQUENCE_OFFSET, sequence);
+	buffer.putLong(RingLayout.WRITE_POSITION_OFFSET, writePosition);
+	fence(sequence);
+	buffer.putLong(RingLayout.LOCK_OFFSET, ++lock);
+	return true;
+    }
+
+    /**
+     * a volatile write followed by a volatile read. The writes to the mapped
+     * buffer before the fence are not moved after it and the writes after the
+     * fence are not moved before it.
+     */
+    private void fence(long value) {
+	published = value;
+	observed = published;
+    }
+
+    private void putString(String s) {
+	int length = (null == s) ? 0 : Math.min(s.length(), 0xFFFF);
+	payload.putShort((short) length);
+	for (int i = 0; i < length; i++) {
+	    char c = s.charAt(i);
+	    payload.put((c < 0x80) ? (byte) c : (byte) '?');
+	}
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+
+    /**
+     * Returns the number of published readouts including the readouts
+     * published before the publisher was created.
+     *
+     * @return the sequence number of the next readout
+     */
+    public synchronized long getSequence() {
+	return sequence;
+    }
+
+    /**
+     * Returns the number of readouts too large for the ring.
+     *
+     * @return the number of dropped readouts
+     */
+    public synchronized long getDroppedReadouts() {
+	return droppedReadouts;
+    }
+
+    /**
+     * Writes the ring to the file. This is not needed for the readers, they
+     * share the pages of the file with the publisher.
+     */
+    public synchronized void force() {
+	buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+	file.close();
+    }
+
+}
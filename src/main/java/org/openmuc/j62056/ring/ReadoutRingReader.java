@@ -0,0 +1,219 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.ring;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the readouts of a ring file written by a
+ * <code>ReadoutRingPublisher</code>. Every reader has its own cursor, any
+ * number of readers in any number of processes read the same file without
+ * affecting each other or the publisher. The records are read in place from
+ * the shared pages.
+ * <p>
+ * A new reader starts at the end of the ring and returns the readouts
+ * published afterwards. A consumer may store its position and sequence and
+ * continue there with <code>seek</code> after a restart. If the reader falls
+ * behind by more than the capacity of the ring, the overwritten readouts are
+ * counted as lost and the reader continues at the end of the ring.
+ */
+public class ReadoutRingReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final RingRecord record;
+    private long position;
+    private long sequence;
+    private long lostReadouts = 0;
+
+    /**
+     * a volatile read keeping the reads of the mapped buffer after it.
+     */
+    private volatile long fence;
+    private long observed;
+
+    /**
+     * Opens a ring file.
+     *
+     * @param ringFile the ring file
+     * @throws IOException if the file can not be opened or is not a ring file
+     */
+    public ReadoutRingReader(File ringFile) throws IOException {
+	file = new RandomAccessFile(ringFile, "r");
+	try {
+	    if (file.length() < RingLayout.HEADER_SIZE) {
+		throw new IOException("Not a readout ring file: " + ringFile);
+	    }
+	    FileChannel channel = file.getChannel();
+	    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+	    if (buffer.getInt(RingLayout.MAGIC_OFFSET) != RingLayout.MAGIC) {
+		throw new IOException("Not a readout ring file: " + ringFile);
+	    }
+	    int version = buffer.getInt(RingLayout.VERSION_OFFSET);
+	    if (version != RingLayout.VERSION) {
+		throw new IOException("Unsupported readout ring version " + version + ": " + ringFile);
+	    }
+	    long size = buffer.getLong(RingLayout.CAPACITY_OFFSET);
+	    if ((size <= 0) || (size != file.length() - RingLayout.HEADER_SIZE)) {
+		throw new IOException("Invalid capacity of readout ring file: " + ringFile);
+	    }
+	    capacity = (int) size;
+	} catch (IOException | RuntimeException e) {
+	    file.close();
+	    throw e;
+	}
+	record = new RingRecord(this, buffer);
+	seekToEnd();
+    }
+
+    /**
+     * Returns the next readout. The returned record is reused by the next
+     * call and reads the readout directly from the ring, it is only valid
+     * until the publisher overwrites it, see <code>RingRecord.isValid</code>.
+     *
+     * @return the next readout or NULL if no new readout was published
+     */
+    public RingRecord poll() {
+	while (true) {
+	    long writePosition = buffer.getLong(RingLayout.WRITE_POSITION_OFFSET);
+	    acquire();
+	    if (position == writePosition) {
+		return null;
+	    }
+	    if ((position > writePosition) || (writePosition - position > capacity)) {
+		resync();
+		continue;
+	    }
+	    int offset = (int) (position % capacity);
+	    int remaining = capacity - offset;
+	    if (remaining < RingLayout.RECORD_HEADER_SIZE) {
+		position += remaining;
+		continue;
+	    }
+	    int header = RingLayout.HEADER_SIZE + offset;
+	    long recordSequence = buffer.getLong(header);
+	    acquire();
+	    int length = buffer.getInt(header + RingLayout.RECORD_LENGTH_OFFSET);
+	    if (recordSequence != sequence) {
+		resync();
+		continue;
+	    }
+	    if (length == RingLayout.PADDING) {
+		position += remaining;
+		continue;
+	    }
+	    if ((length < 0) || (RingLayout.recordSize(length) > remaining)) {
+		resync();
+		continue;
+	    }
+	    long recordPosition = position;
+	    record.set(recordPosition, sequence, header + RingLayout.RECORD_HEADER_SIZE, length);
+	    position += RingLayout.recordSize(length);
+	    sequence++;
+	    if (!isValid(recordPosition)) {
+		resync();
+		continue;
+	    }
+	    return record;
+	}
+    }
+
+    /**
+     * checks that the record at the given position was not overwritten.
+     */
+    boolean isValid(long recordPosition) {
+	acquire();
+	return buffer.getLong(RingLayout.CLAIM_OFFSET) - recordPosition <= capacity;
+    }
+
+    /**
+     * continues at the end of the ring, the skipped readouts are lost.
+     */
+    private void resync() {
+	long oldSequence = sequence;
+	seekToEnd();
+	if (sequence > oldSequence) {
+	    lostReadouts += sequence - oldSequence;
+	}
+    }
+
+    /**
+     * Continues with the next published readout.
+     */
+    public final void seekToEnd() {
+	while (true) {
+	    long lock = buffer.getLong(RingLayout.LOCK_OFFSET);
+	    acquire();
+	    long currentSequence = buffer.getLong(RingLayout.SEQUENCE_OFFSET);
+	    long currentPosition = buffer.getLong(RingLayout.WRITE_POSITION_OFFSET);
+	    acquire();
+	    if ((lock % 2 == 0) && (lock == buffer.getLong(RingLayout.LOCK_OFFSET))) {
+		position = currentPosition;
+		sequence = currentSequence;
+		return;
+	    }
+	    Thread.yield();
+	}
+    }
+
+    /**
+     * Continues at a stored position. If the readout at the position was
+     * already overwritten, the reader continues at the end of the ring.
+     *
+     * @param position the position returned by <code>getPosition</code>
+     * @param sequence the sequence returned by <code>getSequence</code>
+     */
+    public void seek(long position, long sequence) {
+	this.position = position;
+	this.sequence = sequence;
+    }
+
+    /**
+     * Returns the position of the next readout in the ring.
+     *
+     * @return the position
+     */
+    public long getPosition() {
+	return position;
+    }
+
+    /**
+     * Returns the sequence number of the next readout.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+	return sequence;
+    }
+
+    /**
+     * Returns the number of readouts overwritten before they were read.
+     *
+     * @return the number of lost readouts
+     */
+    public long getLostReadouts() {
+	return lostReadouts;
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+
+    @Override
+    public void close() throws IOException {
+	file.close();
+    }
+
+    private void acquire() {
+	observed = fence;
+    }
+}
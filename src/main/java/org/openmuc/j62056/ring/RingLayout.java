@@ -0,0 +1,66 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.ring;
+
+/**
+ * The layout of a readout ring file.
+ * <p>
+ * The file starts with a header of 64 bytes: the magic number "J6RR", the
+ * version, the capacity of the data area, the write position, the number of
+ * published readouts, a lock counter and the claim position. The write
+ * position counts all bytes ever written to the data area, its offset in the
+ * data area is the position modulo the capacity. The lock counter is odd while
+ * the write position and the number of readouts are updated. The claim
+ * position is the end of the record being written, it is set before the
+ * record is written, so a reader knows which bytes may already be overwritten.
+ * <p>
+ * Every record in the data area starts at a multiple of 8 bytes with its
+ * sequence number (long) and the length of its payload (int, -1 for padding
+ * up to the end of the data area) followed by 4 unused bytes. The sequence
+ * number is written last, a reader only accepts a record carrying the
+ * sequence number it expects. The payload contains
+ * <ul>
+ * <li>the time of the readout in ms since the epoch (long),</li>
+ * <li>the serial port and the device address (strings),</li>
+ * <li>the flags, 1 if the readout is complete and 2 if it contains only
+ * changes (byte),</li>
+ * <li>the number of data sets (int) followed by the id, value and unit of
+ * each data set (strings).</li>
+ * </ul>
+ * A string is written as its length (unsigned short) followed by its ASCII
+ * characters. All numbers are big endian.
+ */
+final class RingLayout {
+
+    static final int MAGIC = 0x4A365252;
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int CAPACITY_OFFSET = 8;
+    static final int WRITE_POSITION_OFFSET = 16;
+    static final int SEQUENCE_OFFSET = 24;
+    static final int LOCK_OFFSET = 32;
+    static final int CLAIM_OFFSET = 40;
+
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int RECORD_LENGTH_OFFSET = 8;
+    static final int PADDING = -1;
+
+    static final int FLAG_COMPLETE = 1;
+    static final int FLAG_CHANGES_ONLY = 2;
+
+    private RingLayout() {
+    }
+
+    /**
+     * returns the size of a record with the given payload length.
+     */
+    static int recordSize(int payloadLength) {
+	return (RECORD_HEADER_SIZE + payloadLength + 7) & ~7;
+    }
+}
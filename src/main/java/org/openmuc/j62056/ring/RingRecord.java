@@ -0,0 +1,171 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.ring;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+/**
+ * A readout in a ring file. The record reads its fields directly from the
+ * mapped ring, nothing is copied until a field is requested. A record is
+ * reused by its reader for the next readout.
+ * <p>
+ * The publisher may overwrite the readout while it is read. Read the needed
+ * fields and check <code>isValid()</code> afterwards, the fields are only
+ * correct if the record is still valid.
+ */
+public class RingRecord {
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private final ReadoutRingReader reader;
+    private final ByteBuffer buffer;
+    private long position;
+    private long sequence;
+    private int payload;
+    private int length;
+
+    RingRecord(ReadoutRingReader reader, MappedByteBuffer buffer) {
+	this.reader = reader;
+	this.buffer = buffer.asReadOnlyBuffer();
+    }
+
+    void set(long position, long sequence, int payload, int length) {
+	this.position = position;
+	this.sequence = sequence;
+	this.payload = payload;
+	this.length = length;
+    }
+
+    /**
+     * Checks that the readout was not overwritten by the publisher.
+     *
+     * @return true if the fields read so far are correct
+     */
+    public boolean isValid() {
+	return reader.isValid(position);
+    }
+
+    /**
+     * Returns the sequence number of the readout, the number of readouts
+     * published before it.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() {
+	return sequence;
+    }
+
+    /**
+     * Returns the time of the readout.
+     *
+     * @return the time in ms since the epoch
+     */
+    public long getTimestamp() {
+	return buffer.getLong(payload);
+    }
+
+    public String getSerialPortName() {
+	return getString(payload + 8);
+    }
+
+    /**
+     * Returns the device address of the meter.
+     *
+     * @return the device address, an empty string if the meter was read
+     * without an address
+     */
+    public String getDeviceAddress() {
+	return getString(skipString(payload + 8));
+    }
+
+    public boolean isComplete() {
+	return (buffer.get(flagsOffset()) & RingLayout.FLAG_COMPLETE) != 0;
+    }
+
+    public boolean isChangesOnly() {
+	return (buffer.get(flagsOffset()) & RingLayout.FLAG_CHANGES_ONLY) != 0;
+    }
+
+    /**
+     * Returns the number of data sets including the identification.
+     *
+     * @return the number of data sets
+     */
+    public int getDataSetCount() {
+	return buffer.getInt(flagsOffset() + 1);
+    }
+
+    /**
+     * Returns the data sets. The data sets are copied from the ring.
+     *
+     * @return the data sets, the first data set contains the identification
+     * of the meter
+     */
+    public List<DataSet> getDataSets() {
+	int count = getDataSetCount();
+	if ((count < 0) || (count > length / 6)) {
+	    // overwritten by the publisher
+	    return new ArrayList<>();
+	}
+	List<DataSet> result = new ArrayList<>(count);
+	int index = flagsOffset() + 5;
+	for (int i = 0; i < count; i++) {
+	    String id = getString(index);
+	    index = skipString(index);
+	    String value = getString(index);
+	    index = skipString(index);
+	    String unit = getString(index);
+	    index = skipString(index);
+	    result.add(new DataSet(id, value, unit));
+	}
+	return result;
+    }
+
+    /**
+     * Returns the readout. The data sets are copied from the ring.
+     *
+     * @return the readout
+     */
+    public Readout toReadout() {
+	return new Readout(getDataSets(), null, isComplete(), isChangesOnly());
+    }
+
+    /**
+     * Returns the payload of the record without copying it, see
+     * <code>RingLayout</code> for its layout.
+     *
+     * @return a read only view of the payload
+     */
+    public ByteBuffer getPayload() {
+	ByteBuffer result = buffer.duplicate();
+	result.limit(payload + length);
+	result.position(payload);
+	return result.slice();
+    }
+
+    private int flagsOffset() {
+	return skipString(skipString(payload + 8));
+    }
+
+    private int skipString(int index) {
+	return Math.min(index + 2 + (buffer.getShort(index) & 0xFFFF), payload + length - 2);
+    }
+
+    private String getString(int index) {
+	int stringLength = Math.min(buffer.getShort(index) & 0xFFFF, payload + length - index - 2);
+	byte[] bytes = new byte[Math.max(0, stringLength)];
+	for (int i = 0; i < bytes.length; i++) {
+	    bytes[i] = buffer.get(index + 2 + i);
+	}
+	return new String(bytes, CHARSET);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+import java.util.List;
+import org.openmuc.j62056.DataSet;
+
+/**
+ * The result of reading one meter on a bus.
+ */
+public class BusReadout {
+
+    private final String deviceAddress;
+    private final List<DataSet> dataSets;
+    private final Exception error;
+    private final long durationNanos;
+
+    public BusReadout(String deviceAddress, List<DataSet> dataSets, Exception error, long durationNanos) {
+	this.deviceAddress = deviceAddress;
+	this.dataSets = dataSets;
+	this.error = error;
+	this.durationNanos = durationNanos;
+    }
+
+    public String getDeviceAddress() {
+	return deviceAddress;
+    }
+
+    /**
+     * Returns the data sets read from the meter.
+     *
+     * @return the data sets, NULL if the readout failed
+     */
+    public List<DataSet> getDataSets() {
+	return dataSets;
+    }
+
+    /**
+     * Returns the reason of a failed readout.
+     *
+     * @return the exception, NULL if the readout was successful
+     */
+    public Exception getError() {
+	return error;
+    }
+
+    public boolean isSuccessful() {
+	return null == error;
+    }
+
+    public long getDurationNanos() {
+	return durationNanos;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.impl.AbstractConnection;
+
+/**
+ * Reads several meters connected to one bus, e.g. RS-485, in turn over a
+ * shared connection. Every meter is selected with an addressed request
+ * message "/?&lt;device address&gt;!\r\n". The serial port stays open for all
+ * meters and the next request is sent as soon as the previous readout is
+ * complete.
+ */
+public class BusScheduler {
+
+    private final AbstractConnection connection;
+    private final List<String> deviceAddresses = new CopyOnWriteArrayList<>();
+    private int interMessageGap = 0;
+    private int maxStaleBytes = 4096;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param connection the open connection to the bus
+     * @param deviceAddresses the device addresses of the meters on the bus
+     */
+    public BusScheduler(AbstractConnection connection, Collection<String> deviceAddresses) {
+	if (null == connection) {
+	    throw new IllegalArgumentException("connection may not be NULL");
+	}
+	this.connection = connection;
+	if (null != deviceAddresses) {
+	    this.deviceAddresses.addAll(deviceAddresses);
+	}
+    }
+
+    public void addDeviceAddress(String deviceAddress) {
+	deviceAddresses.add(deviceAddress);
+    }
+
+    public void removeDeviceAddress(String deviceAddress) {
+	deviceAddresses.remove(deviceAddress);
+    }
+
+    public List<String> getDeviceAddresses() {
+	return new ArrayList<>(deviceAddresses);
+    }
+
+    /**
+     * Reads all meters on the bus in turn. A failing meter does not stop the
+     * readout of the other meters.
+     *
+     * @return the readouts in the order of the device addresses
+     */
+    public List<BusReadout> readAll() {
+	List<BusReadout> result = new ArrayList<>();
+	boolean first = true;
+	for (String deviceAddress : deviceAddresses) {
+	    if (!first) {
+		waitGap();
+	    }
+	    first = false;
+	    result.add(read(deviceAddress));
+	}
+	return result;
+    }
+
+    /**
+     * Reads one meter on the bus. If the readout failed the remaining bytes
+     * of the response are discarded, so they do not disturb the next meter.
+     *
+     * @param deviceAddress the device address of the meter
+     * @return the readout
+     */
+    public BusReadout read(String deviceAddress) {
+	long start = System.nanoTime();
+	try {
+	    List<DataSet> dataSets = connection.read(deviceAddress);
+	    return new BusReadout(deviceAddress, dataSets, null, System.nanoTime() - start);
+	} catch (IOException | TimeoutException | RuntimeException e) {
+	    try {
+		connection.drainInput(maxStaleBytes);
+	    } catch (IOException ex) {
+		//the next readout will fail as well
+	    }
+	    return new BusReadout(deviceAddress, null, e, System.nanoTime() - start);
+	}
+    }
+
+    private void waitGap() {
+	if (interMessageGap > 0) {
+	    try {
+		Thread.sleep(interMessageGap);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    public int getInterMessageGap() {
+	return interMessageGap;
+    }
+
+    /**
+     * Sets an additional time in ms to wait between the readouts of two
+     * meters. The default is 0, the next request is sent right after the
+     * previous data message (and the baud rate change delay of the
+     * connection).
+     *
+     * @param interMessageGap the gap in ms
+     */
+    public void setInterMessageGap(int interMessageGap) {
+	this.interMessageGap = interMessageGap;
+    }
+
+    public int getMaxStaleBytes() {
+	return maxStaleBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes discarded from the input after a
+     * failed readout.
+     *
+     * @param maxStaleBytes the maximum number of bytes
+     */
+    public void setMaxStaleBytes(int maxStaleBytes) {
+	this.maxStaleBytes = maxStaleBytes;
+    }
+}
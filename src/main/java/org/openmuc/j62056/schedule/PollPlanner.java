@@ -0,0 +1,327 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.ReadoutListener;
+
+/**
+ * Plans the poll interval of every meter from the rate at which its
+ * registers change. A meter whose values barely change is polled less
+ * often, a meter under load more often, always within the configured
+ * bounds.
+ * <p>
+ * The changes of a meter are modelled as a Poisson process. The change rate
+ * is estimated from the recent readouts, each readout tells whether any
+ * register changed since the previous one. The interval is chosen so that
+ * the expected freshness, the fraction of time the last readout still
+ * matches the meter, meets the freshness target: for a change rate r and an
+ * interval I the freshness is (1 - e^(-rI)) / (rI).
+ * <p>
+ * Registers which change with every readout, e.g. the clock of the meter,
+ * say nothing about the load and would keep a meter at the shortest
+ * interval. Only the registers in a fixed list are ignored, by default the
+ * clock registers of <code>DEFAULT_IGNORED_REGISTERS</code>, further
+ * registers are added with <code>ignoreRegister</code>. The registers are
+ * compared without the storage suffix "*nn", so "0-0:1.0.0" also ignores
+ * "0-0:1.0.0*255". The planner can be added as
+ * readout listener to the connections, the meters are then identified by
+ * <code>Readout.meterKey</code>.
+ */
+public class PollPlanner implements ReadoutListener {
+
+    /**
+     * the clock registers ignored by default (OBIS and EDIS codes without
+     * the storage suffix).
+     */
+    public static final List<String> DEFAULT_IGNORED_REGISTERS = Arrays.asList("0-0:1.0.0", "0.9.1", "0.9.2");
+
+    /**
+     * the weight of the previous readouts in the change rate estimate.
+     */
+    private static final double HISTORY_WEIGHT = 0.8;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final double freshnessTarget;
+    /**
+     * the product of change rate and interval which meets the freshness
+     * target.
+     */
+    private final double targetChanges;
+    private final Set<String> ignoredRegisters = new HashSet<>(DEFAULT_IGNORED_REGISTERS);
+    private final Map<String, Meter> meters = new HashMap<>();
+
+    /**
+     * Creates a planner.
+     *
+     * @param minInterval the shortest poll interval in ms
+     * @param maxInterval the longest poll interval in ms
+     * @param freshnessTarget the fraction of time the last readout of a
+     * meter should be up to date, greater than 0 and less than 1
+     */
+    public PollPlanner(long minInterval, long maxInterval, double freshnessTarget) {
+	if ((minInterval < 1) || (maxInterval < minInterval)) {
+	    throw new IllegalArgumentException("invalid interval bounds");
+	}
+	if (!(freshnessTarget > 0) || !(freshnessTarget < 1)) {
+	    throw new IllegalArgumentException("freshnessTarget must be between 0 and 1");
+	}
+	this.minInterval = minInterval;
+	this.maxInterval = maxInterval;
+	this.freshnessTarget = freshnessTarget;
+	targetChanges = solveFreshness(freshnessTarget);
+    }
+
+    /**
+     * solves (1 - e^(-x)) / x = freshness by bisection, the function
+     * decreases from 1 to 0.
+     */
+    static double solveFreshness(double freshness) {
+	double low = 0;
+	double high = 1;
+	while (freshness(high) > freshness) {
+	    high *= 2;
+	}
+	for (int i = 0; i < 60; i++) {
+	    double middle = (low + high) / 2;
+	    if (freshness(middle) > freshness) {
+		low = middle;
+	    } else {
+		high = middle;
+	    }
+	}
+	return (low + high) / 2;
+    }
+
+    private static double freshness(double x) {
+	return (x == 0) ? 1 : -Math.expm1(-x) / x;
+    }
+
+    /**
+     * Ignores a register when looking for changes.
+     *
+     * @param id the id of the register, a storage suffix "*nn" is ignored
+     */
+    public synchronized void ignoreRegister(String id) {
+	ignoredRegisters.add(withoutSuffix(id));
+    }
+
+    public synchronized void unignoreRegister(String id) {
+	ignoredRegisters.remove(withoutSuffix(id));
+    }
+
+    /**
+     * checks if a register is ignored, with or without storage suffix.
+     */
+    private boolean isIgnored(String id) {
+	return ignoredRegisters.contains(withoutSuffix(id));
+    }
+
+    /**
+     * removes the storage suffix "*nn" of an OBIS or EDIS code.
+     */
+    static String withoutSuffix(String id) {
+	if (null == id) {
+	    return "";
+	}
+	int suffix = id.indexOf('*');
+	return (suffix < 0) ? id : id.substring(0, suffix);
+    }
+
+    public synchronized Set<String> getIgnoredRegisters() {
+	return new HashSet<>(ignoredRegisters);
+    }
+
+    @Override
+    public void readoutReceived(String serialPortName, String deviceAddress, Readout readout) {
+	recordReadout(Readout.meterKey(serialPortName, deviceAddress), System.currentTimeMillis(), readout);
+    }
+
+    /**
+     * Records a readout of a meter and plans its next poll. Incomplete
+     * readouts are ignored. A readout with only the changed data sets, see
+     * <code>Readout.isChangesOnly</code>, is a change if it contains a data
+     * set which is not ignored.
+     *
+     * @param meter the key of the meter
+     * @param timestamp the time of the readout in ms
+     * @param readout the readout
+     * @return the new poll interval of the meter in ms
+     */
+    public synchronized long recordReadout(String meter, long timestamp, Readout readout) {
+	Meter state = getMeter(meter);
+	if (!readout.isComplete()) {
+	    return state.interval;
+	}
+	boolean changed = false;
+	List<DataSet> dataSets = readout.getDataSets();
+	if (readout.isChangesOnly()) {
+	    for (int i = 1; i < dataSets.size(); i++) {
+		DataSet dataSet = dataSets.get(i);
+		if (!isIgnored(dataSet.getId())) {
+		    changed = true;
+		    state.values.put(dataSet.getId(), dataSet.getValue());
+		}
+	    }
+	} else {
+	    Map<String, String> values = new HashMap<>();
+	    for (int i = 1; i < dataSets.size(); i++) {
+		DataSet dataSet = dataSets.get(i);
+		if (!isIgnored(dataSet.getId())) {
+		    values.put(dataSet.getId(), dataSet.getValue());
+		}
+	    }
+	    changed = !values.equals(state.values);
+	    state.values = values;
+	}
+
+	if (state.lastReadout >= 0) {
+	    long elapsed = Math.max(1, timestamp - state.lastReadout);
+	    state.readouts = state.readouts * HISTORY_WEIGHT + 1;
+	    state.changes = state.changes * HISTORY_WEIGHT + (changed ? 1 : 0);
+	    state.time = state.time * HISTORY_WEIGHT + elapsed;
+	    state.interval = plan(state);
+	}
+	state.lastReadout = timestamp;
+	return state.interval;
+    }
+
+    /**
+     * estimates the change rate with the estimator for intervals in which
+     * at most one change is seen and derives the interval from it.
+     */
+    private long plan(Meter state) {
+	double rate = changeRate(state);
+	if (rate <= 0) {
+	    return maxInterval;
+	}
+	double interval = targetChanges / rate;
+	return Math.max(minInterval, Math.min(maxInterval, (long) interval));
+    }
+
+    private static double changeRate(Meter state) {
+	if (state.readouts <= 0) {
+	    return 0;
+	}
+	double unchanged = state.readouts - state.changes;
+	double averageInterval = state.time / state.readouts;
+	return -Math.log((unchanged + 0.5) / (state.readouts + 0.5)) / averageInterval;
+    }
+
+    private Meter getMeter(String meter) {
+	Meter state = meters.get(meter);
+	if (null == state) {
+	    state = new Meter(minInterval);
+	    meters.put(meter, state);
+	}
+	return state;
+    }
+
+    /**
+     * Returns the poll interval of a meter. A new meter is polled with the
+     * shortest interval until its change rate is known.
+     *
+     * @param meter the key of the meter
+     * @return the interval in ms
+     */
+    public synchronized long getInterval(String meter) {
+	Meter state = meters.get(meter);
+	return (null == state) ? minInterval : state.interval;
+    }
+
+    /**
+     * Returns the time of the next poll of a meter.
+     *
+     * @param meter the key of the meter
+     * @return the time in ms, 0 if the meter was never read
+     */
+    public synchronized long getNextPoll(String meter) {
+	Meter state = meters.get(meter);
+	if ((null == state) || (state.lastReadout < 0)) {
+	    return 0;
+	}
+	return state.lastReadout + state.interval;
+    }
+
+    /**
+     * Returns the meters whose next poll is due, the most overdue first.
+     *
+     * @param meters the keys of the meters to check
+     * @param now the current time in ms
+     * @return the due meters
+     */
+    public synchronized List<String> getDueMeters(List<String> meters, long now) {
+	List<String> result = new ArrayList<>();
+	final Map<String, Long> due = new HashMap<>();
+	for (String meter : meters) {
+	    long nextPoll = getNextPoll(meter);
+	    if (nextPoll <= now) {
+		result.add(meter);
+		due.put(meter, nextPoll);
+	    }
+	}
+	Collections.sort(result, new Comparator<String>() {
+
+	    @Override
+	    public int compare(String m1, String m2) {
+		return Long.compare(due.get(m1), due.get(m2));
+	    }
+	});
+	return result;
+    }
+
+    /**
+     * Returns the estimated change rate of a meter.
+     *
+     * @param meter the key of the meter
+     * @return the changes per second, 0 if unknown
+     */
+    public synchronized double getChangeRate(String meter) {
+	Meter state = meters.get(meter);
+	return (null == state) ? 0 : changeRate(state) * 1000;
+    }
+
+    public synchronized void removeMeter(String meter) {
+	meters.remove(meter);
+    }
+
+    public long getMinInterval() {
+	return minInterval;
+    }
+
+    public long getMaxInterval() {
+	return maxInterval;
+    }
+
+    public double getFreshnessTarget() {
+	return freshnessTarget;
+    }
+
+    private static class Meter {
+
+	private long interval;
+	private long lastReadout = -1;
+	private Map<String, String> values = new HashMap<>();
+	private double readouts = 0;
+	private double changes = 0;
+	private double time = 0;
+
+	Meter(long interval) {
+	    this.interval = interval;
+	}
+    }
+}
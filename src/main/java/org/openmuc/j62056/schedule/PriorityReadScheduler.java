@@ -0,0 +1,346 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.openmuc.j62056.impl.AbstractConnection;
+
+/**
+ * Orders the reads of one connection, e.g. one serial port or one bus, by
+ * priority. A worker thread performs the reads one at a time. A running read
+ * is never interrupted; after every complete readout, the next safe protocol
+ * boundary, the most urgent waiting request is started.
+ * <p>
+ * Requests of the same class are read in the order they were submitted. To
+ * keep the less urgent classes from starving, a waiting request is promoted
+ * by one class for every aging interval it waited. Between requests of the
+ * same effective class the one waiting longer is read first, so a background
+ * poll which waited two aging intervals is read before new interactive
+ * requests.
+ */
+public class PriorityReadScheduler implements AutoCloseable {
+
+    public static final long DEFAULT_AGING_INTERVAL = 5000;
+
+    private static final ReadPriority[] PRIORITIES = ReadPriority.values();
+
+    private final BusScheduler bus;
+    private final List<Deque<Request>> queues;
+    private final Thread worker;
+    private long agingInterval = DEFAULT_AGING_INTERVAL;
+    private boolean closed = false;
+    private long sequence = 0;
+    private final long[] completedReads = new long[PRIORITIES.length];
+    private final long[] promotedReads = new long[PRIORITIES.length];
+
+    /**
+     * Creates a scheduler and starts its worker thread.
+     *
+     * @param connection the open connection, it must not be read by other
+     * threads while the scheduler is used
+     */
+    public PriorityReadScheduler(AbstractConnection connection) {
+	bus = new BusScheduler(connection, null);
+	queues = new ArrayList<>(PRIORITIES.length);
+	for (int i = 0; i < PRIORITIES.length; i++) {
+	    queues.add(new ArrayDeque<Request>());
+	}
+	worker = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		work();
+	    }
+	}, "j62056-scheduler-" + connection.getSerialPortName());
+	worker.setDaemon(true);
+	worker.start();
+    }
+
+    /**
+     * Queues a read.
+     *
+     * @param deviceAddress the device address of the meter, NULL to read
+     * without an address
+     * @param priority the priority class
+     * @return the future readout, the read can be cancelled as long as it
+     * has not started
+     * @throws IllegalStateException if the scheduler is closed
+     */
+    public Future<BusReadout> submit(final String deviceAddress, final ReadPriority priority) {
+	if (null == priority) {
+	    throw new IllegalArgumentException("priority may not be NULL");
+	}
+	FutureTask<BusReadout> task = new FutureTask<>(new Callable<BusReadout>() {
+
+	    @Override
+	    public BusReadout call() {
+		BusReadout result = bus.read(deviceAddress);
+		// counted before the future completes, so callers see the count
+		synchronized (queues) {
+		    completedReads[priority.ordinal()]++;
+		}
+		return result;
+	    }
+	});
+	synchronized (queues) {
+	    if (closed) {
+		throw new IllegalStateException("scheduler is closed");
+	    }
+	    queues.get(priority.ordinal()).addLast(new Request(task, priority, sequence++, System.nanoTime()));
+	    queues.notifyAll();
+	}
+	return task;
+    }
+
+    /**
+     * Queues a read and waits for the result.
+     *
+     * @param deviceAddress the device address of the meter, NULL to read
+     * without an address
+     * @param priority the priority class
+     * @return the readout
+     * @throws InterruptedException if the thread was interrupted while
+     * waiting, the read is cancelled if it has not started
+     */
+    public BusReadout read(String deviceAddress, ReadPriority priority) throws InterruptedException {
+	Future<BusReadout> future = submit(deviceAddress, priority);
+	try {
+	    return future.get();
+	} catch (InterruptedException e) {
+	    future.cancel(false);
+	    throw e;
+	} catch (ExecutionException e) {
+	    // BusScheduler.read returns failures as readout
+	    throw new IllegalStateException(e.getCause());
+	}
+    }
+
+    private void work() {
+	boolean first = true;
+	while (true) {
+	    Request request;
+	    synchronized (queues) {
+		try {
+		    while (!closed && isEmpty()) {
+			queues.wait();
+		    }
+		} catch (InterruptedException e) {
+		    // nobody would run the waiting requests anymore
+		    closed = true;
+		    cancelWaiting();
+		    return;
+		}
+		if (closed) {
+		    return;
+		}
+		request = next(System.nanoTime());
+	    }
+	    if (request.task.isCancelled()) {
+		continue;
+	    }
+	    if (!first) {
+		waitGap();
+	    }
+	    first = false;
+	    request.task.run();
+	}
+    }
+
+    private boolean isEmpty() {
+	for (Deque<Request> queue : queues) {
+	    if (!queue.isEmpty()) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * removes the request to read next. Only the head of every class has to
+     * be compared, it waited longest and has the highest effective class.
+     */
+    private Request next(long now) {
+	Deque<Request> best = null;
+	int bestRank = Integer.MAX_VALUE;
+	long bestSequence = Long.MAX_VALUE;
+	for (Deque<Request> queue : queues) {
+	    Request head = queue.peekFirst();
+	    if (null == head) {
+		continue;
+	    }
+	    int rank = effectiveRank(head, now);
+	    if ((rank < bestRank) || ((rank == bestRank) && (head.sequence < bestSequence))) {
+		best = queue;
+		bestRank = rank;
+		bestSequence = head.sequence;
+	    }
+	}
+	Request result = best.removeFirst();
+	if (bestRank < result.priority.ordinal()) {
+	    promotedReads[result.priority.ordinal()]++;
+	}
+	return result;
+    }
+
+    private int effectiveRank(Request request, long now) {
+	// nanoTime, a step of the wall clock neither promotes nor stops aging
+	long promotions = Math.max(0, TimeUnit.NANOSECONDS.toMillis(now - request.submitted)) / agingInterval;
+	return (int) Math.max(0, request.priority.ordinal() - promotions);
+    }
+
+    private void waitGap() {
+	int gap = bus.getInterMessageGap();
+	if (gap > 0) {
+	    try {
+		Thread.sleep(gap);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    public long getAgingInterval() {
+	synchronized (queues) {
+	    return agingInterval;
+	}
+    }
+
+    /**
+     * Sets the time after which a waiting request is promoted to the next
+     * more urgent class.
+     *
+     * @param agingInterval the interval in ms
+     */
+    public void setAgingInterval(long agingInterval) {
+	if (agingInterval < 1) {
+	    throw new IllegalArgumentException("agingInterval must be at least 1");
+	}
+	synchronized (queues) {
+	    this.agingInterval = agingInterval;
+	}
+    }
+
+    public int getInterMessageGap() {
+	return bus.getInterMessageGap();
+    }
+
+    /**
+     * Sets an additional time in ms to wait between two reads, see
+     * <code>BusScheduler.setInterMessageGap</code>.
+     *
+     * @param interMessageGap the gap in ms
+     */
+    public void setInterMessageGap(int interMessageGap) {
+	bus.setInterMessageGap(interMessageGap);
+    }
+
+    public int getMaxStaleBytes() {
+	return bus.getMaxStaleBytes();
+    }
+
+    /**
+     * Sets the maximum number of bytes discarded from the input after a
+     * failed read.
+     *
+     * @param maxStaleBytes the maximum number of bytes
+     */
+    public void setMaxStaleBytes(int maxStaleBytes) {
+	bus.setMaxStaleBytes(maxStaleBytes);
+    }
+
+    /**
+     * Returns the number of waiting requests of a class.
+     *
+     * @param priority the priority class
+     * @return the number of requests
+     */
+    public int getQueueLength(ReadPriority priority) {
+	synchronized (queues) {
+	    return queues.get(priority.ordinal()).size();
+	}
+    }
+
+    /**
+     * Returns the number of completed reads of a class.
+     *
+     * @param priority the priority class
+     * @return the number of reads
+     */
+    public long getCompletedReads(ReadPriority priority) {
+	synchronized (queues) {
+	    return completedReads[priority.ordinal()];
+	}
+    }
+
+    /**
+     * Returns the number of reads of a class which were started ahead of
+     * more urgent requests because of their waiting time.
+     *
+     * @param priority the priority class
+     * @return the number of reads
+     */
+    public long getPromotedReads(ReadPriority priority) {
+	synchronized (queues) {
+	    return promotedReads[priority.ordinal()];
+	}
+    }
+
+    /**
+     * Stops the worker after the running read. The waiting requests are
+     * cancelled. The connection is not closed.
+     */
+    @Override
+    public void close() {
+	synchronized (queues) {
+	    closed = true;
+	    cancelWaiting();
+	    queues.notifyAll();
+	}
+	if (Thread.currentThread() != worker) {
+	    try {
+		worker.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    /**
+     * cancels and removes all waiting requests, called with the lock on the
+     * queues held.
+     */
+    private void cancelWaiting() {
+	for (Deque<Request> queue : queues) {
+	    for (Request request : queue) {
+		request.task.cancel(false);
+	    }
+	    queue.clear();
+	}
+    }
+
+    private static class Request {
+
+	private final FutureTask<BusReadout> task;
+	private final ReadPriority priority;
+	private final long sequence;
+	private final long submitted;
+
+	Request(FutureTask<BusReadout> task, ReadPriority priority, long sequence, long submitted) {
+	    this.task = task;
+	    this.priority = priority;
+	    this.sequence = sequence;
+	    this.submitted = submitted;
+	}
+    }
+}
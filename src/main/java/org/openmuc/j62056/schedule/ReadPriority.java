@@ -0,0 +1,26 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+/**
+ * The priority classes of a <code>PriorityReadScheduler</code>, from the
+ * most to the least urgent.
+ */
+public enum ReadPriority {
+
+    /**
+     * a read requested by an operator who waits for the result.
+     */
+    INTERACTIVE,
+    /**
+     * a read for billing, e.g. at the end of a billing period.
+     */
+    BILLING,
+    /**
+     * a routine periodic poll.
+     */
+    BACKGROUND;
+}
@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.sink;
+
+import java.util.List;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+/**
+ * Writes one line per data set:
+ * "&lt;timestamp&gt;;&lt;serial_port&gt;;&lt;device_address&gt;;&lt;identification&gt;;&lt;id&gt;;&lt;value&gt;;&lt;unit&gt;".
+ * Fields containing the separator, a quote or a line break are quoted.
+ */
+public class CsvFormatter implements ReadoutFormatter {
+
+    private final char separator;
+
+    public CsvFormatter() {
+	this(';');
+    }
+
+    public CsvFormatter(char separator) {
+	if ((separator == '"') || (separator == '\r') || (separator == '\n')) {
+	    throw new IllegalArgumentException("invalid separator");
+	}
+	this.separator = separator;
+    }
+
+    @Override
+    public void format(String serialPortName, String deviceAddress, long timestamp, Readout readout, OutputBuffer buffer) {
+	List<DataSet> dataSets = readout.getDataSets();
+	if (dataSets.isEmpty()) {
+	    return;
+	}
+	String identification = dataSets.get(0).getId();
+	for (int i = 1; i < dataSets.size(); i++) {
+	    DataSet dataSet = dataSets.get(i);
+	    buffer.append(timestamp).append(separator);
+	    appendField(serialPortName, buffer);
+	    buffer.append(separator);
+	    appendField(deviceAddress, buffer);
+	    buffer.append(separator);
+	    appendField(identification, buffer);
+	    buffer.append(separator);
+	    appendField(dataSet.getId(), buffer);
+	    buffer.append(separator);
+	    appendField(dataSet.getValue(), buffer);
+	    buffer.append(separator);
+	    appendField(dataSet.getUnit(), buffer);
+	    buffer.append('\n');
+	}
+    }
+
+    private void appendField(String field, OutputBuffer buffer) {
+	if (null == field) {
+	    return;
+	}
+	boolean quote = false;
+	for (int i = 0; i < field.length(); i++) {
+	    char c = field.charAt(i);
+	    if ((c == separator) || (c == '"') || (c == '\r') || (c == '\n')) {
+		quote = true;
+		break;
+	    }
+	}
+	if (!quote) {
+	    buffer.append(field);
+	    return;
+	}
+	buffer.append('"');
+	for (int i = 0; i < field.length(); i++) {
+	    char c = field.charAt(i);
+	    if (c == '"') {
+		buffer.append('"');
+	    }
+	    buffer.append(c);
+	}
+	buffer.append('"');
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.sink;
+
+import java.util.List;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+/**
+ * Writes one line of the InfluxDB line protocol per data set, e.g.
+ * <pre>
+ * meter,port=/dev/ttyUSB0,identification=ISK5\2M550T-1012,id=1-0:1.8.1,unit=kWh value=000123.456 1483891867000000000
+ * </pre>
+ * Numeric values are written as the float field "value", all other values,
+ * e.g. serial numbers or dates, as the string field "text". InfluxDB fixes
+ * the type of a field per measurement, so one field never receives both
+ * types. Empty tags are omitted. The timestamp has nanosecond precision.
+ */
+public class InfluxLineFormatter implements ReadoutFormatter {
+
+    private static final String MEASUREMENT_SPECIAL = ", ";
+    private static final String TAG_SPECIAL = ",= ";
+    private static final String STRING_SPECIAL = "\"\\";
+
+    private final String measurement;
+
+    public InfluxLineFormatter() {
+	this("meter");
+    }
+
+    /**
+     * Creates a formatter.
+     *
+     * @param measurement the name of the measurement
+     */
+    public InfluxLineFormatter(String measurement) {
+	if ((null == measurement) || measurement.isEmpty()) {
+	    throw new IllegalArgumentException("measurement may not be empty");
+	}
+	this.measurement = measurement;
+    }
+
+    @Override
+    public void format(String serialPortName, String deviceAddress, long timestamp, Readout readout, OutputBuffer buffer) {
+	List<DataSet> dataSets = readout.getDataSets();
+	if (dataSets.isEmpty()) {
+	    return;
+	}
+	String identification = dataSets.get(0).getId();
+	for (int i = 1; i < dataSets.size(); i++) {
+	    DataSet dataSet = dataSets.get(i);
+	    buffer.appendEscaped(measurement, MEASUREMENT_SPECIAL);
+	    appendTag("port", serialPortName, buffer);
+	    appendTag("address", deviceAddress, buffer);
+	    appendTag("identification", identification, buffer);
+	    appendTag("id", dataSet.getId(), buffer);
+	    appendTag("unit", dataSet.getUnit(), buffer);
+	    String value = dataSet.getValue();
+	    if (isNumeric(value)) {
+		buffer.append(" value=").append(value);
+	    } else {
+		buffer.append(" text=\"").appendEscaped(value, STRING_SPECIAL).append('"');
+	    }
+	    buffer.append(' ').append(timestamp).append("000000\n");
+	}
+    }
+
+    private static void appendTag(String key, String value, OutputBuffer buffer) {
+	if ((null == value) || value.isEmpty()) {
+	    return;
+	}
+	buffer.append(',').append(key).append('=').appendEscaped(value, TAG_SPECIAL);
+    }
+
+    /**
+     * checks for a decimal number with an optional sign and fraction.
+     */
+    static boolean isNumeric(String value) {
+	if ((null == value) || value.isEmpty()) {
+	    return false;
+	}
+	int i = 0;
+	if ((value.charAt(0) == '-') || (value.charAt(0) == '+')) {
+	    i++;
+	}
+	boolean digits = false;
+	boolean point = false;
+	for (; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    if ((c >= '0') && (c <= '9')) {
+		digits = true;
+	    } else if ((c == '.') && !point) {
+		point = true;
+	    } else {
+		return false;
+	    }
+	}
+	return digits;
+    }
+}
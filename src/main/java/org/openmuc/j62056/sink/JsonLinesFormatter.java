@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.sink;
+
+import java.util.List;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+/**
+ * Writes one JSON object per readout and line, e.g.
+ * <pre>
+ * {"timestamp":1483891867000,"port":"/dev/ttyUSB0","address":null,
+ * "identification":"ISK5\\2M550T-1012","complete":true,
+ * "dataSets":[{"id":"1-0:1.8.1","value":"000123.456","unit":"kWh"}]}
+ * </pre>
+ */
+public class JsonLinesFormatter implements ReadoutFormatter {
+
+    @Override
+    public void format(String serialPortName, String deviceAddress, long timestamp, Readout readout, OutputBuffer buffer) {
+	List<DataSet> dataSets = readout.getDataSets();
+	buffer.append("{\"timestamp\":").append(timestamp);
+	buffer.append(",\"port\":");
+	appendString(serialPortName, buffer);
+	buffer.append(",\"address\":");
+	appendString(deviceAddress, buffer);
+	buffer.append(",\"identification\":");
+	appendString(dataSets.isEmpty() ? null : dataSets.get(0).getId(), buffer);
+	buffer.append(",\"complete\":").append(readout.isComplete());
+	if (readout.isChangesOnly()) {
+	    buffer.append(",\"changesOnly\":true");
+	}
+	buffer.append(",\"dataSets\":[");
+	for (int i = 1; i < dataSets.size(); i++) {
+	    DataSet dataSet = dataSets.get(i);
+	    if (i > 1) {
+		buffer.append(',');
+	    }
+	    buffer.append("{\"id\":");
+	    appendString(dataSet.getId(), buffer);
+	    buffer.append(",\"value\":");
+	    appendString(dataSet.getValue(), buffer);
+	    buffer.append(",\"unit\":");
+	    appendString(dataSet.getUnit(), buffer);
+	    buffer.append('}');
+	}
+	buffer.append("]}\n");
+    }
+
+    private static void appendString(String s, OutputBuffer buffer) {
+	if (null == s) {
+	    buffer.append("null");
+	} else {
+	    buffer.append('"').appendJson(s).append('"');
+	}
+    }
+}
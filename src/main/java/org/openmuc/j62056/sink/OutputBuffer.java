@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer the formatters write the output into. The buffer is
+ * reused for many readouts, strings and numbers are encoded directly into it
+ * without creating intermediate strings. Characters which are not ASCII are
+ * written as '?'.
+ */
+public final class OutputBuffer {
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private byte[] bytes;
+    private int size = 0;
+
+    public OutputBuffer(int initialCapacity) {
+	bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public void clear() {
+	size = 0;
+    }
+
+    /**
+     * Removes the bytes after the given size, e.g. to discard a partly
+     * written readout.
+     *
+     * @param size the new size
+     */
+    public void truncate(int size) {
+	if ((size < 0) || (size > this.size)) {
+	    throw new IllegalArgumentException("invalid size " + size);
+	}
+	this.size = size;
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+	os.write(bytes, 0, size);
+    }
+
+    public OutputBuffer append(char c) {
+	ensureCapacity(1);
+	bytes[size++] = (c < 0x80) ? (byte) c : (byte) '?';
+	return this;
+    }
+
+    /**
+     * Appends a string.
+     *
+     * @param s the string, nothing is appended if it is NULL
+     * @return this buffer
+     */
+    public OutputBuffer append(String s) {
+	if (null == s) {
+	    return this;
+	}
+	int length = s.length();
+	ensureCapacity(length);
+	for (int i = 0; i < length; i++) {
+	    char c = s.charAt(i);
+	    bytes[size++] = (c < 0x80) ? (byte) c : (byte) '?';
+	}
+	return this;
+    }
+
+    public OutputBuffer append(long value) {
+	if (value == Long.MIN_VALUE) {
+	    return append("-9223372036854775808");
+	}
+	ensureCapacity(20);
+	if (value < 0) {
+	    bytes[size++] = '-';
+	    value = -value;
+	}
+	int start = size;
+	do {
+	    bytes[size++] = (byte) ('0' + value % 10);
+	    value /= 10;
+	} while (value > 0);
+	for (int i = start, j = size - 1; i < j; i++, j--) {
+	    byte b = bytes[i];
+	    bytes[i] = bytes[j];
+	    bytes[j] = b;
+	}
+	return this;
+    }
+
+    public OutputBuffer append(boolean value) {
+	return append(value ? "true" : "false");
+    }
+
+    /**
+     * Appends the content of a JSON string without the quotes. Quotes,
+     * backslashes and control characters are escaped, characters which are
+     * not ASCII are written as unicode escapes.
+     *
+     * @param s the string, nothing is appended if it is NULL
+     * @return this buffer
+     */
+    public OutputBuffer appendJson(String s) {
+	if (null == s) {
+	    return this;
+	}
+	int length = s.length();
+	for (int i = 0; i < length; i++) {
+	    char c = s.charAt(i);
+	    if ((c == '"') || (c == '\\')) {
+		ensureCapacity(2);
+		bytes[size++] = '\\';
+		bytes[size++] = (byte) c;
+	    } else if ((c < 0x20) || (c >= 0x7F)) {
+		ensureCapacity(6);
+		bytes[size++] = '\\';
+		bytes[size++] = 'u';
+		bytes[size++] = HEX[(c >> 12) & 0xF];
+		bytes[size++] = HEX[(c >> 8) & 0xF];
+		bytes[size++] = HEX[(c >> 4) & 0xF];
+		bytes[size++] = HEX[c & 0xF];
+	    } else {
+		ensureCapacity(1);
+		bytes[size++] = (byte) c;
+	    }
+	}
+	return this;
+    }
+
+    /**
+     * Appends a string and escapes the given special characters with a
+     * backslash.
+     *
+     * @param s the string, nothing is appended if it is NULL
+     * @param special the characters to escape
+     * @return this buffer
+     */
+    public OutputBuffer appendEscaped(String s, String special) {
+	if (null == s) {
+	    return this;
+	}
+	int length = s.length();
+	for (int i = 0; i < length; i++) {
+	    char c = s.charAt(i);
+	    ensureCapacity(2);
+	    if (special.indexOf(c) >= 0) {
+		bytes[size++] = '\\';
+	    }
+	    bytes[size++] = (c < 0x80) ? (byte) c : (byte) '?';
+	}
+	return this;
+    }
+
+    private void ensureCapacity(int additional) {
+	if (size + additional > bytes.length) {
+	    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+	}
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.sink;
+
+import org.openmuc.j62056.Readout;
+
+/**
+ * Encodes readouts into an output format.
+ */
+public interface ReadoutFormatter {
+
+    /**
+     * Appends a readout to the buffer. The formatter is only called by one
+     * thread at a time.
+     *
+     * @param serialPortName the serial port the meter was read from
+     * @param deviceAddress the device address of the meter, NULL if the meter
+     * was read without an address
+     * @param timestamp the time of the readout in ms since the epoch
+     * @param readout the readout, the first data set contains the
+     * identification of the meter
+     * @param buffer the buffer the encoded readout is appended to
+     */
+    void format(String serialPortName, String deviceAddress, long timestamp, Readout readout, OutputBuffer buffer);
+}
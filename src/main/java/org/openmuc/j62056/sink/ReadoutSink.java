@@ -0,0 +1,349 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.ReadoutListener;
+
+/**
+ * Writes readouts to an output stream in batches. The readouts are encoded
+ * by the calling thread into a reusable buffer, a background thread writes
+ * the buffer to the stream when the batch size is reached or the flush
+ * interval has passed since the first unwritten readout. Two buffers are
+ * swapped, so the readouts are encoded while the previous batch is written.
+ * <p>
+ * If the stream is slower than the meters, the callers are blocked as soon
+ * as the unwritten readouts, in both buffers together, reach the capacity of
+ * the sink. If the stream
+ * fails, the sink stops writing, the following readouts are discarded and
+ * the error is thrown by <code>close()</code>.
+ */
+public class ReadoutSink implements ReadoutListener, Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private final OutputStream os;
+    private final ReadoutFormatter formatter;
+    private final Thread writer;
+    private final Object lock = new Object();
+    private OutputBuffer filling = new OutputBuffer(DEFAULT_BATCH_SIZE);
+    private OutputBuffer writing = new OutputBuffer(DEFAULT_BATCH_SIZE);
+    private long firstUnwritten = 0;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private int capacity = DEFAULT_CAPACITY;
+    private boolean closed = false;
+    private boolean flushRequested = false;
+    private IOException error = null;
+    private long readouts = 0;
+    private long writtenBytes = 0;
+    private long discardedReadouts = 0;
+    private long blockedTime = 0;
+
+    /**
+     * Creates a sink and starts its writer thread.
+     *
+     * @param os the stream the readouts are written to, it is closed with
+     * the sink
+     * @param formatter the format of the readouts
+     */
+    public ReadoutSink(OutputStream os, ReadoutFormatter formatter) {
+	if ((null == os) || (null == formatter)) {
+	    throw new IllegalArgumentException("os and formatter may not be NULL");
+	}
+	this.os = os;
+	this.formatter = formatter;
+	writer = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		write();
+	    }
+	}, "j62056-sink");
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    /**
+     * Sets the number of bytes after which a batch is written without
+     * waiting for the flush interval.
+     *
+     * @param batchSize the batch size in bytes
+     */
+    public void setBatchSize(int batchSize) {
+	if (batchSize < 1) {
+	    throw new IllegalArgumentException("batchSize must be at least 1");
+	}
+	synchronized (lock) {
+	    this.batchSize = batchSize;
+	    lock.notifyAll();
+	}
+    }
+
+    public int getBatchSize() {
+	synchronized (lock) {
+	    return batchSize;
+	}
+    }
+
+    /**
+     * Sets the maximum time a readout waits before it is written.
+     *
+     * @param flushInterval the interval in ms
+     */
+    public void setFlushInterval(int flushInterval) {
+	if (flushInterval < 1) {
+	    throw new IllegalArgumentException("flushInterval must be at least 1");
+	}
+	synchronized (lock) {
+	    this.flushInterval = flushInterval;
+	    lock.notifyAll();
+	}
+    }
+
+    public int getFlushInterval() {
+	synchronized (lock) {
+	    return flushInterval;
+	}
+    }
+
+    /**
+     * Sets the number of unwritten bytes at which the callers are blocked
+     * until the writer caught up. The bytes of the batch being written count
+     * as unwritten. A readout is accepted while the unwritten bytes are below
+     * the capacity, so they exceed it by at most one readout.
+     *
+     * @param capacity the capacity in bytes
+     */
+    public void setCapacity(int capacity) {
+	if (capacity < 1) {
+	    throw new IllegalArgumentException("capacity must be at least 1");
+	}
+	synchronized (lock) {
+	    this.capacity = capacity;
+	    lock.notifyAll();
+	}
+    }
+
+    public int getCapacity() {
+	synchronized (lock) {
+	    return capacity;
+	}
+    }
+
+    @Override
+    public void readoutReceived(String serialPortName, String deviceAddress, Readout readout) {
+	write(serialPortName, deviceAddress, System.currentTimeMillis(), readout);
+    }
+
+    /**
+     * Encodes a readout and queues it for writing. Blocks while the sink is
+     * full.
+     *
+     * @param serialPortName the serial port the meter was read from
+     * @param deviceAddress the device address, NULL if the meter was read
+     * without an address
+     * @param timestamp the time of the readout in ms since the epoch
+     * @param readout the readout
+     * @return false if the readout was discarded because the sink is closed
+     * or failed
+     */
+    public boolean write(String serialPortName, String deviceAddress, long timestamp, Readout readout) {
+	synchronized (lock) {
+	    if ((filling.size() + writing.size() >= capacity) && !closed && (null == error)) {
+		long start = System.nanoTime();
+		try {
+		    while ((filling.size() + writing.size() >= capacity) && !closed && (null == error)) {
+			lock.wait();
+		    }
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    discardedReadouts++;
+		    return false;
+		} finally {
+		    blockedTime += System.nanoTime() - start;
+		}
+	    }
+	    if (closed || (null != error)) {
+		discardedReadouts++;
+		return false;
+	    }
+	    int size = filling.size();
+	    try {
+		formatter.format(serialPortName, deviceAddress, timestamp, readout, filling);
+	    } catch (RuntimeException e) {
+		filling.truncate(size);
+		throw e;
+	    }
+	    if (size == 0) {
+		firstUnwritten = System.currentTimeMillis();
+	    }
+	    readouts++;
+	    if ((size == 0) || (filling.size() >= batchSize)) {
+		lock.notifyAll();
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Writes the queued readouts without waiting for the flush interval and
+     * returns when they were written.
+     *
+     * @throws IOException if the stream failed
+     */
+    public void flush() throws IOException {
+	synchronized (lock) {
+	    flushRequested = true;
+	    lock.notifyAll();
+	    try {
+		while (((filling.size() > 0) || flushRequested || (writing.size() > 0)) && (null == error) && writer.isAlive()) {
+		    lock.wait();
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new IOException("interrupted while flushing", e);
+	    }
+	    if (null != error) {
+		throw error;
+	    }
+	}
+    }
+
+    private void write() {
+	while (true) {
+	    OutputBuffer batch;
+	    synchronized (lock) {
+		try {
+		    while (true) {
+			int size = filling.size();
+			if (closed || flushRequested || (size >= batchSize)) {
+			    break;
+			}
+			if (size == 0) {
+			    lock.wait();
+			} else {
+			    long wait = firstUnwritten + flushInterval - System.currentTimeMillis();
+			    if (wait <= 0) {
+				break;
+			    }
+			    lock.wait(wait);
+			}
+		    }
+		} catch (InterruptedException e) {
+		    closed = true;
+		}
+		flushRequested = false;
+		if (filling.size() == 0) {
+		    if (closed) {
+			lock.notifyAll();
+			return;
+		    }
+		    lock.notifyAll();
+		    continue;
+		}
+		batch = filling;
+		filling = writing;
+		writing = batch;
+		lock.notifyAll();
+	    }
+	    try {
+		batch.writeTo(os);
+		os.flush();
+	    } catch (IOException e) {
+		synchronized (lock) {
+		    error = e;
+		    batch.clear();
+		    filling.clear();
+		    lock.notifyAll();
+		}
+		return;
+	    }
+	    synchronized (lock) {
+		writtenBytes += batch.size();
+		batch.clear();
+		lock.notifyAll();
+	    }
+	}
+    }
+
+    /**
+     * Returns the number of readouts accepted by the sink.
+     *
+     * @return the number of readouts
+     */
+    public long getReadouts() {
+	synchronized (lock) {
+	    return readouts;
+	}
+    }
+
+    public long getWrittenBytes() {
+	synchronized (lock) {
+	    return writtenBytes;
+	}
+    }
+
+    /**
+     * Returns the number of readouts discarded because the sink was closed
+     * or the stream failed.
+     *
+     * @return the number of discarded readouts
+     */
+    public long getDiscardedReadouts() {
+	synchronized (lock) {
+	    return discardedReadouts;
+	}
+    }
+
+    /**
+     * Returns the time the callers were blocked because the sink was full.
+     *
+     * @return the time in ns
+     */
+    public long getBlockedTime() {
+	synchronized (lock) {
+	    return blockedTime;
+	}
+    }
+
+    /**
+     * Writes the queued readouts and closes the stream.
+     *
+     * @throws IOException if the stream failed
+     */
+    @Override
+    public void close() throws IOException {
+	synchronized (lock) {
+	    closed = true;
+	    lock.notifyAll();
+	}
+	try {
+	    writer.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	IOException closeError = null;
+	try {
+	    os.close();
+	} catch (IOException e) {
+	    closeError = e;
+	}
+	synchronized (lock) {
+	    if (null == error) {
+		error = closeError;
+	    }
+	    if (null != error) {
+		throw error;
+	    }
+	}
+    }
+}
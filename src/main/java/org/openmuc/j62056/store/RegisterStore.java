@@ -0,0 +1,240 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.store;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.ReadoutListener;
+
+/**
+ * Keeps the latest value of every register of every meter. Each meter and
+ * register id is mapped once to a slot of preallocated primitive arrays
+ * holding the unscaled value, the scale and the timestamp. Only numeric
+ * values are stored.
+ * <p>
+ * The slots are protected by sequence counters: a writer makes the counter
+ * odd while it updates a slot, a reader retries if the counter was odd or
+ * changed during the read. Readers therefore take no lock and allocate
+ * nothing. Add the store to a connection with
+ * <code>addReadoutListener</code> to feed it with every readout.
+ */
+public class RegisterStore implements ReadoutListener {
+
+    private static final int MAX_DIGITS = 18;
+
+    private final int capacity;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray values;
+    private final AtomicIntegerArray scales;
+    private final AtomicLongArray timestamps;
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> slots = new ConcurrentHashMap<>();
+    private int slotCount = 0;
+    private final AtomicLong droppedRegisters = new AtomicLong();
+
+    /**
+     * Creates a register store.
+     *
+     * @param capacity the maximum number of registers of all meters
+     */
+    public RegisterStore(int capacity) {
+	this.capacity = capacity;
+	sequences = new AtomicLongArray(capacity);
+	values = new AtomicLongArray(capacity);
+	scales = new AtomicIntegerArray(capacity);
+	timestamps = new AtomicLongArray(capacity);
+    }
+
+    @Override
+    public void readoutReceived(String serialPortName, String deviceAddress, Readout readout) {
+	update(Readout.meterKey(serialPortName, deviceAddress), readout.getDataSets(), System.currentTimeMillis());
+    }
+
+    /**
+     * Stores the numeric values of the data sets. The first data set with the
+     * identification of the meter and data sets with an empty id are skipped.
+     *
+     * @param meter the key of the meter
+     * @param dataSets the data sets of a readout
+     * @param timestamp the time of the readout in ms since the epoch
+     */
+    public void update(String meter, List<DataSet> dataSets, long timestamp) {
+	for (int i = 1; i < dataSets.size(); i++) {
+	    DataSet dataSet = dataSets.get(i);
+	    if (!dataSet.getId().isEmpty()) {
+		update(meter, dataSet.getId(), dataSet.getValue(), timestamp);
+	    }
+	}
+    }
+
+    /**
+     * Stores a value.
+     *
+     * @param meter the key of the meter
+     * @param registerId the id of the register, e.g. the OBIS code
+     * @param value the value as received from the meter
+     * @param timestamp the time of the value in ms since the epoch
+     * @return false if the value is not numeric or the store is full
+     */
+    public boolean update(String meter, String registerId, String value, long timestamp) {
+	long unscaledValue = 0;
+	int scale = -1;
+	int digits = 0;
+	boolean hasDigits = false;
+	boolean negative = false;
+	for (int i = 0; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    if ((c >= '0') && (c <= '9')) {
+		hasDigits = true;
+		// leading zeros do not count
+		if (((unscaledValue != 0) || (c != '0')) && (++digits > MAX_DIGITS)) {
+		    return false;
+		}
+		unscaledValue = unscaledValue * 10 + (c - '0');
+		if (scale >= 0) {
+		    scale++;
+		}
+	    } else if ((c == '.') && (scale < 0)) {
+		scale = 0;
+	    } else if ((c == '-') && (i == 0)) {
+		negative = true;
+	    } else {
+		return false;
+	    }
+	}
+	if (!hasDigits) {
+	    return false;
+	}
+	int slot = slotFor(meter, registerId);
+	if (slot < 0) {
+	    droppedRegisters.incrementAndGet();
+	    return false;
+	}
+	write(slot, negative ? -unscaledValue : unscaledValue, Math.max(scale, 0), timestamp);
+	return true;
+    }
+
+    private void write(int slot, long unscaledValue, int scale, long timestamp) {
+	long sequence;
+	do {
+	    sequence = sequences.get(slot);
+	} while (((sequence & 1) != 0) || !sequences.compareAndSet(slot, sequence, sequence + 1));
+	values.set(slot, unscaledValue);
+	scales.set(slot, scale);
+	timestamps.set(slot, timestamp);
+	sequences.set(slot, sequence + 2);
+    }
+
+    /**
+     * Returns the slot of a register.
+     *
+     * @param meter the key of the meter
+     * @param registerId the id of the register
+     * @return the slot or -1 if no value of the register was stored
+     */
+    public int slot(String meter, String registerId) {
+	ConcurrentMap<String, Integer> registers = slots.get(meter);
+	if (null == registers) {
+	    return -1;
+	}
+	Integer slot = registers.get(registerId);
+	return (null == slot) ? -1 : slot;
+    }
+
+    private int slotFor(String meter, String registerId) {
+	int slot = slot(meter, registerId);
+	if (slot >= 0) {
+	    return slot;
+	}
+	synchronized (slots) {
+	    slot = slot(meter, registerId);
+	    if (slot >= 0) {
+		return slot;
+	    }
+	    if (slotCount == capacity) {
+		return -1;
+	    }
+	    ConcurrentMap<String, Integer> registers = slots.get(meter);
+	    if (null == registers) {
+		registers = new ConcurrentHashMap<>();
+		slots.put(meter, registers);
+	    }
+	    slot = slotCount++;
+	    registers.put(registerId, slot);
+	    return slot;
+	}
+    }
+
+    /**
+     * Reads a consistent snapshot of a slot without locking.
+     *
+     * @param slot the slot
+     * @param target the object receiving the snapshot
+     * @return false if no value was stored in the slot
+     */
+    public boolean read(int slot, RegisterValue target) {
+	while (true) {
+	    long sequence = sequences.get(slot);
+	    if ((sequence & 1) != 0) {
+		Thread.yield();
+		continue;
+	    }
+	    if (sequence == 0) {
+		return false;
+	    }
+	    target.unscaledValue = values.get(slot);
+	    target.scale = scales.get(slot);
+	    target.timestamp = timestamps.get(slot);
+	    if (sequences.get(slot) == sequence) {
+		target.version = sequence / 2;
+		return true;
+	    }
+	}
+    }
+
+    /**
+     * Reads a consistent snapshot of a register without locking.
+     *
+     * @param meter the key of the meter
+     * @param registerId the id of the register
+     * @param target the object receiving the snapshot
+     * @return false if no value of the register was stored
+     */
+    public boolean read(String meter, String registerId, RegisterValue target) {
+	int slot = slot(meter, registerId);
+	return (slot >= 0) && read(slot, target);
+    }
+
+    public int getCapacity() {
+	return capacity;
+    }
+
+    /**
+     * Returns the number of registers with a slot.
+     *
+     * @return the number of registers
+     */
+    public int size() {
+	synchronized (slots) {
+	    return slotCount;
+	}
+    }
+
+    /**
+     * Returns the number of values which were not stored because all slots
+     * were in use.
+     *
+     * @return the number of dropped values
+     */
+    public long getDroppedRegisters() {
+	return droppedRegisters.get();
+    }
+}
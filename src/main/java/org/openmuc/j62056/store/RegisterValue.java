@@ -0,0 +1,70 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.store;
+
+import java.math.BigDecimal;
+
+/**
+ * A consistent snapshot of one register of a <code>RegisterStore</code>. The
+ * object is filled by <code>RegisterStore.read</code> and can be reused for
+ * any number of reads.
+ */
+public class RegisterValue {
+
+    long unscaledValue;
+    int scale;
+    long timestamp;
+    long version;
+
+    /**
+     * Returns the value without the decimal point, e.g. 5049023 for 504.9023.
+     *
+     * @return the unscaled value
+     */
+    public long getUnscaledValue() {
+	return unscaledValue;
+    }
+
+    /**
+     * Returns the number of digits after the decimal point.
+     *
+     * @return the scale
+     */
+    public int getScale() {
+	return scale;
+    }
+
+    public double getValue() {
+	double result = unscaledValue;
+	for (int i = 0; i < scale; i++) {
+	    result /= 10;
+	}
+	return result;
+    }
+
+    public BigDecimal getDecimalValue() {
+	return BigDecimal.valueOf(unscaledValue, scale);
+    }
+
+    /**
+     * Returns the time the value was stored.
+     *
+     * @return the time in ms since the epoch
+     */
+    public long getTimestamp() {
+	return timestamp;
+    }
+
+    /**
+     * Returns the number of updates of the register. Two reads returning the
+     * same version returned the same value.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+	return version;
+    }
+}
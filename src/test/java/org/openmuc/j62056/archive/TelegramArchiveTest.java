@@ -0,0 +1,165 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmuc.j62056.impl.ModeDConnection;
+
+public class TelegramArchiveTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static String telegram(long energy, long power) {
+	return "/ISK5\\2M550T-1012\r\n\r\n"
+		+ "1-3:0.2.8(50)\r\n"
+		+ "0-0:1.0.0(170108161107W)\r\n"
+		+ "1-0:1.8.1(" + String.format("%010d", energy) + "*kWh)\r\n"
+		+ "1-0:1.7.0(" + power + "*kW)\r\n"
+		+ "!\r\n";
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+	File directory = folder.newFolder();
+	List<String> telegrams = new ArrayList<>();
+	try (TelegramArchive archive = new TelegramArchive(directory)) {
+	    for (int i = 0; i < 50; i++) {
+		// the length of the power value changes
+		String telegram = telegram(123456 + i * 7, (i % 3 == 0) ? 1 : 1000 + i);
+		telegrams.add(telegram);
+		archive.append((i % 2 == 0) ? "/dev/ttyUSB0" : "/dev/ttyUSB1", 1000L * i, telegram.getBytes(StandardCharsets.US_ASCII));
+	    }
+	    Assert.assertTrue(archive.getArchivedBytes() * 4 < archive.getTelegramBytes());
+	}
+
+	try (ArchiveReader reader = new ArchiveReader(directory)) {
+	    List<ArchivedTelegram> result = reader.readAll();
+	    Assert.assertEquals(telegrams.size(), result.size());
+	    for (int i = 0; i < result.size(); i++) {
+		Assert.assertEquals(telegrams.get(i), new String(result.get(i).getBytes(), StandardCharsets.US_ASCII));
+		Assert.assertEquals((i % 2 == 0) ? "/dev/ttyUSB0" : "/dev/ttyUSB1", result.get(i).getMeter());
+		Assert.assertEquals(1000L * i, result.get(i).getTimestamp());
+	    }
+	}
+    }
+
+    @Test
+    public void testSegments() throws IOException {
+	File directory = folder.newFolder();
+	try (TelegramArchive archive = new TelegramArchive(directory)) {
+	    archive.setMaxSegmentSize(200);
+	    for (int i = 0; i < 20; i++) {
+		archive.append("/dev/ttyUSB0", i, telegram(i, 5).getBytes(StandardCharsets.US_ASCII));
+	    }
+	}
+	try (TelegramArchive archive = new TelegramArchive(directory)) {
+	    archive.append("/dev/ttyUSB0", 20, telegram(20, 5).getBytes(StandardCharsets.US_ASCII));
+	}
+	Assert.assertTrue(TelegramArchive.segments(directory).length > 2);
+
+	try (ArchiveReader reader = new ArchiveReader(directory)) {
+	    List<ArchivedTelegram> result = reader.readAll();
+	    Assert.assertEquals(21, result.size());
+	    for (int i = 0; i < result.size(); i++) {
+		Assert.assertEquals(telegram(i, 5), new String(result.get(i).getBytes(), StandardCharsets.US_ASCII));
+		Assert.assertEquals(i, result.get(i).getTimestamp());
+	    }
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testScheduledSync() throws Exception {
+	File directory = folder.newFolder();
+	try (TelegramArchive archive = new TelegramArchive(directory)) {
+	    archive.setSyncTelegrams(1000);
+	    archive.append("/dev/ttyUSB0", 0, telegram(1, 5).getBytes(StandardCharsets.US_ASCII));
+	    File segment = TelegramArchive.segments(directory)[0];
+	    Assert.assertFalse(archive.flushIfDue());
+	    Assert.assertEquals(0, segment.length());
+
+	    // no further telegram arrives, the sync thread writes the pending one
+	    archive.setSyncInterval(100);
+	    while (segment.length() == 0) {
+		Thread.sleep(50);
+	    }
+	    Assert.assertNull(archive.getSyncError());
+	    try (ArchiveReader reader = new ArchiveReader(directory)) {
+		Assert.assertEquals(1, reader.readAll().size());
+	    }
+	}
+    }
+
+    @Test
+    public void testTruncatedSegment() throws IOException {
+	File directory = folder.newFolder();
+	try (TelegramArchive archive = new TelegramArchive(directory)) {
+	    archive.append("/dev/ttyUSB0", 0, telegram(1, 5).getBytes(StandardCharsets.US_ASCII));
+	    archive.append("/dev/ttyUSB0", 1, telegram(2, 5).getBytes(StandardCharsets.US_ASCII));
+	}
+	File segment = TelegramArchive.segments(directory)[0];
+	try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+	    file.setLength(file.length() - 2);
+	}
+	try (ArchiveReader reader = new ArchiveReader(directory)) {
+	    List<ArchivedTelegram> result = reader.readAll();
+	    Assert.assertEquals(1, result.size());
+	    Assert.assertEquals(1, reader.getTruncatedSegments());
+	}
+    }
+
+    @Test
+    public void testDeltaCodecRandom() throws IOException {
+	Random random = new Random(42);
+	byte[] previous = new byte[0];
+	for (int n = 0; n < 200; n++) {
+	    byte[] current = new byte[random.nextInt(64)];
+	    for (int i = 0; i < current.length; i++) {
+		current[i] = (random.nextInt(4) == 0) ? (byte) 0x0A : (byte) ('0' + random.nextInt(3));
+	    }
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    DeltaCodec.encode(previous, current, current.length, out);
+	    DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+	    Assert.assertArrayEquals(current, DeltaCodec.decode(previous, current.length, in));
+	    Assert.assertEquals(0, in.available());
+	    previous = current;
+	}
+    }
+
+    @Test
+    public void testArchiveModeDRead() throws Exception {
+	File directory = folder.newFolder();
+	String telegram = telegram(1, 5);
+	ModeDConnection connection = new ModeDConnection("/dev/ttyUSB0", false, 0);
+	connection.open(new ByteArrayInputStream(telegram.getBytes(StandardCharsets.US_ASCII)), new ByteArrayOutputStream());
+	try (TelegramArchive archive = new TelegramArchive(directory)) {
+	    connection.setArchive(archive);
+	    connection.read();
+	} finally {
+	    connection.close();
+	}
+	try (ArchiveReader reader = new ArchiveReader(directory)) {
+	    ArchivedTelegram result = reader.read();
+	    Assert.assertEquals("/dev/ttyUSB0", result.getMeter());
+	    Assert.assertEquals(telegram, new String(result.getBytes(), StandardCharsets.US_ASCII));
+	    Assert.assertNull(reader.read());
+	}
+    }
+
+}
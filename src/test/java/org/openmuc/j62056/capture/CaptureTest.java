@@ -0,0 +1,96 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.capture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.impl.ModeDConnection;
+
+public class CaptureTest {
+
+    private static final String TELEGRAM = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+	    + "1-0:0.0.0*255(1ESY1160142770)\r\n"
+	    + "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+	    + "!\r\n";
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+	ByteArrayOutputStream log = new ByteArrayOutputStream();
+	try (CaptureWriter writer = new CaptureWriter(log, "/dev/ttyUSB0")) {
+	    writer.write(Direction.SENT, "/?!\r\n".getBytes(StandardCharsets.US_ASCII), 0, 5);
+	    writer.write(Direction.RECEIVED, "xx/ESY".getBytes(StandardCharsets.US_ASCII), 2, 4);
+	}
+
+	CaptureReader reader = new CaptureReader(new ByteArrayInputStream(log.toByteArray()));
+	Assert.assertEquals("/dev/ttyUSB0", reader.getSerialPortName());
+	List<CaptureRecord> records = reader.readAll();
+	Assert.assertEquals(2, records.size());
+	Assert.assertEquals(Direction.SENT, records.get(0).getDirection());
+	Assert.assertEquals("/?!\r\n", new String(records.get(0).getBytes(), StandardCharsets.US_ASCII));
+	Assert.assertEquals(Direction.RECEIVED, records.get(1).getDirection());
+	Assert.assertEquals("/ESY", new String(records.get(1).getBytes(), StandardCharsets.US_ASCII));
+	Assert.assertTrue(records.get(1).getTimestamp() >= records.get(0).getTimestamp());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadInvalid() throws IOException {
+	new CaptureReader(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}));
+    }
+
+    @Test
+    public void testReplayWaitsForRequest() throws IOException {
+	ReplayInputStream instance = new ReplayInputStream(Arrays.asList(
+		new CaptureRecord(Direction.RECEIVED, 0, new byte[]{1}),
+		new CaptureRecord(Direction.SENT, 10, new byte[]{2, 3}),
+		new CaptureRecord(Direction.RECEIVED, 20, new byte[]{4, 5})), false);
+	OutputStream os = instance.getOutputStream();
+
+	Assert.assertEquals(1, instance.available());
+	Assert.assertEquals(1, instance.read());
+	Assert.assertEquals(0, instance.available());
+	os.write(new byte[]{2});
+	Assert.assertEquals(0, instance.available());
+	os.write(new byte[]{3});
+	Assert.assertEquals(2, instance.available());
+	byte[] buffer = new byte[4];
+	Assert.assertEquals(2, instance.read(buffer, 0, 4));
+	Assert.assertEquals(5, buffer[1]);
+	Assert.assertTrue(instance.isFinished());
+	Assert.assertEquals(-1, instance.read());
+    }
+
+    @Test
+    public void testCaptureAndReplayReadout() throws Exception {
+	ByteArrayOutputStream log = new ByteArrayOutputStream();
+	try (CaptureWriter writer = new CaptureWriter(log, "replay")) {
+	    ReplayInputStream telegram = new ReplayInputStream(Arrays.asList(
+		    new CaptureRecord(Direction.RECEIVED, 0, TELEGRAM.getBytes(StandardCharsets.US_ASCII))), false);
+	    ModeDConnection connection = new ModeDConnection("replay");
+	    connection.setCapture(writer);
+	    connection.open(telegram, telegram.getOutputStream());
+	    connection.readout();
+	    connection.close();
+	}
+
+	ReplayInputStream replay = new ReplayInputStream(new CaptureReader(new ByteArrayInputStream(log.toByteArray())), false);
+	ModeDConnection connection = new ModeDConnection("replay");
+	connection.open(replay, replay.getOutputStream());
+	Readout result = connection.readout();
+	connection.close();
+
+	Assert.assertEquals("Q3DA3024 V3.04", result.getIdentification());
+	Assert.assertEquals(3, result.getDataSets().size());
+	Assert.assertEquals("00000504.9023619", result.getDataSets().get(2).getValue());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.decode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.Readout;
+
+public class BulkDecoderTest {
+
+    private static final int TELEGRAMS = 1000;
+
+    @Test
+    public void testDecodeModeD() throws IOException {
+	Readout result = new TelegramDecoder().decode(telegram(7));
+	Assert.assertEquals("Q3DA3024 V3.04", result.getIdentification());
+	Assert.assertEquals(3, result.getDataSets().size());
+	Assert.assertEquals("7", result.getDataSets().get(2).getValue());
+	Assert.assertEquals("kWh", result.getDataSets().get(2).getUnit());
+    }
+
+    @Test
+    public void testDecodeModeC() throws IOException {
+	byte[] telegram = "/ISk5MT174-0001\r\n\u00020.0.0(1234)\r\n1.8.0(0001.5*kWh)\r\n!\r\n".getBytes(StandardCharsets.US_ASCII);
+	Readout result = new TelegramDecoder().decode(telegram);
+	Assert.assertEquals("MT174-0001", result.getIdentification());
+	Assert.assertEquals(3, result.getDataSets().size());
+	Assert.assertEquals("0.0.0", result.getDataSets().get(1).getId());
+	Assert.assertEquals("0001.5", result.getDataSets().get(2).getValue());
+    }
+
+    @Test
+    public void testDecodeRecovering() throws IOException {
+	byte[] telegram = ("/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:0.0.0*255(1ESY1160142770)\r\n"
+		+ "1-0:1.8.0*255(0001.5*kWh\r\n"
+		+ "1-0:2.8.0*255(0002.5*kWh)(7)\r\n"
+		+ "!\r\n").getBytes(StandardCharsets.US_ASCII);
+	Readout result = new TelegramDecoder(true).decode(telegram);
+	Assert.assertEquals("Q3DA3024 V3.04", result.getIdentification());
+	Assert.assertEquals(4, result.getDataSets().size());
+	Assert.assertEquals("0002.5", result.getDataSets().get(2).getValue());
+	Assert.assertEquals("7", result.getDataSets().get(3).getValue());
+	Assert.assertEquals(Arrays.asList("1-0:1.8.0*255(0001.5*kWh"), result.getMalformedLines());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeWithoutHeader() throws IOException {
+	new TelegramDecoder().decode("1.8.0(0001.5*kWh)\r\n!\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testDecodeOrdered() throws Exception {
+	BulkDecoder instance = new BulkDecoder(new TelegramDecoder(), 4);
+	instance.setBatchSize(7);
+	final List<Long> indexes = new ArrayList<>();
+	final List<String> values = new ArrayList<>();
+	long count = instance.decode(new ByteArrayInputStream(archive()), new TelegramHandler() {
+
+	    @Override
+	    public void decoded(long index, Readout readout) {
+		indexes.add(index);
+		values.add(readout.getDataSets().get(2).getValue());
+	    }
+
+	    @Override
+	    public void failed(long index, byte[] telegram, Exception e) {
+		indexes.add(index);
+		values.add(null);
+	    }
+	}, true);
+
+	Assert.assertEquals(TELEGRAMS, count);
+	Assert.assertEquals(TELEGRAMS, indexes.size());
+	for (int i = 0; i < TELEGRAMS; i++) {
+	    Assert.assertEquals(i, indexes.get(i).longValue());
+	    Assert.assertEquals((i % 100 == 0) ? null : String.valueOf(i), values.get(i));
+	}
+    }
+
+    @Test
+    public void testDecodeUnordered() throws Exception {
+	BulkDecoder instance = new BulkDecoder(new TelegramDecoder(), 4);
+	instance.setBatchSize(7);
+	final boolean[] seen = new boolean[TELEGRAMS];
+	final int[] failed = new int[1];
+	long count = instance.decode(new ByteArrayInputStream(archive()), new TelegramHandler() {
+
+	    @Override
+	    public void decoded(long index, Readout readout) {
+		Assert.assertEquals(String.valueOf(index), readout.getDataSets().get(2).getValue());
+		seen[(int) index] = true;
+	    }
+
+	    @Override
+	    public void failed(long index, byte[] telegram, Exception e) {
+		seen[(int) index] = true;
+		failed[0]++;
+	    }
+	}, false);
+
+	Assert.assertEquals(TELEGRAMS, count);
+	Assert.assertEquals(TELEGRAMS / 100, failed[0]);
+	for (boolean s : seen) {
+	    Assert.assertTrue(s);
+	}
+    }
+
+    /**
+     * every 100th telegram has a malformed line.
+     */
+    private static byte[] archive() throws IOException {
+	ByteArrayOutputStream archive = new ByteArrayOutputStream();
+	for (int i = 0; i < TELEGRAMS; i++) {
+	    byte[] telegram = telegram(i);
+	    if (i % 100 == 0) {
+		telegram = new String(telegram, StandardCharsets.US_ASCII).replace("*kWh)", "*kWh").getBytes(StandardCharsets.US_ASCII);
+	    }
+	    archive.write(telegram);
+	    archive.write(new byte[]{0x03, 0x42});
+	}
+	return archive.toByteArray();
+    }
+
+    private static byte[] telegram(int value) {
+	return ("/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:0.0.0*255(1ESY1160142770)\r\n"
+		+ "1-0:1.8.0*255(" + value + "*kWh)\r\n"
+		+ "!\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
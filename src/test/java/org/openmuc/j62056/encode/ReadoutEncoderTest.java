@@ -0,0 +1,170 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.encode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.decode.TelegramDecoder;
+import org.openmuc.j62056.decode.TelegramIndex;
+
+public class ReadoutEncoderTest {
+
+    private static final byte[] TELEGRAM = ("/ISK5\\2M550T-1012\r\n\r\n"
+	    + "1-3:0.2.8(50)\r\n"
+	    + "0-0:1.0.0(170108161107W)\r\n"
+	    + "1-0:1.8.1(000123.456*kWh)\r\n"
+	    + "0-0:96.13.0(say \"hi\")\r\n"
+	    + "!\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static String string(byte[] telegram, int from, int to) {
+	return new String(telegram, from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testIndexMatchesDecoder() throws IOException {
+	TelegramIndex index = new TelegramIndex(1);
+	index.index(TELEGRAM);
+	List<DataSet> dataSets = new TelegramDecoder().decode(TELEGRAM).getDataSets();
+	Assert.assertEquals(dataSets.get(0).getId(), string(TELEGRAM, index.getIdentificationStart(), index.getIdentificationEnd()));
+	Assert.assertEquals(dataSets.size() - 1, index.getDataSetCount());
+	for (int i = 0; i < index.getDataSetCount(); i++) {
+	    DataSet dataSet = dataSets.get(i + 1);
+	    Assert.assertEquals(dataSet.getId(), string(TELEGRAM, index.getIdStart(i), index.getIdEnd(i)));
+	    Assert.assertEquals(dataSet.getValue(), string(TELEGRAM, index.getValueStart(i), index.getValueEnd(i)));
+	    Assert.assertEquals(dataSet.getUnit(), string(TELEGRAM, index.getUnitStart(i), index.getUnitEnd(i)));
+	}
+    }
+
+    @Test(expected = IOException.class)
+    public void testIndexInvalidTelegram() throws IOException {
+	new TelegramIndex().index("1-0:1.8.1(000123.456*kWh)\r\n!\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testIndexModeCDataMessage() throws IOException {
+	byte[] identification = "/ABC5XY\r\n".getBytes(StandardCharsets.US_ASCII);
+	// the data message has no identification line, a '/' in a value must not be taken as one
+	byte[] dataMessage = "\u00021.8.1(12/34*kWh)\r\n!\r\n\u0003X".getBytes(StandardCharsets.US_ASCII);
+	TelegramIndex index = new TelegramIndex();
+	index.index(identification, 5, 7, dataMessage, 0);
+	Assert.assertSame(dataMessage, index.getTelegram());
+	Assert.assertEquals("XY", string(index.getIdentification(), index.getIdentificationStart(), index.getIdentificationEnd()));
+	Assert.assertEquals(1, index.getDataSetCount());
+	Assert.assertEquals("1.8.1", string(dataMessage, index.getIdStart(0), index.getIdEnd(0)));
+	Assert.assertEquals("12/34", string(dataMessage, index.getValueStart(0), index.getValueEnd(0)));
+	Assert.assertEquals("kWh", string(dataMessage, index.getUnitStart(0), index.getUnitEnd(0)));
+
+	ByteBuffer buffer = ByteBuffer.allocate(256);
+	int length = new JsonReadoutEncoder().encode(index, buffer);
+	Assert.assertEquals("{\"identification\":\"XY\",\"dataSets\":["
+		+ "{\"id\":\"1.8.1\",\"value\":\"12/34\",\"unit\":\"kWh\"}]}",
+		new String(buffer.array(), 0, length, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testIndexToReadout() throws IOException {
+	TelegramIndex index = new TelegramIndex();
+	index.index(TELEGRAM);
+	// the readout is created from the index which is also encoded
+	Readout readout = index.toReadout();
+	Assert.assertEquals("\\2M550T-1012", readout.getIdentification());
+	Assert.assertEquals(5, readout.getDataSets().size());
+	Assert.assertEquals("1-0:1.8.1", readout.getDataSets().get(3).getId());
+	Assert.assertEquals("000123.456", readout.getDataSets().get(3).getValue());
+	Assert.assertEquals("kWh", readout.getDataSets().get(3).getUnit());
+	Assert.assertEquals("say \"hi\"", readout.getDataSets().get(4).getValue());
+	Assert.assertTrue(readout.getMalformedLines().isEmpty());
+	Assert.assertTrue(new JsonReadoutEncoder().encode(index, ByteBuffer.allocate(1024)) > 0);
+    }
+
+    @Test
+    public void testJson() throws IOException {
+	TelegramIndex index = new TelegramIndex();
+	index.index(TELEGRAM);
+	ByteBuffer buffer = ByteBuffer.allocate(1024);
+	buffer.put((byte) 'x');
+	int length = new JsonReadoutEncoder().encode(index, buffer);
+	Assert.assertEquals(buffer.position() - 1, length);
+	Assert.assertEquals("{\"identification\":\"\\\\2M550T-1012\",\"dataSets\":["
+		+ "{\"id\":\"1-3:0.2.8\",\"value\":\"50\",\"unit\":\"\"},"
+		+ "{\"id\":\"0-0:1.0.0\",\"value\":\"170108161107W\",\"unit\":\"\"},"
+		+ "{\"id\":\"1-0:1.8.1\",\"value\":\"000123.456\",\"unit\":\"kWh\"},"
+		+ "{\"id\":\"0-0:96.13.0\",\"value\":\"say \\\"hi\\\"\",\"unit\":\"\"}]}",
+		new String(buffer.array(), 1, length, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testCbor() throws IOException {
+	TelegramIndex index = new TelegramIndex();
+	index.index("/ABC5XY\r\n1.8.1(12*kWh)\r\n!\r\n".getBytes(StandardCharsets.US_ASCII));
+	ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+	int length = new CborReadoutEncoder().encode(index, buffer);
+
+	ByteArrayOutputStream expected = new ByteArrayOutputStream();
+	expected.write(0xA2);
+	expected.write(0x6E);
+	expected.write("identification".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x62);
+	expected.write("XY".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x68);
+	expected.write("dataSets".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x81);
+	expected.write(0xA3);
+	expected.write(0x62);
+	expected.write("id".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x65);
+	expected.write("1.8.1".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x65);
+	expected.write("value".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x62);
+	expected.write("12".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x64);
+	expected.write("unit".getBytes(StandardCharsets.US_ASCII));
+	expected.write(0x63);
+	expected.write("kWh".getBytes(StandardCharsets.US_ASCII));
+	Assert.assertArrayEquals(expected.toByteArray(), Arrays.copyOf(buffer.array(), length));
+    }
+
+    @Test
+    public void testCborLongText() {
+	ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+	CborReadoutEncoder.putHeader(3 << 5, 24, buffer);
+	CborReadoutEncoder.putHeader(4 << 5, 0x1234, buffer);
+	CborReadoutEncoder.putHeader(5 << 5, 0x12345678L, buffer);
+	Assert.assertArrayEquals(new byte[]{0x78, 24, (byte) 0x99, 0x12, 0x34, (byte) 0xBA, 0x12, 0x34, 0x56, 0x78},
+		Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+
+    @Test
+    public void testOverflow() throws IOException {
+	TelegramIndex index = new TelegramIndex();
+	index.index(TELEGRAM);
+	ByteBuffer buffer = ByteBuffer.allocate(64);
+	buffer.put((byte) 1);
+	try {
+	    new JsonReadoutEncoder().encode(index, buffer);
+	    Assert.fail();
+	} catch (BufferOverflowException e) {
+	    Assert.assertEquals(1, buffer.position());
+	}
+	try {
+	    new CborReadoutEncoder().encode(index, buffer);
+	    Assert.fail();
+	} catch (BufferOverflowException e) {
+	    Assert.assertEquals(1, buffer.position());
+	}
+    }
+}
@@ -5,10 +5,14 @@
  */
 package org.openmuc.j62056.impl;
 
+import gnu.io.SerialPort;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import org.junit.After;
@@ -20,6 +24,9 @@ import org.junit.rules.ExpectedException;
 import org.mockito.Mockito;
 import org.openmuc.j62056.DataSet;
 import org.openmuc.j62056.MessageNotCompleteException;
+import org.openmuc.j62056.metrics.Phase;
+import org.openmuc.j62056.metrics.PhaseEvent;
+import org.openmuc.j62056.metrics.ProtocolTracer;
 import org.openmuc.j62056.model.BaudRate;
 import org.openmuc.j62056.model.Header;
 
@@ -121,6 +128,23 @@ public class AbstractConnectionTest {
 	Assert.assertTrue(instance.endsWith(input, inputEnd, endBytes));
     }
 
+    @Test
+    public void testCreateRequestMessageWithoutAddress() {
+	Assert.assertArrayEquals(AbstractConnection.REQUEST_MESSAGE, AbstractConnection.createRequestMessage(null));
+	Assert.assertArrayEquals(AbstractConnection.REQUEST_MESSAGE, AbstractConnection.createRequestMessage(""));
+    }
+
+    @Test
+    public void testCreateRequestMessageWithAddress() {
+	Assert.assertArrayEquals("/?12345678!\r\n".getBytes(), AbstractConnection.createRequestMessage("12345678"));
+    }
+
+    @Test
+    public void testCreateRequestMessageInvalidAddress() {
+	exception.expect(IllegalArgumentException.class);
+	AbstractConnection.createRequestMessage("12!4");
+    }
+
     @Test
     public void testReadDataNone() throws IOException {
 	exception.expect(MessageNotCompleteException.class);
@@ -160,6 +184,24 @@ public class AbstractConnectionTest {
 	Assert.assertArrayEquals(answer, instance.readData(is, answer.length, AbstractConnection.COMPLETION_CHARACTERS, 1000));
     }
 
+    @Test
+    public void testReadDataLargeMessage() throws IOException {
+	final byte[] answer = new byte[5000];
+	Arrays.fill(answer, (byte) 0x30);
+	System.arraycopy(AbstractConnection.MESSAGE_COMPLETION_CHARACTERS, 0, answer, answer.length - 3, 3);
+	InputStream is = createInputStream(answer);
+	Assert.assertArrayEquals(answer, instance.readData(is, 1, AbstractConnection.MESSAGE_COMPLETION_CHARACTERS, 1000));
+    }
+
+    @Test
+    public void testReadDataMaxMessageLength() throws IOException {
+	exception.expect(MessageNotCompleteException.class);
+	final byte[] answer = new byte[5000];
+	InputStream is = createInputStream(answer);
+	instance.setMaxMessageLength(2048);
+	instance.readData(is, 1, AbstractConnection.MESSAGE_COMPLETION_CHARACTERS, 1000);
+    }
+
     @Test
     public void testReadDataEndMiddle() throws IOException {
 	final byte[] answer = {12, 32, 53, 23, 54, 12, 34, 21, 2, 1, 3, 24, 43, 21, 13};
@@ -191,6 +233,26 @@ public class AbstractConnectionTest {
 	Mockito.verify(os).flush();
     }
 
+    @Test
+    public void testSendDataTraced() throws IOException {
+	final List<PhaseEvent> events = new ArrayList<>();
+	instance.setTracer(new ProtocolTracer() {
+
+	    @Override
+	    public void phaseCompleted(PhaseEvent event) {
+		events.add(event);
+	    }
+	});
+	OutputStream os = Mockito.mock(OutputStream.class);
+	byte[] data = {21, 12, 42, 12, 4, 2, 35};
+	instance.sendData(os, data);
+	Assert.assertEquals(1, events.size());
+	Assert.assertEquals(Phase.SEND, events.get(0).getPhase());
+	Assert.assertEquals(data.length, events.get(0).getBytes());
+	Assert.assertEquals("/dev/null", events.get(0).getSerialPortName());
+	Assert.assertTrue(events.get(0).isSuccessful());
+    }
+
     @Test
     public void testSendDataIoExceptionSending() throws IOException {
 	exception.expect(IOException.class);
@@ -209,6 +271,85 @@ public class AbstractConnectionTest {
 	instance.sendData(os, data);
     }
 
+    @Test
+    public void testSendDataSoftwareParity() throws IOException {
+	instance.setSoftwareParity(true);
+	instance.setSerialPortParams(null, 0, 300, SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
+	ByteArrayOutputStream os = new ByteArrayOutputStream();
+	instance.sendData(os, "/?!\r\n".getBytes());
+	Assert.assertArrayEquals(new byte[] {(byte) 0xAF, 0x3F, 0x21, (byte) 0x8D, 0x0A}, os.toByteArray());
+    }
+
+    @Test
+    public void testReadDataSoftwareParity() throws IOException {
+	instance.setSoftwareParity(true);
+	instance.setSerialPortParams(null, 0, 300, SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
+	InputStream is = createInputStream(new byte[] {(byte) 0xB1, 0x32, (byte) 0xB2, 0x21, (byte) 0x8D, 0x0A});
+	long parityErrors = instance.getMetrics().getParityErrors();
+	byte[] result = instance.readData(is, 1, AbstractConnection.MESSAGE_COMPLETION_CHARACTERS, 1000);
+	Assert.assertArrayEquals(new byte[] {0x31, 0x1A, 0x32, 0x21, 0x0D, 0x0A}, result);
+	Assert.assertEquals(parityErrors + 1, instance.getMetrics().getParityErrors());
+    }
+
+    @Test
+    public void testReadDataWithoutSoftwareParity() throws IOException {
+	instance.setSerialPortParams(null, 0, 300, SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
+	byte[] answer = {(byte) 0xB1, 0x32, 0x21, 0x0D, 0x0A};
+	long parityErrors = instance.getMetrics().getParityErrors();
+	Assert.assertArrayEquals(answer, instance.readData(createInputStream(answer), 1, AbstractConnection.MESSAGE_COMPLETION_CHARACTERS, 1000));
+	Assert.assertEquals(parityErrors, instance.getMetrics().getParityErrors());
+    }
+
+    @Test
+    public void testReadDataEcho() throws IOException {
+	instance = new AbstractConnection("/dev/null", true, 0) {
+	    @Override
+	    public List<DataSet> read() throws IOException, TimeoutException {
+		throw new UnsupportedOperationException("Not supported yet.");
+	    }
+
+	};
+	instance.sendData(Mockito.mock(OutputStream.class), "/?!\r\n".getBytes());
+	InputStream is = createInputStream("/?!\r\n/ESY5Q3DA3024 V3.04\r\n".getBytes());
+	byte[] result = instance.readData(is, 6, "\r\n".getBytes(), 1000);
+	Assert.assertEquals("/ESY5Q3DA3024 V3.04\r\n", new String(result));
+    }
+
+    @Test
+    public void testSetSerialPortParamsSkipsUnchangedSettings() throws Exception {
+	SerialPort serialPort = Mockito.mock(SerialPort.class);
+	instance.setSoftwareParity(true);
+	instance.setSerialPortParams(serialPort, 0, 300, SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
+	instance.setSerialPortParams(serialPort, 0, 300, SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
+	instance.setSerialPortParams(serialPort, 0, 9600, SerialPort.DATABITS_7, SerialPort.STOPBITS_1, SerialPort.PARITY_EVEN);
+	Mockito.verify(serialPort).setSerialPortParams(300, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+	Mockito.verify(serialPort).setSerialPortParams(9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+	Mockito.verifyNoMoreInteractions(serialPort);
+    }
+
+    @Test
+    public void testReadDataSetsMalformedLine() throws IOException {
+	exception.expect(IOException.class);
+	byte[] data = "1.8.0(000123.4*kWh)\r\n2.8.0000001.0*kWh)\r\n!\r\n".getBytes();
+	instance.readDataSets(data, 0);
+    }
+
+    @Test
+    public void testReadDataSetsRecoverMalformedLine() throws IOException {
+	byte[] data = "1.8.0(000123.4*kWh)\r\n2.8.0000001.0*kWh)\r\n0.9.1(123456)(654321)\r\n!\r\n".getBytes();
+	List<String> malformedLines = new ArrayList<>();
+	List<DataSet> dataSets = instance.readDataSets(data, 0, malformedLines);
+	Assert.assertEquals(3, dataSets.size());
+	Assert.assertEquals("1.8.0", dataSets.get(0).getId());
+	Assert.assertEquals("000123.4", dataSets.get(0).getValue());
+	Assert.assertEquals("kWh", dataSets.get(0).getUnit());
+	Assert.assertEquals("0.9.1", dataSets.get(1).getId());
+	Assert.assertEquals("123456", dataSets.get(1).getValue());
+	Assert.assertEquals("654321", dataSets.get(2).getValue());
+	Assert.assertEquals(1, malformedLines.size());
+	Assert.assertEquals("2.8.0000001.0*kWh)", malformedLines.get(0));
+    }
+
     @Test
     public void testTermindatedWithCrLf() {
 	byte[] data = {21, 12, 42, 12, 0x0d, 0x0a, 35};
@@ -0,0 +1,110 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.Readout;
+
+public class ByteRingBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityNotPowerOfTwo() {
+	new ByteRingBuffer(1000);
+    }
+
+    @Test
+    public void testWrapAround() {
+	ByteRingBuffer instance = new ByteRingBuffer(8);
+	byte[] buffer = new byte[8];
+	Assert.assertEquals(6, instance.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+	Assert.assertEquals(4, instance.read(buffer, 0, 4));
+	Assert.assertEquals(6, instance.write(new byte[]{7, 8, 9, 10, 11, 12, 13}, 0, 7));
+	Assert.assertEquals(0, instance.write(new byte[]{14}, 0, 1));
+	Assert.assertEquals(8, instance.available());
+	Assert.assertEquals(8, instance.read(buffer, 0, 8));
+	Assert.assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11, 12}, buffer);
+	Assert.assertEquals(-1, instance.read());
+    }
+
+    @Test
+    public void testReadFrom() throws Exception {
+	ByteRingBuffer instance = new ByteRingBuffer(4);
+	ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6});
+	Assert.assertEquals(4, instance.readFrom(in));
+	Assert.assertEquals(0, instance.readFrom(in));
+	Assert.assertEquals(1, instance.read());
+	Assert.assertEquals(1, instance.readFrom(in));
+	Assert.assertEquals(2, instance.read());
+	Assert.assertEquals(3, instance.read());
+	Assert.assertEquals(1, instance.readFrom(in));
+	Assert.assertEquals(3, instance.available());
+    }
+
+    @Test(timeout = 10000)
+    public void testProducerConsumer() throws Exception {
+	final ByteRingBuffer instance = new ByteRingBuffer(64);
+	final int count = 1000000;
+	Thread producer = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		byte[] chunk = new byte[13];
+		int next = 0;
+		while (next < count) {
+		    int length = Math.min(chunk.length, count - next);
+		    for (int i = 0; i < length; i++) {
+			chunk[i] = (byte) (next + i);
+		    }
+		    int offset = 0;
+		    while (offset < length) {
+			int n = instance.write(chunk, offset, length - offset);
+			if (n == 0) {
+			    Thread.yield();
+			}
+			offset += n;
+		    }
+		    next += length;
+		}
+	    }
+	});
+	producer.start();
+	byte[] buffer = new byte[17];
+	int received = 0;
+	while (received < count) {
+	    int n = instance.read(buffer, 0, buffer.length);
+	    if (n == 0) {
+		Thread.yield();
+	    }
+	    for (int i = 0; i < n; i++) {
+		Assert.assertEquals((byte) (received + i), buffer[i]);
+	    }
+	    received += n;
+	}
+	producer.join();
+	Assert.assertEquals(0, instance.available());
+    }
+
+    @Test
+    public void testPipelinedReadout() throws Exception {
+	String telegram = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:0.0.0*255(1ESY1160142770)\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "!\r\n";
+	ModeDConnection connection = new ModeDConnection("pipeline");
+	connection.setPipelineBufferSize(64);
+	connection.open(new ByteArrayInputStream(telegram.getBytes(StandardCharsets.US_ASCII)), null);
+	try {
+	    Readout result = connection.readout();
+	    Assert.assertEquals("Q3DA3024 V3.04", result.getIdentification());
+	    Assert.assertEquals("00000504.9023619", result.getDataSets().get(2).getValue());
+	} finally {
+	    connection.close();
+	}
+    }
+}
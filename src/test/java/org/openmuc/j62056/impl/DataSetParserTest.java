@@ -0,0 +1,77 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+
+public class DataSetParserTest {
+
+    @Test
+    public void testParseParallel() throws IOException {
+	byte[] message = loadProfile(5000, -1);
+	List<DataSet> expected = DataSetParser.parseDataSets(message, 1);
+	List<DataSet> result = DataSetParser.parseDataSetsParallel(message, 1, null, 1024);
+	assertEquals(expected, result);
+	Assert.assertEquals(8 + 2 * 5000, result.size());
+    }
+
+    @Test
+    public void testParseParallelRecovering() throws IOException {
+	byte[] message = loadProfile(5000, 3000);
+	List<String> expectedMalformed = new ArrayList<>();
+	List<DataSet> expected = DataSetParser.parseDataSetsRecovering(message, 1, expectedMalformed);
+	List<String> malformed = new ArrayList<>();
+	List<DataSet> result = DataSetParser.parseDataSetsParallel(message, 1, malformed, 1024);
+	assertEquals(expected, result);
+	Assert.assertEquals(expectedMalformed, malformed);
+	Assert.assertEquals(1, malformed.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseParallelMalformed() throws IOException {
+	DataSetParser.parseDataSetsParallel(loadProfile(5000, 4999), 1, null, 1024);
+    }
+
+    @Test
+    public void testParseParallelSmall() throws IOException {
+	byte[] message = "\u00021.8.0(0001.5*kWh)\r\n!\r\n".getBytes(StandardCharsets.US_ASCII);
+	List<DataSet> result = DataSetParser.parseDataSetsParallel(message, 1, null, 1024);
+	Assert.assertEquals(1, result.size());
+	Assert.assertEquals("kWh", result.get(0).getUnit());
+    }
+
+    private static void assertEquals(List<DataSet> expected, List<DataSet> result) {
+	Assert.assertEquals(expected.size(), result.size());
+	for (int i = 0; i < expected.size(); i++) {
+	    Assert.assertEquals(expected.get(i).getId(), result.get(i).getId());
+	    Assert.assertEquals(expected.get(i).getValue(), result.get(i).getValue());
+	    Assert.assertEquals(expected.get(i).getUnit(), result.get(i).getUnit());
+	}
+    }
+
+    /**
+     * creates a data message with a load profile header and the given number
+     * of intervals.
+     */
+    private static byte[] loadProfile(int intervals, int malformedInterval) {
+	StringBuilder message = new StringBuilder("\u0002P.01(1160101000000)(00)(15)(2)(1.5)(kW)(2.5)(kvar)\r\n");
+	for (int i = 0; i < intervals; i++) {
+	    if (i == malformedInterval) {
+		message.append("(").append(i).append(".000*kW)(0.5*kvar\r\n");
+	    } else {
+		message.append("(").append(i).append(".000*kW)(0.5*kvar)\r\n");
+	    }
+	}
+	message.append("!\r\n");
+	return message.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EchoCancellerTest {
+
+    private static final String REQUEST = "/?!\r\n";
+    private static final String RESPONSE = "/ESY5Q3DA3024 V3.04\r\n";
+
+    @Test
+    public void testFullEcho() {
+	EchoCanceller instance = new EchoCanceller(false);
+	instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	Assert.assertEquals(RESPONSE, filter(instance, REQUEST + RESPONSE));
+	Assert.assertTrue(instance.isEchoDetected());
+	Assert.assertEquals(REQUEST.length(), instance.getRemovedBytes());
+    }
+
+    @Test
+    public void testEchoSplitInSingleBytes() {
+	EchoCanceller instance = new EchoCanceller(false);
+	instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	StringBuilder result = new StringBuilder();
+	for (char c : (REQUEST + RESPONSE).toCharArray()) {
+	    result.append(filter(instance, String.valueOf(c)));
+	}
+	Assert.assertEquals(RESPONSE, result.toString());
+    }
+
+    @Test
+    public void testPartialEcho() {
+	EchoCanceller instance = new EchoCanceller(false);
+	instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	Assert.assertEquals(RESPONSE, filter(instance, REQUEST.substring(2) + RESPONSE));
+	instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	Assert.assertEquals(RESPONSE, filter(instance, REQUEST.substring(0, 4) + RESPONSE));
+    }
+
+    @Test
+    public void testNoEcho() {
+	EchoCanceller instance = new EchoCanceller(false);
+	instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	Assert.assertEquals(RESPONSE, filter(instance, RESPONSE));
+	Assert.assertFalse(instance.isEchoDetected());
+	Assert.assertEquals(0, instance.getRemovedBytes());
+    }
+
+    @Test
+    public void testReleasedBytesInSingleBytes() {
+	EchoCanceller instance = new EchoCanceller(false);
+	instance.expect("/?1234!\r\n".getBytes(), 0, 9);
+	StringBuilder result = new StringBuilder();
+	for (char c : "/?1X".toCharArray()) {
+	    result.append(filter(instance, String.valueOf(c)));
+	}
+	Assert.assertEquals("/?1X", result.toString());
+    }
+
+    @Test
+    public void testDetectNoEcho() {
+	EchoCanceller instance = new EchoCanceller(true);
+	for (int i = 0; i < 2; i++) {
+	    instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	    Assert.assertEquals(RESPONSE, filter(instance, RESPONSE));
+	}
+	Assert.assertTrue(instance.isDisabled());
+	instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	Assert.assertEquals(REQUEST, filter(instance, REQUEST));
+    }
+
+    @Test
+    public void testDetectEcho() {
+	EchoCanceller instance = new EchoCanceller(true);
+	for (int i = 0; i < 3; i++) {
+	    instance.expect(REQUEST.getBytes(), 0, REQUEST.length());
+	    Assert.assertEquals(RESPONSE, filter(instance, REQUEST + RESPONSE));
+	}
+	Assert.assertFalse(instance.isDisabled());
+	Assert.assertTrue(instance.isEchoDetected());
+    }
+
+    private String filter(EchoCanceller instance, String received) {
+	byte[] bytes = Arrays.copyOf(received.getBytes(), received.length() + EchoCanceller.MAX_RELEASED_BYTES);
+	int length = instance.filter(bytes, 0, received.length());
+	return new String(bytes, 0, length);
+    }
+
+}
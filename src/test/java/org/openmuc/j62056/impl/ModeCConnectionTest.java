@@ -0,0 +1,176 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import gnu.io.SerialPort;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+
+public class ModeCConnectionTest {
+
+    private static final String IDENTIFICATION = "/ABC5XYZ123\r\n";
+    private static final String DATA_MESSAGE = "\u00021.8.1(001234.5*kWh)\r\n!\r\n\u0003X";
+
+    /**
+     * a meter behind an echoing transceiver. The echo of the acknowledgement
+     * arrives late, like bytes which are still in the transmit FIFO. The data
+     * message is sent after the baud rate change.
+     */
+    private static class EchoingMeter {
+
+	private final Deque<long[]> pending = new ArrayDeque<>();
+	private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+	private final int ackEchoLength;
+	private int ackEchoBytes = 0;
+	private int deliveredAckEchoBytes = 0;
+	private long ackSent = 0;
+
+	/**
+	 * @param ackEchoLength the number of echoed bytes of the
+	 * acknowledgement, -1 to echo it completely
+	 */
+	EchoingMeter(int ackEchoLength) {
+	    this.ackEchoLength = ackEchoLength;
+	}
+
+	private final InputStream is = new InputStream() {
+
+	    @Override
+	    public int read() {
+		throw new UnsupportedOperationException();
+	    }
+
+	    @Override
+	    public int available() {
+		synchronized (pending) {
+		    int result = 0;
+		    long now = System.currentTimeMillis();
+		    for (long[] b : pending) {
+			if (b[0] > now) {
+			    break;
+			}
+			result++;
+		    }
+		    return result;
+		}
+	    }
+
+	    @Override
+	    public int read(byte[] b, int off, int len) {
+		synchronized (pending) {
+		    int n = Math.min(len, available());
+		    for (int i = 0; i < n; i++) {
+			long[] next = pending.removeFirst();
+			b[off + i] = (byte) next[1];
+			if (next[2] == 1) {
+			    deliveredAckEchoBytes++;
+			}
+		    }
+		    return n;
+		}
+	    }
+	};
+
+	private final OutputStream os = new OutputStream() {
+
+	    @Override
+	    public void write(int b) {
+		write(new byte[]{(byte) b}, 0, 1);
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) {
+		sent.write(b, off, len);
+		String message = new String(b, off, len, StandardCharsets.US_ASCII);
+		if (message.startsWith("/?")) {
+		    queue(message, 0, false);
+		    queue(IDENTIFICATION, 0, false);
+		} else if (message.startsWith("\u0006")) {
+		    ackSent = System.currentTimeMillis();
+		    if (ackEchoLength >= 0) {
+			// the trailing bytes of the echo are lost
+			ackEchoBytes = ackEchoLength;
+			queue(message.substring(0, ackEchoLength), 0, true);
+		    } else {
+			ackEchoBytes = len;
+			queue(message, 300, true);
+		    }
+		}
+	    }
+	};
+
+	private void queue(String s, long delay, boolean ackEcho) {
+	    synchronized (pending) {
+		long time = System.currentTimeMillis() + delay;
+		for (byte b : s.getBytes(StandardCharsets.US_ASCII)) {
+		    pending.addLast(new long[]{time, b & 0xFF, ackEcho ? 1 : 0});
+		}
+	    }
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testEchoWithoutBaudRateChangeDelay() throws Exception {
+	final EchoingMeter meter = new EchoingMeter(-1);
+	final boolean[] echoReceivedBeforeChange = new boolean[1];
+	ModeCConnection connection = new ModeCConnection("/dev/null", true, 0) {
+
+	    @Override
+	    protected void setSerialPortParams(SerialPort serialPort, int changeDelay, int baudrate, int databits, int stopbits, int parity) throws IOException {
+		if (baudrate == '5') {
+		    echoReceivedBeforeChange[0] = (meter.ackEchoBytes > 0) && (meter.deliveredAckEchoBytes == meter.ackEchoBytes);
+		    meter.queue(DATA_MESSAGE, 0, false);
+		}
+		super.setSerialPortParams(serialPort, changeDelay, baudrate, databits, stopbits, parity);
+	    }
+	};
+	connection.open(meter.is, meter.os);
+	List<DataSet> dataSets = connection.read();
+
+	Assert.assertTrue(echoReceivedBeforeChange[0]);
+	Assert.assertEquals("XYZ123", dataSets.get(0).getId());
+	Assert.assertEquals(2, dataSets.size());
+	Assert.assertEquals("001234.5", dataSets.get(1).getValue());
+	Assert.assertEquals("kWh", dataSets.get(1).getUnit());
+    }
+
+    @Test(timeout = 10000)
+    public void testTruncatedAcknowledgementEcho() throws Exception {
+	final EchoingMeter meter = new EchoingMeter(3);
+	final long[] switchTime = new long[]{-1};
+	ModeCConnection connection = new ModeCConnection("/dev/null", true, 0) {
+
+	    @Override
+	    protected void setSerialPortParams(SerialPort serialPort, int changeDelay, int baudrate, int databits, int stopbits, int parity) throws IOException {
+		if (baudrate == '5') {
+		    switchTime[0] = System.currentTimeMillis() - meter.ackSent;
+		    meter.queue(DATA_MESSAGE, 0, false);
+		}
+		super.setSerialPortParams(serialPort, changeDelay, baudrate, databits, stopbits, parity);
+	    }
+	};
+	connection.setTimeout(5000);
+	connection.open(meter.is, meter.os);
+	List<DataSet> dataSets = connection.read();
+
+	// the missing rest of the echo is given up after the transmit time, not the read timeout
+	Assert.assertTrue(switchTime[0] >= 0);
+	Assert.assertTrue("baud rate changed after " + switchTime[0] + "ms", switchTime[0] < 1000);
+	Assert.assertEquals(3, meter.deliveredAckEchoBytes);
+	Assert.assertEquals("XYZ123", dataSets.get(0).getId());
+	Assert.assertEquals(2, dataSets.size());
+	Assert.assertEquals("001234.5", dataSets.get(1).getValue());
+    }
+}
@@ -6,14 +6,29 @@
 package org.openmuc.j62056.impl;
 
 import gnu.io.SerialPort;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.openmuc.j62056.DataSet;
 import org.openmuc.j62056.MessageNotCompleteException;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.ReadoutListener;
+import org.openmuc.j62056.Subscription;
+import org.openmuc.j62056.TelegramListener;
+import org.openmuc.j62056.archive.TelegramArchive;
+import org.openmuc.j62056.capture.CaptureWriter;
+import org.openmuc.j62056.capture.Direction;
+import org.openmuc.j62056.config.OverflowPolicy;
 
 /**
  *
@@ -21,6 +36,9 @@ import org.openmuc.j62056.MessageNotCompleteException;
  */
 public class ModeDConnectionTest {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     public ModeDConnectionTest() {
     }
 
@@ -104,6 +122,311 @@ public class ModeDConnectionTest {
 	}
     }
 
+    @Test
+    public void testReadReturnsModifiableList() throws Exception {
+	String bytes = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "!\r\n";
+	ModeDConnection instance = createInstance(bytes);
+	List<DataSet> result = instance.read();
+	// callers drop the identification or sort the data sets
+	result.remove(0);
+	Assert.assertEquals(1, result.size());
+	Assert.assertEquals("1-0:1.8.0*255", result.get(0).getId());
+    }
+
+    @Test
+    public void testReadoutCopiesDataSets() {
+	List<DataSet> dataSets = new ArrayList<>();
+	dataSets.add(new DataSet("Q3DA3024 V3.04", "", ""));
+	Readout readout = new Readout(dataSets, null);
+	dataSets.add(new DataSet("1-0:1.8.0*255", "1", "kWh"));
+	Assert.assertEquals(1, readout.getDataSets().size());
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+	String telegram = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "!\r\n";
+	final InputStream is = new ByteArrayInputStream((telegram + telegram).getBytes());
+	ModeDConnection instance = new ModeDConnection("/dev/null") {
+	    @Override
+	    protected SerialPort getSerialPort() {
+		return Mockito.mock(SerialPort.class);
+	    }
+
+	    @Override
+	    protected InputStream getIs() {
+		return is;
+	    }
+
+	};
+	final List<List<DataSet>> telegrams = new ArrayList<>();
+	final CountDownLatch latch = new CountDownLatch(2);
+	try (Subscription subscription = instance.subscribe(new TelegramListener() {
+
+	    @Override
+	    public void telegramReceived(List<DataSet> dataSets) {
+		telegrams.add(dataSets);
+		latch.countDown();
+	    }
+
+	    @Override
+	    public void errorOccurred(Exception e) {
+	    }
+	}, 10, OverflowPolicy.DROP_OLDEST)) {
+	    Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+	    Assert.assertTrue(subscription.isActive());
+	    Assert.assertEquals(0, subscription.getDroppedTelegrams());
+	}
+	Assert.assertEquals(2, telegrams.size());
+	Assert.assertEquals("Q3DA3024 V3.04", telegrams.get(1).get(0).getId());
+	Assert.assertEquals("00000504.9023619", telegrams.get(1).get(1).getValue());
+    }
+
+    @Test(timeout = 10000)
+    public void testSubscribeTelegramWithPauses() throws Exception {
+	String telegram = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:0.0.0*255(1ESY1160142770)\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "!\r\n";
+	final byte[] bytes = telegram.getBytes();
+	final long start = System.currentTimeMillis();
+	// three chunks 300ms apart, the whole telegram takes longer than the timeout
+	final InputStream is = new InputStream() {
+
+	    private int position = 0;
+
+	    @Override
+	    public int read() {
+		throw new UnsupportedOperationException();
+	    }
+
+	    @Override
+	    public synchronized int available() {
+		long elapsed = System.currentTimeMillis() - start;
+		int chunks = (int) Math.min(3, elapsed / 300 + 1);
+		return Math.max(0, bytes.length * chunks / 3 - position);
+	    }
+
+	    @Override
+	    public synchronized int read(byte[] b, int off, int len) {
+		int n = Math.min(len, available());
+		System.arraycopy(bytes, position, b, off, n);
+		position += n;
+		return n;
+	    }
+	};
+	ModeDConnection instance = new ModeDConnection("/dev/null") {
+	    @Override
+	    protected SerialPort getSerialPort() {
+		return Mockito.mock(SerialPort.class);
+	    }
+
+	    @Override
+	    protected InputStream getIs() {
+		return is;
+	    }
+
+	};
+	instance.setTimeout(500);
+	final List<Exception> errors = new ArrayList<>();
+	final CountDownLatch latch = new CountDownLatch(1);
+	try (Subscription subscription = instance.subscribe(new TelegramListener() {
+
+	    @Override
+	    public void telegramReceived(List<DataSet> dataSets) {
+		latch.countDown();
+	    }
+
+	    @Override
+	    public void errorOccurred(Exception e) {
+		synchronized (errors) {
+		    errors.add(e);
+		}
+	    }
+	}, 10, OverflowPolicy.DROP_OLDEST)) {
+	    Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+	    Assert.assertTrue(subscription.isActive());
+	}
+	synchronized (errors) {
+	    Assert.assertEquals(new ArrayList<Exception>(), errors);
+	}
+    }
+
+    @Test(expected = MessageNotCompleteException.class)
+    public void testReadInterrupted() throws Exception {
+	String bytes = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:0.0.0*255(1ESY1160142770)\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "1-0:21.7.0*255(-000";
+	ModeDConnection instance = createInterruptedInstance(bytes);
+	instance.readout();
+    }
+
+    @Test
+    public void testReadoutPartialResults() throws Exception {
+	String bytes = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:0.0.0*255(1ESY1160142770)\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "1-0:21.7.0*255(-000";
+	ModeDConnection instance = createInterruptedInstance(bytes);
+	instance.setReturnPartialResults(true);
+	Readout result = instance.readout();
+
+	Assert.assertFalse(result.isComplete());
+	Assert.assertEquals("Q3DA3024 V3.04", result.getIdentification());
+	Assert.assertEquals(3, result.getDataSets().size());
+	Assert.assertEquals("1-0:1.8.0*255", result.getDataSets().get(2).getId());
+	Assert.assertEquals("00000504.9023619", result.getDataSets().get(2).getValue());
+    }
+
+    @Test(expected = MessageNotCompleteException.class)
+    public void testReadoutPartialResultsWithoutDataLine() throws Exception {
+	ModeDConnection instance = createInterruptedInstance("/ESY5Q3DA3024 V3.04\r\n\r\n1-0:0.0");
+	instance.setReturnPartialResults(true);
+	instance.readout();
+    }
+
+    @Test
+    public void testReadoutChangesOnly() throws Exception {
+	String first = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:0.0.0*255(1ESY1160142770)\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "1-0:21.7.0*255(000100.00*W)\r\n"
+		+ "!\r\n";
+	String changed = first.replace("000100.00", "000123.45");
+	ModeDConnection instance = new ModeDConnection("/dev/null");
+	instance.open(new ByteArrayInputStream((first + first + changed).getBytes()), new ByteArrayOutputStream());
+	instance.setChangesOnly(true);
+
+	Readout result = instance.readout();
+	Assert.assertTrue(result.isChangesOnly());
+	Assert.assertFalse(result.isUnchanged());
+	Assert.assertEquals(4, result.getDataSets().size());
+
+	result = instance.readout();
+	Assert.assertTrue(result.isUnchanged());
+	Assert.assertEquals("Q3DA3024 V3.04", result.getIdentification());
+	Assert.assertEquals(1, result.getDataSets().size());
+
+	result = instance.readout();
+	Assert.assertFalse(result.isUnchanged());
+	Assert.assertEquals(2, result.getDataSets().size());
+	Assert.assertEquals("1-0:21.7.0*255", result.getDataSets().get(1).getId());
+	Assert.assertEquals("000123.45", result.getDataSets().get(1).getValue());
+	Assert.assertEquals("W", result.getDataSets().get(1).getUnit());
+	instance.close();
+    }
+
+    @Test
+    public void testReadoutWithFailingCapture() throws Exception {
+	String telegram = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "!\r\n";
+	ModeDConnection instance = new ModeDConnection("/dev/null");
+	instance.open(new ByteArrayInputStream((telegram + telegram).getBytes()), new ByteArrayOutputStream());
+	long captureErrors = instance.getMetrics().getCaptureErrors();
+	instance.setCapture(new CaptureWriter(new ByteArrayOutputStream(), "/dev/null") {
+
+	    @Override
+	    public synchronized void write(Direction direction, byte[] bytes, int offset, int length) throws IOException {
+		throw new IOException("disk full");
+	    }
+	});
+
+	Readout result = instance.readout();
+	Assert.assertEquals("00000504.9023619", result.getDataSets().get(1).getValue());
+	Assert.assertNull(instance.getCapture());
+	Assert.assertEquals("disk full", instance.getCaptureError().getMessage());
+	Assert.assertEquals(captureErrors + 1, instance.getMetrics().getCaptureErrors());
+	Assert.assertTrue(instance.readout().isComplete());
+	instance.close();
+    }
+
+    @Test
+    public void testReadoutWithFailingArchive() throws Exception {
+	String telegram = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "!\r\n";
+	ModeDConnection instance = new ModeDConnection("/dev/null");
+	instance.open(new ByteArrayInputStream((telegram + telegram).getBytes()), new ByteArrayOutputStream());
+	long archiveErrors = instance.getMetrics().getArchiveErrors();
+	try (TelegramArchive archive = new TelegramArchive(folder.newFolder()) {
+
+	    @Override
+	    public synchronized void append(String meter, long timestamp, byte[] telegram, int offset, int length) throws IOException {
+		throw new IOException("sync failed");
+	    }
+	}) {
+	    instance.setArchive(archive);
+
+	    Readout result = instance.readout();
+	    Assert.assertTrue(result.isComplete());
+	    Assert.assertEquals("00000504.9023619", result.getDataSets().get(1).getValue());
+	    Assert.assertNull(instance.getArchive());
+	    Assert.assertEquals("sync failed", instance.getArchiveError().getMessage());
+	    Assert.assertEquals(archiveErrors + 1, instance.getMetrics().getArchiveErrors());
+	    Assert.assertTrue(instance.readout().isComplete());
+	}
+	instance.close();
+    }
+
+    @Test
+    public void testFailingReadoutListener() throws Exception {
+	String telegram = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+		+ "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+		+ "!\r\n";
+	ModeDConnection instance = new ModeDConnection("/dev/null");
+	instance.open(new ByteArrayInputStream(telegram.getBytes()), new ByteArrayOutputStream());
+	final List<Readout> received = new ArrayList<>();
+	instance.addReadoutListener(new ReadoutListener() {
+
+	    @Override
+	    public void readoutReceived(String serialPortName, String deviceAddress, Readout readout) {
+		throw new IllegalStateException("listener failed");
+	    }
+	});
+	instance.addReadoutListener(new ReadoutListener() {
+
+	    @Override
+	    public void readoutReceived(String serialPortName, String deviceAddress, Readout readout) {
+		received.add(readout);
+	    }
+	});
+	long readouts = instance.getMetrics().getReadouts();
+	long failedReadouts = instance.getMetrics().getFailedReadouts();
+	long listenerErrors = instance.getMetrics().getListenerErrors();
+
+	Readout result = instance.readout();
+	Assert.assertTrue(result.isComplete());
+	Assert.assertEquals(1, received.size());
+	Assert.assertEquals("listener failed", instance.getListenerError().getMessage());
+	Assert.assertEquals(listenerErrors + 1, instance.getMetrics().getListenerErrors());
+	Assert.assertEquals(readouts + 1, instance.getMetrics().getReadouts());
+	Assert.assertEquals(failedReadouts, instance.getMetrics().getFailedReadouts());
+	instance.close();
+    }
+
+    private ModeDConnection createInterruptedInstance(final String readedBytes) {
+	return new ModeDConnection("/dev/null") {
+	    @Override
+	    protected byte[] readData(InputStream is, int readAtLeastBytes, byte[] readEnd, int timeout) throws IOException, MessageNotCompleteException {
+		byte[] buffer = new byte[INPUT_BUFFER_LENGTH];
+		byte[] bytes = readedBytes.getBytes(getCharset());
+		System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+		throw new MessageNotCompleteException(bytes.length, buffer, "Error while reading message");
+	    }
+
+	    @Override
+	    protected SerialPort getSerialPort() {
+		return Mockito.mock(SerialPort.class);
+	    }
+
+	};
+    }
+
     private ModeDConnection createInstance(final String readedBytes) {
 	return new ModeDConnection("/dev/null") {
 	    @Override
@@ -0,0 +1,58 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TelegramFramerTest {
+
+    private static final String TELEGRAM = "/ESY5Q3DA3024 V3.04\r\n\r\n"
+	    + "1-0:1.8.0*255(00000504.9023619*kWh)\r\n"
+	    + "!\r\n";
+
+    @Test
+    public void testBackToBack() {
+	String stream = "noise" + TELEGRAM + "\u0003X" + TELEGRAM + "/ESY5";
+	List<String> telegrams = frame(new TelegramFramer(1024), stream);
+	Assert.assertEquals(2, telegrams.size());
+	Assert.assertEquals(TELEGRAM, telegrams.get(0));
+	Assert.assertEquals(TELEGRAM, telegrams.get(1));
+    }
+
+    @Test
+    public void testSplitInChunks() {
+	TelegramFramer instance = new TelegramFramer(1024);
+	Assert.assertTrue(frame(instance, TELEGRAM.substring(0, 10)).isEmpty());
+	Assert.assertTrue(instance.isInTelegram());
+	List<String> telegrams = frame(instance, TELEGRAM.substring(10));
+	Assert.assertEquals(1, telegrams.size());
+	Assert.assertEquals(TELEGRAM, telegrams.get(0));
+	Assert.assertFalse(instance.isInTelegram());
+    }
+
+    @Test
+    public void testTooLong() {
+	TelegramFramer instance = new TelegramFramer(20);
+	List<String> telegrams = frame(instance, TELEGRAM + "/A!\r\n");
+	Assert.assertEquals(1, telegrams.size());
+	Assert.assertEquals("/A!\r\n", telegrams.get(0));
+	Assert.assertEquals(TELEGRAM.length(), instance.getDiscardedBytes());
+    }
+
+    private List<String> frame(TelegramFramer instance, String stream) {
+	List<String> result = new ArrayList<>();
+	for (byte b : stream.getBytes(AbstractConnection.getCharset())) {
+	    byte[] telegram = instance.add(b);
+	    if (null != telegram) {
+		result.add(new String(telegram, AbstractConnection.getCharset()));
+	    }
+	}
+	return result;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+	LatencyHistogram instance = new LatencyHistogram();
+	Assert.assertEquals(0, instance.getCount());
+	Assert.assertEquals(0, instance.getMeanMicros());
+	Assert.assertEquals(0, instance.getPercentileMicros(0.99));
+    }
+
+    @Test
+    public void testRecord() {
+	LatencyHistogram instance = new LatencyHistogram();
+	for (int i = 0; i < 99; i++) {
+	    instance.record(100000);
+	}
+	instance.record(5000000);
+	Assert.assertEquals(100, instance.getCount());
+	Assert.assertEquals(5000, instance.getMaxMicros());
+	Assert.assertEquals(149, instance.getMeanMicros());
+	long p50 = instance.getPercentileMicros(0.5);
+	Assert.assertTrue(p50 >= 100 && p50 <= 200);
+	Assert.assertEquals(5000, instance.getPercentileMicros(1.0));
+    }
+
+    @Test
+    public void testReset() {
+	LatencyHistogram instance = new LatencyHistogram();
+	instance.record(100000);
+	instance.reset();
+	Assert.assertEquals(0, instance.getCount());
+	Assert.assertEquals(0, instance.getMaxMicros());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.pool;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.impl.AbstractConnection;
+import org.openmuc.j62056.port.PortRegistry;
+
+public class ConnectionPoolTest {
+
+    private ConnectionPool instance;
+
+    private int staleBytes;
+
+    @Before
+    public void setUp() {
+	staleBytes = 0;
+	instance = new ConnectionPool(new ConnectionFactory() {
+
+	    @Override
+	    public AbstractConnection create(String serialPortName) {
+		return new FakeConnection(serialPortName);
+	    }
+	}, new PortRegistry());
+    }
+
+    @After
+    public void tearDown() {
+	instance.close();
+    }
+
+    @Test
+    public void testBorrowOpens() throws IOException {
+	AbstractConnection connection = instance.borrow("/dev/null");
+	Assert.assertTrue(connection.isOpen());
+	Assert.assertEquals(1, instance.getBorrowedCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testBorrowTwice() throws IOException {
+	instance.borrow("/dev/null");
+	instance.borrow("/dev/null");
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+	AbstractConnection connection = instance.borrow("/dev/null");
+	instance.release(connection);
+	Assert.assertEquals(1, instance.getIdleCount());
+	Assert.assertSame(connection, instance.borrow("/dev/null"));
+	Assert.assertEquals(0, instance.getIdleCount());
+    }
+
+    @Test
+    public void testStuckInput() throws IOException {
+	AbstractConnection connection = instance.borrow("/dev/null");
+	instance.release(connection);
+	staleBytes = instance.getMaxStaleBytes() + 10;
+	AbstractConnection other = instance.borrow("/dev/null");
+	Assert.assertNotSame(connection, other);
+	Assert.assertFalse(connection.isOpen());
+	Assert.assertTrue(other.isOpen());
+    }
+
+    @Test
+    public void testPortRemoved() throws IOException {
+	AbstractConnection connection = instance.borrow("/dev/j62056-not-existing");
+	instance.release(connection);
+	Assert.assertNotSame(connection, instance.borrow("/dev/j62056-not-existing"));
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+	AbstractConnection connection = instance.borrow("/dev/null");
+	instance.invalidate(connection);
+	Assert.assertFalse(connection.isOpen());
+	Assert.assertEquals(0, instance.getBorrowedCount());
+	Assert.assertEquals(0, instance.getIdleCount());
+    }
+
+    @Test
+    public void testEvictIdle() throws IOException {
+	instance.setIdleTimeout(1000);
+	AbstractConnection connection = instance.borrow("/dev/null");
+	instance.release(connection);
+	instance.evictIdle(System.currentTimeMillis());
+	Assert.assertEquals(1, instance.getIdleCount());
+	instance.evictIdle(System.currentTimeMillis() + 1000);
+	Assert.assertEquals(0, instance.getIdleCount());
+	Assert.assertFalse(connection.isOpen());
+    }
+
+    private class FakeConnection extends AbstractConnection {
+
+	private boolean open = false;
+
+	private FakeConnection(String serialPort) {
+	    super(serialPort);
+	}
+
+	@Override
+	public void open() throws IOException {
+	    open = true;
+	}
+
+	@Override
+	public void close() {
+	    open = false;
+	}
+
+	@Override
+	public boolean isOpen() {
+	    return open;
+	}
+
+	@Override
+	public int drainInput(int maxBytes) throws IOException {
+	    return Math.min(staleBytes, maxBytes);
+	}
+
+	@Override
+	public List<DataSet> read() throws IOException, TimeoutException {
+	    throw new UnsupportedOperationException("Not supported yet.");
+	}
+    }
+}
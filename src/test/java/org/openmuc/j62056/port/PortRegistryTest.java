@@ -0,0 +1,145 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.port;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PortRegistryTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static void awaitEvents(List<String> events, int count) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + 10000;
+	while ((events.size() < count) && (System.currentTimeMillis() < deadline)) {
+	    Thread.sleep(10);
+	}
+    }
+
+    @Test
+    public void testIsSerialDevice() {
+	Assert.assertTrue(PortRegistry.isSerialDevice("ttyUSB0"));
+	Assert.assertTrue(PortRegistry.isSerialDevice("ttyACM12"));
+	Assert.assertTrue(PortRegistry.isSerialDevice("ttyS1"));
+	Assert.assertFalse(PortRegistry.isSerialDevice("tty1"));
+	Assert.assertFalse(PortRegistry.isSerialDevice("sda"));
+    }
+
+    @Test
+    public void testIsAvailableNoDevicePath() {
+	PortRegistry instance = new PortRegistry();
+	Assert.assertFalse(instance.isAvailable("COM1"));
+    }
+
+    @Test
+    public void testIsAvailableCached() throws IOException {
+	File file = File.createTempFile("ttyUSB", null);
+	PortRegistry instance = new PortRegistry();
+	instance.setMaxAge(60000);
+	Assert.assertTrue(instance.isAvailable(file.getAbsolutePath()));
+	Assert.assertTrue(file.delete());
+	Assert.assertTrue(instance.isAvailable(file.getAbsolutePath()));
+	Assert.assertTrue(instance.getAvailablePorts().contains(file.getAbsolutePath()));
+    }
+
+    @Test
+    public void testIsAvailableRefreshed() throws IOException {
+	File file = File.createTempFile("ttyUSB", null);
+	PortRegistry instance = new PortRegistry();
+	instance.setMaxAge(0);
+	Assert.assertTrue(instance.isAvailable(file.getAbsolutePath()));
+	Assert.assertTrue(file.delete());
+	Assert.assertFalse(instance.isAvailable(file.getAbsolutePath()));
+	Assert.assertTrue(instance.getAvailablePorts().isEmpty());
+    }
+
+    @Test
+    public void testListener() throws IOException {
+	final List<String> events = new ArrayList<>();
+	File file = File.createTempFile("ttyUSB", null);
+	PortRegistry instance = new PortRegistry();
+	instance.setMaxAge(0);
+	instance.addPortListener(new PortListener() {
+
+	    @Override
+	    public void portAdded(String portName) {
+		events.add("+" + portName);
+	    }
+
+	    @Override
+	    public void portRemoved(String portName) {
+		events.add("-" + portName);
+	    }
+	});
+	Assert.assertTrue(instance.isAvailable(file.getAbsolutePath()));
+	Assert.assertTrue(instance.isAvailable(file.getAbsolutePath()));
+	Assert.assertTrue(file.delete());
+	Assert.assertFalse(instance.isAvailable(file.getAbsolutePath()));
+	Assert.assertEquals(Arrays.asList("+" + file.getAbsolutePath(), "-" + file.getAbsolutePath()), events);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenNotExisting() throws IOException {
+	PortRegistry instance = new PortRegistry();
+	instance.open("/dev/j62056-not-existing", "test", 0);
+    }
+
+    @Test
+    public void testWatching() throws IOException, InterruptedException {
+	final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+	Path dev = folder.getRoot().toPath();
+	Path byId = dev.resolve("serial").resolve("by-id");
+	PortRegistry instance = new PortRegistry(dev, byId);
+	instance.addPortListener(new PortListener() {
+
+	    @Override
+	    public void portAdded(String portName) {
+		events.add("+" + portName);
+	    }
+
+	    @Override
+	    public void portRemoved(String portName) {
+		events.add("-" + portName);
+	    }
+	});
+	instance.startWatching();
+	try {
+	    Assert.assertTrue(instance.isWatching());
+	    Path device = dev.resolve("ttyUSB0");
+	    Files.createFile(dev.resolve("sda"));
+	    Files.createFile(device);
+	    awaitEvents(events, 1);
+	    Assert.assertEquals(Arrays.asList("+" + device), events);
+	    Assert.assertTrue(instance.isAvailable(device.toString()));
+
+	    // the by-id directory is created with the first USB serial port
+	    Files.createDirectories(byId);
+	    Path link = byId.resolve("usb-FTDI_FT232R_USB_UART_A1-if00-port0");
+	    Files.createFile(link);
+	    awaitEvents(events, 2);
+	    Assert.assertEquals(Arrays.asList("+" + device, "+" + link), events);
+
+	    Files.delete(device);
+	    awaitEvents(events, 3);
+	    Assert.assertEquals(Arrays.asList("+" + device, "+" + link, "-" + device), events);
+	    Assert.assertFalse(instance.isAvailable(device.toString()));
+	} finally {
+	    instance.stopWatching();
+	}
+	Assert.assertFalse(instance.isWatching());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.profile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmuc.j62056.Connection;
+import org.openmuc.j62056.Readout;
+import org.openmuc.j62056.config.Mode;
+
+public class LinkProfileProberTest {
+
+    private static final String PORT = "/dev/ttyUSB0";
+    private static final String SIGN_ON_RESPONSE = "/ESY5Q3DA3024 V3.04\r\n";
+    private static final String DATA_MESSAGE = "\u00021.8.0(000123.4*kWh)\r\n!\r\n\u0003X";
+    private static final String TELEGRAM = "/ISK5\\2M550T-1012\r\n\r\n1-0:1.8.1(000123.456*kWh)\r\n!\r\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testProbeModeCWithEcho() throws IOException {
+	FakeMeter meter = new FakeMeter(300, "/?!\r\n" + SIGN_ON_RESPONSE + "\u0006050\r\n" + DATA_MESSAGE);
+	LinkProfile profile = meter.prober(null).probe(PORT);
+	Assert.assertEquals(Mode.C, profile.getMode());
+	Assert.assertTrue(profile.isEcho());
+	Assert.assertEquals(0, profile.getBaudRateChangeDelay());
+	Assert.assertEquals(1, meter.attempts.size());
+    }
+
+    @Test
+    public void testProbeLongerDelayAfterSignOn() throws IOException {
+	FakeMeter meter = new FakeMeter(300, SIGN_ON_RESPONSE + DATA_MESSAGE);
+	meter.signOnOnlyAttempts = 1;
+	LinkProfile profile = meter.prober(null).probe(PORT);
+	Assert.assertEquals(Mode.C, profile.getMode());
+	Assert.assertFalse(profile.isEcho());
+	Assert.assertEquals(250, profile.getBaudRateChangeDelay());
+	Assert.assertEquals(2, meter.attempts.size());
+    }
+
+    @Test
+    public void testProbeModeD() throws IOException {
+	FakeMeter meter = new FakeMeter(9600, TELEGRAM);
+	LinkProfile profile = meter.prober(null).probe(PORT);
+	Assert.assertEquals(Mode.D, profile.getMode());
+	Assert.assertEquals(9600, profile.getBaudRate());
+	// no delays are tried without a sign on
+	Assert.assertEquals(3, meter.attempts.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testProbeNoMeter() throws IOException {
+	new FakeMeter(1200, TELEGRAM).prober(null).probe(PORT);
+    }
+
+    @Test
+    public void testStoredProfile() throws IOException {
+	Path file = folder.getRoot().toPath().resolve("profiles.properties");
+	FakeMeter meter = new FakeMeter(9600, TELEGRAM);
+	Readout readout = meter.prober(new LinkProfileStore(file)).read(PORT);
+	Assert.assertEquals("\\2M550T-1012", readout.getIdentification());
+	Assert.assertEquals(3, meter.attempts.size());
+
+	LinkProfileStore store = new LinkProfileStore(file);
+	Assert.assertEquals("\\2M550T-1012", store.getIdentification(PORT));
+	Assert.assertEquals(9600, store.get(PORT).getBaudRate());
+	Assert.assertEquals(store.get(PORT), store.get(PORT, "\\2M550T-1012"));
+
+	meter.attempts.clear();
+	meter.prober(store).read(PORT);
+	Assert.assertEquals(1, meter.attempts.size());
+    }
+
+    @Test
+    public void testStoredProfileFails() throws IOException {
+	Path file = folder.getRoot().toPath().resolve("profiles.properties");
+	LinkProfileStore store = new LinkProfileStore(file);
+	store.put(PORT, "ISK5\\2M550T-1012", LinkProfile.defaults(Mode.D));
+	FakeMeter meter = new FakeMeter(300, SIGN_ON_RESPONSE + DATA_MESSAGE);
+	Readout readout = meter.prober(store).read(PORT);
+	Assert.assertEquals("Q3DA3024 V3.04", readout.getIdentification());
+	Assert.assertEquals(Mode.C, store.get(PORT).getMode());
+	Assert.assertEquals(2, meter.attempts.size());
+    }
+
+    /**
+     * Answers only at one baud rate.
+     */
+    private static class FakeMeter {
+
+	private final int baudRate;
+	private final String answer;
+	private int signOnOnlyAttempts = 0;
+	private final List<Integer> attempts = new ArrayList<>();
+
+	private FakeMeter(int baudRate, String answer) {
+	    this.baudRate = baudRate;
+	    this.answer = answer;
+	}
+
+	private LinkProfileProber prober(LinkProfileStore store) {
+	    LinkProfileProber prober = new LinkProfileProber(store) {
+
+		@Override
+		protected void open(Connection connection) throws IOException {
+		    attempts.add(connection.getBaudRate());
+		    String bytes = "";
+		    if (connection.getBaudRate() == baudRate) {
+			bytes = (signOnOnlyAttempts-- > 0) ? SIGN_ON_RESPONSE : answer;
+		    }
+		    connection.open(new ByteArrayInputStream(bytes.getBytes()), new ByteArrayOutputStream());
+		}
+	    };
+	    prober.setTimeout(200);
+	    return prober;
+	}
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.profile;
+
+import gnu.io.SerialPort;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.config.Mode;
+
+public class LinkProfileTest {
+
+    @Test
+    public void testToStringAndParse() {
+	LinkProfile profile = new LinkProfile(Mode.D, true, 250, 9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+	Assert.assertEquals("-m d -e -d 250 -br 9600 -db 8 -sb 1 -p none", profile.toString());
+	Assert.assertEquals(profile, LinkProfile.parse(profile.toString()));
+    }
+
+    @Test
+    public void testParseDefaults() {
+	Assert.assertEquals(LinkProfile.defaults(Mode.C), LinkProfile.parse("-m c"));
+	Assert.assertEquals(LinkProfile.defaults(Mode.D), LinkProfile.parse("-m D -d 0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidOption() {
+	LinkProfile.parse("-m c -x 1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMissingValue() {
+	LinkProfile.parse("-m");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedMode() {
+	LinkProfile.defaults(Mode.A);
+    }
+
+}
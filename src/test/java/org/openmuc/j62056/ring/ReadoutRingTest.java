@@ -0,0 +1,139 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.ring;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+public class ReadoutRingTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Readout readout(int energy) {
+	List<DataSet> dataSets = new ArrayList<>();
+	dataSets.add(new DataSet("ISK5\\2M550T-1012", null, null));
+	dataSets.add(new DataSet("1-0:1.8.1", String.format("%010d", energy), "kWh"));
+	dataSets.add(new DataSet("1-0:1.7.0", "00.193", "kW"));
+	return new Readout(dataSets, null, true, energy % 2 == 1);
+    }
+
+    @Test
+    public void testPublishAndRead() throws IOException {
+	File file = new File(folder.getRoot(), "readouts.ring");
+	try (ReadoutRingPublisher publisher = new ReadoutRingPublisher(file, 4096);
+		ReadoutRingReader reader = new ReadoutRingReader(file)) {
+	    Assert.assertNull(reader.poll());
+	    Assert.assertTrue(publisher.publish("/dev/ttyUSB0", "12345678", 1000L, readout(1)));
+	    Assert.assertTrue(publisher.publish("/dev/ttyUSB1", null, 2000L, readout(2)));
+
+	    RingRecord record = reader.poll();
+	    Assert.assertNotNull(record);
+	    Assert.assertEquals(0, record.getSequence());
+	    Assert.assertEquals(1000L, record.getTimestamp());
+	    Assert.assertEquals("/dev/ttyUSB0", record.getSerialPortName());
+	    Assert.assertEquals("12345678", record.getDeviceAddress());
+	    Assert.assertTrue(record.isComplete());
+	    Assert.assertTrue(record.isChangesOnly());
+	    Assert.assertEquals(3, record.getDataSetCount());
+	    List<DataSet> dataSets = record.getDataSets();
+	    Assert.assertEquals("1-0:1.8.1", dataSets.get(1).getId());
+	    Assert.assertEquals("0000000001", dataSets.get(1).getValue());
+	    Assert.assertEquals("kWh", dataSets.get(1).getUnit());
+	    Assert.assertTrue(record.isValid());
+
+	    record = reader.poll();
+	    Assert.assertNotNull(record);
+	    Assert.assertEquals(1, record.getSequence());
+	    Assert.assertEquals("", record.getDeviceAddress());
+	    Assert.assertFalse(record.toReadout().isChangesOnly());
+	    Assert.assertEquals("0000000002", record.toReadout().getDataSets().get(1).getValue());
+	    Assert.assertEquals(record.getPayload().remaining(), record.getPayload().capacity());
+	    Assert.assertNull(reader.poll());
+	}
+    }
+
+    @Test
+    public void testIndependentReaders() throws IOException {
+	File file = new File(folder.getRoot(), "readouts.ring");
+	try (ReadoutRingPublisher publisher = new ReadoutRingPublisher(file, 4096);
+		ReadoutRingReader first = new ReadoutRingReader(file)) {
+	    publisher.publish("/dev/ttyUSB0", null, 1000L, readout(1));
+	    try (ReadoutRingReader second = new ReadoutRingReader(file)) {
+		publisher.publish("/dev/ttyUSB0", null, 2000L, readout(2));
+		Assert.assertEquals(1000L, first.poll().getTimestamp());
+		Assert.assertEquals(2000L, second.poll().getTimestamp());
+		Assert.assertNull(second.poll());
+		Assert.assertEquals(2000L, first.poll().getTimestamp());
+		Assert.assertNull(first.poll());
+	    }
+	}
+    }
+
+    @Test
+    public void testWrapAround() throws IOException {
+	File file = new File(folder.getRoot(), "readouts.ring");
+	try (ReadoutRingPublisher publisher = new ReadoutRingPublisher(file, 1024);
+		ReadoutRingReader reader = new ReadoutRingReader(file)) {
+	    for (int i = 0; i < 100; i++) {
+		Assert.assertTrue(publisher.publish("/dev/ttyUSB0", null, i, readout(i)));
+		RingRecord record = reader.poll();
+		Assert.assertNotNull(record);
+		Assert.assertEquals(i, record.getSequence());
+		Assert.assertEquals(i, record.getTimestamp());
+		Assert.assertEquals(String.format("%010d", i), record.getDataSets().get(1).getValue());
+		Assert.assertTrue(record.isValid());
+	    }
+	    Assert.assertNull(reader.poll());
+	    Assert.assertTrue(reader.getPosition() > 1024);
+	    Assert.assertEquals(0, reader.getLostReadouts());
+	}
+    }
+
+    @Test
+    public void testLappedReader() throws IOException {
+	File file = new File(folder.getRoot(), "readouts.ring");
+	try (ReadoutRingPublisher publisher = new ReadoutRingPublisher(file, 1024);
+		ReadoutRingReader reader = new ReadoutRingReader(file)) {
+	    for (int i = 0; i < 100; i++) {
+		publisher.publish("/dev/ttyUSB0", null, i, readout(i));
+	    }
+	    Assert.assertNull(reader.poll());
+	    Assert.assertEquals(100, reader.getLostReadouts());
+	    publisher.publish("/dev/ttyUSB0", null, 100, readout(100));
+	    Assert.assertEquals(100L, reader.poll().getTimestamp());
+	}
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+	File file = new File(folder.getRoot(), "readouts.ring");
+	long position;
+	long sequence;
+	try (ReadoutRingPublisher publisher = new ReadoutRingPublisher(file, 4096);
+		ReadoutRingReader reader = new ReadoutRingReader(file)) {
+	    publisher.publish("/dev/ttyUSB0", null, 1000L, readout(1));
+	    reader.poll();
+	    position = reader.getPosition();
+	    sequence = reader.getSequence();
+	}
+	try (ReadoutRingPublisher publisher = new ReadoutRingPublisher(file, 4096);
+		ReadoutRingReader reader = new ReadoutRingReader(file)) {
+	    Assert.assertEquals(1, publisher.getSequence());
+	    publisher.publish("/dev/ttyUSB0", null, 2000L, readout(2));
+	    reader.seek(position, sequence);
+	    Assert.assertEquals(2000L, reader.poll().getTimestamp());
+	}
+    }
+}
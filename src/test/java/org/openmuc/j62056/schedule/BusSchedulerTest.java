@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.impl.AbstractConnection;
+
+public class BusSchedulerTest {
+
+    @Test
+    public void testReadAll() {
+	final List<String> requested = new ArrayList<>();
+	AbstractConnection connection = new AbstractConnection("/dev/null") {
+
+	    @Override
+	    public List<DataSet> read() throws IOException, TimeoutException {
+		throw new UnsupportedOperationException("Not supported yet.");
+	    }
+
+	    @Override
+	    public List<DataSet> read(String deviceAddress) throws IOException, TimeoutException {
+		requested.add(deviceAddress);
+		if ("2".equals(deviceAddress)) {
+		    throw new TimeoutException();
+		}
+		return Collections.singletonList(new DataSet("meter" + deviceAddress, "", ""));
+	    }
+	};
+	BusScheduler instance = new BusScheduler(connection, Arrays.asList("1", "2", "3"));
+	List<BusReadout> result = instance.readAll();
+
+	Assert.assertEquals(Arrays.asList("1", "2", "3"), requested);
+	Assert.assertEquals(3, result.size());
+	Assert.assertTrue(result.get(0).isSuccessful());
+	Assert.assertEquals("meter1", result.get(0).getDataSets().get(0).getId());
+	Assert.assertFalse(result.get(1).isSuccessful());
+	Assert.assertTrue(result.get(1).getError() instanceof TimeoutException);
+	Assert.assertEquals("3", result.get(2).getDeviceAddress());
+	Assert.assertTrue(result.get(2).isSuccessful());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+public class PollPlannerTest {
+
+    private static Readout readout(long clock, long energy) {
+	List<DataSet> dataSets = new ArrayList<>();
+	dataSets.add(new DataSet("ISK5\\2M550T-1012", "", ""));
+	dataSets.add(new DataSet("0-0:1.0.0", clock + "W", ""));
+	dataSets.add(new DataSet("1-0:1.8.1", Long.toString(energy), "kWh"));
+	return new Readout(dataSets, null);
+    }
+
+    @Test
+    public void testSolveFreshness() {
+	double x = PollPlanner.solveFreshness(0.9);
+	Assert.assertEquals(0.9, -Math.expm1(-x) / x, 1e-9);
+    }
+
+    @Test
+    public void testStretchAndShrink() {
+	PollPlanner planner = new PollPlanner(1000, 600000, 0.9);
+	Assert.assertEquals(1000, planner.getInterval("quiet"));
+	Assert.assertEquals(0, planner.getNextPoll("quiet"));
+	long time = 0;
+	for (int i = 0; i < 20; i++) {
+	    // only the clock changes
+	    planner.recordReadout("quiet", time, readout(time, 42));
+	    time += planner.getInterval("quiet");
+	}
+	Assert.assertEquals(600000, planner.getInterval("quiet"));
+	Assert.assertEquals(0, planner.getChangeRate("quiet"), 0);
+
+	time = 0;
+	for (int i = 0; i < 20; i++) {
+	    planner.recordReadout("busy", time, readout(time, i));
+	    time += 10000;
+	}
+	Assert.assertEquals(1000, planner.getInterval("busy"));
+	Assert.assertTrue(planner.getChangeRate("busy") > 0);
+    }
+
+    @Test
+    public void testSuffixedClockIgnored() {
+	PollPlanner planner = new PollPlanner(1000, 600000, 0.9);
+	long time = 0;
+	for (int i = 0; i < 20; i++) {
+	    List<DataSet> dataSets = new ArrayList<>();
+	    dataSets.add(new DataSet("ESY5Q3DA3024 V3.04", "", ""));
+	    dataSets.add(new DataSet("0-0:1.0.0*255", time + "W", ""));
+	    dataSets.add(new DataSet("1-0:1.8.0*255", "00000504.9023619", "kWh"));
+	    planner.recordReadout("meter", time, new Readout(dataSets, null));
+	    time += planner.getInterval("meter");
+	}
+	Assert.assertEquals(600000, planner.getInterval("meter"));
+	Assert.assertEquals("1-0:1.8.0", PollPlanner.withoutSuffix("1-0:1.8.0*255"));
+    }
+
+    @Test
+    public void testOccasionalChanges() {
+	PollPlanner planner = new PollPlanner(1000, 600000, 0.9);
+	long time = 0;
+	for (int i = 0; i < 50; i++) {
+	    // one change in four polls
+	    planner.recordReadout("meter", time, readout(time, i / 4));
+	    time += 10000;
+	}
+	long interval = planner.getInterval("meter");
+	Assert.assertTrue(interval > 1000);
+	Assert.assertTrue(interval < 10000);
+    }
+
+    @Test
+    public void testChangesOnlyAndDueMeters() {
+	PollPlanner planner = new PollPlanner(1000, 600000, 0.9);
+	List<DataSet> unchanged = new ArrayList<>();
+	unchanged.add(new DataSet("ISK5\\2M550T-1012", "", ""));
+	for (int i = 0; i < 20; i++) {
+	    planner.recordReadout("a", i * 1000L, new Readout(unchanged, null, true, true));
+	}
+	Assert.assertEquals(600000, planner.getInterval("a"));
+	planner.recordReadout("b", 0, readout(0, 1));
+	planner.recordReadout("b", 1000, new Readout(readout(1000, 2).getDataSets(), null, true, true));
+	Assert.assertTrue(planner.getChangeRate("b") > 0);
+	Assert.assertEquals(Arrays.asList("c", "b"), planner.getDueMeters(Arrays.asList("a", "b", "c"), 5000));
+    }
+}
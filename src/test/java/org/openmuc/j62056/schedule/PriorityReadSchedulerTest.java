@@ -0,0 +1,141 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.schedule;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.impl.AbstractConnection;
+
+public class PriorityReadSchedulerTest {
+
+    /**
+     * a connection which blocks the read of meter "block" until released.
+     */
+    private static class BlockingConnection extends AbstractConnection {
+
+	private final List<String> requested = new CopyOnWriteArrayList<>();
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	BlockingConnection() {
+	    super("/dev/null");
+	}
+
+	@Override
+	public List<DataSet> read() throws IOException, TimeoutException {
+	    throw new UnsupportedOperationException("Not supported yet.");
+	}
+
+	@Override
+	public List<DataSet> read(String deviceAddress) throws IOException, TimeoutException {
+	    requested.add(deviceAddress);
+	    if ("block".equals(deviceAddress)) {
+		started.countDown();
+		try {
+		    release.await();
+		} catch (InterruptedException e) {
+		    throw new IOException(e);
+		}
+	    }
+	    return Collections.singletonList(new DataSet("meter" + deviceAddress, "", ""));
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testPriorityOrder() throws Exception {
+	BlockingConnection connection = new BlockingConnection();
+	try (PriorityReadScheduler scheduler = new PriorityReadScheduler(connection)) {
+	    scheduler.setAgingInterval(60000);
+	    scheduler.submit("block", ReadPriority.BACKGROUND);
+	    connection.started.await();
+	    scheduler.submit("b1", ReadPriority.BACKGROUND);
+	    scheduler.submit("b2", ReadPriority.BACKGROUND);
+	    scheduler.submit("billing", ReadPriority.BILLING);
+	    Future<BusReadout> interactive = scheduler.submit("interactive", ReadPriority.INTERACTIVE);
+	    Assert.assertEquals(2, scheduler.getQueueLength(ReadPriority.BACKGROUND));
+	    connection.release.countDown();
+	    Assert.assertEquals("meterinteractive", interactive.get().getDataSets().get(0).getId());
+	    Assert.assertEquals("b3", scheduler.read("b3", ReadPriority.BACKGROUND).getDeviceAddress());
+	    Assert.assertEquals(Arrays.asList("block", "interactive", "billing", "b1", "b2", "b3"), connection.requested);
+	    Assert.assertEquals(1, scheduler.getCompletedReads(ReadPriority.INTERACTIVE));
+	    Assert.assertEquals(4, scheduler.getCompletedReads(ReadPriority.BACKGROUND));
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testAging() throws Exception {
+	BlockingConnection connection = new BlockingConnection();
+	try (PriorityReadScheduler scheduler = new PriorityReadScheduler(connection)) {
+	    scheduler.setAgingInterval(50);
+	    scheduler.submit("block", ReadPriority.INTERACTIVE);
+	    connection.started.await();
+	    Future<BusReadout> background = scheduler.submit("background", ReadPriority.BACKGROUND);
+	    Thread.sleep(150);
+	    scheduler.submit("interactive", ReadPriority.INTERACTIVE);
+	    connection.release.countDown();
+	    background.get();
+	    scheduler.read("last", ReadPriority.BACKGROUND);
+	    Assert.assertEquals(Arrays.asList("block", "background", "interactive", "last"), connection.requested);
+	    Assert.assertEquals(1, scheduler.getPromotedReads(ReadPriority.BACKGROUND));
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelAndClose() throws Exception {
+	BlockingConnection connection = new BlockingConnection();
+	PriorityReadScheduler scheduler = new PriorityReadScheduler(connection);
+	scheduler.submit("block", ReadPriority.BACKGROUND);
+	connection.started.await();
+	Future<BusReadout> cancelled = scheduler.submit("cancelled", ReadPriority.INTERACTIVE);
+	Assert.assertTrue(cancelled.cancel(false));
+	Future<BusReadout> pending = scheduler.submit("pending", ReadPriority.BILLING);
+	connection.release.countDown();
+	scheduler.read("read", ReadPriority.BACKGROUND);
+	Assert.assertFalse(connection.requested.contains("cancelled"));
+	Assert.assertTrue(connection.requested.contains("pending"));
+	scheduler.close();
+	Assert.assertTrue(pending.isDone());
+	try {
+	    scheduler.submit("closed", ReadPriority.INTERACTIVE);
+	    Assert.fail();
+	} catch (IllegalStateException e) {
+	    // expected
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testInterruptedWorkerClosesScheduler() throws Exception {
+	BlockingConnection connection = new BlockingConnection();
+	Set<Thread> before = Thread.getAllStackTraces().keySet();
+	PriorityReadScheduler scheduler = new PriorityReadScheduler(connection);
+	Thread worker = null;
+	for (Thread thread : Thread.getAllStackTraces().keySet()) {
+	    if (thread.getName().equals("j62056-scheduler-/dev/null") && !before.contains(thread)) {
+		worker = thread;
+	    }
+	}
+	Assert.assertNotNull(worker);
+	worker.interrupt();
+	worker.join();
+	try {
+	    scheduler.submit("lost", ReadPriority.INTERACTIVE);
+	    Assert.fail();
+	} catch (IllegalStateException e) {
+	    // expected, the request would never be read
+	}
+	Assert.assertFalse(connection.requested.contains("lost"));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.sink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+public class ReadoutSinkTest {
+
+    private static Readout readout() {
+	List<DataSet> dataSets = new ArrayList<>();
+	dataSets.add(new DataSet("ISK5\\2M550T-1012", "", ""));
+	dataSets.add(new DataSet("1-0:1.8.1", "000123.456", "kWh"));
+	dataSets.add(new DataSet("0-0:96.13.0", "say \"hi\"; ok", ""));
+	return new Readout(dataSets, null);
+    }
+
+    private static String format(ReadoutFormatter formatter, String deviceAddress) {
+	OutputBuffer buffer = new OutputBuffer(0);
+	formatter.format("/dev/ttyUSB0", deviceAddress, 1483891867000L, readout(), buffer);
+	ByteArrayOutputStream os = new ByteArrayOutputStream();
+	try {
+	    buffer.writeTo(os);
+	} catch (IOException e) {
+	    throw new AssertionError(e);
+	}
+	return new String(os.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testCsv() {
+	Assert.assertEquals("1483891867000;/dev/ttyUSB0;;ISK5\\2M550T-1012;1-0:1.8.1;000123.456;kWh\n"
+		+ "1483891867000;/dev/ttyUSB0;;ISK5\\2M550T-1012;0-0:96.13.0;\"say \"\"hi\"\"; ok\";\n",
+		format(new CsvFormatter(), null));
+    }
+
+    @Test
+    public void testJsonLines() {
+	Assert.assertEquals("{\"timestamp\":1483891867000,\"port\":\"/dev/ttyUSB0\",\"address\":\"42\","
+		+ "\"identification\":\"ISK5\\\\2M550T-1012\",\"complete\":true,\"dataSets\":["
+		+ "{\"id\":\"1-0:1.8.1\",\"value\":\"000123.456\",\"unit\":\"kWh\"},"
+		+ "{\"id\":\"0-0:96.13.0\",\"value\":\"say \\\"hi\\\"; ok\",\"unit\":\"\"}]}\n",
+		format(new JsonLinesFormatter(), "42"));
+    }
+
+    @Test
+    public void testInflux() {
+	Assert.assertEquals("meter,port=/dev/ttyUSB0,identification=ISK5\\2M550T-1012,id=1-0:1.8.1,unit=kWh value=000123.456 1483891867000000000\n"
+		+ "meter,port=/dev/ttyUSB0,identification=ISK5\\2M550T-1012,id=0-0:96.13.0 text=\"say \\\"hi\\\"; ok\" 1483891867000000000\n",
+		format(new InfluxLineFormatter(), null));
+	Assert.assertTrue(InfluxLineFormatter.isNumeric("-12.5"));
+	Assert.assertFalse(InfluxLineFormatter.isNumeric("."));
+	Assert.assertFalse(InfluxLineFormatter.isNumeric("170108161107W"));
+    }
+
+    @Test
+    public void testInfluxMixedReadout() {
+	List<DataSet> dataSets = new ArrayList<>();
+	dataSets.add(new DataSet("ESY5Q3DA3024 V3.04", "", ""));
+	dataSets.add(new DataSet("1-0:0.0.0*255", "1ESY1160142770", ""));
+	dataSets.add(new DataSet("1-0:1.8.0*255", "00000504.9023619", "kWh"));
+	OutputBuffer buffer = new OutputBuffer(0);
+	new InfluxLineFormatter().format("/dev/ttyUSB0", null, 0, new Readout(dataSets, null), buffer);
+	ByteArrayOutputStream os = new ByteArrayOutputStream();
+	try {
+	    buffer.writeTo(os);
+	} catch (IOException e) {
+	    throw new AssertionError(e);
+	}
+	String[] lines = new String(os.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+	Assert.assertEquals(2, lines.length);
+	// the serial number and the energy use fields of different names
+	Assert.assertTrue(lines[0].contains(" text=\"1ESY1160142770\" "));
+	Assert.assertFalse(lines[0].contains(" value="));
+	Assert.assertTrue(lines[1].contains(" value=00000504.9023619 "));
+	Assert.assertFalse(lines[1].contains(" text="));
+    }
+
+    @Test
+    public void testOutputBufferNumbers() throws IOException {
+	OutputBuffer buffer = new OutputBuffer(0);
+	buffer.append(0L).append(' ').append(-1234567890123L).append(' ').append(Long.MIN_VALUE);
+	ByteArrayOutputStream os = new ByteArrayOutputStream();
+	buffer.writeTo(os);
+	Assert.assertEquals("0 -1234567890123 -9223372036854775808", new String(os.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testBatching() throws IOException {
+	final List<Integer> writes = new ArrayList<>();
+	final ByteArrayOutputStream target = new ByteArrayOutputStream();
+	OutputStream os = new OutputStream() {
+
+	    @Override
+	    public void write(int b) {
+		target.write(b);
+	    }
+
+	    @Override
+	    public synchronized void write(byte[] b, int off, int len) {
+		writes.add(len);
+		target.write(b, off, len);
+	    }
+	};
+	ReadoutSink sink = new ReadoutSink(os, new CsvFormatter());
+	sink.setFlushInterval(60000);
+	for (int i = 0; i < 1000; i++) {
+	    Assert.assertTrue(sink.write("/dev/ttyUSB0", null, i, readout()));
+	}
+	sink.flush();
+	Assert.assertTrue(writes.size() < 10);
+	Assert.assertEquals(1000, sink.getReadouts());
+	Assert.assertEquals(target.size(), sink.getWrittenBytes());
+	sink.close();
+	Assert.assertFalse(sink.write("/dev/ttyUSB0", null, 0, readout()));
+	Assert.assertEquals(1, sink.getDiscardedReadouts());
+    }
+
+    @Test(timeout = 10000)
+    public void testFlushInterval() throws Exception {
+	final CountDownLatch written = new CountDownLatch(1);
+	OutputStream os = new OutputStream() {
+
+	    @Override
+	    public void write(int b) {
+		written.countDown();
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) {
+		written.countDown();
+	    }
+	};
+	try (ReadoutSink sink = new ReadoutSink(os, new JsonLinesFormatter())) {
+	    sink.setFlushInterval(50);
+	    sink.write("/dev/ttyUSB0", null, 0, readout());
+	    Assert.assertTrue(written.await(5, TimeUnit.SECONDS));
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testBackpressure() throws Exception {
+	final CountDownLatch release = new CountDownLatch(1);
+	OutputStream os = new OutputStream() {
+
+	    @Override
+	    public void write(int b) {
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) throws IOException {
+		try {
+		    release.await();
+		} catch (InterruptedException e) {
+		    throw new IOException(e);
+		}
+	    }
+	};
+	final ReadoutSink sink = new ReadoutSink(os, new CsvFormatter());
+	sink.setBatchSize(1);
+	sink.setCapacity(1);
+	Thread producer = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		for (int i = 0; i < 3; i++) {
+		    sink.write("/dev/ttyUSB0", null, i, readout());
+		}
+	    }
+	});
+	producer.start();
+	producer.join(300);
+	// the first readout is being written, it fills the capacity and blocks the second
+	Assert.assertTrue(producer.isAlive());
+	Assert.assertEquals(1, sink.getReadouts());
+	release.countDown();
+	producer.join();
+	sink.close();
+	Assert.assertEquals(3, sink.getReadouts());
+	Assert.assertTrue(sink.getBlockedTime() > 0);
+    }
+
+    @Test
+    public void testStreamFailure() {
+	OutputStream os = new OutputStream() {
+
+	    @Override
+	    public void write(int b) throws IOException {
+		throw new IOException("disk full");
+	    }
+	};
+	ReadoutSink sink = new ReadoutSink(os, new CsvFormatter());
+	sink.write("/dev/ttyUSB0", null, 0, readout());
+	try {
+	    sink.flush();
+	    Assert.fail();
+	} catch (IOException e) {
+	    Assert.assertEquals("disk full", e.getMessage());
+	}
+	Assert.assertFalse(sink.write("/dev/ttyUSB0", null, 0, readout()));
+	try {
+	    sink.close();
+	    Assert.fail();
+	} catch (IOException e) {
+	    Assert.assertEquals("disk full", e.getMessage());
+	}
+    }
+}
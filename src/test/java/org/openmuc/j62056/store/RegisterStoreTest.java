@@ -0,0 +1,88 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.openmuc.j62056.store;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmuc.j62056.DataSet;
+import org.openmuc.j62056.Readout;
+
+public class RegisterStoreTest {
+
+    @Test
+    public void testReadoutReceived() {
+	RegisterStore instance = new RegisterStore(10);
+	Readout readout = new Readout(Arrays.asList(
+		new DataSet("Q3DA3024 V3.04", "", ""),
+		new DataSet("1-0:0.0.0*255", "1ESY1160142770", ""),
+		new DataSet("1-0:1.8.0*255", "00000504.9023619", "kWh"),
+		new DataSet("1-0:21.7.0*255", "-000115.94", "W")), Collections.<String>emptyList());
+	instance.readoutReceived("/dev/ttyUSB0", null, readout);
+
+	Assert.assertEquals(2, instance.size());
+	RegisterValue value = new RegisterValue();
+	Assert.assertFalse(instance.read("/dev/ttyUSB0", "1-0:0.0.0*255", value));
+	Assert.assertTrue(instance.read("/dev/ttyUSB0", "1-0:1.8.0*255", value));
+	Assert.assertEquals(new BigDecimal("504.9023619"), value.getDecimalValue());
+	Assert.assertEquals(1, value.getVersion());
+	Assert.assertTrue(instance.read("/dev/ttyUSB0", "1-0:21.7.0*255", value));
+	Assert.assertEquals(-115.94, value.getValue(), 1e-9);
+	Assert.assertFalse(instance.read(Readout.meterKey("/dev/ttyUSB0", "1234"), "1-0:21.7.0*255", value));
+    }
+
+    @Test
+    public void testUpdate() {
+	RegisterStore instance = new RegisterStore(10);
+	Assert.assertTrue(instance.update("meter", "1.8.0", "0001.5", 1000));
+	Assert.assertTrue(instance.update("meter", "1.8.0", "0002.25", 2000));
+	Assert.assertFalse(instance.update("meter", "1.8.0", "12345678901234567890", 3000));
+	Assert.assertFalse(instance.update("meter", "1.8.0", "-", 3000));
+	Assert.assertFalse(instance.update("meter", "1.8.0", "1.2.3", 3000));
+
+	RegisterValue value = new RegisterValue();
+	Assert.assertTrue(instance.read(instance.slot("meter", "1.8.0"), value));
+	Assert.assertEquals(225, value.getUnscaledValue());
+	Assert.assertEquals(2, value.getScale());
+	Assert.assertEquals(2000, value.getTimestamp());
+	Assert.assertEquals(2, value.getVersion());
+    }
+
+    @Test
+    public void testFull() {
+	RegisterStore instance = new RegisterStore(1);
+	Assert.assertTrue(instance.update("meter", "1.8.0", "1", 1000));
+	Assert.assertFalse(instance.update("meter", "2.8.0", "1", 1000));
+	Assert.assertEquals(1, instance.getDroppedRegisters());
+	Assert.assertEquals(-1, instance.slot("meter", "2.8.0"));
+    }
+
+    @Test(timeout = 10000)
+    public void testConsistentSnapshots() throws Exception {
+	final RegisterStore instance = new RegisterStore(1);
+	instance.update("meter", "1.8.0", "0", 0);
+	Thread writer = new Thread(new Runnable() {
+
+	    @Override
+	    public void run() {
+		// value and timestamp are always written together
+		for (int i = 1; i <= 20000; i++) {
+		    instance.update("meter", "1.8.0", String.valueOf(i), i);
+		}
+	    }
+	});
+	writer.start();
+	RegisterValue value = new RegisterValue();
+	int slot = instance.slot("meter", "1.8.0");
+	do {
+	    Assert.assertTrue(instance.read(slot, value));
+	    Assert.assertEquals(value.getTimestamp(), value.getUnscaledValue());
+	} while (value.getUnscaledValue() < 20000);
+	writer.join();
+    }
+}